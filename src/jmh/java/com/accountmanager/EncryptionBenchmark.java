@@ -0,0 +1,88 @@
+package com.accountmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AES-GCM encrypt/decrypt cost per call, from credential-sized values up to large payloads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncryptionBenchmark
+{
+	@Param({"16", "256", "4096", "65536"})
+	public int payloadSize;
+
+	private EncryptionService encryptionService;
+	private String plaintext;
+	private String ciphertext;
+	private SecretBuffer secret;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		// Key derivation is measured separately in KeyDerivationBenchmark
+		encryptionService = new EncryptionService("benchmarkPassword", EncryptionService.generateSalt());
+
+		char[] chars = new char[payloadSize];
+		for (int i = 0; i < chars.length; i++)
+		{
+			chars[i] = (char) ('a' + i % 26);
+		}
+		plaintext = new String(chars);
+		secret = SecretBuffer.of(chars);
+		Arrays.fill(chars, '\0');
+		ciphertext = encryptionService.encrypt(plaintext);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		secret.close();
+	}
+
+	@Benchmark
+	public String encryptString()
+	{
+		return encryptionService.encrypt(plaintext);
+	}
+
+	@Benchmark
+	public String encryptSecretBuffer()
+	{
+		return encryptionService.encrypt(secret);
+	}
+
+	@Benchmark
+	public String decryptString()
+	{
+		return encryptionService.decrypt(ciphertext);
+	}
+
+	@Benchmark
+	public int decryptSecretBuffer()
+	{
+		try (SecretBuffer decrypted = encryptionService.decryptSecret(ciphertext))
+		{
+			return decrypted.length();
+		}
+	}
+}
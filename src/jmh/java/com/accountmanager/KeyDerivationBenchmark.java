@@ -0,0 +1,40 @@
+package com.accountmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of deriving the vault key from the master password, i.e. the fixed part of every unlock.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyDerivationBenchmark
+{
+	private String salt;
+
+	@Setup
+	public void setUp()
+	{
+		salt = EncryptionService.generateSalt();
+	}
+
+	@Benchmark
+	public EncryptionService deriveKey()
+	{
+		return new EncryptionService("benchmarkPassword".toCharArray(), salt);
+	}
+}
@@ -0,0 +1,43 @@
+package com.accountmanager;
+
+import net.runelite.client.ui.NavigationButton;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything startUp does besides registering the button: create the empty panel and its
+ * navigation button. The vaults, the session broker and the breach corpus are only opened once
+ * the panel is shown, so this should not grow with the vault or with what is configured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class PanelStartupBenchmark
+{
+	private AccountManagerPlugin plugin;
+
+	@Setup
+	public void setUp()
+	{
+		plugin = new AccountManagerPlugin();
+	}
+
+	@Benchmark
+	public NavigationButton startUp()
+	{
+		return plugin.buildNavigation();
+	}
+}
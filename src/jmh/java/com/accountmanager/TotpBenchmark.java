@@ -0,0 +1,57 @@
+package com.accountmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of generating one TOTP code from each of the secret representations the plugin uses.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TotpBenchmark
+{
+	private static final String SECRET = "JBSWY3DPEHPK3PXPJBSWY3DPEHPK3PXP";
+
+	private TotpService totpService;
+	private SecretBuffer secretBuffer;
+
+	@Setup
+	public void setUp()
+	{
+		totpService = new TotpService();
+		secretBuffer = SecretBuffer.of(SECRET.toCharArray());
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		secretBuffer.close();
+	}
+
+	@Benchmark
+	public String generateFromString()
+	{
+		return totpService.generateCode(SECRET);
+	}
+
+	@Benchmark
+	public String generateFromSecretBuffer()
+	{
+		return totpService.generateCode(secretBuffer);
+	}
+}
@@ -0,0 +1,83 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vault load and save through Gson, i.e. what {@code loadAccounts} and {@code saveAccounts}
+ * spend outside of the config store. Encrypted fields are random Base64 of realistic length.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VaultCodecBenchmark
+{
+	// IV + GCM tag + a typical credential
+	private static final int CIPHERTEXT_BYTES = 12 + 16 + 24;
+
+	@Param({"10", "100", "1000", "10000", "100000"})
+	public int accountCount;
+
+	private VaultCodec codec;
+	private List<Account> accounts;
+	private String json;
+
+	@Setup
+	public void setUp()
+	{
+		codec = new VaultCodec(new Gson());
+
+		Random random = new Random(accountCount);
+		accounts = new ArrayList<>(accountCount);
+		for (int i = 0; i < accountCount; i++)
+		{
+			accounts.add(new Account(
+				UUID.randomUUID().toString(),
+				"Account " + i,
+				randomCiphertext(random),
+				randomCiphertext(random),
+				i % 2 == 0 ? randomCiphertext(random) : null,
+				null, i + 1, 1, null, false));
+		}
+		json = codec.encode(accounts);
+	}
+
+	@Benchmark
+	public String save()
+	{
+		return codec.encode(accounts);
+	}
+
+	@Benchmark
+	public List<Account> load()
+	{
+		return codec.decode(json);
+	}
+
+	private static String randomCiphertext(Random random)
+	{
+		byte[] bytes = new byte[CIPHERTEXT_BYTES];
+		random.nextBytes(bytes);
+		return Base64.getEncoder().encodeToString(bytes);
+	}
+}
@@ -14,6 +14,15 @@ public class Account
 	private String encryptedUsername;
 	private String encryptedPassword;
 	private String encryptedTotpSecret;
+	// Extra fields, or null if there are none
+	private AccountFields fields;
+	// Lamport clock when the account was added, which orders the account list
+	private long created;
+	// Lamport clock of the last change, ordered together with the device that made it
+	private long version;
+	private String device;
+	// Deleted accounts are kept without their data, so a copy that still has them cannot bring them back
+	private boolean deleted;
 
 	public boolean hasTotpSecret()
 	{
@@ -13,12 +13,14 @@ class AccountEntryPanel extends JPanel
 {
 	private final AccountManagerPlugin plugin;
 	private final AccountManagerPanel parentPanel;
+	private final Vault vault;
 	private final Account account;
 
-	AccountEntryPanel(AccountManagerPlugin plugin, AccountManagerPanel parentPanel, Account account)
+	AccountEntryPanel(AccountManagerPlugin plugin, AccountManagerPanel parentPanel, Vault vault, Account account)
 	{
 		this.plugin = plugin;
 		this.parentPanel = parentPanel;
+		this.vault = vault;
 		this.account = account;
 
 		setLayout(new BorderLayout());
@@ -35,7 +37,7 @@ class AccountEntryPanel extends JPanel
 
 		if (account.hasTotpSecret())
 		{
-			JLabel totpLabel = new JLabel(Icons.TOTP_ICON);
+			JLabel totpLabel = new JLabel(Icons.TOTP.icon());
 			totpLabel.setToolTipText("Has 2FA configured");
 			totpLabel.setBorder(new EmptyBorder(0, 5, 0, 0));
 			infoPanel.add(totpLabel, BorderLayout.EAST);
@@ -44,7 +46,7 @@ class AccountEntryPanel extends JPanel
 		JPanel actionsPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
 		actionsPanel.setBackground(ColorScheme.DARKER_GRAY_COLOR);
 
-		JLabel loginLabel = new JLabel(Icons.LOGIN_ICON);
+		JLabel loginLabel = new JLabel(Icons.LOGIN.icon());
 		loginLabel.setToolTipText("Fill credentials");
 		loginLabel.setCursor(new Cursor(Cursor.HAND_CURSOR));
 		loginLabel.addMouseListener(new MouseAdapter()
@@ -52,23 +54,24 @@ class AccountEntryPanel extends JPanel
 			@Override
 			public void mousePressed(MouseEvent e)
 			{
-				plugin.fillCredentials(account);
+				plugin.fillCredentials(vault, account);
 			}
 
 			@Override
 			public void mouseEntered(MouseEvent e)
 			{
-				loginLabel.setIcon(Icons.LOGIN_HOVER_ICON);
+				loginLabel.setIcon(Icons.LOGIN.hoverIcon());
+				plugin.prefetchCredentials(vault, account);
 			}
 
 			@Override
 			public void mouseExited(MouseEvent e)
 			{
-				loginLabel.setIcon(Icons.LOGIN_ICON);
+				loginLabel.setIcon(Icons.LOGIN.icon());
 			}
 		});
 
-		JLabel editLabel = new JLabel(Icons.EDIT_ICON);
+		JLabel editLabel = new JLabel(Icons.EDIT.icon());
 		editLabel.setToolTipText("Edit account");
 		editLabel.setCursor(new Cursor(Cursor.HAND_CURSOR));
 		editLabel.addMouseListener(new MouseAdapter()
@@ -76,23 +79,23 @@ class AccountEntryPanel extends JPanel
 			@Override
 			public void mousePressed(MouseEvent e)
 			{
-				parentPanel.openAddAccountDialog(account);
+				parentPanel.openAddAccountDialog(vault, account);
 			}
 
 			@Override
 			public void mouseEntered(MouseEvent e)
 			{
-				editLabel.setIcon(Icons.EDIT_HOVER_ICON);
+				editLabel.setIcon(Icons.EDIT.hoverIcon());
 			}
 
 			@Override
 			public void mouseExited(MouseEvent e)
 			{
-				editLabel.setIcon(Icons.EDIT_ICON);
+				editLabel.setIcon(Icons.EDIT.icon());
 			}
 		});
 
-		JLabel deleteLabel = new JLabel(Icons.DELETE_ICON);
+		JLabel deleteLabel = new JLabel(Icons.DELETE.icon());
 		deleteLabel.setToolTipText("Delete account");
 		deleteLabel.setCursor(new Cursor(Cursor.HAND_CURSOR));
 		deleteLabel.addMouseListener(new MouseAdapter()
@@ -108,7 +111,7 @@ class AccountEntryPanel extends JPanel
 				);
 				if (confirm == JOptionPane.YES_OPTION)
 				{
-					plugin.deleteAccount(account);
+					plugin.deleteAccount(vault, account);
 					parentPanel.rebuild();
 				}
 			}
@@ -116,13 +119,13 @@ class AccountEntryPanel extends JPanel
 			@Override
 			public void mouseEntered(MouseEvent e)
 			{
-				deleteLabel.setIcon(Icons.DELETE_HOVER_ICON);
+				deleteLabel.setIcon(Icons.DELETE.hoverIcon());
 			}
 
 			@Override
 			public void mouseExited(MouseEvent e)
 			{
-				deleteLabel.setIcon(Icons.DELETE_ICON);
+				deleteLabel.setIcon(Icons.DELETE.icon());
 			}
 		});
 
@@ -130,7 +133,25 @@ class AccountEntryPanel extends JPanel
 		actionsPanel.add(editLabel);
 		actionsPanel.add(deleteLabel);
 
+		JPopupMenu menu = new JPopupMenu();
+		JMenuItem attachments = new JMenuItem("Attachments...");
+		attachments.setToolTipText("Files kept encrypted with this account, e.g. recovery codes");
+		attachments.addActionListener(e -> parentPanel.openAttachmentsDialog(vault, account));
+		menu.add(attachments);
+		JMenuItem history = new JMenuItem("History...");
+		history.setToolTipText("Earlier passwords and TOTP secrets of this account");
+		history.addActionListener(e -> parentPanel.openHistoryDialog(vault, account));
+		menu.add(history);
+		setComponentPopupMenu(menu);
+		infoPanel.setInheritsPopupMenu(true);
+		nicknameLabel.setInheritsPopupMenu(true);
+
 		add(infoPanel, BorderLayout.CENTER);
 		add(actionsPanel, BorderLayout.EAST);
 	}
+
+	String getAccountId()
+	{
+		return account.getId();
+	}
 }
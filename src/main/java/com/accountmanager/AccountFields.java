@@ -0,0 +1,322 @@
+package com.accountmanager;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * The extra fields of an account, e.g. an email address or a bank PIN, each encrypted on its
+ * own so one can be shown without decrypting the others. Nothing is decrypted on unlock.
+ * <p>
+ * Immutable: changes return a copy, like {@link Account} records are replaced rather than
+ * edited in the vault. Names are interned, since most accounts use the same few, and fields
+ * are kept in parallel arrays and stored as {@code [name, type, value]} triples. A type id this
+ * version does not know is kept as it was read and stored again unchanged. An account without
+ * extra fields has none of this: its {@code fields} is null and not stored at all.
+ */
+@JsonAdapter(AccountFields.Adapter.class)
+public final class AccountFields
+{
+	private static final ConcurrentMap<String, String> NAMES = new ConcurrentHashMap<>();
+
+	private final String[] names;
+	// The stored ids rather than Types, so one added in a later version survives a save
+	private final String[] typeIds;
+	private final String[] encryptedValues;
+
+	private AccountFields(String[] names, String[] typeIds, String[] encryptedValues)
+	{
+		this.names = names;
+		this.typeIds = typeIds;
+		this.encryptedValues = encryptedValues;
+	}
+
+	/**
+	 * @return the fields with one added, or replaced if it has the same name
+	 */
+	static AccountFields with(AccountFields fields, String name, Type type, String encryptedValue)
+	{
+		if (name == null || name.trim().isEmpty())
+		{
+			throw new IllegalArgumentException("Field name is required");
+		}
+
+		String interned = intern(name.trim());
+		if (fields == null)
+		{
+			return new AccountFields(new String[]{interned}, new String[]{type.id}, new String[]{encryptedValue});
+		}
+
+		int index = fields.indexOf(interned);
+		int size = index < 0 ? fields.size() + 1 : fields.size();
+		String[] names = Arrays.copyOf(fields.names, size);
+		String[] typeIds = Arrays.copyOf(fields.typeIds, size);
+		String[] values = Arrays.copyOf(fields.encryptedValues, size);
+		int position = index < 0 ? size - 1 : index;
+		names[position] = interned;
+		typeIds[position] = type.id;
+		values[position] = encryptedValue;
+		return new AccountFields(names, typeIds, values);
+	}
+
+	/**
+	 * @return the fields without the named one, or null if there are none left
+	 */
+	static AccountFields without(AccountFields fields, String name)
+	{
+		int index = fields == null ? -1 : fields.indexOf(name);
+		if (index < 0)
+		{
+			return fields;
+		}
+		if (fields.size() == 1)
+		{
+			return null;
+		}
+
+		String[] names = new String[fields.size() - 1];
+		String[] typeIds = new String[names.length];
+		String[] values = new String[names.length];
+		for (int from = 0, to = 0; from < fields.size(); from++)
+		{
+			if (from != index)
+			{
+				names[to] = fields.names[from];
+				typeIds[to] = fields.typeIds[from];
+				values[to++] = fields.encryptedValues[from];
+			}
+		}
+		return new AccountFields(names, typeIds, values);
+	}
+
+	/**
+	 * @return a copy with every value passed through {@code transform}, e.g. to re-encrypt them
+	 */
+	AccountFields mapValues(UnaryOperator<String> transform)
+	{
+		String[] values = new String[encryptedValues.length];
+		for (int i = 0; i < values.length; i++)
+		{
+			values[i] = transform.apply(encryptedValues[i]);
+		}
+		return new AccountFields(names, typeIds, values);
+	}
+
+	static String intern(String name)
+	{
+		String existing = NAMES.putIfAbsent(name, name);
+		return existing != null ? existing : name;
+	}
+
+	public int size()
+	{
+		return names.length;
+	}
+
+	/**
+	 * @return the field names, in the order they were added
+	 */
+	public List<String> names()
+	{
+		return Collections.unmodifiableList(Arrays.asList(names));
+	}
+
+	public boolean has(String name)
+	{
+		return indexOf(name) >= 0;
+	}
+
+	/**
+	 * @return the field's type, {@link Type#TEXT} for one added in a later version, or null if
+	 * there is no such field
+	 */
+	public Type type(String name)
+	{
+		int index = indexOf(name);
+		return index < 0 ? null : Type.fromId(typeIds[index]);
+	}
+
+	/**
+	 * @return the field's encrypted value, or null if there is no such field
+	 */
+	public String encryptedValue(String name)
+	{
+		int index = indexOf(name);
+		return index < 0 ? null : encryptedValues[index];
+	}
+
+	private int indexOf(String name)
+	{
+		for (int i = 0; i < names.length; i++)
+		{
+			if (names[i].equals(name))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+		{
+			return true;
+		}
+		if (!(o instanceof AccountFields))
+		{
+			return false;
+		}
+		AccountFields other = (AccountFields) o;
+		return Arrays.equals(names, other.names) && Arrays.equals(typeIds, other.typeIds)
+			&& Arrays.equals(encryptedValues, other.encryptedValues);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return 31 * (31 * Arrays.hashCode(names) + Arrays.hashCode(typeIds)) + Arrays.hashCode(encryptedValues);
+	}
+
+	/**
+	 * What a field holds, which decides how it is shown and checked.
+	 */
+	public enum Type
+	{
+		TEXT("text", false, null),
+		EMAIL("email", false, Pattern.compile("[^@\\s]+@[^@\\s]+")),
+		PIN("pin", true, Pattern.compile("\\d{4,8}")),
+		WORLD("world", false, Pattern.compile("\\d{1,3}")),
+		NOTE("note", false, null),
+		SECRET("secret", true, null);
+
+		@Getter
+		private final String id;
+		/**
+		 * Masked until shown, like the password.
+		 */
+		@Getter
+		private final boolean secret;
+		private final Pattern format;
+
+		Type(String id, boolean secret, Pattern format)
+		{
+			this.id = id;
+			this.secret = secret;
+			this.format = format;
+		}
+
+		/**
+		 * @return the type with this id, or {@link #TEXT} for one added in a later version
+		 */
+		static Type fromId(String id)
+		{
+			Type type = find(id);
+			return type != null ? type : TEXT;
+		}
+
+		/**
+		 * @return the type with this id, or null if it is not known to this version
+		 */
+		static Type find(String id)
+		{
+			for (Type type : values())
+			{
+				if (type.id.equals(id))
+				{
+					return type;
+				}
+			}
+			return null;
+		}
+
+		boolean isValid(CharSequence value)
+		{
+			return format == null || format.matcher(value).matches();
+		}
+
+		@Override
+		public String toString()
+		{
+			return name().charAt(0) + name().substring(1).toLowerCase(Locale.ROOT);
+		}
+	}
+
+	static final class Adapter extends TypeAdapter<AccountFields>
+	{
+		@Override
+		public void write(JsonWriter out, AccountFields fields) throws IOException
+		{
+			if (fields == null)
+			{
+				out.nullValue();
+				return;
+			}
+
+			out.beginArray();
+			for (int i = 0; i < fields.size(); i++)
+			{
+				out.beginArray();
+				out.value(fields.names[i]);
+				out.value(fields.typeIds[i]);
+				out.value(fields.encryptedValues[i]);
+				out.endArray();
+			}
+			out.endArray();
+		}
+
+		@Override
+		public AccountFields read(JsonReader in) throws IOException
+		{
+			if (in.peek() == JsonToken.NULL)
+			{
+				in.nextNull();
+				return null;
+			}
+
+			List<String> names = new ArrayList<>();
+			List<String> typeIds = new ArrayList<>();
+			List<String> values = new ArrayList<>();
+			in.beginArray();
+			while (in.hasNext())
+			{
+				in.beginArray();
+				names.add(intern(in.nextString()));
+				typeIds.add(typeId(in.nextString()));
+				values.add(in.nextString());
+				in.endArray();
+			}
+			in.endArray();
+
+			if (names.isEmpty())
+			{
+				return null;
+			}
+			return new AccountFields(names.toArray(new String[0]), typeIds.toArray(new String[0]), values.toArray(new String[0]));
+		}
+
+		/**
+		 * @return the known type's own id, so every account shares it, or the unknown one interned
+		 */
+		private static String typeId(String id)
+		{
+			Type type = Type.find(id);
+			return type != null ? type.id : intern(id);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package com.accountmanager;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * The earlier passwords and TOTP secrets of one account, still encrypted. Each edit is kept as
+ * a reverse delta holding only the values it replaced, newest first, so every earlier version
+ * is the current record with the deltas up to it applied, and the oldest can be dropped
+ * without touching the others.
+ * <p>
+ * Stored under a key of its own per account rather than in the accounts value, so unlocking
+ * and saving cost the same however long the history is. It is read when the password or TOTP
+ * secret changes and when the history is shown. Immutable, like {@link AccountFields}.
+ */
+final class AccountHistory
+{
+	static final int MAX_VERSIONS = 10;
+	static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(180);
+
+	// Replaced by a TOTP secret where there was none, as null means the edit kept it
+	private static final String NO_TOTP = "";
+
+	static final AccountHistory EMPTY = new AccountHistory(Collections.emptyList());
+
+	private final List<Delta> deltas;
+
+	AccountHistory(List<Delta> deltas)
+	{
+		this.deltas = deltas;
+	}
+
+	/**
+	 * @return the history with the values {@code updated} replaces in {@code previous} added,
+	 * or this one if it keeps both the password and the TOTP secret
+	 */
+	AccountHistory record(Account previous, Account updated, long now)
+	{
+		String password = Objects.equals(previous.getEncryptedPassword(), updated.getEncryptedPassword())
+			? null
+			: previous.getEncryptedPassword();
+		String totpSecret = Objects.equals(totpOrNone(previous), totpOrNone(updated))
+			? null
+			: totpOrNone(previous);
+		if (password == null && totpSecret == null)
+		{
+			return this;
+		}
+
+		List<Delta> recorded = new ArrayList<>(deltas.size() + 1);
+		recorded.add(new Delta(now, password, totpSecret));
+		recorded.addAll(deltas);
+		return new AccountHistory(recorded);
+	}
+
+	/**
+	 * @return the history without the versions past {@link #MAX_VERSIONS} or replaced longer
+	 * than {@link #MAX_AGE_MILLIS} ago
+	 */
+	AccountHistory prune(long now)
+	{
+		int keep = 0;
+		while (keep < deltas.size() && keep < MAX_VERSIONS && now - deltas.get(keep).time <= MAX_AGE_MILLIS)
+		{
+			keep++;
+		}
+		return keep == deltas.size() ? this : new AccountHistory(new ArrayList<>(deltas.subList(0, keep)));
+	}
+
+	/**
+	 * @return every earlier version, newest first, rebuilt from the current record
+	 */
+	List<Version> versions(Account current)
+	{
+		List<Version> versions = new ArrayList<>(deltas.size());
+		String password = current.getEncryptedPassword();
+		String totpSecret = current.getEncryptedTotpSecret();
+		for (Delta delta : deltas)
+		{
+			if (delta.encryptedPassword != null)
+			{
+				password = delta.encryptedPassword;
+			}
+			if (delta.encryptedTotpSecret != null)
+			{
+				totpSecret = delta.encryptedTotpSecret.equals(NO_TOTP) ? null : delta.encryptedTotpSecret;
+			}
+			versions.add(new Version(delta.time, password, totpSecret,
+				delta.encryptedPassword != null, delta.encryptedTotpSecret != null));
+		}
+		return versions;
+	}
+
+	/**
+	 * @return a copy with every value passed through {@code transform}, e.g. to re-encrypt them
+	 */
+	AccountHistory mapValues(UnaryOperator<String> transform)
+	{
+		List<Delta> mapped = new ArrayList<>(deltas.size());
+		for (Delta delta : deltas)
+		{
+			mapped.add(new Delta(delta.time,
+				delta.encryptedPassword == null ? null : transform.apply(delta.encryptedPassword),
+				delta.encryptedTotpSecret == null || delta.encryptedTotpSecret.equals(NO_TOTP)
+					? delta.encryptedTotpSecret
+					: transform.apply(delta.encryptedTotpSecret)));
+		}
+		return new AccountHistory(mapped);
+	}
+
+	boolean isEmpty()
+	{
+		return deltas.isEmpty();
+	}
+
+	int size()
+	{
+		return deltas.size();
+	}
+
+	List<Delta> deltas()
+	{
+		return Collections.unmodifiableList(deltas);
+	}
+
+	private static String totpOrNone(Account account)
+	{
+		return account.hasTotpSecret() ? account.getEncryptedTotpSecret() : NO_TOTP;
+	}
+
+	/**
+	 * The values one edit replaced, as stored; null where the edit kept the value.
+	 */
+	static final class Delta
+	{
+		private final long time;
+		private final String encryptedPassword;
+		private final String encryptedTotpSecret;
+
+		Delta(long time, String encryptedPassword, String encryptedTotpSecret)
+		{
+			this.time = time;
+			this.encryptedPassword = encryptedPassword;
+			this.encryptedTotpSecret = encryptedTotpSecret;
+		}
+	}
+
+	/**
+	 * An earlier version of the account's credentials.
+	 */
+	static final class Version
+	{
+		/**
+		 * When it was replaced, in epoch milliseconds.
+		 */
+		@Getter
+		private final long replaced;
+		@Getter
+		private final String encryptedPassword;
+		/**
+		 * Null if the account had no TOTP secret then.
+		 */
+		@Getter
+		private final String encryptedTotpSecret;
+		@Getter
+		private final boolean passwordChanged;
+		@Getter
+		private final boolean totpSecretChanged;
+
+		Version(long replaced, String encryptedPassword, String encryptedTotpSecret, boolean passwordChanged, boolean totpSecretChanged)
+		{
+			this.replaced = replaced;
+			this.encryptedPassword = encryptedPassword;
+			this.encryptedTotpSecret = encryptedTotpSecret;
+			this.passwordChanged = passwordChanged;
+			this.totpSecretChanged = totpSecretChanged;
+		}
+	}
+}
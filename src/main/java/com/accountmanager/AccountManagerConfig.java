@@ -3,6 +3,7 @@ package com.accountmanager;
 import net.runelite.client.config.Config;
 import net.runelite.client.config.ConfigGroup;
 import net.runelite.client.config.ConfigItem;
+import net.runelite.client.config.Range;
 import net.runelite.client.config.Units;
 
 @ConfigGroup(AccountManagerConfig.CONFIG_GROUP)
@@ -24,7 +25,7 @@ public interface AccountManagerConfig extends Config
 	@ConfigItem(
 		keyName = "autoLockMinutes",
 		name = "Auto-lock after",
-		description = "Automatically lock the vault after this many minutes (0 = never auto-lock)",
+		description = "Automatically lock the vault after this many minutes without activity (0 = never auto-lock)",
 		position = 2
 	)
 	@Units(Units.MINUTES)
@@ -32,4 +33,75 @@ public interface AccountManagerConfig extends Config
 	{
 		return 0;
 	}
+
+	@ConfigItem(
+		keyName = "credentialCacheSeconds",
+		name = "Keep decrypted for",
+		description = "How long credentials prepared for a login stay decrypted in memory (always cleared on lock)",
+		position = 3
+	)
+	@Units(Units.SECONDS)
+	@Range(min = 5, max = 300)
+	default int credentialCacheSeconds()
+	{
+		return 30;
+	}
+
+	@ConfigItem(
+		keyName = "showDiagnostics",
+		name = "Show diagnostics",
+		description = "Show timing metrics for unlock, encryption, saving and filling at the bottom of the panel",
+		position = 4
+	)
+	default boolean showDiagnostics()
+	{
+		return false;
+	}
+
+	@ConfigItem(
+		keyName = "stallBudgetMillis",
+		name = "Stall warning after",
+		description = "Log a warning with a stack sample when the plugin holds the UI or client thread longer than this",
+		position = 5
+	)
+	@Units(Units.MILLISECONDS)
+	@Range(min = 10, max = 5000)
+	default int stallBudgetMillis()
+	{
+		return (int) StallDetector.DEFAULT_BUDGET_MILLIS;
+	}
+
+	@ConfigItem(
+		keyName = "shareSession",
+		name = "Share unlock between clients",
+		description = "Let RuneLite clients of this user on this computer share unlocked vaults, so each vault is unlocked only once",
+		position = 6
+	)
+	default boolean shareSession()
+	{
+		return false;
+	}
+
+	@ConfigItem(
+		keyName = "sessionPort",
+		name = "Sharing port",
+		description = "Local port the clients use to share unlocked vaults; must be the same in every client",
+		position = 7
+	)
+	@Range(min = 1024, max = 65535)
+	default int sessionPort()
+	{
+		return SessionBroker.DEFAULT_PORT;
+	}
+
+	@ConfigItem(
+		keyName = "breachCorpusFile",
+		name = "Breached passwords file",
+		description = "Path to a downloaded Have I Been Pwned SHA-1 password list ordered by hash, to warn about breached passwords without going online",
+		position = 8
+	)
+	default String breachCorpusFile()
+	{
+		return "";
+	}
 }
@@ -1,5 +1,6 @@
 package com.accountmanager;
 
+import com.google.gson.Gson;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.client.ui.ColorScheme;
 import net.runelite.client.ui.PluginPanel;
@@ -8,89 +9,228 @@ import javax.inject.Inject;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import java.awt.*;
+import java.awt.datatransfer.StringSelection;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * Shows every vault as a section: locked vaults with their own unlock form, unlocked vaults
+ * with their accounts.
+ */
 @Slf4j
 class AccountManagerPanel extends PluginPanel
 {
-	private final JLabel addAccount = new JLabel(Icons.ADD_ICON);
 	private final JLabel title = new JLabel("Account Manager");
-	private final JPanel accountListPanel = new JPanel();
-	private final JPanel lockedPanel = new JPanel();
-	private final JPanel unlockedPanel = new JPanel();
+	private final JPanel sectionsPanel = new JPanel();
+	private final JPanel diagnosticsPanel = new JPanel();
+	private JTextArea diagnosticsText;
+	// The account list of each unlocked vault, updated in place when accounts are reloaded
+	private final Map<Vault, JPanel> accountLists = new HashMap<>();
+
+	private final AccountManagerConfig config;
+	private final Gson gson;
 
 	private AccountManagerPlugin plugin;
+	private boolean built;
 
 	@Inject
-	AccountManagerPanel()
+	AccountManagerPanel(AccountManagerConfig config, Gson gson)
 	{
 		super(false);
+		this.config = config;
+		this.gson = gson;
 	}
 
+	/**
+	 * Only prepares the empty panel; its views are built the first time it is shown.
+	 */
 	void init(AccountManagerPlugin plugin)
 	{
 		this.plugin = plugin;
 
 		setLayout(new BorderLayout());
 		setBackground(ColorScheme.DARK_GRAY_COLOR);
+	}
+
+	boolean isBuilt()
+	{
+		return built;
+	}
+
+	private void build()
+	{
+		built = true;
+		setBorder(new EmptyBorder(10, 10, 10, 10));
+
+		// Header
+		JPanel header = new JPanel(new BorderLayout());
+		header.setBackground(ColorScheme.DARK_GRAY_COLOR);
+		header.setBorder(new EmptyBorder(0, 0, 10, 0));
+		title.setForeground(Color.WHITE);
+		header.add(title, BorderLayout.WEST);
+
+		JButton newVaultButton = new JButton("New vault");
+		newVaultButton.setToolTipText("Add a separate vault with its own master password");
+		newVaultButton.addActionListener(e -> createVault());
+		header.add(newVaultButton, BorderLayout.EAST);
+		add(header, BorderLayout.NORTH);
+
+		// Vault sections
+		sectionsPanel.setLayout(new BoxLayout(sectionsPanel, BoxLayout.Y_AXIS));
+		sectionsPanel.setBackground(ColorScheme.DARK_GRAY_COLOR);
+
+		JPanel sectionsWrapper = new JPanel(new BorderLayout());
+		sectionsWrapper.setBackground(ColorScheme.DARK_GRAY_COLOR);
+		sectionsWrapper.add(sectionsPanel, BorderLayout.NORTH);
+
+		JScrollPane scrollPane = new JScrollPane(sectionsWrapper);
+		scrollPane.setBackground(ColorScheme.DARK_GRAY_COLOR);
+		scrollPane.setBorder(null);
+		scrollPane.getVerticalScrollBar().setPreferredSize(new Dimension(8, 0));
+		add(scrollPane, BorderLayout.CENTER);
+
+		buildDiagnosticsPanel();
+		add(diagnosticsPanel, BorderLayout.SOUTH);
 
-		buildLockedPanel();
-		buildUnlockedPanel();
 		rebuild();
 	}
 
-	private void buildLockedPanel()
+	private JPanel buildSection(Vault vault)
+	{
+		JPanel section = new JPanel(new BorderLayout());
+		section.setBackground(ColorScheme.DARK_GRAY_COLOR);
+		section.setBorder(new EmptyBorder(0, 0, 15, 0));
+
+		JPanel header = new JPanel(new BorderLayout());
+		header.setBackground(ColorScheme.DARK_GRAY_COLOR);
+		header.setBorder(new EmptyBorder(0, 0, 5, 0));
+
+		JLabel nameLabel = new JLabel(vault.getName());
+		nameLabel.setForeground(Color.WHITE);
+		nameLabel.setFont(nameLabel.getFont().deriveFont(Font.BOLD));
+		header.add(nameLabel, BorderLayout.WEST);
+
+		if (vault.isUnlocked())
+		{
+			nameLabel.setToolTipText("Encrypted with " + vault.getEncryptionService().getCipherSuite().getId());
+			nameLabel.setComponentPopupMenu(buildVaultMenu(vault));
+			header.add(buildSectionActions(vault), BorderLayout.EAST);
+			if (vault.isTampered())
+			{
+				JLabel tamperedLabel = new JLabel("<html>Integrity check failed: accounts were changed outside the plugin</html>");
+				tamperedLabel.setForeground(ColorScheme.PROGRESS_ERROR_COLOR);
+				tamperedLabel.setBorder(new EmptyBorder(5, 0, 0, 0));
+				header.add(tamperedLabel, BorderLayout.SOUTH);
+			}
+			section.add(buildAccountList(vault), BorderLayout.CENTER);
+		}
+		else
+		{
+			section.add(buildUnlockForm(vault), BorderLayout.CENTER);
+		}
+
+		section.add(header, BorderLayout.NORTH);
+		return section;
+	}
+
+	private JPanel buildSectionActions(Vault vault)
 	{
-		lockedPanel.setLayout(new BorderLayout());
-		lockedPanel.setBackground(ColorScheme.DARK_GRAY_COLOR);
-		lockedPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+		JPanel actions = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+		actions.setBackground(ColorScheme.DARK_GRAY_COLOR);
+
+		JLabel addAccount = new JLabel(Icons.ADD.icon());
+		addAccount.setToolTipText("Add account to " + vault.getName());
+		addAccount.setCursor(new Cursor(Cursor.HAND_CURSOR));
+		addAccount.addMouseListener(new MouseAdapter()
+		{
+			@Override
+			public void mousePressed(MouseEvent e)
+			{
+				openAddAccountDialog(vault, null);
+			}
+
+			@Override
+			public void mouseEntered(MouseEvent e)
+			{
+				addAccount.setIcon(Icons.ADD.hoverIcon());
+			}
+
+			@Override
+			public void mouseExited(MouseEvent e)
+			{
+				addAccount.setIcon(Icons.ADD.icon());
+			}
+		});
+
+		JButton lockButton = new JButton("Lock");
+		lockButton.setToolTipText("Lock " + vault.getName());
+		lockButton.setMargin(new Insets(0, 4, 0, 4));
+		lockButton.addActionListener(e -> plugin.lockVault(vault));
+
+		JButton scanButton = new JButton("Check");
+		scanButton.setToolTipText("Check " + vault.getName() + " for broken entries and reused passwords");
+		scanButton.setMargin(new Insets(0, 4, 0, 4));
+		scanButton.addActionListener(e -> scanHealth(vault));
+
+		actions.add(addAccount);
+		actions.add(scanButton);
+		actions.add(lockButton);
+		return actions;
 	}
 
-	private void rebuildLockedPanel()
+	private JPopupMenu buildVaultMenu(Vault vault)
 	{
-		lockedPanel.removeAll();
+		JPopupMenu menu = new JPopupMenu();
+		JMenuItem fastestCipher = new JMenuItem("Re-encrypt with fastest cipher");
+		fastestCipher.setToolTipText("Benchmark the ciphers on this computer and switch the vault to the faster one");
+		fastestCipher.addActionListener(e -> plugin.useFastestCipherSuite(vault)
+			.whenComplete((suite, error) -> SwingUtilities.invokeLater(() ->
+				JOptionPane.showMessageDialog(this,
+					error == null
+						? vault.getName() + " is encrypted with " + suite.getId() + ", the fastest on this computer"
+						: "Re-encrypting failed: " + error.getMessage(),
+					"Cipher", error == null ? JOptionPane.INFORMATION_MESSAGE : JOptionPane.ERROR_MESSAGE))));
+		menu.add(fastestCipher);
+		return menu;
+	}
 
-		boolean isFirstTime = !plugin.hasExistingVault();
+	private JPanel buildUnlockForm(Vault vault)
+	{
+		boolean isFirstTime = !vault.exists();
 
 		JPanel centerPanel = new JPanel();
 		centerPanel.setLayout(new BoxLayout(centerPanel, BoxLayout.Y_AXIS));
-		centerPanel.setBackground(ColorScheme.DARK_GRAY_COLOR);
+		centerPanel.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		centerPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
 
 		// Lock icon
-		JLabel lockLabel = new JLabel(Icons.LOCK_ICON);
+		JLabel lockLabel = new JLabel(Icons.LOCK.icon());
 		lockLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
-
-		// Spacing
-		centerPanel.add(Box.createVerticalGlue());
 		centerPanel.add(lockLabel);
-		centerPanel.add(Box.createRigidArea(new Dimension(0, 20)));
-
-		// Title - different for first time vs returning
-		JLabel titleLabel = new JLabel(isFirstTime ? "First Time Setup" : "Vault Locked");
-		titleLabel.setForeground(Color.WHITE);
-		titleLabel.setFont(titleLabel.getFont().deriveFont(Font.BOLD, 14f));
-		titleLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
-		centerPanel.add(titleLabel);
-		centerPanel.add(Box.createRigidArea(new Dimension(0, 5)));
+		centerPanel.add(Box.createRigidArea(new Dimension(0, 10)));
 
-		// Prompt
+		// Prompt - different for first time vs returning
 		JLabel promptLabel = new JLabel(isFirstTime ? "Create a master password" : "Enter master password");
 		promptLabel.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
 		promptLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
 		centerPanel.add(promptLabel);
-		centerPanel.add(Box.createRigidArea(new Dimension(0, 15)));
+		centerPanel.add(Box.createRigidArea(new Dimension(0, 10)));
 
 		// Password field with label
 		JPanel passwordPanel = new JPanel();
 		passwordPanel.setLayout(new BoxLayout(passwordPanel, BoxLayout.Y_AXIS));
-		passwordPanel.setBackground(ColorScheme.DARK_GRAY_COLOR);
+		passwordPanel.setBackground(ColorScheme.DARKER_GRAY_COLOR);
 		passwordPanel.setMaximumSize(new Dimension(200, 100));
 
-		JLabel passwordLabel = new JLabel(isFirstTime ? "Password:" : "Password:");
+		JLabel passwordLabel = new JLabel("Password:");
 		passwordLabel.setForeground(Color.WHITE);
 		passwordLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
 		passwordPanel.add(passwordLabel);
@@ -119,49 +259,58 @@ class AccountManagerPanel extends PluginPanel
 		}
 
 		centerPanel.add(passwordPanel);
-		centerPanel.add(Box.createRigidArea(new Dimension(0, 15)));
+		centerPanel.add(Box.createRigidArea(new Dimension(0, 10)));
 
 		// Button - different text for first time
 		JButton actionButton = new JButton(isFirstTime ? "Create Vault" : "Unlock");
 		actionButton.setAlignmentX(Component.CENTER_ALIGNMENT);
 		centerPanel.add(actionButton);
-		centerPanel.add(Box.createVerticalGlue());
 
 		// Action handlers
 		Runnable unlockAction = () ->
 		{
-			String password = new String(passwordField.getPassword());
-			if (password.isEmpty())
+			StallDetector.Watch watch = plugin.getStallDetector().watch(PluginMetrics.EDT_UNLOCK);
+			char[] password = passwordField.getPassword();
+			char[] confirm = confirmField.getPassword();
+			try
 			{
-				JOptionPane.showMessageDialog(this, "Please enter a password",
-					"Error", JOptionPane.ERROR_MESSAGE);
-				return;
-			}
-
-			if (isFirstTime)
-			{
-				String confirm = new String(confirmField.getPassword());
-				if (!password.equals(confirm))
+				if (password.length == 0)
 				{
-					JOptionPane.showMessageDialog(this, "Passwords do not match",
+					JOptionPane.showMessageDialog(this, "Please enter a password",
 						"Error", JOptionPane.ERROR_MESSAGE);
 					return;
 				}
-				if (password.length() < 4)
+
+				if (isFirstTime)
+				{
+					if (!Arrays.equals(password, confirm))
+					{
+						JOptionPane.showMessageDialog(this, "Passwords do not match",
+							"Error", JOptionPane.ERROR_MESSAGE);
+						return;
+					}
+					if (password.length < 4)
+					{
+						JOptionPane.showMessageDialog(this, "Password must be at least 4 characters",
+							"Error", JOptionPane.ERROR_MESSAGE);
+						return;
+					}
+				}
+
+				if (!plugin.unlock(vault, password))
 				{
-					JOptionPane.showMessageDialog(this, "Password must be at least 4 characters",
+					JOptionPane.showMessageDialog(this, "Incorrect password",
 						"Error", JOptionPane.ERROR_MESSAGE);
-					return;
 				}
+				passwordField.setText("");
+				confirmField.setText("");
 			}
-
-			if (!plugin.unlock(password))
+			finally
 			{
-				JOptionPane.showMessageDialog(this, "Incorrect password",
-					"Error", JOptionPane.ERROR_MESSAGE);
+				Arrays.fill(password, '\0');
+				Arrays.fill(confirm, '\0');
+				watch.close();
 			}
-			passwordField.setText("");
-			confirmField.setText("");
 		};
 
 		actionButton.addActionListener(e -> unlockAction.run());
@@ -180,121 +329,294 @@ class AccountManagerPanel extends PluginPanel
 		passwordField.addKeyListener(enterKeyListener);
 		confirmField.addKeyListener(enterKeyListener);
 
-		lockedPanel.add(centerPanel, BorderLayout.CENTER);
-		lockedPanel.revalidate();
-		lockedPanel.repaint();
+		return centerPanel;
 	}
 
-	private void buildUnlockedPanel()
+	private void buildDiagnosticsPanel()
 	{
-		unlockedPanel.setLayout(new BorderLayout());
-		unlockedPanel.setBackground(ColorScheme.DARK_GRAY_COLOR);
-		unlockedPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
-
-		// Header
-		JPanel header = new JPanel(new BorderLayout());
-		header.setBackground(ColorScheme.DARK_GRAY_COLOR);
-		header.setBorder(new EmptyBorder(0, 0, 10, 0));
-
-		title.setForeground(Color.WHITE);
-		header.add(title, BorderLayout.WEST);
-
-		addAccount.setToolTipText("Add account");
-		addAccount.setCursor(new Cursor(Cursor.HAND_CURSOR));
-		addAccount.addMouseListener(new MouseAdapter()
+		diagnosticsPanel.setLayout(new BorderLayout());
+		diagnosticsPanel.setBackground(ColorScheme.DARK_GRAY_COLOR);
+		diagnosticsPanel.setBorder(new EmptyBorder(10, 0, 0, 0));
+
+		JLabel diagnosticsTitle = new JLabel("Diagnostics");
+		diagnosticsTitle.setForeground(Color.WHITE);
+		diagnosticsPanel.add(diagnosticsTitle, BorderLayout.NORTH);
+
+		diagnosticsText = new JTextArea();
+		diagnosticsText.setEditable(false);
+		diagnosticsText.setLineWrap(true);
+		diagnosticsText.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 10));
+		diagnosticsText.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		diagnosticsText.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
+		diagnosticsText.setBorder(new EmptyBorder(5, 5, 5, 5));
+		diagnosticsPanel.add(diagnosticsText, BorderLayout.CENTER);
+
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 5));
+		buttons.setBackground(ColorScheme.DARK_GRAY_COLOR);
+
+		JButton refreshButton = new JButton("Refresh");
+		refreshButton.addActionListener(e -> refreshDiagnostics());
+		buttons.add(refreshButton);
+
+		JButton copyButton = new JButton("Copy JSON");
+		copyButton.setToolTipText("Copy all metrics to the clipboard as JSON");
+		copyButton.addActionListener(e -> Toolkit.getDefaultToolkit().getSystemClipboard()
+			.setContents(new StringSelection(plugin.getMetrics().toJson(gson)), null));
+		buttons.add(copyButton);
+
+		JButton resetButton = new JButton("Reset");
+		resetButton.addActionListener(e ->
 		{
-			@Override
-			public void mousePressed(MouseEvent e)
-			{
-				openAddAccountDialog(null);
-			}
-
-			@Override
-			public void mouseEntered(MouseEvent e)
-			{
-				addAccount.setIcon(Icons.ADD_HOVER_ICON);
-			}
-
-			@Override
-			public void mouseExited(MouseEvent e)
-			{
-				addAccount.setIcon(Icons.ADD_ICON);
-			}
+			plugin.getMetrics().reset();
+			refreshDiagnostics();
 		});
-		header.add(addAccount, BorderLayout.EAST);
+		buttons.add(resetButton);
 
-		unlockedPanel.add(header, BorderLayout.NORTH);
-
-		// Account list
-		accountListPanel.setLayout(new BoxLayout(accountListPanel, BoxLayout.Y_AXIS));
-		accountListPanel.setBackground(ColorScheme.DARK_GRAY_COLOR);
-
-		JScrollPane scrollPane = new JScrollPane(accountListPanel);
-		scrollPane.setBackground(ColorScheme.DARK_GRAY_COLOR);
-		scrollPane.setBorder(null);
-		scrollPane.getVerticalScrollBar().setPreferredSize(new Dimension(8, 0));
+		diagnosticsPanel.add(buttons, BorderLayout.SOUTH);
+	}
 
-		unlockedPanel.add(scrollPane, BorderLayout.CENTER);
+	private void refreshDiagnostics()
+	{
+		String summary = plugin.getMetrics().summary();
+		diagnosticsText.setText(summary.isEmpty() ? "Nothing recorded yet" : summary);
 	}
 
 	void rebuild()
 	{
-		removeAll();
+		if (!built)
+		{
+			// Built with the current state when first shown
+			return;
+		}
 
-		if (!plugin.isUnlocked())
+		try (StallDetector.Watch ignored = plugin.getStallDetector().watch(PluginMetrics.EDT_REBUILD))
 		{
-			rebuildLockedPanel();
-			add(lockedPanel, BorderLayout.CENTER);
+			rebuildPanel();
 		}
-		else
+	}
+
+	private void rebuildPanel()
+	{
+		sectionsPanel.removeAll();
+		accountLists.clear();
+		for (Vault vault : plugin.getVaults())
+		{
+			sectionsPanel.add(buildSection(vault));
+		}
+
+		boolean showDiagnostics = config.showDiagnostics() && plugin.isUnlocked();
+		diagnosticsPanel.setVisible(showDiagnostics);
+		if (showDiagnostics)
 		{
-			rebuildAccountList();
-			add(unlockedPanel, BorderLayout.CENTER);
+			refreshDiagnostics();
 		}
 
 		revalidate();
 		repaint();
 	}
 
-	private void rebuildAccountList()
+	private JPanel buildAccountList(Vault vault)
 	{
-		accountListPanel.removeAll();
+		JPanel accountListPanel = new JPanel();
+		accountListPanel.setLayout(new BoxLayout(accountListPanel, BoxLayout.Y_AXIS));
+		accountListPanel.setBackground(ColorScheme.DARK_GRAY_COLOR);
 
-		List<Account> accounts = plugin.getAccounts();
+		List<Account> accounts = vault.getAccounts();
 		if (accounts.isEmpty())
 		{
-			JLabel emptyLabel = new JLabel("No accounts added yet");
-			emptyLabel.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
-			emptyLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
-			emptyLabel.setBorder(new EmptyBorder(20, 0, 0, 0));
-			accountListPanel.add(emptyLabel);
-
-			JLabel hintLabel = new JLabel("Click + to add an account");
-			hintLabel.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
-			hintLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
-			hintLabel.setBorder(new EmptyBorder(5, 0, 0, 0));
-			accountListPanel.add(hintLabel);
+			addEmptyHint(accountListPanel);
 		}
 		else
 		{
 			for (Account account : accounts)
 			{
-				AccountEntryPanel entryPanel = new AccountEntryPanel(plugin, this, account);
-				entryPanel.setMaximumSize(new Dimension(Integer.MAX_VALUE, entryPanel.getPreferredSize().height));
-				accountListPanel.add(entryPanel);
-				accountListPanel.add(Box.createRigidArea(new Dimension(0, 5)));
+				addEntry(accountListPanel, vault, account, -1);
 			}
 		}
 
+		accountLists.put(vault, accountListPanel);
+		return accountListPanel;
+	}
+
+	private void addEmptyHint(JPanel accountListPanel)
+	{
+		JLabel emptyLabel = new JLabel("No accounts added yet");
+		emptyLabel.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
+		emptyLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+		emptyLabel.setBorder(new EmptyBorder(10, 0, 0, 0));
+		accountListPanel.add(emptyLabel);
+
+		JLabel hintLabel = new JLabel("Click + to add an account");
+		hintLabel.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
+		hintLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+		hintLabel.setBorder(new EmptyBorder(5, 0, 0, 0));
+		accountListPanel.add(hintLabel);
+	}
+
+	/**
+	 * Adds an entry and the gap below it at a component index, or at the end for -1.
+	 */
+	private void addEntry(JPanel accountListPanel, Vault vault, Account account, int index)
+	{
+		AccountEntryPanel entryPanel = new AccountEntryPanel(plugin, this, vault, account);
+		entryPanel.setMaximumSize(new Dimension(Integer.MAX_VALUE, entryPanel.getPreferredSize().height));
+		accountListPanel.add(entryPanel, index);
+		accountListPanel.add(Box.createRigidArea(new Dimension(0, 5)), index < 0 ? -1 : index + 1);
+	}
+
+	/**
+	 * Replaces, adds and removes only the entries of accounts another client changed.
+	 */
+	void accountsReloaded(Vault vault, Vault.Reload reload)
+	{
+		JPanel accountListPanel = accountLists.get(vault);
+		if (accountListPanel == null)
+		{
+			// Not built or not showing the vault's accounts, the next rebuild picks them up
+			return;
+		}
+
+		Set<String> removed = new HashSet<>();
+		reload.getRemoved().forEach(account -> removed.add(account.getId()));
+		Map<String, Account> updated = new HashMap<>();
+		reload.getUpdated().forEach(account -> updated.put(account.getId(), account));
+
+		for (int i = accountListPanel.getComponentCount() - 1; i >= 0; i--)
+		{
+			Component component = accountListPanel.getComponent(i);
+			if (!(component instanceof AccountEntryPanel))
+			{
+				continue;
+			}
+
+			String id = ((AccountEntryPanel) component).getAccountId();
+			if (removed.contains(id))
+			{
+				// The entry and the gap below it
+				accountListPanel.remove(i + 1);
+				accountListPanel.remove(i);
+			}
+			else if (updated.containsKey(id))
+			{
+				accountListPanel.remove(i + 1);
+				accountListPanel.remove(i);
+				addEntry(accountListPanel, vault, updated.get(id), i);
+			}
+		}
+
+		if (!reload.getAdded().isEmpty() && !(accountListPanel.getComponentCount() > 0
+			&& accountListPanel.getComponent(0) instanceof AccountEntryPanel))
+		{
+			// Drop the empty hint
+			accountListPanel.removeAll();
+		}
+		for (Account account : reload.getAdded())
+		{
+			addEntry(accountListPanel, vault, account, -1);
+		}
+		if (accountListPanel.getComponentCount() == 0)
+		{
+			addEmptyHint(accountListPanel);
+		}
+
 		accountListPanel.revalidate();
 		accountListPanel.repaint();
 	}
 
-	void openAddAccountDialog(Account existingAccount)
+	@Override
+	public void onActivate()
+	{
+		if (!built)
+		{
+			plugin.startVaults();
+			build();
+		}
+		plugin.recordActivity();
+	}
+
+	private void createVault()
+	{
+		plugin.recordActivity();
+		String name = JOptionPane.showInputDialog(this, "Name of the new vault:", "New Vault",
+			JOptionPane.PLAIN_MESSAGE);
+		if (name == null)
+		{
+			return;
+		}
+
+		try
+		{
+			plugin.createVault(name);
+		}
+		catch (IllegalArgumentException e)
+		{
+			JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	/**
+	 * Shows the scan's progress and then its findings in a dialog that does not block the panel.
+	 */
+	private void scanHealth(Vault vault)
+	{
+		JProgressBar progressBar = new JProgressBar(0, Math.max(1, vault.getAccounts().size()));
+		progressBar.setStringPainted(true);
+
+		JTextArea results = new JTextArea(12, 30);
+		results.setEditable(false);
+		results.setLineWrap(true);
+		results.setText("Checking...");
+
+		JDialog dialog = new JDialog(SwingUtilities.getWindowAncestor(this), vault.getName() + " health",
+			Dialog.ModalityType.MODELESS);
+		dialog.setLayout(new BorderLayout(0, 5));
+		dialog.add(progressBar, BorderLayout.NORTH);
+		dialog.add(new JScrollPane(results), BorderLayout.CENTER);
+		dialog.pack();
+		dialog.setLocationRelativeTo(this);
+		dialog.setVisible(true);
+
+		try
+		{
+			plugin.scanHealth(vault, checked -> SwingUtilities.invokeLater(() -> progressBar.setValue(checked)))
+				.whenComplete((report, error) -> SwingUtilities.invokeLater(() ->
+				{
+					progressBar.setValue(progressBar.getMaximum());
+					results.setText(error == null ? report.summary() : "Check failed: " + error.getMessage());
+				}));
+		}
+		catch (IllegalStateException e)
+		{
+			results.setText(e.getMessage());
+		}
+	}
+
+	void openAttachmentsDialog(Vault vault, Account account)
+	{
+		plugin.recordActivity();
+		try
+		{
+			new AttachmentsDialog(SwingUtilities.getWindowAncestor(this), plugin, vault, account).setVisible(true);
+		}
+		catch (IllegalStateException e)
+		{
+			JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	void openHistoryDialog(Vault vault, Account account)
+	{
+		plugin.recordActivity();
+		new HistoryDialog(SwingUtilities.getWindowAncestor(this), plugin, vault, account, this::rebuild).setVisible(true);
+	}
+
+	void openAddAccountDialog(Vault vault, Account existingAccount)
 	{
+		plugin.recordActivity();
 		AddAccountDialog dialog = new AddAccountDialog(
 			SwingUtilities.getWindowAncestor(this),
 			plugin,
+			vault,
 			existingAccount
 		);
 		dialog.setVisible(true);
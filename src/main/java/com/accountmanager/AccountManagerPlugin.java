@@ -1,29 +1,33 @@
 package com.accountmanager;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import com.google.inject.Provides;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
 import net.runelite.api.GameState;
 import net.runelite.api.events.GameStateChanged;
+import net.runelite.client.RuneLite;
 import net.runelite.client.callback.ClientThread;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.eventbus.Subscribe;
+import net.runelite.client.events.ConfigChanged;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
 import net.runelite.client.ui.ClientToolbar;
 import net.runelite.client.ui.NavigationButton;
 
 import javax.inject.Inject;
-import java.lang.reflect.Type;
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 
 @Slf4j
 @PluginDescriptor(
@@ -33,11 +37,6 @@ import java.util.concurrent.TimeUnit;
 )
 public class AccountManagerPlugin extends Plugin
 {
-	private static final String CONFIG_KEY_SALT = "salt";
-	private static final String CONFIG_KEY_ACCOUNTS = "accounts";
-	private static final String CONFIG_KEY_VERIFICATION = "verification";
-	private static final String VERIFICATION_STRING = "account-manager-verification";
-
 	@Inject
 	private Client client;
 
@@ -56,268 +55,715 @@ public class AccountManagerPlugin extends Plugin
 	@Inject
 	private AccountManagerConfig config;
 
+	@Inject
+	private SharedScheduler scheduler;
+
 	@Getter
-	private EncryptionService encryptionService;
+	@Inject
+	private PluginMetrics metrics;
 
 	@Getter
-	private TotpService totpService;
+	@Inject
+	private StallDetector stallDetector;
 
 	@Getter
-	private List<Account> accounts;
+	private TotpService totpService;
+
+	// Opened the first time a password is looked up, and again after the configured file changes
+	private CompletableFuture<BreachCorpus> breachCorpus;
+
+	// Null until the panel is first shown
+	private volatile VaultManager vaults;
+	private SessionBroker broker;
 
 	private AccountManagerPanel panel;
 	private NavigationButton navButton;
 
-	@Getter
-	private boolean unlocked = false;
-
+	private Vault lastSelectedVault;
 	private Account lastSelectedAccount;
-	private long unlockTime;
-	private ScheduledExecutorService autoLockExecutor;
+	private AutoLockTimer autoLockTimer;
 
 
 	@Override
 	protected void startUp() throws Exception
 	{
-		totpService = new TotpService();
-		accounts = new ArrayList<>();
+		stallDetector.setBudget(config::stallBudgetMillis);
+		navButton = buildNavigation();
+		clientToolbar.addNavigation(navButton);
 
-		panel = injector.getInstance(AccountManagerPanel.class);
+		log.debug("Account Manager started");
+	}
+
+	/**
+	 * Creates the empty panel and its button, which is all startUp does. The vaults are set up
+	 * when the panel is first shown, see {@link #startVaults()}.
+	 */
+	NavigationButton buildNavigation()
+	{
+		panel = new AccountManagerPanel(config, gson);
 		panel.init(this);
 
-		navButton = NavigationButton.builder()
+		return NavigationButton.builder()
 			.tooltip("Account Manager")
-			.icon(Icons.PANEL_ICON_IMG)
+			.icon(Icons.PANEL.image())
 			.priority(6)
 			.panel(panel)
 			.build();
-		clientToolbar.addNavigation(navButton);
+	}
 
-		// Start auto-lock checker
-		autoLockExecutor = Executors.newSingleThreadScheduledExecutor();
-		autoLockExecutor.scheduleAtFixedRate(this::checkAutoLock, 30, 30, TimeUnit.SECONDS);
+	/**
+	 * Reads the vaults, and starts the session broker if sharing is on, the first time the panel
+	 * is shown. Nothing can be unlocked before that, so startUp leaves it until then.
+	 */
+	void startVaults()
+	{
+		if (vaults != null)
+		{
+			return;
+		}
 
-		log.debug("Account Manager started");
+		totpService = new TotpService();
+		totpService.setMetrics(metrics);
+		autoLockTimer = new AutoLockTimer(scheduler,
+			() -> TimeUnit.MINUTES.toMillis(config.autoLockMinutes()),
+			this::autoLock);
+
+		VaultManager manager = new VaultManager(new ConfigVaultStore(configManager), gson, metrics, scheduler,
+			config::credentialCacheSeconds);
+		manager.setChangeListener(this::shareVault);
+		manager.setReloadListener(this::onVaultReloaded);
+		manager.setIntegrityListener(vault -> javax.swing.SwingUtilities.invokeLater(panel::rebuild));
+		vaults = manager;
+
+		startBroker();
 	}
 
 	@Override
 	protected void shutDown() throws Exception
 	{
 		clientToolbar.removeNavigation(navButton);
-		lockVault();
+		stopBroker();
+		lockAll("shutdown");
+		vaults = null;
 
-		if (autoLockExecutor != null)
-		{
-			autoLockExecutor.shutdown();
-			autoLockExecutor = null;
-		}
+		scheduler.shutdown();
+		closeBreachCorpus();
 
 		log.debug("Account Manager stopped");
 	}
 
-	public boolean hasExistingVault()
+	/**
+	 * @return every vault, or none before the panel has been shown
+	 */
+	public List<Vault> getVaults()
 	{
-		return configManager.getConfiguration(AccountManagerConfig.CONFIG_GROUP, CONFIG_KEY_SALT) != null;
+		VaultManager manager = vaults;
+		return manager == null ? Collections.emptyList() : manager.getVaults();
 	}
 
-	public boolean unlock(String masterPassword)
+	/**
+	 * Adds an empty, locked vault, which is set up when it is first unlocked.
+	 *
+	 * @throws IllegalArgumentException if the name is blank or already taken
+	 */
+	public Vault createVault(String name)
 	{
-		String salt = configManager.getConfiguration(AccountManagerConfig.CONFIG_GROUP, CONFIG_KEY_SALT);
+		recordActivity();
+		Vault vault = vaults.create(name);
+		panel.rebuild();
+		return vault;
+	}
 
-		if (salt == null)
+	/**
+	 * Unlocks a vault, creating its key on first use. Other vaults stay as they are, so switching
+	 * between unlocked vaults never derives a key again. The caller remains responsible for
+	 * clearing {@code masterPassword}.
+	 */
+	public boolean unlock(Vault vault, char[] masterPassword)
+	{
+		if (!vault.unlock(masterPassword))
 		{
-			// First time setup - generate new salt
-			salt = EncryptionService.generateSalt();
-			configManager.setConfiguration(AccountManagerConfig.CONFIG_GROUP, CONFIG_KEY_SALT, salt);
+			return false;
 		}
+		autoLockTimer.touch();
+		panel.rebuild();
+		shareVault(vault);
+		return true;
+	}
 
-		encryptionService = new EncryptionService(masterPassword, salt);
+	/**
+	 * Locks a vault, in the other clients too if they share the session.
+	 */
+	public void lockVault(Vault vault)
+	{
+		lockLocally(vault, "manual");
+	}
 
-		// Check if we have existing data to verify password
-		String verification = configManager.getConfiguration(AccountManagerConfig.CONFIG_GROUP, CONFIG_KEY_VERIFICATION);
-		if (verification != null)
+	private void lockLocally(Vault vault, String reason)
+	{
+		SessionBroker sessionBroker = broker;
+		if (sessionBroker != null && vault.isUnlocked())
 		{
-			// Existing vault - verify password
-			if (!encryptionService.verifyPassword(verification))
-			{
-				encryptionService = null;
-				return false;
-			}
+			sessionBroker.locked(vault.getName(), reason);
 		}
-		else
+		vault.lock(reason);
+		if (vault == lastSelectedVault)
 		{
-			// New vault - create verification string
-			String encryptedVerification = encryptionService.encrypt(VERIFICATION_STRING);
-			configManager.setConfiguration(AccountManagerConfig.CONFIG_GROUP, CONFIG_KEY_VERIFICATION, encryptedVerification);
+			lastSelectedVault = null;
+			lastSelectedAccount = null;
+		}
+		if (!isUnlocked())
+		{
+			autoLockTimer.cancel();
 		}
-
-		// Load accounts
-		loadAccounts();
-		unlocked = true;
-		unlockTime = System.currentTimeMillis();
 		panel.rebuild();
-		return true;
 	}
 
-	public void lockVault()
+	/**
+	 * Locks every vault, in the other clients too if they share the session.
+	 */
+	private void lockAll(String reason)
 	{
-		unlocked = false;
-		accounts.clear();
-		encryptionService = null;
+		SessionBroker sessionBroker = broker;
+		if (vaults != null && sessionBroker != null)
+		{
+			for (Vault vault : vaults.getVaults())
+			{
+				if (vault.isUnlocked())
+				{
+					sessionBroker.locked(vault.getName(), reason);
+				}
+			}
+		}
+		if (vaults != null)
+		{
+			vaults.lockAll(reason);
+		}
+		lastSelectedVault = null;
 		lastSelectedAccount = null;
+		if (autoLockTimer != null)
+		{
+			autoLockTimer.cancel();
+		}
 		if (panel != null)
 		{
 			panel.rebuild();
 		}
 	}
 
-	private void loadAccounts()
+	private void startBroker()
 	{
-		String accountsJson = configManager.getConfiguration(AccountManagerConfig.CONFIG_GROUP, CONFIG_KEY_ACCOUNTS);
-		if (accountsJson == null || accountsJson.isEmpty())
+		if (!config.shareSession())
 		{
-			accounts = new ArrayList<>();
 			return;
 		}
 
-		try
+		broker = new SessionBroker(new File(RuneLite.RUNELITE_DIR, "account-manager/session.token"),
+			config.sessionPort(), gson, scheduler.session(), new SessionBroker.Listener()
 		{
-			Type listType = new TypeToken<ArrayList<Account>>(){}.getType();
-			accounts = gson.fromJson(accountsJson, listType);
-			if (accounts == null)
+			@Override
+			public void onShared(SessionBroker.SharedVault shared)
 			{
-				accounts = new ArrayList<>();
+				openSharedVault(shared);
+			}
+
+			@Override
+			public void onLocked(String vaultName)
+			{
+				Vault vault = vaults.find(vaultName);
+				if (vault != null)
+				{
+					javax.swing.SwingUtilities.invokeLater(() -> lockLocally(vault, SessionBroker.LOCK_REASON));
+				}
+			}
+
+			@Override
+			public void onConnected()
+			{
+				// A new host only knows what was shared since it started
+				for (Vault vault : vaults.getVaults())
+				{
+					shareVault(vault);
+				}
 			}
+		});
+		broker.start();
+	}
+
+	private void stopBroker()
+	{
+		if (broker != null)
+		{
+			broker.stop();
+			broker = null;
 		}
-		catch (Exception e)
+	}
+
+	/**
+	 * Hands an unlocked vault's key and records to the other clients, after unlocking and after each change.
+	 */
+	private void shareVault(Vault vault)
+	{
+		SessionBroker sessionBroker = broker;
+		if (sessionBroker == null || !vault.isUnlocked())
+		{
+			return;
+		}
+
+		try
 		{
-			log.error("Failed to load accounts", e);
-			accounts = new ArrayList<>();
+			sessionBroker.publish(new SessionBroker.SharedVault(vault.getName(), vault.records(), vault.exportKey()));
+		}
+		catch (IllegalStateException e)
+		{
+			// Locked in the meantime
 		}
 	}
 
-	private void saveAccounts()
+	private void openSharedVault(SessionBroker.SharedVault shared)
 	{
-		String accountsJson = gson.toJson(accounts);
-		configManager.setConfiguration(AccountManagerConfig.CONFIG_GROUP, CONFIG_KEY_ACCOUNTS, accountsJson);
+		Vault vault = vaults.find(shared.getName());
+		if (vault == null)
+		{
+			log.debug("Ignoring shared vault unknown to this client: {}", shared.getName());
+			return;
+		}
+
+		boolean wasUnlocked = vault.isUnlocked();
+		if (!vault.unlockShared(shared.getRecords(), shared.getKey()))
+		{
+			// The vault logged why
+			return;
+		}
+		autoLockTimer.touch();
+		if (!wasUnlocked)
+		{
+			// Changes to an open vault reach the panel through onVaultReloaded
+			javax.swing.SwingUtilities.invokeLater(panel::rebuild);
+		}
 	}
 
-	public void addAccount(Account account)
+	/**
+	 * Follows accounts another client changed, without rebuilding the whole panel.
+	 */
+	private void onVaultReloaded(Vault vault, Vault.Reload reload)
 	{
-		if (account.getId() == null)
+		Account selected = lastSelectedAccount;
+		if (vault == lastSelectedVault && selected != null)
 		{
-			account.setId(UUID.randomUUID().toString());
+			for (Account account : reload.getUpdated())
+			{
+				if (account.getId().equals(selected.getId()))
+				{
+					lastSelectedAccount = account;
+				}
+			}
+			for (Account account : reload.getRemoved())
+			{
+				if (account.getId().equals(selected.getId()))
+				{
+					lastSelectedVault = null;
+					lastSelectedAccount = null;
+				}
+			}
+		}
+
+		if (!reload.getRemoved().isEmpty())
+		{
+			// Attachments are not synced, so they go with an account deleted elsewhere
+			try
+			{
+				AttachmentStore attachments = getAttachments(vault);
+				reload.getRemoved().forEach(account -> deleteAttachments(attachments, account));
+			}
+			catch (IllegalStateException e)
+			{
+				// Locked in the meantime
+			}
 		}
-		accounts.add(account);
-		saveAccounts();
+
+		javax.swing.SwingUtilities.invokeLater(() -> panel.accountsReloaded(vault, reload));
+	}
+
+	/**
+	 * @return true if at least one vault is unlocked
+	 */
+	public boolean isUnlocked()
+	{
+		return vaults != null && vaults.isAnyUnlocked();
+	}
+
+	public void addAccount(Vault vault, Account account)
+	{
+		recordActivity();
+		vault.addAccount(account);
+	}
+
+	public void updateAccount(Vault vault, Account account)
+	{
+		recordActivity();
+		vault.updateAccount(account);
+	}
+
+	public void deleteAccount(Vault vault, Account account)
+	{
+		recordActivity();
+		AttachmentStore attachments = getAttachments(vault);
+		vault.deleteAccount(account);
+		deleteAttachments(attachments, account);
+	}
+
+	/**
+	 * @return the attachments of a vault's accounts
+	 * @throws IllegalStateException if the vault is locked
+	 */
+	public AttachmentStore getAttachments(Vault vault)
+	{
+		return new AttachmentStore(new File(RuneLite.RUNELITE_DIR, "account-manager/attachments").toPath(), vault);
 	}
 
-	public void updateAccount(Account account)
+	private void deleteAttachments(AttachmentStore attachments, Account account)
 	{
-		for (int i = 0; i < accounts.size(); i++)
+		runInBackground(() ->
 		{
-			if (accounts.get(i).getId().equals(account.getId()))
+			try
 			{
-				accounts.set(i, account);
-				break;
+				attachments.deleteAll(account.getId());
 			}
+			catch (IOException e)
+			{
+				log.warn("Could not delete the attachments of {}: {}", account.getNickname(), e.getMessage());
+			}
+		});
+	}
+
+	/**
+	 * @return the account's decrypted credentials, completed off the calling thread
+	 */
+	public CompletableFuture<CredentialCache.Credentials> getCredentials(Vault vault, Account account)
+	{
+		recordActivity();
+		return vault.getCredentials(account);
+	}
+
+	/**
+	 * Checks a vault's accounts in parallel on the common ForkJoin pool, so neither the EDT nor
+	 * the plugin's worker thread waits for it.
+	 *
+	 * @param progress called with the number of accounts checked so far, off the EDT
+	 */
+	public CompletableFuture<VaultHealthScan.Report> scanHealth(Vault vault, IntConsumer progress)
+	{
+		recordActivity();
+		if (!vault.isUnlocked())
+		{
+			throw new IllegalStateException("Vault is locked");
 		}
-		saveAccounts();
+
+		// The first scan waits for the corpus to open rather than skipping the breach check
+		return openBreachCorpus().thenApplyAsync(corpus ->
+		{
+			VaultHealthScan.Report report = new VaultHealthScan(vault, corpus).run(progress);
+			metrics.recordNanos(PluginMetrics.HEALTH_SCAN, report.getNanos());
+			return report;
+		});
 	}
 
-	public void deleteAccount(Account account)
+	/**
+	 * Re-encrypts a vault with whichever cipher suite is fastest on this machine, benchmarking
+	 * them first if that has not happened yet, in the background.
+	 *
+	 * @return the suite the vault uses afterwards
+	 */
+	public CompletableFuture<CipherSuite> useFastestCipherSuite(Vault vault)
 	{
-		accounts.removeIf(a -> a.getId().equals(account.getId()));
-		saveAccounts();
+		recordActivity();
+		return CompletableFuture.supplyAsync(() ->
+		{
+			CipherSuite fastest = CipherSuite.fastest();
+			if (vault.migrateCipherSuite(fastest) > 0)
+			{
+				javax.swing.SwingUtilities.invokeLater(panel::rebuild);
+			}
+			return fastest;
+		}, scheduler.worker());
 	}
 
-	public void fillCredentials(Account account)
+	/**
+	 * @return the configured breach corpus, or null if there is none or it is still being opened,
+	 * in which case the lookup is skipped
+	 */
+	public BreachCorpus getBreachCorpus()
 	{
-		lastSelectedAccount = account;
+		return openBreachCorpus().getNow(null);
+	}
 
-		clientThread.invoke(() ->
+	/**
+	 * Opens the configured breach corpus in the background the first time it is asked for, since
+	 * indexing it reads from all over the file.
+	 *
+	 * @return the corpus, or null if none is configured or it could not be opened
+	 */
+	private synchronized CompletableFuture<BreachCorpus> openBreachCorpus()
+	{
+		if (breachCorpus != null)
 		{
-			GameState gameState = client.getGameState();
-			int loginIndex = client.getLoginIndex();
+			return breachCorpus;
+		}
 
-			if (gameState == GameState.LOGIN_SCREEN && loginIndex == 2)
+		String file = config.breachCorpusFile().trim();
+		if (file.isEmpty())
+		{
+			breachCorpus = CompletableFuture.completedFuture(null);
+			return breachCorpus;
+		}
+
+		breachCorpus = CompletableFuture.supplyAsync(() ->
+		{
+			try
 			{
-				// At username/password form
-				fillLoginForm(account);
+				long start = System.nanoTime();
+				BreachCorpus corpus = BreachCorpus.open(Paths.get(file));
+				metrics.recordSince(PluginMetrics.BREACH_INDEX, start);
+				return corpus;
 			}
-			else if (gameState == GameState.LOGIN_SCREEN_AUTHENTICATOR && loginIndex == 4)
+			catch (IOException | InvalidPathException e)
 			{
-				// At authenticator form
-				fillOtp(account);
+				log.warn("Could not open the breached passwords file: {}", e.getMessage());
+				return null;
 			}
-		});
+		}, scheduler.worker());
+		return breachCorpus;
 	}
 
-	private void fillLoginForm(Account account)
+	/**
+	 * Forgets the opened corpus, so the next lookup opens whichever file is configured by then.
+	 */
+	private synchronized void closeBreachCorpus()
 	{
-		String username = encryptionService.decrypt(account.getEncryptedUsername());
-		String password = encryptionService.decrypt(account.getEncryptedPassword());
-		client.setUsername(username);
-		client.setPassword(password);
-		log.debug("Filled credentials for account: {}", account.getNickname());
+		breachCorpus = null;
+	}
+
+	/**
+	 * Runs a task on the plugin's worker thread, e.g. to keep encryption off the EDT.
+	 */
+	public CompletableFuture<Void> runInBackground(Runnable task)
+	{
+		return CompletableFuture.runAsync(task, scheduler.worker());
+	}
+
+	/**
+	 * Starts decrypting an account's credentials in the background, so a following
+	 * {@link #fillCredentials(Vault, Account)} does not have to wait for them.
+	 */
+	public void prefetchCredentials(Vault vault, Account account)
+	{
+		if (vault.isUnlocked())
+		{
+			recordActivity();
+			vault.prefetchCredentials(account);
+		}
 	}
 
-	private void fillOtp(Account account)
+	public void fillCredentials(Vault vault, Account account)
 	{
-		if (account.hasTotpSecret())
+		long start = System.nanoTime();
+		VaultEvents.Scope event = VaultEvents.begin(VaultEvents.Type.FILL);
+		lastSelectedVault = vault;
+		lastSelectedAccount = account;
+		recordActivity();
+
+		// Decrypt off the client thread, which then only has to set the fields
+		vault.getCredentials(account).thenAcceptAsync(credentials ->
+		{
+			String otp = generateOtp(credentials);
+			clientThread.invoke(stallDetector.watched(PluginMetrics.CLIENT_THREAD_FILL, () ->
+			{
+				try
+				{
+					GameState gameState = client.getGameState();
+					int loginIndex = client.getLoginIndex();
+
+					boolean filled = false;
+					if (gameState == GameState.LOGIN_SCREEN && loginIndex == 2)
+					{
+						// At username/password form
+						event.step("login");
+						filled = fillLoginForm(account, credentials, start);
+					}
+					else if (gameState == GameState.LOGIN_SCREEN_AUTHENTICATOR && loginIndex == 4)
+					{
+						// At authenticator form
+						event.step("otp");
+						filled = fillOtp(account, otp, start);
+					}
+
+					if (filled)
+					{
+						event.success();
+					}
+				}
+				finally
+				{
+					event.close();
+				}
+			}));
+		}, scheduler.get()).exceptionally(e -> fillFailed(account, event, e));
+	}
+
+	/**
+	 * Ends a fill whose credentials could not be decrypted, and tells the user, who would
+	 * otherwise be left waiting at an empty login form.
+	 */
+	private Void fillFailed(Account account, VaultEvents.Scope event, Throwable error)
+	{
+		Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+		log.warn("Could not fill the credentials of {}: {}", account.getNickname(), cause.getMessage());
+		event.close();
+		javax.swing.SwingUtilities.invokeLater(() -> javax.swing.JOptionPane.showMessageDialog(panel,
+			"Could not decrypt the login details of " + account.getNickname(),
+			"Error", javax.swing.JOptionPane.ERROR_MESSAGE));
+		return null;
+	}
+
+	private boolean fillLoginForm(Account account, CredentialCache.Credentials credentials, long start)
+	{
+		Boolean filled = credentials.read(c ->
+		{
+			client.setUsername(c.getUsername().asString());
+			client.setPassword(c.getPassword().asString());
+			return true;
+		});
+
+		if (filled == null)
 		{
-			String secret = encryptionService.decrypt(account.getEncryptedTotpSecret());
-			String code = totpService.generateCode(secret);
-			client.setOtp(code);
-			log.debug("Filled OTP for account: {}", account.getNickname());
+			log.debug("Credentials expired before they could be filled for account: {}", account.getNickname());
+			return false;
 		}
+		metrics.recordSince(PluginMetrics.FILL_LOGIN, start);
+		log.debug("Filled credentials for account: {}", account.getNickname());
+		return true;
 	}
 
+	private String generateOtp(CredentialCache.Credentials credentials)
+	{
+		return credentials.read(c -> c.getTotpSecret() == null ? null : totpService.generateCode(c.getTotpSecret()));
+	}
 
-	private void checkAutoLock()
+	private boolean fillOtp(Account account, String otp, long start)
 	{
-		if (!unlocked || config.autoLockMinutes() <= 0)
+		if (otp == null)
 		{
-			return;
+			return false;
 		}
 
-		long now = System.currentTimeMillis();
-		long elapsedMinutes = (now - unlockTime) / 60000;
-		if (elapsedMinutes >= config.autoLockMinutes())
+		client.setOtp(otp);
+		metrics.recordSince(PluginMetrics.FILL_OTP, start);
+		log.debug("Filled OTP for account: {}", account.getNickname());
+		return true;
+	}
+
+
+	/**
+	 * Pushes the auto-lock deadline forward. Called for panel interactions, fills and game state changes.
+	 */
+	public void recordActivity()
+	{
+		if (isUnlocked())
 		{
-			log.debug("Auto-locking vault after {} minutes", elapsedMinutes);
-			// Use SwingUtilities to ensure we're on the EDT for UI updates
-			javax.swing.SwingUtilities.invokeLater(this::lockVault);
+			autoLockTimer.touch();
 		}
 	}
 
+	private void autoLock()
+	{
+		log.debug("Auto-locking vaults after {} minutes of inactivity", config.autoLockMinutes());
+		metrics.increment(PluginMetrics.AUTO_LOCK);
+		// Use SwingUtilities to ensure we're on the EDT for UI updates
+		javax.swing.SwingUtilities.invokeLater(() -> lockAll("auto-lock"));
+	}
+
 	@Subscribe
 	public void onGameStateChanged(GameStateChanged event)
 	{
-		if (!unlocked || lastSelectedAccount == null)
+		recordActivity();
+
+		if (lastSelectedVault == null || !lastSelectedVault.isUnlocked() || lastSelectedAccount == null)
 		{
 			return;
 		}
 
 		// Auto-fill OTP when authenticator screen appears
-		if (event.getGameState() == GameState.LOGIN_SCREEN_AUTHENTICATOR && config.autoFillOtp())
+		if (event.getGameState() == GameState.LOGIN_SCREEN_AUTHENTICATOR && config.autoFillOtp()
+			&& lastSelectedAccount.hasTotpSecret())
 		{
-			clientThread.invokeLater(() ->
+			long start = System.nanoTime();
+			VaultEvents.Scope fillEvent = VaultEvents.begin(VaultEvents.Type.FILL).step("otp");
+			Account account = lastSelectedAccount;
+			lastSelectedVault.getCredentials(account).thenAcceptAsync(credentials ->
 			{
-				if (client.getLoginIndex() == 4 && lastSelectedAccount.hasTotpSecret())
+				String otp = generateOtp(credentials);
+				clientThread.invokeLater(stallDetector.watched(PluginMetrics.CLIENT_THREAD_FILL, () ->
 				{
-					fillOtp(lastSelectedAccount);
-				}
-			});
+					try
+					{
+						if (client.getLoginIndex() == 4 && fillOtp(account, otp, start))
+						{
+							fillEvent.success();
+						}
+					}
+					finally
+					{
+						fillEvent.close();
+					}
+				}));
+			}, scheduler.get()).exceptionally(e -> fillFailed(account, fillEvent, e));
 		}
 
 		// Clear last selected account after successful login
 		if (event.getGameState() == GameState.LOGGED_IN)
 		{
+			lastSelectedVault = null;
 			lastSelectedAccount = null;
 		}
 	}
 
+	@Subscribe
+	public void onConfigChanged(ConfigChanged event)
+	{
+		if (!AccountManagerConfig.CONFIG_GROUP.equals(event.getGroup()))
+		{
+			return;
+		}
+
+		// Accounts changed by a profile sync or another client; the vault ignores its own saves
+		VaultManager manager = vaults;
+		if (manager != null)
+		{
+			manager.onStoreChanged(event.getKey());
+		}
+
+		if ("autoLockMinutes".equals(event.getKey()))
+		{
+			// Apply the new timeout straight away instead of at the next interaction
+			recordActivity();
+		}
+		else if ("showDiagnostics".equals(event.getKey()))
+		{
+			javax.swing.SwingUtilities.invokeLater(panel::rebuild);
+		}
+		else if (("shareSession".equals(event.getKey()) || "sessionPort".equals(event.getKey())) && vaults != null)
+		{
+			// Before the vaults are read, startVaults picks up the new settings
+			stopBroker();
+			startBroker();
+		}
+		else if ("breachCorpusFile".equals(event.getKey()))
+		{
+			closeBreachCorpus();
+		}
+	}
+
 	@Provides
 	AccountManagerConfig provideConfig(ConfigManager configManager)
 	{
@@ -1,15 +1,27 @@
 package com.accountmanager;
 
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
 import java.util.UUID;
 
+@Slf4j
 class AddAccountDialog extends JDialog
 {
+	private static final String DECRYPTING_PLACEHOLDER = "Decrypting...";
+
 	private final AccountManagerPlugin plugin;
+	private final Vault vault;
 	private final Account existingAccount;
 
 	private final JTextField nicknameField = new JTextField();
@@ -17,16 +29,28 @@ class AddAccountDialog extends JDialog
 	private final JPasswordField passwordField = new JPasswordField();
 	private final JPasswordField totpField = new JPasswordField();
 	private final JCheckBox showSecretsCheck = new JCheckBox("Show secrets");
+	private final JButton saveButton = new JButton("Save");
+	private final JPanel extraFieldsPanel = new JPanel(new GridBagLayout());
+	private final List<ExtraField> extraFields = new ArrayList<>();
+	private final List<String> removedFields = new ArrayList<>();
+
+	// A new account has every field to encrypt
+	private boolean usernameDirty;
+	private boolean passwordDirty;
+	private boolean totpDirty;
 
 	@Getter
 	private boolean saved = false;
 
-	AddAccountDialog(Window owner, AccountManagerPlugin plugin, Account existingAccount)
+	AddAccountDialog(Window owner, AccountManagerPlugin plugin, Vault vault, Account existingAccount)
 	{
 		super(owner, existingAccount == null ? "Add Account" : "Edit Account",
 			ModalityType.APPLICATION_MODAL);
 		this.plugin = plugin;
+		this.vault = vault;
 		this.existingAccount = existingAccount;
+		// Saving checks the username for duplicates, so fill the index while the dialog is open
+		vault.prefetchUsernameIndex();
 
 		buildUI();
 
@@ -34,6 +58,12 @@ class AddAccountDialog extends JDialog
 		{
 			populateFields();
 		}
+		else
+		{
+			usernameDirty = true;
+			passwordDirty = true;
+			totpDirty = true;
+		}
 
 		pack();
 		setMinimumSize(new Dimension(300, getHeight()));
@@ -94,6 +124,7 @@ class AddAccountDialog extends JDialog
 			char echoChar = showSecretsCheck.isSelected() ? (char) 0 : '*';
 			passwordField.setEchoChar(echoChar);
 			totpField.setEchoChar(echoChar);
+			extraFields.forEach(ExtraField::updateEchoChar);
 		});
 		panel.add(showSecretsCheck, c);
 
@@ -105,19 +136,34 @@ class AddAccountDialog extends JDialog
 		totpHint.setForeground(Color.GRAY);
 		panel.add(totpHint, c);
 
+		// Extra fields, each decrypted only when shown
+		JPanel extraPanel = new JPanel(new BorderLayout(0, 5));
+		JPanel extraHeader = new JPanel(new BorderLayout());
+		extraHeader.add(new JLabel("Extra fields:"), BorderLayout.WEST);
+		JButton addFieldButton = new JButton("Add field");
+		addFieldButton.setToolTipText("Add e.g. an email address, bank PIN, preferred world or notes");
+		addFieldButton.addActionListener(e -> addExtraField());
+		extraHeader.add(addFieldButton, BorderLayout.EAST);
+		extraPanel.add(extraHeader, BorderLayout.NORTH);
+		extraPanel.add(extraFieldsPanel, BorderLayout.CENTER);
+		c.gridx = 0;
+		c.gridy = 6;
+		c.gridwidth = 2;
+		panel.add(extraPanel, c);
+		c.gridwidth = 1;
+
 		// Buttons
 		JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
 		JButton cancelButton = new JButton("Cancel");
 		cancelButton.addActionListener(e -> dispose());
 
-		JButton saveButton = new JButton("Save");
 		saveButton.addActionListener(e -> save());
 
 		buttonPanel.add(cancelButton);
 		buttonPanel.add(saveButton);
 
 		c.gridx = 0;
-		c.gridy = 6;
+		c.gridy = 7;
 		c.gridwidth = 2;
 		c.insets = new Insets(15, 5, 5, 5);
 		panel.add(buttonPanel, c);
@@ -125,29 +171,126 @@ class AddAccountDialog extends JDialog
 		add(panel);
 	}
 
+	/**
+	 * Shows the nickname straight away and decrypts the other fields in the background,
+	 * with placeholders until they arrive.
+	 */
 	private void populateFields()
 	{
 		nicknameField.setText(existingAccount.getNickname());
-		usernameField.setText(plugin.getEncryptionService().decrypt(
-			existingAccount.getEncryptedUsername()));
-		passwordField.setText(plugin.getEncryptionService().decrypt(
-			existingAccount.getEncryptedPassword()));
-		if (existingAccount.hasTotpSecret())
+		AccountFields fields = existingAccount.getFields();
+		if (fields != null)
 		{
-			String totpSecret = plugin.getEncryptionService().decrypt(
-				existingAccount.getEncryptedTotpSecret());
-			totpField.setText(totpSecret);
+			for (String name : fields.names())
+			{
+				extraFields.add(new ExtraField(name, fields.type(name), false));
+			}
+			layoutExtraFields();
 		}
+		setSecretFieldsEnabled(false);
+		usernameField.setText(DECRYPTING_PLACEHOLDER);
+		saveButton.setEnabled(false);
+
+		plugin.getCredentials(vault, existingAccount).whenComplete((credentials, error) ->
+		{
+			// Strings are unavoidable here, Swing text fields cannot take anything else
+			String[] values = error == null ? credentials.read(c -> new String[]{
+				c.getUsername().asString(),
+				c.getPassword().asString(),
+				c.getTotpSecret() == null ? "" : c.getTotpSecret().asString()
+			}) : null;
+
+			SwingUtilities.invokeLater(() -> showDecryptedFields(values));
+		});
+	}
+
+	private void showDecryptedFields(String[] values)
+	{
+		if (!isDisplayable())
+		{
+			return;
+		}
+		if (values == null)
+		{
+			JOptionPane.showMessageDialog(this, "Could not decrypt this account",
+				"Error", JOptionPane.ERROR_MESSAGE);
+			dispose();
+			return;
+		}
+
+		usernameField.setText(values[0]);
+		passwordField.setText(values[1]);
+		totpField.setText(values[2]);
+		setSecretFieldsEnabled(true);
+		saveButton.setEnabled(true);
+		trackEdits();
+	}
+
+	private void setSecretFieldsEnabled(boolean enabled)
+	{
+		usernameField.setEnabled(enabled);
+		passwordField.setEnabled(enabled);
+		totpField.setEnabled(enabled);
+	}
+
+	private void trackEdits()
+	{
+		onEdit(usernameField, () -> usernameDirty = true);
+		onEdit(passwordField, () -> passwordDirty = true);
+		onEdit(totpField, () -> totpDirty = true);
+	}
+
+	private static void onEdit(JTextField field, Runnable listener)
+	{
+		field.getDocument().addDocumentListener(new DocumentListener()
+		{
+			@Override
+			public void insertUpdate(DocumentEvent e)
+			{
+				listener.run();
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e)
+			{
+				listener.run();
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e)
+			{
+				listener.run();
+			}
+		});
 	}
 
 	private void save()
+	{
+		StallDetector.Watch watch = plugin.getStallDetector().watch(PluginMetrics.EDT_DIALOG_SAVE);
+		char[] password = passwordDirty ? passwordField.getPassword() : new char[0];
+		char[] totpSecret = totpDirty ? normalizeTotpSecret(totpField.getPassword()) : new char[0];
+		try
+		{
+			save(password, totpSecret);
+		}
+		finally
+		{
+			Arrays.fill(password, '\0');
+			Arrays.fill(totpSecret, '\0');
+			watch.close();
+		}
+	}
+
+	/**
+	 * Validates on the EDT, then encrypts only the fields that were edited and persists the
+	 * account in the background. A nickname-only edit does no cryptography at all.
+	 */
+	private void save(char[] password, char[] totpSecret)
 	{
 		String nickname = nicknameField.getText().trim();
-		String username = usernameField.getText().trim();
-		String password = new String(passwordField.getPassword());
-		String totpSecret = new String(totpField.getPassword()).trim().toUpperCase().replaceAll("\\s+", "");
+		String username = usernameDirty ? usernameField.getText().trim() : null;
 
-		if (nickname.isEmpty() || username.isEmpty() || password.isEmpty())
+		if (nickname.isEmpty() || (usernameDirty && username.isEmpty()) || (passwordDirty && password.length == 0))
 		{
 			JOptionPane.showMessageDialog(this,
 				"Nickname, username, and password are required",
@@ -155,61 +298,375 @@ class AddAccountDialog extends JDialog
 			return;
 		}
 
-		// Validate TOTP secret if provided
-		if (!totpSecret.isEmpty())
+		if (usernameDirty)
 		{
-			if (!totpSecret.matches("^[A-Z2-7]+=*$"))
+			Account duplicate = vault.findAccountByUsername(username);
+			if (duplicate != null && (existingAccount == null || !duplicate.getId().equals(existingAccount.getId())))
 			{
 				JOptionPane.showMessageDialog(this,
-					"TOTP secret must be a valid Base32 string",
+					"Account '" + duplicate.getNickname() + "' already uses this username",
 					"Error", JOptionPane.ERROR_MESSAGE);
 				return;
 			}
+		}
+
+		// Validate TOTP secret if provided. A valid secret always decodes, so no test code is generated
+		if (totpSecret.length > 0 && !TotpService.isValidSecret(totpSecret))
+		{
+			JOptionPane.showMessageDialog(this,
+				"TOTP secret must be a valid Base32 string",
+				"Error", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
 
-			// Test that we can generate a code
+		if (passwordDirty && !confirmIfBreached(password))
+		{
+			return;
+		}
+
+		for (ExtraField field : extraFields)
+		{
+			if (field.dirty && !field.isValid())
+			{
+				JOptionPane.showMessageDialog(this,
+					"'" + field.name + "' is not a valid " + field.type.toString().toLowerCase(),
+					"Error", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+		}
+
+		Account account = existingAccount != null
+			? new Account(existingAccount.getId(), nickname, existingAccount.getEncryptedUsername(),
+				existingAccount.getEncryptedPassword(), existingAccount.getEncryptedTotpSecret(), existingAccount.getFields(), existingAccount.getCreated(),
+				existingAccount.getVersion(), existingAccount.getDevice(), false)
+			: new Account(UUID.randomUUID().toString(), nickname, null, null, null, null, 0, 0, null, false);
+
+		// Copied off the heap here, since the caller wipes the char arrays when this returns
+		SecretBuffer passwordBuffer = passwordDirty ? SecretBuffer.of(password) : null;
+		SecretBuffer totpBuffer = totpDirty && totpSecret.length > 0 ? SecretBuffer.of(totpSecret) : null;
+		boolean clearTotp = totpDirty && totpSecret.length == 0;
+		AccountFields keptFields = account.getFields();
+		for (String name : removedFields)
+		{
+			keptFields = AccountFields.without(keptFields, name);
+		}
+		List<ExtraField> changedFields = new ArrayList<>();
+		List<SecretBuffer> changedValues = new ArrayList<>();
+		for (ExtraField field : extraFields)
+		{
+			if (field.dirty)
+			{
+				char[] value = field.input.getPassword();
+				if (value.length == 0)
+				{
+					// Emptying a field removes it
+					keptFields = AccountFields.without(keptFields, field.name);
+				}
+				else
+				{
+					changedFields.add(field);
+					changedValues.add(SecretBuffer.of(value));
+				}
+				Arrays.fill(value, '\0');
+			}
+		}
+		account.setFields(keptFields);
+		boolean isNew = existingAccount == null;
+		EncryptionService encryption = vault.getEncryptionService();
+
+		setSaving(true);
+		plugin.runInBackground(() ->
+		{
 			try
 			{
-				plugin.getTotpService().generateCode(totpSecret);
+				if (username != null)
+				{
+					account.setEncryptedUsername(encryption.encrypt(username));
+				}
+				if (passwordBuffer != null)
+				{
+					account.setEncryptedPassword(encryption.encrypt(passwordBuffer));
+				}
+				if (totpBuffer != null)
+				{
+					account.setEncryptedTotpSecret(encryption.encrypt(totpBuffer));
+				}
+				else if (clearTotp)
+				{
+					account.setEncryptedTotpSecret(null);
+				}
+
+				AccountFields fields = account.getFields();
+				for (int i = 0; i < changedFields.size(); i++)
+				{
+					ExtraField field = changedFields.get(i);
+					fields = AccountFields.with(fields, field.name, field.type, encryption.encrypt(changedValues.get(i)));
+				}
+				account.setFields(fields);
 			}
-			catch (Exception e)
+			finally
 			{
-				JOptionPane.showMessageDialog(this,
-					"Invalid TOTP secret: " + e.getMessage(),
+				changedValues.forEach(SecretBuffer::close);
+				if (passwordBuffer != null)
+				{
+					passwordBuffer.close();
+				}
+				if (totpBuffer != null)
+				{
+					totpBuffer.close();
+				}
+			}
+
+			if (isNew)
+			{
+				plugin.addAccount(vault, account);
+			}
+			else
+			{
+				plugin.updateAccount(vault, account);
+			}
+		}).whenComplete((result, error) -> SwingUtilities.invokeLater(() ->
+		{
+			if (error != null && error.getCause() instanceof ConcurrentModificationException)
+			{
+				setSaving(false);
+				JOptionPane.showMessageDialog(this, error.getCause().getMessage() + ". Reopen it to see the changes.",
 					"Error", JOptionPane.ERROR_MESSAGE);
 				return;
 			}
+			if (error != null)
+			{
+				log.warn("Failed to save account", error);
+				setSaving(false);
+				JOptionPane.showMessageDialog(this, "Failed to save account",
+					"Error", JOptionPane.ERROR_MESSAGE);
+				return;
+			}
+
+			saved = true;
+			dispose();
+		}));
+	}
+
+	private void setSaving(boolean saving)
+	{
+		saveButton.setEnabled(!saving);
+		saveButton.setText(saving ? "Saving..." : "Save");
+	}
+
+	/**
+	 * Looks the password up in the breach corpus, if one is configured, and asks whether to keep
+	 * it if it is there. A lookup touches a few pages of the mapped file, so it is fine on the EDT.
+	 *
+	 * @return false if the user chose not to save a breached password
+	 */
+	private boolean confirmIfBreached(char[] password)
+	{
+		BreachCorpus corpus = plugin.getBreachCorpus();
+		if (corpus == null)
+		{
+			return true;
 		}
 
-		EncryptionService encryption = plugin.getEncryptionService();
+		int count;
+		try (SecretBuffer candidate = SecretBuffer.of(password))
+		{
+			count = corpus.count(candidate);
+		}
+		if (count == 0)
+		{
+			return true;
+		}
 
-		Account account;
-		if (existingAccount != null)
+		return JOptionPane.showConfirmDialog(this,
+			"This password has appeared in data breaches " + count + " time" + (count == 1 ? "" : "s")
+				+ " and is likely to be tried against your account. Save it anyway?",
+			"Breached Password", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) == JOptionPane.YES_OPTION;
+	}
+
+	/**
+	 * Asks for the new field's name and type, then adds it empty for its value to be typed in.
+	 */
+	private void addExtraField()
+	{
+		JTextField nameInput = new JTextField();
+		JComboBox<AccountFields.Type> typeInput = new JComboBox<>(AccountFields.Type.values());
+		JPanel prompt = new JPanel(new GridLayout(0, 1, 0, 5));
+		prompt.add(new JLabel("Name:"));
+		prompt.add(nameInput);
+		prompt.add(new JLabel("Type:"));
+		prompt.add(typeInput);
+		if (JOptionPane.showConfirmDialog(this, prompt, "Add Field", JOptionPane.OK_CANCEL_OPTION)
+			!= JOptionPane.OK_OPTION)
 		{
-			account = existingAccount;
+			return;
 		}
-		else
+
+		String name = nameInput.getText().trim();
+		boolean taken = extraFields.stream().anyMatch(field -> field.name.equals(name));
+		if (name.isEmpty() || taken)
 		{
-			account = new Account();
-			account.setId(UUID.randomUUID().toString());
+			JOptionPane.showMessageDialog(this,
+				name.isEmpty() ? "Field name is required" : "This account already has a field '" + name + "'",
+				"Error", JOptionPane.ERROR_MESSAGE);
+			return;
 		}
 
-		account.setNickname(nickname);
-		account.setEncryptedUsername(encryption.encrypt(username));
-		account.setEncryptedPassword(encryption.encrypt(password));
-		account.setEncryptedTotpSecret(
-			totpSecret.isEmpty() ? null : encryption.encrypt(totpSecret)
-		);
+		removedFields.remove(name);
+		ExtraField field = new ExtraField(name, (AccountFields.Type) typeInput.getSelectedItem(), true);
+		extraFields.add(field);
+		layoutExtraFields();
+		field.input.requestFocusInWindow();
+	}
 
-		if (existingAccount != null)
+	private void layoutExtraFields()
+	{
+		extraFieldsPanel.removeAll();
+		GridBagConstraints c = new GridBagConstraints();
+		c.fill = GridBagConstraints.HORIZONTAL;
+		c.insets = new Insets(2, 0, 2, 5);
+		for (int row = 0; row < extraFields.size(); row++)
 		{
-			plugin.updateAccount(account);
+			ExtraField field = extraFields.get(row);
+			c.gridy = row;
+			c.gridx = 0;
+			c.weightx = 0;
+			extraFieldsPanel.add(field.label, c);
+			c.gridx = 1;
+			c.weightx = 1;
+			extraFieldsPanel.add(field.input, c);
+			c.gridx = 2;
+			c.weightx = 0;
+			extraFieldsPanel.add(field.showButton, c);
+			c.gridx = 3;
+			extraFieldsPanel.add(field.removeButton, c);
 		}
-		else
+		extraFieldsPanel.revalidate();
+		pack();
+	}
+
+	/**
+	 * One extra field's row. A stored value stays encrypted until "Show" is clicked, and only
+	 * fields whose value was typed in are encrypted again on save.
+	 */
+	private final class ExtraField
+	{
+		private final String name;
+		private final AccountFields.Type type;
+		private final JLabel label;
+		private final JPasswordField input = new JPasswordField(12);
+		private final JButton showButton = new JButton("Show");
+		private final JButton removeButton = new JButton("x");
+		private boolean dirty;
+
+		private ExtraField(String name, AccountFields.Type type, boolean isNew)
+		{
+			this.name = name;
+			this.type = type;
+			this.label = new JLabel(name + ":");
+			label.setToolTipText(type.toString());
+
+			removeButton.setToolTipText("Remove " + name);
+			removeButton.setMargin(new Insets(0, 4, 0, 4));
+			removeButton.addActionListener(e ->
+			{
+				extraFields.remove(this);
+				removedFields.add(name);
+				layoutExtraFields();
+			});
+
+			showButton.setMargin(new Insets(0, 4, 0, 4));
+			if (isNew)
+			{
+				showLoaded(null);
+			}
+			else
+			{
+				input.setEnabled(false);
+				showButton.setToolTipText("Decrypt this field");
+				showButton.addActionListener(e -> decrypt());
+			}
+		}
+
+		private void decrypt()
+		{
+			showButton.setEnabled(false);
+			plugin.recordActivity();
+			plugin.runInBackground(() ->
+			{
+				String value;
+				// Strings are unavoidable here, Swing text fields cannot take anything else
+				try (SecretBuffer secret = vault.decryptField(existingAccount, name))
+				{
+					value = secret == null ? "" : secret.asString();
+				}
+				SwingUtilities.invokeLater(() -> showLoaded(value));
+			}).whenComplete((result, error) ->
+			{
+				if (error != null)
+				{
+					log.warn("Failed to decrypt field {}", name, error);
+					SwingUtilities.invokeLater(() ->
+					{
+						showButton.setEnabled(true);
+						JOptionPane.showMessageDialog(AddAccountDialog.this, "Could not decrypt '" + name + "'",
+							"Error", JOptionPane.ERROR_MESSAGE);
+					});
+				}
+			});
+		}
+
+		private void showLoaded(String value)
 		{
-			plugin.addAccount(account);
+			if (value != null)
+			{
+				input.setText(value);
+			}
+			dirty = value == null;
+			input.setEnabled(true);
+			showButton.setVisible(false);
+			updateEchoChar();
+			onEdit(input, () -> dirty = true);
+		}
+
+		private void updateEchoChar()
+		{
+			input.setEchoChar(!type.isSecret() || showSecretsCheck.isSelected() ? (char) 0 : '*');
+		}
+
+		private boolean isValid()
+		{
+			char[] value = input.getPassword();
+			try
+			{
+				return value.length == 0 || type.isValid(CharBuffer.wrap(value));
+			}
+			finally
+			{
+				Arrays.fill(value, '\0');
+			}
+		}
+	}
+
+	/**
+	 * Upper-cases the secret and strips whitespace without turning it into a String.
+	 * Clears {@code input}.
+	 */
+	private static char[] normalizeTotpSecret(char[] input)
+	{
+		char[] buffer = new char[input.length];
+		int length = 0;
+		for (char c : input)
+		{
+			if (!Character.isWhitespace(c))
+			{
+				buffer[length++] = Character.toUpperCase(c);
+			}
 		}
 
-		saved = true;
-		dispose();
+		char[] normalized = Arrays.copyOf(buffer, length);
+		Arrays.fill(buffer, '\0');
+		Arrays.fill(input, '\0');
+		return normalized;
 	}
 }
@@ -0,0 +1,396 @@
+package com.accountmanager;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Files attached to accounts, e.g. recovery codes or screenshots, kept next to the vault in
+ * one directory per account rather than in the {@code accounts} blob, and encrypted with
+ * {@link StreamingAead} so neither writing nor reading one holds more than a chunk in memory.
+ * The attachment's name is encrypted with the vault key and kept in the file's header. The
+ * account and attachment ids are authenticated with every chunk, so a file moved to another
+ * account or renamed does not open.
+ * <p>
+ * Attachments stay on this machine: they are not part of the records that profile sync and
+ * other clients see.
+ */
+@Slf4j
+class AttachmentStore
+{
+	private static final String KEY_PURPOSE = "account-manager-attachments";
+	private static final String SUFFIX = ".bin";
+	private static final String PARTIAL_SUFFIX = ".partial";
+
+	private final Path directory;
+	private final EncryptionService encryptionService;
+	private final StreamingAead aead;
+
+	/**
+	 * @param directory holds one directory per account with attachments; created when first needed
+	 * @throws IllegalStateException if the vault is locked
+	 */
+	AttachmentStore(Path directory, Vault vault)
+	{
+		this(directory, requireUnlocked(vault));
+	}
+
+	private AttachmentStore(Path directory, EncryptionService service)
+	{
+		this.directory = directory;
+		this.encryptionService = service;
+		this.aead = new StreamingAead(service.deriveSubkey(KEY_PURPOSE), service.getCipherSuite());
+	}
+
+	private static EncryptionService requireUnlocked(Vault vault)
+	{
+		EncryptionService service = vault.getEncryptionService();
+		if (service == null)
+		{
+			throw new IllegalStateException("Vault is locked");
+		}
+		return service;
+	}
+
+	/**
+	 * Writes a copy of every attachment of these accounts encrypted for {@code target}, next to
+	 * the old files, e.g. before the vault key changes. If one fails, the copies written so far
+	 * are deleted again and the attachments are left as they were.
+	 *
+	 * @return the copies, to keep with {@link Rekey#commit()} once the new key is in use
+	 */
+	Rekey rekey(List<Account> accounts, EncryptionService target) throws IOException
+	{
+		AttachmentStore next = new AttachmentStore(directory, target);
+		Rekey rekey = new Rekey(this, next);
+		try
+		{
+			for (Account account : accounts)
+			{
+				for (Attachment attachment : list(account))
+				{
+					try (StreamingAead.Reader reader = open(account, attachment))
+					{
+						rekey.written(account, attachment, next.add(account, attachment.getName(), reader));
+					}
+				}
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			rekey.rollback();
+			throw e;
+		}
+		return rekey;
+	}
+
+	/**
+	 * @return the account's attachments by name, skipping any that do not open with this vault's key
+	 */
+	List<Attachment> list(Account account) throws IOException
+	{
+		Path accountDirectory = accountDirectory(account.getId());
+		List<Attachment> attachments = new ArrayList<>();
+		if (!Files.isDirectory(accountDirectory))
+		{
+			return attachments;
+		}
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(accountDirectory, "*" + SUFFIX))
+		{
+			for (Path file : files)
+			{
+				String name = file.getFileName().toString();
+				String id = name.substring(0, name.length() - SUFFIX.length());
+				try (StreamingAead.Reader reader = open(account.getId(), id))
+				{
+					reader.authenticate();
+					attachments.add(new Attachment(id, decryptName(reader), reader.size()));
+				}
+				catch (IOException | RuntimeException e)
+				{
+					log.warn("Skipping unreadable attachment {}: {}", file, e.getMessage());
+				}
+			}
+		}
+		attachments.sort(Comparator.comparing(Attachment::getName, String.CASE_INSENSITIVE_ORDER));
+		return attachments;
+	}
+
+	/**
+	 * Copies a file into the account's attachments, encrypting it as it is read.
+	 */
+	Attachment add(Account account, Path file) throws IOException
+	{
+		try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			return add(account, file.getFileName().toString(), source);
+		}
+	}
+
+	/**
+	 * Encrypts {@code source} to its end as a new attachment. It only appears once complete,
+	 * so a failed or interrupted write leaves nothing behind.
+	 */
+	Attachment add(Account account, String name, ReadableByteChannel source) throws IOException
+	{
+		String id = UUID.randomUUID().toString();
+		Path accountDirectory = accountDirectory(account.getId());
+		Files.createDirectories(accountDirectory);
+		Path target = accountDirectory.resolve(id + SUFFIX);
+		Path partial = accountDirectory.resolve(id + PARTIAL_SUFFIX);
+
+		byte[] metadata = encryptionService.encrypt(name).getBytes(StandardCharsets.UTF_8);
+		try
+		{
+			long size;
+			try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+			{
+				size = aead.encrypt(source, channel, metadata, associatedData(account.getId(), id));
+				channel.force(true);
+			}
+			move(partial, target);
+			return new Attachment(id, name, size);
+		}
+		finally
+		{
+			Files.deleteIfExists(partial);
+		}
+	}
+
+	/**
+	 * @return a channel over the attachment's plaintext, which the caller must close
+	 */
+	StreamingAead.Reader open(Account account, Attachment attachment) throws IOException
+	{
+		return open(account.getId(), attachment.getId());
+	}
+
+	private StreamingAead.Reader open(String accountId, String attachmentId) throws IOException
+	{
+		FileChannel channel = FileChannel.open(attachmentFile(accountId, attachmentId), StandardOpenOption.READ);
+		try
+		{
+			return aead.open(channel, associatedData(accountId, attachmentId));
+		}
+		catch (IOException | RuntimeException e)
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Decrypts an attachment to a file, one chunk at a time.
+	 *
+	 * @throws IOException if it cannot be read or has been tampered with; the target is then deleted
+	 */
+	void export(Account account, Attachment attachment, Path target) throws IOException
+	{
+		try (StreamingAead.Reader reader = open(account, attachment);
+			FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			long copied = 0;
+			while (copied < reader.size())
+			{
+				copied += channel.transferFrom(reader, copied, reader.size() - copied);
+			}
+		}
+		catch (IOException e)
+		{
+			Files.deleteIfExists(target);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return false if it was already gone
+	 */
+	boolean delete(Account account, Attachment attachment) throws IOException
+	{
+		boolean deleted = Files.deleteIfExists(attachmentFile(account.getId(), attachment.getId()));
+		deleteIfEmpty(accountDirectory(account.getId()));
+		return deleted;
+	}
+
+	/**
+	 * Deletes every attachment of an account, e.g. once the account itself is deleted.
+	 */
+	void deleteAll(String accountId) throws IOException
+	{
+		Path accountDirectory = accountDirectory(accountId);
+		if (!Files.isDirectory(accountDirectory))
+		{
+			return;
+		}
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(accountDirectory))
+		{
+			for (Path file : files)
+			{
+				Files.deleteIfExists(file);
+			}
+		}
+		deleteIfEmpty(accountDirectory);
+	}
+
+	private String decryptName(StreamingAead.Reader reader)
+	{
+		return encryptionService.decrypt(new String(reader.getMetadata(), StandardCharsets.UTF_8));
+	}
+
+	private Path accountDirectory(String accountId)
+	{
+		// Ids are UUIDs, but one from a tampered record must not reach outside the directory
+		Path accountDirectory = directory.resolve(accountId).normalize();
+		if (!accountDirectory.getParent().equals(directory.normalize()))
+		{
+			throw new IllegalArgumentException("Invalid account id: " + accountId);
+		}
+		return accountDirectory;
+	}
+
+	private Path attachmentFile(String accountId, String attachmentId)
+	{
+		Path accountDirectory = accountDirectory(accountId);
+		Path file = accountDirectory.resolve(attachmentId + SUFFIX).normalize();
+		if (!accountDirectory.equals(file.getParent()))
+		{
+			throw new IllegalArgumentException("Invalid attachment id: " + attachmentId);
+		}
+		return file;
+	}
+
+	private static byte[] associatedData(String accountId, String attachmentId)
+	{
+		return (accountId + '/' + attachmentId).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void move(Path source, Path target) throws IOException
+	{
+		try
+		{
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(source, target);
+		}
+	}
+
+	private static void deleteIfEmpty(Path accountDirectory) throws IOException
+	{
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(accountDirectory))
+		{
+			if (files.iterator().hasNext())
+			{
+				return;
+			}
+		}
+		catch (NoSuchFileException e)
+		{
+			return;
+		}
+		Files.deleteIfExists(accountDirectory);
+	}
+
+	private void deleteQuietly(Account account, Attachment attachment)
+	{
+		try
+		{
+			delete(account, attachment);
+		}
+		catch (IOException e)
+		{
+			log.warn("Could not delete attachment {}: {}", attachment.getId(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Attachments written by {@link #rekey}, next to the ones they replace.
+	 */
+	static final class Rekey
+	{
+		private final AttachmentStore from;
+		private final AttachmentStore to;
+		private final List<Account> accounts = new ArrayList<>();
+		private final List<Attachment> oldCopies = new ArrayList<>();
+		private final List<Attachment> newCopies = new ArrayList<>();
+
+		private Rekey(AttachmentStore from, AttachmentStore to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+
+		private void written(Account account, Attachment oldCopy, Attachment newCopy)
+		{
+			accounts.add(account);
+			oldCopies.add(oldCopy);
+			newCopies.add(newCopy);
+		}
+
+		int size()
+		{
+			return newCopies.size();
+		}
+
+		/**
+		 * Deletes the old copies, once the vault only opens the new ones.
+		 */
+		void commit()
+		{
+			for (int i = 0; i < oldCopies.size(); i++)
+			{
+				from.deleteQuietly(accounts.get(i), oldCopies.get(i));
+			}
+		}
+
+		/**
+		 * Deletes the new copies, e.g. when the vault key could not be changed after all.
+		 */
+		void rollback()
+		{
+			for (int i = 0; i < newCopies.size(); i++)
+			{
+				to.deleteQuietly(accounts.get(i), newCopies.get(i));
+			}
+		}
+	}
+
+	static final class Attachment
+	{
+		@Getter
+		private final String id;
+		@Getter
+		private final String name;
+		/**
+		 * The plaintext size in bytes.
+		 */
+		@Getter
+		private final long size;
+
+		Attachment(String id, String name, long size)
+		{
+			this.id = id;
+			this.name = name;
+			this.size = size;
+		}
+	}
+}
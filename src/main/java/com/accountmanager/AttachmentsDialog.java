@@ -0,0 +1,215 @@
+package com.accountmanager;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Lists an account's attachments and adds, saves and deletes them. Files are encrypted and
+ * decrypted on the plugin's worker thread, so large ones do not block the panel.
+ */
+class AttachmentsDialog extends JDialog
+{
+	private final AccountManagerPlugin plugin;
+	private final Account account;
+	private final AttachmentStore store;
+
+	private final DefaultListModel<AttachmentStore.Attachment> model = new DefaultListModel<>();
+	private final JList<AttachmentStore.Attachment> list = new JList<>(model);
+	private final JLabel status = new JLabel(" ");
+	private final JButton addButton = new JButton("Add");
+	private final JButton saveButton = new JButton("Save as");
+	private final JButton deleteButton = new JButton("Delete");
+
+	AttachmentsDialog(Window owner, AccountManagerPlugin plugin, Vault vault, Account account)
+	{
+		super(owner, account.getNickname() + " attachments", ModalityType.MODELESS);
+		this.plugin = plugin;
+		this.account = account;
+		this.store = plugin.getAttachments(vault);
+
+		buildUI();
+		pack();
+		setMinimumSize(new Dimension(300, getHeight()));
+		setLocationRelativeTo(owner);
+		refresh();
+	}
+
+	private void buildUI()
+	{
+		JPanel panel = new JPanel(new BorderLayout(0, 5));
+		panel.setBorder(new EmptyBorder(10, 10, 10, 10));
+
+		list.setVisibleRowCount(8);
+		list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		list.setCellRenderer(new DefaultListCellRenderer()
+		{
+			@Override
+			public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean selected, boolean focused)
+			{
+				AttachmentStore.Attachment attachment = (AttachmentStore.Attachment) value;
+				return super.getListCellRendererComponent(list,
+					attachment.getName() + " (" + formatSize(attachment.getSize()) + ")", index, selected, focused);
+			}
+		});
+		list.addListSelectionListener(e -> updateButtons());
+		panel.add(new JScrollPane(list), BorderLayout.CENTER);
+
+		addButton.setToolTipText("Encrypt a file and attach it to this account");
+		addButton.addActionListener(e -> addFile());
+		saveButton.setToolTipText("Decrypt the selected attachment to a file");
+		saveButton.addActionListener(e -> saveSelected());
+		deleteButton.setToolTipText("Delete the selected attachment");
+		deleteButton.addActionListener(e -> deleteSelected());
+
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+		buttons.add(addButton);
+		buttons.add(saveButton);
+		buttons.add(deleteButton);
+
+		JPanel south = new JPanel(new BorderLayout(0, 5));
+		south.add(status, BorderLayout.NORTH);
+		south.add(buttons, BorderLayout.SOUTH);
+		panel.add(south, BorderLayout.SOUTH);
+
+		setContentPane(panel);
+		updateButtons();
+	}
+
+	private void refresh()
+	{
+		run("Loading...", () ->
+		{
+			List<AttachmentStore.Attachment> attachments = store.list(account);
+			SwingUtilities.invokeLater(() ->
+			{
+				model.clear();
+				attachments.forEach(model::addElement);
+			});
+		});
+	}
+
+	private void addFile()
+	{
+		JFileChooser chooser = new JFileChooser();
+		if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+		{
+			return;
+		}
+
+		File file = chooser.getSelectedFile();
+		run("Encrypting " + file.getName() + "...", () ->
+		{
+			AttachmentStore.Attachment attachment = store.add(account, file.toPath());
+			SwingUtilities.invokeLater(() -> model.addElement(attachment));
+		});
+	}
+
+	private void saveSelected()
+	{
+		AttachmentStore.Attachment attachment = list.getSelectedValue();
+		if (attachment == null)
+		{
+			return;
+		}
+
+		JFileChooser chooser = new JFileChooser();
+		chooser.setSelectedFile(new File(attachment.getName()));
+		if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+		{
+			return;
+		}
+
+		File target = chooser.getSelectedFile();
+		run("Decrypting " + attachment.getName() + "...", () -> store.export(account, attachment, target.toPath()));
+	}
+
+	private void deleteSelected()
+	{
+		AttachmentStore.Attachment attachment = list.getSelectedValue();
+		if (attachment == null)
+		{
+			return;
+		}
+
+		int confirm = JOptionPane.showConfirmDialog(this,
+			"Delete attachment '" + attachment.getName() + "'?",
+			"Confirm Delete",
+			JOptionPane.YES_NO_OPTION);
+		if (confirm == JOptionPane.YES_OPTION)
+		{
+			run("Deleting...", () ->
+			{
+				store.delete(account, attachment);
+				SwingUtilities.invokeLater(() -> model.removeElement(attachment));
+			});
+		}
+	}
+
+	/**
+	 * Runs a file operation in the background with the buttons disabled, showing what failed if it does.
+	 */
+	private void run(String message, IoTask task)
+	{
+		plugin.recordActivity();
+		status.setText(message);
+		setBusy(true);
+		plugin.runInBackground(() ->
+		{
+			try
+			{
+				task.run();
+			}
+			catch (IOException e)
+			{
+				throw new CompletionException(e);
+			}
+		}).whenComplete((ignored, error) -> SwingUtilities.invokeLater(() ->
+		{
+			Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+			status.setText(cause == null ? " " : "Failed: " + cause.getMessage());
+			setBusy(false);
+		}));
+	}
+
+	private void setBusy(boolean busy)
+	{
+		addButton.setEnabled(!busy);
+		list.setEnabled(!busy);
+		updateButtons();
+		if (busy)
+		{
+			saveButton.setEnabled(false);
+			deleteButton.setEnabled(false);
+		}
+	}
+
+	private void updateButtons()
+	{
+		boolean selected = list.isEnabled() && list.getSelectedValue() != null;
+		saveButton.setEnabled(selected);
+		deleteButton.setEnabled(selected);
+	}
+
+	private static String formatSize(long bytes)
+	{
+		if (bytes < 1024)
+		{
+			return bytes + " B";
+		}
+		if (bytes < 1024 * 1024)
+		{
+			return String.format("%.1f KB", bytes / 1024.0);
+		}
+		return String.format("%.1f MB", bytes / (1024.0 * 1024));
+	}
+
+	private interface IoTask
+	{
+		void run() throws IOException;
+	}
+}
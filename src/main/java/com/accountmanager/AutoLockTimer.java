@@ -0,0 +1,96 @@
+package com.accountmanager;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Locks the vault after a period of inactivity. Every {@link #touch()} pushes the
+ * deadline forward, but only one timer is ever scheduled: when it fires early
+ * because the deadline moved, it simply re-arms itself for the remaining time.
+ */
+class AutoLockTimer
+{
+	private final SharedScheduler scheduler;
+	private final LongSupplier timeoutMillis;
+	private final Runnable onTimeout;
+
+	private ScheduledFuture<?> timer;
+	private long timerFiresAt;
+	private long deadline;
+
+	AutoLockTimer(SharedScheduler scheduler, LongSupplier timeoutMillis, Runnable onTimeout)
+	{
+		this.scheduler = scheduler;
+		this.timeoutMillis = timeoutMillis;
+		this.onTimeout = onTimeout;
+	}
+
+	/**
+	 * Records activity, moving the lock deadline to a full timeout from now.
+	 */
+	synchronized void touch()
+	{
+		long timeout = timeoutMillis.getAsLong();
+		if (timeout <= 0)
+		{
+			cancel();
+			return;
+		}
+
+		deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+		// A later deadline is picked up when the current timer fires; only an
+		// earlier one (the timeout was shortened) needs the timer replaced
+		if (timer == null || deadline - timerFiresAt < 0)
+		{
+			arm(deadline);
+		}
+	}
+
+	synchronized void cancel()
+	{
+		if (timer != null)
+		{
+			timer.cancel(false);
+			timer = null;
+		}
+	}
+
+	synchronized boolean isArmed()
+	{
+		return timer != null;
+	}
+
+	private void arm(long firesAt)
+	{
+		if (timer != null)
+		{
+			timer.cancel(false);
+		}
+
+		timerFiresAt = firesAt;
+		timer = scheduler.get().schedule(this::fire, firesAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	private void fire()
+	{
+		synchronized (this)
+		{
+			if (timer == null)
+			{
+				return;
+			}
+
+			if (deadline - System.nanoTime() > 0)
+			{
+				arm(deadline);
+				return;
+			}
+
+			timer = null;
+		}
+
+		onTimeout.run();
+	}
+}
@@ -0,0 +1,223 @@
+package com.accountmanager;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * A downloaded list of breached passwords in the Have I Been Pwned format: one
+ * {@code SHA1:COUNT} line per password, in hex, ordered by hash. The file is memory-mapped,
+ * so a corpus of many gigabytes costs address space rather than heap, and nothing is sent
+ * anywhere.
+ * <p>
+ * Opening builds an index of where each {@value #PREFIX_BITS}-bit hash prefix starts. Since
+ * hashes are uniform, this takes the place of interpolation: a lookup binary-searches the
+ * lines of one prefix only, a few dozen kilobytes, and touches just a handful of pages.
+ */
+class BreachCorpus
+{
+	static final int PREFIX_BITS = 16;
+
+	private static final int PREFIX_HEX_LENGTH = PREFIX_BITS / 4;
+	private static final int HASH_HEX_LENGTH = 40;
+	// A single mapping cannot exceed 2 GB
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+	private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() ->
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Breach corpus initialization failed", e);
+		}
+	});
+
+	private final MappedByteBuffer[] segments;
+	private final long size;
+	// Where the first line of each prefix starts; the extra last entry is the end of the file
+	private final long[] offsets = new long[(1 << PREFIX_BITS) + 1];
+
+	private BreachCorpus(MappedByteBuffer[] segments, long size)
+	{
+		this.segments = segments;
+		this.size = size;
+	}
+
+	/**
+	 * Maps the file and builds its prefix index.
+	 *
+	 * @throws IOException if the file cannot be read
+	 */
+	static BreachCorpus open(Path file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+			for (int i = 0; i < segments.length; i++)
+			{
+				long start = (long) i << SEGMENT_BITS;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+			}
+
+			// The mappings stay valid after the channel is closed
+			BreachCorpus corpus = new BreachCorpus(segments, size);
+			corpus.offsets[corpus.offsets.length - 1] = size;
+			corpus.index(0, 1 << PREFIX_BITS);
+			return corpus;
+		}
+	}
+
+	/**
+	 * Finds where every prefix between {@code from} and {@code to} starts, given where those two
+	 * do, splitting the range in halves so each search only covers the lines between them.
+	 */
+	private void index(int from, int to)
+	{
+		if (to - from < 2)
+		{
+			return;
+		}
+
+		int middle = (from + to) >>> 1;
+		byte[] prefix = new byte[PREFIX_HEX_LENGTH];
+		for (int i = 0; i < PREFIX_HEX_LENGTH; i++)
+		{
+			prefix[i] = HEX[(middle >>> (4 * (PREFIX_HEX_LENGTH - 1 - i))) & 0xF];
+		}
+		offsets[middle] = lowerBound(prefix, offsets[from], offsets[to]);
+		index(from, middle);
+		index(middle, to);
+	}
+
+	/**
+	 * @return how often the password appears in the corpus, 0 if it does not
+	 */
+	int count(SecretBuffer password)
+	{
+		MessageDigest digest = SHA1.get();
+		digest.update(password.view());
+		return count(digest.digest());
+	}
+
+	/**
+	 * @return how often the password with this SHA-1 hash appears in the corpus, 0 if it does not
+	 */
+	int count(byte[] sha1)
+	{
+		byte[] hex = new byte[HASH_HEX_LENGTH];
+		for (int i = 0; i < sha1.length; i++)
+		{
+			hex[i * 2] = HEX[(sha1[i] >>> 4) & 0xF];
+			hex[i * 2 + 1] = HEX[sha1[i] & 0xF];
+		}
+
+		int prefix = ((sha1[0] & 0xFF) << 8 | (sha1[1] & 0xFF)) >>> (16 - PREFIX_BITS);
+		long end = offsets[prefix + 1];
+		long line = lowerBound(hex, offsets[prefix], end);
+		if (line >= end || compare(line, hex) != 0)
+		{
+			return 0;
+		}
+		return readCount(line + HASH_HEX_LENGTH);
+	}
+
+	long size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the start of the first line between {@code from} and {@code to}, both line starts,
+	 * that does not sort before {@code key}, or {@code to} if there is none
+	 */
+	private long lowerBound(byte[] key, long from, long to)
+	{
+		long low = from;
+		long high = to;
+		while (low < high)
+		{
+			long line = lineStart((low + high) >>> 1, low);
+			if (compare(line, key) < 0)
+			{
+				low = nextLine(line);
+			}
+			else
+			{
+				high = line;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Compares the start of a line with {@code key}, ignoring case.
+	 */
+	private int compare(long line, byte[] key)
+	{
+		for (int i = 0; i < key.length; i++)
+		{
+			long position = line + i;
+			int b = position < size ? Character.toUpperCase(byteAt(position)) : -1;
+			if (b != key[i])
+			{
+				return b < key[i] ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	private long lineStart(long position, long floor)
+	{
+		while (position > floor && byteAt(position - 1) != '\n')
+		{
+			position--;
+		}
+		return position;
+	}
+
+	private long nextLine(long position)
+	{
+		while (position < size && byteAt(position) != '\n')
+		{
+			position++;
+		}
+		return Math.min(position + 1, size);
+	}
+
+	/**
+	 * @return the count after the hash, or 1 for a list of hashes without counts
+	 */
+	private int readCount(long position)
+	{
+		if (position >= size || byteAt(position) != ':')
+		{
+			return 1;
+		}
+
+		long count = 0;
+		for (position++; position < size; position++)
+		{
+			int b = byteAt(position);
+			if (b < '0' || b > '9')
+			{
+				break;
+			}
+			count = Math.min(count * 10 + (b - '0'), Integer.MAX_VALUE);
+		}
+		return (int) Math.max(count, 1);
+	}
+
+	private int byteAt(long position)
+	{
+		return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & (SEGMENT_SIZE - 1)));
+	}
+}
@@ -0,0 +1,184 @@
+package com.accountmanager;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The AEAD ciphers a vault can be encrypted with. Both take the same 256-bit key and a 96-bit
+ * nonce and add a 128-bit tag, so values have the same layout whichever one made them.
+ * AES-GCM is fastest with AES instructions in the CPU, ChaCha20-Poly1305 without them.
+ */
+@Slf4j
+enum CipherSuite
+{
+	AES_GCM("aes-gcm", "AES/GCM/NoPadding", "AES"),
+	CHACHA20_POLY1305("chacha20-poly1305", "ChaCha20-Poly1305", "ChaCha20");
+
+	static final int NONCE_LENGTH = 12;
+	static final int TAG_LENGTH = 16;
+
+	// Big enough for the cipher loops to get compiled with their CPU intrinsics within the budget
+	private static final int BENCHMARK_PAYLOAD = 8192;
+	private static final int BENCHMARK_MIN_ROUNDS = 3;
+	private static final long BENCHMARK_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static volatile CipherSuite fastest;
+	private static final AtomicBoolean benchmarkStarted = new AtomicBoolean();
+
+	/**
+	 * How the suite is named in the vault's stored metadata.
+	 */
+	@Getter
+	private final String id;
+	private final String transformation;
+	private final String keyAlgorithm;
+
+	CipherSuite(String id, String transformation, String keyAlgorithm)
+	{
+		this.id = id;
+		this.transformation = transformation;
+		this.keyAlgorithm = keyAlgorithm;
+	}
+
+	/**
+	 * @param id a stored id, or null for a vault saved before there was a choice, which uses AES-GCM
+	 * @throws IllegalStateException if the id is not a known suite, e.g. one added in a later version
+	 */
+	static CipherSuite fromId(String id)
+	{
+		if (id == null)
+		{
+			return AES_GCM;
+		}
+
+		for (CipherSuite suite : values())
+		{
+			if (suite.id.equals(id))
+			{
+				return suite;
+			}
+		}
+		throw new IllegalStateException("Unsupported cipher suite: " + id);
+	}
+
+	/**
+	 * @return the suite that encrypts and decrypts fastest on this machine, measured on first use
+	 */
+	static CipherSuite fastest()
+	{
+		CipherSuite result = fastest;
+		if (result == null)
+		{
+			result = benchmark();
+			fastest = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Never waits for the benchmark, e.g. when a vault is set up while unlocking it on the EDT.
+	 *
+	 * @return the fastest suite if it has been measured, otherwise AES-GCM, which most CPUs have
+	 * instructions for, with the benchmark started in the background for the next caller
+	 */
+	static CipherSuite fastestOrDefault()
+	{
+		CipherSuite result = fastest;
+		if (result != null)
+		{
+			return result;
+		}
+
+		if (benchmarkStarted.compareAndSet(false, true))
+		{
+			CompletableFuture.runAsync(CipherSuite::fastest);
+		}
+		return AES_GCM;
+	}
+
+	/**
+	 * Times each suite on a throwaway key in alternating rounds until the time budget is spent,
+	 * keeping each one's best round, which evens out the JIT warming up during the first rounds.
+	 */
+	private static CipherSuite benchmark()
+	{
+		byte[] key = new byte[32];
+		byte[] payload = new byte[BENCHMARK_PAYLOAD];
+		SecureRandom random = new SecureRandom();
+		random.nextBytes(key);
+		random.nextBytes(payload);
+
+		long[] best = new long[values().length];
+		Arrays.fill(best, Long.MAX_VALUE);
+		long start = System.nanoTime();
+		for (int round = 0; round < BENCHMARK_MIN_ROUNDS || System.nanoTime() - start < BENCHMARK_BUDGET_NANOS; round++)
+		{
+			for (CipherSuite suite : values())
+			{
+				try
+				{
+					best[suite.ordinal()] = Math.min(best[suite.ordinal()], suite.time(key, payload));
+				}
+				catch (GeneralSecurityException e)
+				{
+					// Not available in this JRE, so never picked
+					log.debug("Cipher suite {} unavailable: {}", suite.id, e.getMessage());
+				}
+			}
+		}
+
+		CipherSuite result = AES_GCM;
+		for (CipherSuite suite : values())
+		{
+			if (best[suite.ordinal()] < best[result.ordinal()])
+			{
+				result = suite;
+			}
+		}
+		log.debug("Fastest cipher suite is {} ({})", result.id, Arrays.toString(best));
+		return result;
+	}
+
+	private long time(byte[] rawKey, byte[] payload) throws GeneralSecurityException
+	{
+		SecretKey key = key(rawKey);
+		// A fresh nonce each time, as ChaCha20-Poly1305 refuses to encrypt twice with one
+		byte[] nonce = new byte[NONCE_LENGTH];
+		new SecureRandom().nextBytes(nonce);
+		long start = System.nanoTime();
+		byte[] ciphertext = init(Cipher.ENCRYPT_MODE, key, nonce, 0).doFinal(payload);
+		init(Cipher.DECRYPT_MODE, key, nonce, 0).doFinal(ciphertext);
+		return System.nanoTime() - start;
+	}
+
+	SecretKey key(byte[] rawKey)
+	{
+		return new SecretKeySpec(rawKey, keyAlgorithm);
+	}
+
+	/**
+	 * @return a cipher set up with the nonce found at {@code offset} in {@code nonce}
+	 */
+	Cipher init(int mode, SecretKey key, byte[] nonce, int offset) throws GeneralSecurityException
+	{
+		Cipher cipher = Cipher.getInstance(transformation);
+		AlgorithmParameterSpec spec = this == AES_GCM
+			? new GCMParameterSpec(TAG_LENGTH * 8, nonce, offset, NONCE_LENGTH)
+			: new IvParameterSpec(nonce, offset, NONCE_LENGTH);
+		cipher.init(mode, key, spec);
+		return cipher;
+	}
+}
@@ -0,0 +1,38 @@
+package com.accountmanager;
+
+import net.runelite.client.config.ConfigManager;
+
+/**
+ * Stores the vault in RuneLite's config under {@link AccountManagerConfig#CONFIG_GROUP}.
+ */
+class ConfigVaultStore implements VaultStore
+{
+	private final ConfigManager configManager;
+
+	ConfigVaultStore(ConfigManager configManager)
+	{
+		this.configManager = configManager;
+	}
+
+	@Override
+	public String get(String key)
+	{
+		return configManager.getConfiguration(AccountManagerConfig.CONFIG_GROUP, key);
+	}
+
+	/**
+	 * Stores a value, or removes the key if it is null; ConfigManager does not take null values.
+	 */
+	@Override
+	public void set(String key, String value)
+	{
+		if (value == null)
+		{
+			configManager.unsetConfiguration(AccountManagerConfig.CONFIG_GROUP, key);
+		}
+		else
+		{
+			configManager.setConfiguration(AccountManagerConfig.CONFIG_GROUP, key, value);
+		}
+	}
+}
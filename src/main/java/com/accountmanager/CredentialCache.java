@@ -0,0 +1,212 @@
+package com.accountmanager;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * Short-lived cache of decrypted credentials. Accounts are decrypted in the background
+ * (e.g. when the user hovers the login icon) so filling the login form on the client
+ * thread never has to run any crypto. Entries are wiped once their time to live
+ * runs out, when the account changes, or when the vault is locked.
+ */
+@Slf4j
+class CredentialCache
+{
+	private final EncryptionService encryptionService;
+	private final ScheduledExecutorService executor;
+	private final IntSupplier ttlSeconds;
+
+	private final Map<String, CompletableFuture<Credentials>> entries = new ConcurrentHashMap<>();
+
+	CredentialCache(EncryptionService encryptionService, ScheduledExecutorService executor, IntSupplier ttlSeconds)
+	{
+		this.encryptionService = encryptionService;
+		this.executor = executor;
+		this.ttlSeconds = ttlSeconds;
+	}
+
+	/**
+	 * Starts decrypting an account in the background if it is not cached yet.
+	 */
+	void prefetch(Account account)
+	{
+		get(account);
+	}
+
+	/**
+	 * @return the decrypted credentials, completed on the cache's executor if they had to be decrypted
+	 */
+	CompletableFuture<Credentials> get(Account account)
+	{
+		String id = account.getId();
+		CompletableFuture<Credentials> cached = entries.get(id);
+		if (cached != null)
+		{
+			return cached;
+		}
+
+		// Inserted before it is started, so that removing it on completion never runs inside a
+		// map update, as it could from within computeIfAbsent if decrypting finished at once
+		CompletableFuture<Credentials> future = new CompletableFuture<>();
+		cached = entries.putIfAbsent(id, future);
+		if (cached != null)
+		{
+			return cached;
+		}
+
+		future.whenComplete((credentials, ex) ->
+		{
+			if (ex != null)
+			{
+				log.warn("Could not decrypt credentials for account: {}", account.getNickname());
+				entries.remove(id, future);
+			}
+			else
+			{
+				executor.schedule(() -> expire(id, future), ttlSeconds.getAsInt(), TimeUnit.SECONDS);
+			}
+		});
+		try
+		{
+			executor.execute(() ->
+			{
+				try
+				{
+					future.complete(decrypt(account));
+				}
+				catch (RuntimeException e)
+				{
+					future.completeExceptionally(e);
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Drops and wipes the cached credentials of an account, e.g. after it was edited or deleted.
+	 */
+	void invalidate(String accountId)
+	{
+		CompletableFuture<Credentials> future = entries.remove(accountId);
+		if (future != null)
+		{
+			future.thenAccept(Credentials::wipe);
+		}
+	}
+
+	void clear()
+	{
+		for (String id : entries.keySet())
+		{
+			invalidate(id);
+		}
+	}
+
+	private void expire(String accountId, CompletableFuture<Credentials> future)
+	{
+		if (entries.remove(accountId, future))
+		{
+			future.thenAccept(Credentials::wipe);
+		}
+	}
+
+	private Credentials decrypt(Account account)
+	{
+		SecretBuffer username = null;
+		SecretBuffer password = null;
+		try
+		{
+			username = encryptionService.decryptSecret(account.getEncryptedUsername());
+			password = encryptionService.decryptSecret(account.getEncryptedPassword());
+			SecretBuffer totpSecret = account.hasTotpSecret()
+				? encryptionService.decryptSecret(account.getEncryptedTotpSecret())
+				: null;
+			return new Credentials(username, password, totpSecret);
+		}
+		catch (RuntimeException e)
+		{
+			if (username != null)
+			{
+				username.close();
+			}
+			if (password != null)
+			{
+				password.close();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Decrypted credentials of a single account. Read them through {@link #read(Function)}
+	 * so a reader never sees a half-cleared value.
+	 */
+	static final class Credentials
+	{
+		private final SecretBuffer username;
+		private final SecretBuffer password;
+		private final SecretBuffer totpSecret;
+		private boolean wiped;
+
+		Credentials(SecretBuffer username, SecretBuffer password, SecretBuffer totpSecret)
+		{
+			this.username = username;
+			this.password = password;
+			this.totpSecret = totpSecret;
+		}
+
+		SecretBuffer getUsername()
+		{
+			return username;
+		}
+
+		SecretBuffer getPassword()
+		{
+			return password;
+		}
+
+		SecretBuffer getTotpSecret()
+		{
+			return totpSecret;
+		}
+
+		/**
+		 * Runs {@code reader} unless the credentials were already wiped, holding off
+		 * any concurrent wipe until it returns.
+		 *
+		 * @return the reader's result, or null if the credentials were wiped before they could be read
+		 */
+		synchronized <T> T read(Function<Credentials, T> reader)
+		{
+			if (wiped)
+			{
+				return null;
+			}
+			return reader.apply(this);
+		}
+
+		synchronized void wipe()
+		{
+			username.close();
+			password.close();
+			if (totpSecret != null)
+			{
+				totpSecret.close();
+			}
+			wiped = true;
+		}
+	}
+}
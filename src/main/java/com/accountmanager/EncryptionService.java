@@ -1,33 +1,89 @@
 package com.accountmanager;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
-import java.security.spec.KeySpec;
 import java.util.Arrays;
 import java.util.Base64;
 
 public class EncryptionService
 {
-	private static final String ALGORITHM = "AES/GCM/NoPadding";
 	private static final int KEY_SIZE = 256;
-	private static final int GCM_IV_LENGTH = 12;
-	private static final int GCM_TAG_LENGTH = 128;
+	private static final int NONCE_LENGTH = CipherSuite.NONCE_LENGTH;
 	private static final int PBKDF2_ITERATIONS = 310000;
 	private static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA256";
+	private static final String SUBKEY_ALGORITHM = "HmacSHA256";
 
 	private final SecretKey secretKey;
+	private final CipherSuite cipherSuite;
+	// The vault key as the suite's cipher expects it
+	private final SecretKey cipherKey;
+	private PluginMetrics metrics;
 
 	public EncryptionService(String masterPassword, String saltBase64)
 	{
-		byte[] salt = Base64.getDecoder().decode(saltBase64);
-		this.secretKey = deriveKey(masterPassword, salt);
+		char[] password = masterPassword.toCharArray();
+		try
+		{
+			this.secretKey = deriveKey(password, Base64.getDecoder().decode(saltBase64));
+		}
+		finally
+		{
+			Arrays.fill(password, '\0');
+		}
+		this.cipherSuite = CipherSuite.AES_GCM;
+		this.cipherKey = secretKey;
+	}
+
+	/**
+	 * Derives the vault key without the master password ever becoming a String.
+	 * The caller remains responsible for clearing {@code masterPassword}.
+	 */
+	public EncryptionService(char[] masterPassword, String saltBase64)
+	{
+		this.secretKey = deriveKey(masterPassword, Base64.getDecoder().decode(saltBase64));
+		this.cipherSuite = CipherSuite.AES_GCM;
+		this.cipherKey = secretKey;
+	}
+
+	/**
+	 * Uses an already derived vault key, e.g. one shared by another instance of the plugin.
+	 */
+	EncryptionService(byte[] key)
+	{
+		this.secretKey = new SecretKeySpec(key, "AES");
+		this.cipherSuite = CipherSuite.AES_GCM;
+		this.cipherKey = secretKey;
+	}
+
+	private EncryptionService(SecretKey secretKey, CipherSuite cipherSuite, PluginMetrics metrics)
+	{
+		this.secretKey = secretKey;
+		this.cipherSuite = cipherSuite;
+		this.cipherKey = keyFor(cipherSuite);
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return a service with the same key that encrypts with {@code suite}. It still decrypts
+	 * values from any suite, so a vault stays readable while it is re-encrypted.
+	 */
+	EncryptionService withCipherSuite(CipherSuite suite)
+	{
+		return suite == cipherSuite ? this : new EncryptionService(secretKey, suite, metrics);
+	}
+
+	CipherSuite getCipherSuite()
+	{
+		return cipherSuite;
 	}
 
 	public static String generateSalt()
@@ -37,31 +93,46 @@ public class EncryptionService
 		return Base64.getEncoder().encodeToString(salt);
 	}
 
-	private SecretKey deriveKey(String password, byte[] salt)
+	void setMetrics(PluginMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	private SecretKey deriveKey(char[] password, byte[] salt)
 	{
+		PBEKeySpec spec = new PBEKeySpec(password, salt, PBKDF2_ITERATIONS, KEY_SIZE);
 		try
 		{
 			SecretKeyFactory factory = SecretKeyFactory.getInstance(PBKDF2_ALGORITHM);
-			KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, PBKDF2_ITERATIONS, KEY_SIZE);
 			byte[] keyBytes = factory.generateSecret(spec).getEncoded();
-			return new SecretKeySpec(keyBytes, "AES");
+			try
+			{
+				return new SecretKeySpec(keyBytes, "AES");
+			}
+			finally
+			{
+				Arrays.fill(keyBytes, (byte) 0);
+			}
 		}
 		catch (Exception e)
 		{
 			throw new RuntimeException("Key derivation failed", e);
 		}
+		finally
+		{
+			spec.clearPassword();
+		}
 	}
 
 	public String encrypt(String plaintext)
 	{
+		long start = System.nanoTime();
 		try
 		{
-			byte[] iv = new byte[GCM_IV_LENGTH];
+			byte[] iv = new byte[NONCE_LENGTH];
 			new SecureRandom().nextBytes(iv);
 
-			Cipher cipher = Cipher.getInstance(ALGORITHM);
-			GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-			cipher.init(Cipher.ENCRYPT_MODE, secretKey, spec);
+			Cipher cipher = cipherSuite.init(Cipher.ENCRYPT_MODE, cipherKey, iv, 0);
 
 			byte[] ciphertext = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
 
@@ -75,28 +146,190 @@ public class EncryptionService
 		{
 			throw new RuntimeException("Encryption failed", e);
 		}
+		finally
+		{
+			record(PluginMetrics.ENCRYPT, start);
+		}
 	}
 
-	public String decrypt(String encryptedBase64)
+	/**
+	 * Encrypts a secret straight from its off-heap buffer.
+	 */
+	public String encrypt(SecretBuffer plaintext)
 	{
+		long start = System.nanoTime();
 		try
 		{
-			byte[] combined = Base64.getDecoder().decode(encryptedBase64);
+			byte[] iv = new byte[NONCE_LENGTH];
+			new SecureRandom().nextBytes(iv);
 
-			byte[] iv = Arrays.copyOfRange(combined, 0, GCM_IV_LENGTH);
-			byte[] ciphertext = Arrays.copyOfRange(combined, GCM_IV_LENGTH, combined.length);
+			Cipher cipher = cipherSuite.init(Cipher.ENCRYPT_MODE, cipherKey, iv, 0);
+
+			ByteBuffer input = plaintext.view();
+			byte[] combined = new byte[NONCE_LENGTH + cipher.getOutputSize(input.remaining())];
+			System.arraycopy(iv, 0, combined, 0, iv.length);
+			cipher.doFinal(input, ByteBuffer.wrap(combined, NONCE_LENGTH, combined.length - NONCE_LENGTH));
 
-			Cipher cipher = Cipher.getInstance(ALGORITHM);
-			GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-			cipher.init(Cipher.DECRYPT_MODE, secretKey, spec);
+			return Base64.getEncoder().encodeToString(combined);
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Encryption failed", e);
+		}
+		finally
+		{
+			record(PluginMetrics.ENCRYPT, start);
+		}
+	}
 
-			byte[] plaintext = cipher.doFinal(ciphertext);
+	public String decrypt(String encryptedBase64)
+	{
+		byte[] plaintext = decryptBytes(encryptedBase64);
+		try
+		{
 			return new String(plaintext, StandardCharsets.UTF_8);
 		}
+		finally
+		{
+			Arrays.fill(plaintext, (byte) 0);
+		}
+	}
+
+	private byte[] decryptBytes(String encryptedBase64)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			byte[] combined = Base64.getDecoder().decode(encryptedBase64);
+			return decrypt(combined, cipher -> cipher.doFinal(combined, NONCE_LENGTH, combined.length - NONCE_LENGTH));
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Decryption failed", e);
+		}
+		finally
+		{
+			record(PluginMetrics.DECRYPT, start);
+		}
+	}
+
+	/**
+	 * Decrypts straight into an off-heap buffer, which the caller must close when done.
+	 */
+	public SecretBuffer decryptSecret(String encryptedBase64)
+	{
+		long start = System.nanoTime();
+		ByteBuffer output = null;
+		try
+		{
+			byte[] combined = Base64.getDecoder().decode(encryptedBase64);
+
+			// At least as long as the plaintext, whichever suite it turns out to be
+			ByteBuffer target = ByteBuffer.allocateDirect(Math.max(0, combined.length - NONCE_LENGTH));
+			output = target;
+			decrypt(combined, cipher ->
+			{
+				target.clear();
+				return cipher.doFinal(ByteBuffer.wrap(combined, NONCE_LENGTH, combined.length - NONCE_LENGTH), target);
+			});
+			output.flip();
+			return new SecretBuffer(output);
+		}
 		catch (Exception e)
 		{
+			if (output != null)
+			{
+				new SecretBuffer(output).close();
+			}
 			throw new RuntimeException("Decryption failed", e);
 		}
+		finally
+		{
+			record(PluginMetrics.DECRYPT, start);
+		}
+	}
+
+	/**
+	 * Decrypts with this service's suite, falling back to the others. A value from another suite
+	 * fails authentication just like a tampered one, so trying them is safe; it happens while a
+	 * vault is re-encrypted, or when another client saved before it picked up the switch.
+	 */
+	private <T> T decrypt(byte[] combined, Decryption<T> decryption) throws GeneralSecurityException
+	{
+		try
+		{
+			return decryption.run(cipherSuite.init(Cipher.DECRYPT_MODE, cipherKey, combined, 0));
+		}
+		catch (AEADBadTagException e)
+		{
+			for (CipherSuite other : CipherSuite.values())
+			{
+				if (other == cipherSuite)
+				{
+					continue;
+				}
+
+				try
+				{
+					return decryption.run(other.init(Cipher.DECRYPT_MODE, keyFor(other), combined, 0));
+				}
+				catch (AEADBadTagException ignored)
+				{
+					// Not this one either
+				}
+			}
+			throw e;
+		}
+	}
+
+	private SecretKey keyFor(CipherSuite suite)
+	{
+		if (suite == CipherSuite.AES_GCM)
+		{
+			return secretKey;
+		}
+
+		byte[] raw = secretKey.getEncoded();
+		try
+		{
+			return suite.key(raw);
+		}
+		finally
+		{
+			Arrays.fill(raw, (byte) 0);
+		}
+	}
+
+	private interface Decryption<T>
+	{
+		T run(Cipher cipher) throws GeneralSecurityException;
+	}
+
+	/**
+	 * Derives a key for a separate purpose (e.g. blind indexing) from the vault key,
+	 * so the vault key itself is never used outside of encryption.
+	 */
+	public SecretKey deriveSubkey(String purpose)
+	{
+		try
+		{
+			Mac mac = Mac.getInstance(SUBKEY_ALGORITHM);
+			mac.init(secretKey);
+			byte[] keyBytes = mac.doFinal(purpose.getBytes(StandardCharsets.UTF_8));
+			return new SecretKeySpec(keyBytes, SUBKEY_ALGORITHM);
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Subkey derivation failed", e);
+		}
+	}
+
+	/**
+	 * @return a copy of the raw vault key, which the caller must wipe
+	 */
+	byte[] exportKey()
+	{
+		return secretKey.getEncoded();
 	}
 
 	public boolean verifyPassword(String testCiphertext)
@@ -111,4 +344,12 @@ public class EncryptionService
 			return false;
 		}
 	}
+
+	private void record(String metric, long startNanos)
+	{
+		if (metrics != null)
+		{
+			metrics.recordSince(metric, startNanos);
+		}
+	}
 }
@@ -0,0 +1,217 @@
+package com.accountmanager;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.text.DateFormat;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Lists the earlier passwords and TOTP secrets of an account, shows one on request and puts
+ * one back. The history is read when the dialog opens and nothing is decrypted until "Show".
+ */
+@Slf4j
+class HistoryDialog extends JDialog
+{
+	private final AccountManagerPlugin plugin;
+	private final Vault vault;
+	private final Account account;
+	private final Runnable onRestored;
+
+	private final DefaultListModel<AccountHistory.Version> model = new DefaultListModel<>();
+	private final JList<AccountHistory.Version> list = new JList<>(model);
+	private final JTextField passwordField = new JTextField();
+	private final JLabel status = new JLabel(" ");
+	private final JButton showButton = new JButton("Show");
+	private final JButton restoreButton = new JButton("Restore");
+
+	/**
+	 * @param onRestored called on the EDT after a version was restored
+	 */
+	HistoryDialog(Window owner, AccountManagerPlugin plugin, Vault vault, Account account, Runnable onRestored)
+	{
+		super(owner, account.getNickname() + " history", ModalityType.MODELESS);
+		this.plugin = plugin;
+		this.vault = vault;
+		this.account = account;
+		this.onRestored = onRestored;
+
+		buildUI();
+		pack();
+		setMinimumSize(new Dimension(300, getHeight()));
+		setLocationRelativeTo(owner);
+		refresh();
+	}
+
+	private void buildUI()
+	{
+		JPanel panel = new JPanel(new BorderLayout(0, 5));
+		panel.setBorder(new EmptyBorder(10, 10, 10, 10));
+
+		DateFormat format = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
+		list.setVisibleRowCount(8);
+		list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		list.setCellRenderer(new DefaultListCellRenderer()
+		{
+			@Override
+			public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean selected, boolean focused)
+			{
+				AccountHistory.Version version = (AccountHistory.Version) value;
+				String changed = version.isPasswordChanged() && version.isTotpSecretChanged() ? "password and TOTP"
+					: version.isPasswordChanged() ? "password" : "TOTP";
+				return super.getListCellRendererComponent(list,
+					"Until " + format.format(new Date(version.getReplaced())) + " (" + changed + ")", index, selected, focused);
+			}
+		});
+		list.addListSelectionListener(e ->
+		{
+			passwordField.setText("");
+			updateButtons();
+		});
+		panel.add(new JScrollPane(list), BorderLayout.CENTER);
+
+		passwordField.setEditable(false);
+		showButton.setToolTipText("Decrypt the password of the selected version");
+		showButton.addActionListener(e -> showSelected());
+		restoreButton.setToolTipText("Make the selected version's password and TOTP secret current again");
+		restoreButton.addActionListener(e -> restoreSelected());
+
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+		buttons.add(showButton);
+		buttons.add(restoreButton);
+
+		JPanel south = new JPanel(new BorderLayout(0, 5));
+		south.add(passwordField, BorderLayout.NORTH);
+		south.add(status, BorderLayout.CENTER);
+		south.add(buttons, BorderLayout.SOUTH);
+		panel.add(south, BorderLayout.SOUTH);
+
+		setContentPane(panel);
+		updateButtons();
+	}
+
+	private void refresh()
+	{
+		status.setText("Loading...");
+		setBusy(true);
+		plugin.runInBackground(() ->
+		{
+			List<AccountHistory.Version> versions = vault.getHistory(account);
+			SwingUtilities.invokeLater(() ->
+			{
+				model.clear();
+				versions.forEach(model::addElement);
+				status.setText(versions.isEmpty() ? "No earlier versions" : " ");
+			});
+		}).whenComplete((ignored, error) -> SwingUtilities.invokeLater(() ->
+		{
+			if (error != null)
+			{
+				Throwable cause = error.getCause() != null ? error.getCause() : error;
+				status.setText("Failed: " + cause.getMessage());
+			}
+			setBusy(false);
+		}));
+	}
+
+	private void showSelected()
+	{
+		AccountHistory.Version version = list.getSelectedValue();
+		if (version == null)
+		{
+			return;
+		}
+
+		plugin.recordActivity();
+		EncryptionService encryption = vault.getEncryptionService();
+		if (encryption == null)
+		{
+			status.setText("Vault is locked");
+			return;
+		}
+		try (SecretBuffer password = encryption.decryptSecret(version.getEncryptedPassword()))
+		{
+			passwordField.setText(password.asString());
+		}
+	}
+
+	private void restoreSelected()
+	{
+		AccountHistory.Version version = list.getSelectedValue();
+		Account current = findCurrent();
+		if (version == null || current == null)
+		{
+			return;
+		}
+
+		int confirm = JOptionPane.showConfirmDialog(this,
+			"Replace the current password and TOTP secret with this version? The current ones stay in the history.",
+			"Confirm Restore",
+			JOptionPane.YES_NO_OPTION);
+		if (confirm != JOptionPane.YES_OPTION)
+		{
+			return;
+		}
+
+		Account restored = new Account(current.getId(), current.getNickname(), current.getEncryptedUsername(),
+			version.getEncryptedPassword(), version.getEncryptedTotpSecret(), current.getFields(),
+			current.getCreated(), current.getVersion(), current.getDevice(), false);
+		status.setText("Restoring...");
+		setBusy(true);
+		plugin.runInBackground(() -> plugin.updateAccount(vault, restored)).whenComplete((ignored, error) -> SwingUtilities.invokeLater(() ->
+		{
+			if (error != null)
+			{
+				Throwable cause = error.getCause() != null ? error.getCause() : error;
+				if (!(cause instanceof ConcurrentModificationException))
+				{
+					log.warn("Failed to restore account", error);
+				}
+				status.setText("Failed: " + cause.getMessage());
+				setBusy(false);
+				return;
+			}
+			onRestored.run();
+			refresh();
+		}));
+	}
+
+	/**
+	 * @return the account as the vault has it now, or null if it was deleted
+	 */
+	private Account findCurrent()
+	{
+		for (Account candidate : vault.getAccounts())
+		{
+			if (candidate.getId().equals(account.getId()))
+			{
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	private void setBusy(boolean busy)
+	{
+		list.setEnabled(!busy);
+		updateButtons();
+	}
+
+	private void updateButtons()
+	{
+		boolean selected = list.isEnabled() && list.getSelectedValue() != null;
+		showButton.setEnabled(selected);
+		restoreButton.setEnabled(selected);
+	}
+
+	@Override
+	public void dispose()
+	{
+		passwordField.setText("");
+		super.dispose();
+	}
+}
@@ -0,0 +1,177 @@
+package com.accountmanager;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.LookupOp;
+import java.awt.image.ShortLookupTable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * All icons rendered at one display scale into a single shared image: normal variants in the
+ * top row, hover variants below. Glyphs are painted at the scale itself the first time they
+ * are drawn, so on HiDPI displays they are sharp and Swing never has to resample them.
+ */
+final class IconAtlas
+{
+	private static final int HOVER_BRIGHTEN = 50;
+	private static final LookupOp HOVER_OP = createHoverOp();
+	private static final Map<Integer, IconAtlas> ATLASES = new ConcurrentHashMap<>();
+
+	private final double scale;
+	private final int[] cellX = new int[Icons.values().length];
+	private final int[] cellSize = new int[Icons.values().length];
+	private final int rowHeight;
+	private final BufferedImage image;
+	private final boolean[] painted = new boolean[Icons.values().length];
+	private final boolean[] hoverPainted = new boolean[Icons.values().length];
+
+	private IconAtlas(double scale)
+	{
+		this.scale = scale;
+
+		// Cells start on whole pixels so neighbouring glyphs never bleed into each other
+		int x = 0;
+		int height = 0;
+		for (Icons glyph : Icons.values())
+		{
+			int size = (int) Math.ceil(glyph.size() * scale);
+			cellX[glyph.ordinal()] = x;
+			cellSize[glyph.ordinal()] = size;
+			x += size;
+			height = Math.max(height, size);
+		}
+		rowHeight = height;
+		image = new BufferedImage(x, rowHeight * 2, BufferedImage.TYPE_INT_ARGB);
+	}
+
+	/**
+	 * @return the atlas for a display scale, e.g. 1.0, 1.5 or 2.0
+	 */
+	static IconAtlas forScale(double scale)
+	{
+		// Scales are only told apart to a hundredth, which also keeps float noise out of the key
+		int key = Math.max(100, (int) Math.round(scale * 100));
+		return ATLASES.computeIfAbsent(key, k -> new IconAtlas(k / 100.0));
+	}
+
+	double getScale()
+	{
+		return scale;
+	}
+
+	/**
+	 * Draws the glyph at its logical size, painting it into the atlas first if needed. Device
+	 * pixels of the atlas map one to one onto the icon area, so nothing is resampled.
+	 */
+	void draw(Graphics g, Icons glyph, boolean hover, int x, int y)
+	{
+		ensurePainted(glyph, hover);
+		int i = glyph.ordinal();
+		int sy = hover ? rowHeight : 0;
+		g.drawImage(image, x, y, x + glyph.size(), y + glyph.size(),
+			cellX[i], sy, cellX[i] + cellSize[i], sy + cellSize[i], null);
+	}
+
+	/**
+	 * @return the part of the atlas holding the glyph, painted if it was not yet
+	 */
+	BufferedImage glyph(Icons glyph, boolean hover)
+	{
+		ensurePainted(glyph, hover);
+		return cell(glyph, hover);
+	}
+
+	private synchronized void ensurePainted(Icons glyph, boolean hover)
+	{
+		int i = glyph.ordinal();
+		if (!painted[i])
+		{
+			paint(glyph);
+			painted[i] = true;
+		}
+		if (hover && !hoverPainted[i])
+		{
+			HOVER_OP.filter(cell(glyph, false), cell(glyph, true));
+			hoverPainted[i] = true;
+		}
+	}
+
+	private void paint(Icons glyph)
+	{
+		BufferedImage cell = cell(glyph, false);
+		Graphics2D g = cell.createGraphics();
+		try
+		{
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+			g.scale(scale, scale);
+			glyph.paint(g);
+		}
+		finally
+		{
+			g.dispose();
+		}
+	}
+
+	private BufferedImage cell(Icons glyph, boolean hover)
+	{
+		int size = cellSize[glyph.ordinal()];
+		return image.getSubimage(cellX[glyph.ordinal()], hover ? rowHeight : 0, size, size);
+	}
+
+	private static LookupOp createHoverOp()
+	{
+		short[] brighten = new short[256];
+		short[] identity = new short[256];
+		for (int i = 0; i < brighten.length; i++)
+		{
+			brighten[i] = (short) Math.min(255, i + HOVER_BRIGHTEN);
+			identity[i] = (short) i;
+		}
+		// Red, green, blue, then alpha, which is kept
+		return new LookupOp(new ShortLookupTable(0, new short[][]{brighten, brighten, brighten, identity}), null);
+	}
+
+	/**
+	 * An icon that draws its glyph from the atlas matching the scale of whatever it is painted on.
+	 */
+	static final class AtlasIcon implements Icon
+	{
+		private final Icons glyph;
+		private final boolean hover;
+
+		AtlasIcon(Icons glyph, boolean hover)
+		{
+			this.glyph = glyph;
+			this.hover = hover;
+		}
+
+		@Override
+		public void paintIcon(Component c, Graphics g, int x, int y)
+		{
+			double scale = 1;
+			if (g instanceof Graphics2D)
+			{
+				AffineTransform transform = ((Graphics2D) g).getTransform();
+				scale = Math.max(transform.getScaleX(), transform.getScaleY());
+			}
+
+			forScale(scale).draw(g, glyph, hover, x, y);
+		}
+
+		@Override
+		public int getIconWidth()
+		{
+			return glyph.size();
+		}
+
+		@Override
+		public int getIconHeight()
+		{
+			return glyph.size();
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package com.accountmanager;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The plugin's JFR event types. Use through {@link VaultEvents}, which guards against
+ * runtimes without the jdk.jfr module. {@code account-manager.jfc} enables all of them.
+ */
+final class JfrVaultEvents
+{
+	private static final String CATEGORY = "Account Manager";
+
+	private JfrVaultEvents()
+	{
+	}
+
+	static Object begin(VaultEvents.Type type)
+	{
+		Event event;
+		switch (type)
+		{
+			case UNLOCK:
+				event = new UnlockEvent();
+				break;
+			case KDF:
+				event = new KdfEvent();
+				break;
+			case LOAD:
+				event = new LoadEvent();
+				break;
+			case SAVE:
+				event = new SaveEvent();
+				break;
+			case FILL:
+				event = new FillEvent();
+				break;
+			case IMPORT:
+				event = new ImportEvent();
+				break;
+			case REKEY:
+				event = new RekeyEvent();
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown event type: " + type);
+		}
+
+		if (!event.isEnabled())
+		{
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	static void commit(Object handle, VaultEvents.Scope scope)
+	{
+		Event event = (Event) handle;
+		event.end();
+		if (!event.shouldCommit())
+		{
+			return;
+		}
+
+		if (event instanceof UnlockEvent)
+		{
+			UnlockEvent unlock = (UnlockEvent) event;
+			unlock.success = scope.success;
+			unlock.accountCount = scope.accountCount;
+		}
+		else if (event instanceof LoadEvent)
+		{
+			LoadEvent load = (LoadEvent) event;
+			load.accountCount = scope.accountCount;
+			load.bytes = scope.bytes;
+		}
+		else if (event instanceof SaveEvent)
+		{
+			SaveEvent save = (SaveEvent) event;
+			save.accountCount = scope.accountCount;
+			save.bytes = scope.bytes;
+		}
+		else if (event instanceof FillEvent)
+		{
+			FillEvent fill = (FillEvent) event;
+			fill.step = scope.step;
+			fill.success = scope.success;
+		}
+		else if (event instanceof ImportEvent)
+		{
+			ImportEvent batch = (ImportEvent) event;
+			batch.accountCount = scope.accountCount;
+			batch.success = scope.success;
+		}
+		else if (event instanceof RekeyEvent)
+		{
+			RekeyEvent rekey = (RekeyEvent) event;
+			rekey.change = scope.step;
+			rekey.accountCount = scope.accountCount;
+			rekey.success = scope.success;
+		}
+		event.commit();
+	}
+
+	static void lock(String reason, int accountCount)
+	{
+		LockEvent event = new LockEvent();
+		if (event.shouldCommit())
+		{
+			event.reason = reason;
+			event.accountCount = accountCount;
+			event.commit();
+		}
+	}
+
+	@Name("com.accountmanager.VaultUnlock")
+	@Label("Vault Unlock")
+	@Category(CATEGORY)
+	@Description("Whole unlock, from master password to a loaded vault; contains the KDF and load phases")
+	@StackTrace(false)
+	static class UnlockEvent extends Event
+	{
+		@Label("Success")
+		boolean success;
+
+		@Label("Accounts")
+		int accountCount;
+	}
+
+	@Name("com.accountmanager.VaultKeyDerivation")
+	@Label("Vault Key Derivation")
+	@Category(CATEGORY)
+	@Description("PBKDF2 derivation of the vault key during unlock")
+	@StackTrace(false)
+	static class KdfEvent extends Event
+	{
+	}
+
+	@Name("com.accountmanager.VaultLoad")
+	@Label("Vault Load")
+	@Category(CATEGORY)
+	@Description("Reading and parsing the stored accounts and building the in-memory indexes during unlock")
+	@StackTrace(false)
+	static class LoadEvent extends Event
+	{
+		@Label("Accounts")
+		int accountCount;
+
+		@Label("Size")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("com.accountmanager.VaultSave")
+	@Label("Vault Save")
+	@Category(CATEGORY)
+	@Description("Serializing the accounts and writing them to the RuneLite configuration")
+	@StackTrace(false)
+	static class SaveEvent extends Event
+	{
+		@Label("Accounts")
+		int accountCount;
+
+		@Label("Size")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("com.accountmanager.VaultLock")
+	@Label("Vault Lock")
+	@Category(CATEGORY)
+	@Description("The vault was locked and its decrypted state cleared")
+	@StackTrace(false)
+	static class LockEvent extends Event
+	{
+		@Label("Reason")
+		String reason;
+
+		@Label("Accounts")
+		int accountCount;
+	}
+
+	@Name("com.accountmanager.CredentialFill")
+	@Label("Credential Fill")
+	@Category(CATEGORY)
+	@Description("One fill step, from the request to the values being set on the client thread")
+	@StackTrace(false)
+	static class FillEvent extends Event
+	{
+		@Label("Step")
+		@Description("login or otp")
+		String step;
+
+		@Label("Filled")
+		boolean success;
+	}
+
+	@Name("com.accountmanager.VaultImport")
+	@Label("Vault Import")
+	@Category(CATEGORY)
+	@Description("Adding a batch of accounts with a single save, e.g. from a CSV file")
+	@StackTrace(false)
+	static class ImportEvent extends Event
+	{
+		@Label("Accounts")
+		int accountCount;
+
+		@Label("Success")
+		boolean success;
+	}
+
+	@Name("com.accountmanager.VaultRekey")
+	@Label("Vault Rekey")
+	@Category(CATEGORY)
+	@Description("Re-encrypting every account under a new master password or cipher suite")
+	@StackTrace(false)
+	static class RekeyEvent extends Event
+	{
+		@Label("Change")
+		@Description("password or cipher")
+		String change;
+
+		@Label("Accounts")
+		int accountCount;
+
+		@Label("Success")
+		boolean success;
+	}
+}
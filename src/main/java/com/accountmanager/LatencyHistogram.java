@@ -0,0 +1,133 @@
+package com.accountmanager;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with HDR-style log-linear buckets: every power of two is
+ * split into {@value #SUB_BUCKETS} linear sub-buckets, so any recorded value is reported
+ * within about 6% while the whole range of a long fits in a fixed, small array.
+ */
+class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder totalCount = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	void record(long nanos)
+	{
+		if (nanos < 0)
+		{
+			nanos = 0;
+		}
+
+		counts.incrementAndGet(bucketIndex(nanos));
+		totalCount.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	Snapshot snapshot()
+	{
+		long[] copy = new long[BUCKET_COUNT];
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+
+		long max = maxNanos.get();
+		return new Snapshot(
+			count,
+			count == 0 ? 0 : totalNanos.sum() / Math.max(1, totalCount.sum()),
+			percentile(copy, count, 50, max),
+			percentile(copy, count, 90, max),
+			percentile(copy, count, 99, max),
+			max);
+	}
+
+	void reset()
+	{
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			counts.set(i, 0);
+		}
+		totalCount.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+	}
+
+	static int bucketIndex(long value)
+	{
+		if (value < SUB_BUCKETS)
+		{
+			return (int) value;
+		}
+
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the highest value that falls into the bucket
+	 */
+	static long highestValueInBucket(int index)
+	{
+		if (index < SUB_BUCKETS)
+		{
+			return index;
+		}
+
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	private static long percentile(long[] counts, long total, double percentile, long max)
+	{
+		if (total == 0)
+		{
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			seen += counts[i];
+			if (seen >= target)
+			{
+				return Math.min(highestValueInBucket(i), max);
+			}
+		}
+		return max;
+	}
+
+	static final class Snapshot
+	{
+		final long count;
+		final long meanNanos;
+		final long p50Nanos;
+		final long p90Nanos;
+		final long p99Nanos;
+		final long maxNanos;
+
+		Snapshot(long count, long meanNanos, long p50Nanos, long p90Nanos, long p99Nanos, long maxNanos)
+		{
+			this.count = count;
+			this.meanNanos = meanNanos;
+			this.p50Nanos = p50Nanos;
+			this.p90Nanos = p90Nanos;
+			this.p99Nanos = p99Nanos;
+			this.maxNanos = maxNanos;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.accountmanager;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Binary hash tree over stored records, e.g. the shards of a vault, in the order they are stored,
+ * so a record that is changed, dropped or moved changes the root. Leaves and nodes are hashed with
+ * different prefixes and the root includes the record count, so neither can stand in for the other.
+ * <p>
+ * Changing or appending one record rehashes only its path to the root. Building hashes each
+ * level in parallel on the common ForkJoin pool.
+ */
+final class MerkleTree
+{
+	private static final byte LEAF = 0;
+	private static final byte NODE = 1;
+	private static final byte EMPTY = 2;
+	private static final byte ROOT = 3;
+
+	private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() ->
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Merkle tree initialization failed", e);
+		}
+	});
+	private static final byte[] EMPTY_HASH = hash(EMPTY, new byte[0]);
+
+	// levels[0] holds the leaves, padded to a power of two; the last level holds the top node
+	private byte[][][] levels;
+	private int size;
+
+	private MerkleTree(byte[][][] levels, int size)
+	{
+		this.levels = levels;
+		this.size = size;
+	}
+
+	/**
+	 * Encodes and hashes the records in parallel and builds the tree over them.
+	 */
+	static <T> MerkleTree build(List<T> records, Function<? super T, byte[]> encoder)
+	{
+		int size = records.size();
+		byte[][] leaves = new byte[capacityFor(size)][];
+		IntStream.range(0, leaves.length).parallel()
+			.forEach(i -> leaves[i] = i < size ? leafHash(encoder.apply(records.get(i))) : EMPTY_HASH);
+		return new MerkleTree(buildLevels(leaves), size);
+	}
+
+	static byte[] leafHash(byte[] record)
+	{
+		return hash(LEAF, record);
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	byte[] root()
+	{
+		byte[] top = levels[levels.length - 1][0];
+		MessageDigest digest = SHA256.get();
+		digest.update(ROOT);
+		digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(size).array());
+		return digest.digest(top);
+	}
+
+	/**
+	 * Replaces the record at {@code index}, or appends it if {@code index} is the current size.
+	 */
+	void set(int index, byte[] record)
+	{
+		if (index < 0 || index > size)
+		{
+			throw new IndexOutOfBoundsException("Record " + index + " of " + size);
+		}
+
+		if (index == levels[0].length)
+		{
+			grow();
+		}
+		if (index == size)
+		{
+			size++;
+		}
+
+		levels[0][index] = leafHash(record);
+		int position = index;
+		for (int level = 1; level < levels.length; level++)
+		{
+			position /= 2;
+			levels[level][position] = nodeHash(levels[level - 1][position * 2], levels[level - 1][position * 2 + 1]);
+		}
+	}
+
+	private void grow()
+	{
+		byte[][] leaves = new byte[levels[0].length * 2][];
+		System.arraycopy(levels[0], 0, leaves, 0, levels[0].length);
+		for (int i = levels[0].length; i < leaves.length; i++)
+		{
+			leaves[i] = EMPTY_HASH;
+		}
+		levels = buildLevels(leaves);
+	}
+
+	private static byte[][][] buildLevels(byte[][] leaves)
+	{
+		int height = Integer.numberOfTrailingZeros(leaves.length) + 1;
+		byte[][][] levels = new byte[height][][];
+		levels[0] = leaves;
+		for (int level = 1; level < height; level++)
+		{
+			byte[][] below = levels[level - 1];
+			byte[][] nodes = new byte[below.length / 2][];
+			IntStream.range(0, nodes.length).parallel()
+				.forEach(i -> nodes[i] = nodeHash(below[i * 2], below[i * 2 + 1]));
+			levels[level] = nodes;
+		}
+		return levels;
+	}
+
+	private static int capacityFor(int size)
+	{
+		return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+	}
+
+	private static byte[] nodeHash(byte[] left, byte[] right)
+	{
+		MessageDigest digest = SHA256.get();
+		digest.update(NODE);
+		digest.update(left);
+		return digest.digest(right);
+	}
+
+	private static byte[] hash(byte prefix, byte[] data)
+	{
+		MessageDigest digest = SHA256.get();
+		digest.update(prefix);
+		return digest.digest(data);
+	}
+}
@@ -0,0 +1,174 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+
+import javax.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the plugin's expensive operations.
+ * <p>
+ * Only a metric name and a number can be recorded, and every name is one of the
+ * constants below, so nothing about the vault's content can end up in here.
+ */
+@Singleton
+class PluginMetrics
+{
+	// Latencies
+	static final String KDF = "kdf";
+	static final String LOAD_ACCOUNTS = "loadAccounts";
+	static final String SAVE_ACCOUNTS = "saveAccounts";
+	static final String RELOAD_ACCOUNTS = "reloadAccounts";
+	static final String INDEX_BUILD = "index.build";
+	static final String INTEGRITY_VERIFY = "integrity.verify";
+	static final String HEALTH_SCAN = "health.scan";
+	static final String BREACH_INDEX = "breach.index";
+	static final String ENCRYPT = "encrypt";
+	static final String DECRYPT = "decrypt";
+	static final String TOTP_GENERATE = "totp.generate";
+	static final String FILL_LOGIN = "fill.login";
+	static final String FILL_OTP = "fill.otp";
+	static final String EDT_UNLOCK = "edt.unlock";
+	static final String EDT_REBUILD = "edt.rebuild";
+	static final String EDT_DIALOG_SAVE = "edt.dialogSave";
+	static final String CLIENT_THREAD_FILL = "clientThread.fill";
+
+	// Counters
+	static final String UNLOCK_SUCCESS = "unlock.success";
+	static final String UNLOCK_FAILURE = "unlock.failure";
+	static final String UNLOCK_SHARED = "unlock.shared";
+	static final String RELOAD_CONFLICT = "reload.conflict";
+	static final String INTEGRITY_FAILURE = "integrity.failure";
+	static final String AUTO_LOCK = "autoLock";
+	private static final String STALL_PREFIX = "stall.";
+
+	/**
+	 * @return the counter for how often the task measured under {@code name} exceeded its stall budget
+	 */
+	static String stallCounter(String name)
+	{
+		return STALL_PREFIX + name;
+	}
+
+	private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+	void increment(String name)
+	{
+		counters.computeIfAbsent(name, k -> new LongAdder()).increment();
+	}
+
+	void recordNanos(String name, long nanos)
+	{
+		histograms.computeIfAbsent(name, k -> new LatencyHistogram()).record(nanos);
+	}
+
+	/**
+	 * Records the time elapsed since {@code startNanos}, a value taken from {@link System#nanoTime()}.
+	 */
+	void recordSince(String name, long startNanos)
+	{
+		recordNanos(name, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Wraps a task so its run time is recorded, e.g. to measure time spent on the client thread.
+	 */
+	Runnable timed(String name, Runnable task)
+	{
+		return () ->
+		{
+			long start = System.nanoTime();
+			try
+			{
+				task.run();
+			}
+			finally
+			{
+				recordSince(name, start);
+			}
+		};
+	}
+
+	long getCount(String name)
+	{
+		LongAdder counter = counters.get(name);
+		return counter == null ? 0 : counter.sum();
+	}
+
+	LatencyHistogram.Snapshot getSnapshot(String name)
+	{
+		LatencyHistogram histogram = histograms.get(name);
+		return histogram == null ? null : histogram.snapshot();
+	}
+
+	void reset()
+	{
+		histograms.values().forEach(LatencyHistogram::reset);
+		counters.values().forEach(LongAdder::reset);
+	}
+
+	/**
+	 * @return one line per metric, for the diagnostics section of the panel
+	 */
+	String summary()
+	{
+		StringBuilder sb = new StringBuilder();
+		new TreeMap<>(histograms).forEach((name, histogram) ->
+		{
+			LatencyHistogram.Snapshot s = histogram.snapshot();
+			sb.append(name)
+				.append(" n=").append(s.count)
+				.append(" p50=").append(formatNanos(s.p50Nanos))
+				.append(" p99=").append(formatNanos(s.p99Nanos))
+				.append(" max=").append(formatNanos(s.maxNanos))
+				.append('\n');
+		});
+		new TreeMap<>(counters).forEach((name, counter) ->
+			sb.append(name).append(" = ").append(counter.sum()).append('\n'));
+		return sb.toString();
+	}
+
+	String toJson(Gson gson)
+	{
+		Map<String, Object> latencies = new TreeMap<>();
+		histograms.forEach((name, histogram) ->
+		{
+			LatencyHistogram.Snapshot s = histogram.snapshot();
+			Map<String, Long> values = new LinkedHashMap<>();
+			values.put("count", s.count);
+			values.put("meanMicros", TimeUnit.NANOSECONDS.toMicros(s.meanNanos));
+			values.put("p50Micros", TimeUnit.NANOSECONDS.toMicros(s.p50Nanos));
+			values.put("p90Micros", TimeUnit.NANOSECONDS.toMicros(s.p90Nanos));
+			values.put("p99Micros", TimeUnit.NANOSECONDS.toMicros(s.p99Nanos));
+			values.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(s.maxNanos));
+			latencies.put(name, values);
+		});
+
+		Map<String, Long> counts = new TreeMap<>();
+		counters.forEach((name, counter) -> counts.put(name, counter.sum()));
+
+		Map<String, Object> root = new LinkedHashMap<>();
+		root.put("latencies", latencies);
+		root.put("counters", counts);
+		return gson.toJson(root);
+	}
+
+	static String formatNanos(long nanos)
+	{
+		if (nanos >= TimeUnit.SECONDS.toNanos(1))
+		{
+			return String.format("%.2fs", nanos / 1e9);
+		}
+		if (nanos >= TimeUnit.MILLISECONDS.toNanos(1))
+		{
+			return String.format("%.1fms", nanos / 1e6);
+		}
+		return String.format("%.1fus", nanos / 1e3);
+	}
+}
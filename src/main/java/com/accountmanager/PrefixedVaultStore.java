@@ -0,0 +1,28 @@
+package com.accountmanager;
+
+/**
+ * Gives a vault its own keys inside a shared store by prefixing them.
+ */
+class PrefixedVaultStore implements VaultStore
+{
+	private final VaultStore store;
+	private final String prefix;
+
+	PrefixedVaultStore(VaultStore store, String prefix)
+	{
+		this.store = store;
+		this.prefix = prefix;
+	}
+
+	@Override
+	public String get(String key)
+	{
+		return store.get(prefix + key);
+	}
+
+	@Override
+	public void set(String key, String value)
+	{
+		store.set(prefix + key, value);
+	}
+}
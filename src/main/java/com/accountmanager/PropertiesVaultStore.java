@@ -0,0 +1,86 @@
+package com.accountmanager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Stores the vault in a properties file laid out like RuneLite's {@code settings.properties},
+ * with every key under a config group, for working on a vault while RuneLite is closed. Other
+ * groups in the file are kept as they are. Changes stay in memory until {@link #save()}.
+ */
+class PropertiesVaultStore implements VaultStore
+{
+	private final Path file;
+	private final String prefix;
+	private final Properties properties = new Properties();
+
+	/**
+	 * @param file read if it exists, otherwise created on save
+	 * @throws IOException if it exists but cannot be read
+	 */
+	PropertiesVaultStore(Path file, String group) throws IOException
+	{
+		this.file = file;
+		this.prefix = group + ".";
+		if (Files.exists(file))
+		{
+			try (InputStream in = Files.newInputStream(file))
+			{
+				properties.load(in);
+			}
+		}
+	}
+
+	@Override
+	public synchronized String get(String key)
+	{
+		return properties.getProperty(prefix + key);
+	}
+
+	@Override
+	public synchronized void set(String key, String value)
+	{
+		if (value == null)
+		{
+			properties.remove(prefix + key);
+		}
+		else
+		{
+			properties.setProperty(prefix + key, value);
+		}
+	}
+
+	/**
+	 * Writes the file through a temporary one, so it is never left half written.
+	 */
+	synchronized void save() throws IOException
+	{
+		Path directory = file.toAbsolutePath().getParent();
+		Path partial = Files.createTempFile(directory, file.getFileName().toString(), ".partial");
+		try
+		{
+			try (OutputStream out = Files.newOutputStream(partial))
+			{
+				properties.store(out, null);
+			}
+			try
+			{
+				Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(partial);
+		}
+	}
+}
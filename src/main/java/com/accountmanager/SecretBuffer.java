@@ -0,0 +1,173 @@
+package com.accountmanager;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A secret (password, username, TOTP secret) held as UTF-8 in a direct buffer outside
+ * the Java heap. Unlike a String it is never copied around by the garbage collector
+ * and can be wiped explicitly with {@link #close()}.
+ */
+public final class SecretBuffer implements AutoCloseable
+{
+	private final ByteBuffer buffer;
+	private volatile boolean closed;
+
+	/**
+	 * Takes ownership of a direct buffer whose content lies between its position and limit.
+	 */
+	SecretBuffer(ByteBuffer buffer)
+	{
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Copies {@code chars} into a new buffer. The caller remains responsible for clearing {@code chars}.
+	 */
+	public static SecretBuffer of(char[] chars)
+	{
+		CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.ceil(chars.length * encoder.maxBytesPerChar()));
+		SecretBuffer secret = new SecretBuffer(buffer);
+		try
+		{
+			CoderResult result = encoder.encode(CharBuffer.wrap(chars), buffer, true);
+			if (result.isError())
+			{
+				result.throwException();
+			}
+			encoder.flush(buffer);
+			buffer.flip();
+			return secret;
+		}
+		catch (CharacterCodingException e)
+		{
+			secret.close();
+			throw new IllegalArgumentException("Secret is not valid text", e);
+		}
+	}
+
+	/**
+	 * @return the length of the secret in UTF-8 bytes
+	 */
+	public int length()
+	{
+		checkOpen();
+		return buffer.remaining();
+	}
+
+	public boolean isEmpty()
+	{
+		return length() == 0;
+	}
+
+	public boolean isClosed()
+	{
+		return closed;
+	}
+
+	/**
+	 * @return a read-only view of the secret bytes, valid until this buffer is closed
+	 */
+	ByteBuffer view()
+	{
+		checkOpen();
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Decodes the secret into a new char array, which the caller must clear when done.
+	 */
+	public char[] toChars()
+	{
+		try
+		{
+			CharBuffer decoded = StandardCharsets.UTF_8.newDecoder().decode(view());
+			char[] chars = new char[decoded.remaining()];
+			decoded.get(chars);
+			Arrays.fill(decoded.array(), '\0');
+			return chars;
+		}
+		catch (CharacterCodingException e)
+		{
+			throw new IllegalStateException("Secret is not valid text", e);
+		}
+	}
+
+	/**
+	 * Copies the secret into a String. Only for APIs that cannot take anything else,
+	 * such as {@code Client#setPassword}; the String cannot be wiped.
+	 */
+	public String asString()
+	{
+		char[] chars = toChars();
+		try
+		{
+			return new String(chars);
+		}
+		finally
+		{
+			Arrays.fill(chars, '\0');
+		}
+	}
+
+	/**
+	 * Compares two secrets in time independent of where they differ.
+	 */
+	public boolean contentEquals(SecretBuffer other)
+	{
+		ByteBuffer a = view();
+		ByteBuffer b = other.view();
+		if (a.remaining() != b.remaining())
+		{
+			return false;
+		}
+
+		int diff = 0;
+		for (int i = 0; i < a.remaining(); i++)
+		{
+			diff |= a.get(a.position() + i) ^ b.get(b.position() + i);
+		}
+		return diff == 0;
+	}
+
+	/**
+	 * Overwrites the whole buffer with zeros. The secret cannot be read afterwards.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if (closed)
+		{
+			return;
+		}
+
+		ByteBuffer whole = buffer.duplicate();
+		whole.clear();
+		while (whole.hasRemaining())
+		{
+			whole.put((byte) 0);
+		}
+		closed = true;
+	}
+
+	@Override
+	public String toString()
+	{
+		// Never print the secret
+		return "SecretBuffer[" + (closed ? "closed" : buffer.remaining() + " bytes") + "]";
+	}
+
+	private void checkOpen()
+	{
+		if (closed)
+		{
+			throw new IllegalStateException("Secret has been wiped");
+		}
+	}
+}
@@ -0,0 +1,702 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares unlocked vaults between the RuneLite instances of one user on this machine, so the key
+ * is derived once and the other instances open the vault straight away. The first instance to
+ * bind the loopback port hosts the session and relays every unlock, change and lock to the
+ * others; when it exits, another one takes over.
+ * <p>
+ * Instances prove they can read a random token in the user's RuneLite directory, so other users
+ * of the machine can neither join nor pose as the host. Vault keys only cross the socket wrapped
+ * in a key derived from that token for the connection.
+ */
+@Slf4j
+class SessionBroker
+{
+	static final int DEFAULT_PORT = 47813;
+	// The reason a vault locks when another instance locked it
+	static final String LOCK_REASON = "shared";
+
+	private static final long RETRY_DELAY_MILLIS = 2000;
+	private static final int HANDSHAKE_TIMEOUT_MILLIS = 2000;
+	private static final int TOKEN_LENGTH = 32;
+	private static final int NONCE_LENGTH = 32;
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final String WRAP_ALGORITHM = "AES/GCM/NoPadding";
+	private static final int WRAP_IV_LENGTH = 12;
+	private static final int WRAP_TAG_LENGTH = 128;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/**
+	 * Called on the broker's own threads.
+	 */
+	interface Listener
+	{
+		/**
+		 * Another instance unlocked or changed a vault. The key must not be kept.
+		 */
+		void onShared(SharedVault vault);
+
+		/**
+		 * Another instance locked a vault by hand.
+		 */
+		void onLocked(String vaultName);
+
+		/**
+		 * Joined a host, which only knows the vaults someone shared since it started.
+		 */
+		void onConnected();
+	}
+
+	/**
+	 * An unlocked vault as it is shared: its stored records and its key.
+	 */
+	static final class SharedVault
+	{
+		@Getter
+		private final String name;
+		@Getter
+		private final Map<String, String> records;
+		@Getter
+		private final byte[] key;
+
+		SharedVault(String name, Map<String, String> records, byte[] key)
+		{
+			this.name = name;
+			this.records = records;
+			this.key = key;
+		}
+
+		private void wipe()
+		{
+			Arrays.fill(key, (byte) 0);
+		}
+	}
+
+	private final File tokenFile;
+	private final int port;
+	private final Gson gson;
+	private final ScheduledExecutorService executor;
+	private final Listener listener;
+
+	// Vaults shared with the host, handed to every instance that joins later
+	private final Map<String, SharedVault> shared = new ConcurrentHashMap<>();
+	// The joined instances when hosting, otherwise the connection to the host
+	private final List<Connection> connections = new CopyOnWriteArrayList<>();
+
+	private volatile boolean running;
+	private volatile ServerSocket serverSocket;
+	private volatile byte[] token;
+
+	SessionBroker(File tokenFile, int port, Gson gson, ScheduledExecutorService executor, Listener listener)
+	{
+		this.tokenFile = tokenFile;
+		this.port = port;
+		this.gson = gson;
+		this.executor = executor;
+		this.listener = listener;
+	}
+
+	void start()
+	{
+		running = true;
+		executor.execute(this::connect);
+	}
+
+	void stop()
+	{
+		running = false;
+		closeQuietly(serverSocket);
+		serverSocket = null;
+		for (Connection connection : connections)
+		{
+			connection.close();
+		}
+		connections.clear();
+		shared.values().forEach(SharedVault::wipe);
+		shared.clear();
+	}
+
+	/**
+	 * @return true if this instance hosts the session
+	 */
+	boolean isHosting()
+	{
+		return serverSocket != null;
+	}
+
+	/**
+	 * @return true if this instance hosts the session or has joined the host
+	 */
+	boolean isConnected()
+	{
+		return isHosting() || !connections.isEmpty();
+	}
+
+	/**
+	 * Shares an unlocked vault with the other instances. The broker takes over the key and wipes it.
+	 */
+	void publish(SharedVault vault)
+	{
+		executor.execute(() ->
+		{
+			if (isHosting())
+			{
+				remember(vault);
+				broadcast(vault, null);
+			}
+			else
+			{
+				try
+				{
+					for (Connection connection : connections)
+					{
+						connection.sendShared(vault);
+					}
+				}
+				finally
+				{
+					vault.wipe();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reports that a vault of this instance locked. Unless the lock came from another instance,
+	 * it is passed on like {@link #lock}, so a host that locks, e.g. on auto-lock, no longer
+	 * hands the key to instances joining later.
+	 *
+	 * @param reason why the vault locked, as given to {@link Vault#lock(String)}
+	 */
+	void locked(String vaultName, String reason)
+	{
+		if (!LOCK_REASON.equals(reason))
+		{
+			lock(vaultName);
+		}
+	}
+
+	/**
+	 * Locks a vault in every instance and makes the host forget its key.
+	 */
+	void lock(String vaultName)
+	{
+		executor.execute(() ->
+		{
+			if (isHosting())
+			{
+				forget(vaultName);
+			}
+			Message message = new Message("lock");
+			message.vault = vaultName;
+			for (Connection connection : connections)
+			{
+				connection.send(message);
+			}
+		});
+	}
+
+	private void connect()
+	{
+		if (!running)
+		{
+			return;
+		}
+
+		try
+		{
+			token = readOrCreateToken(tokenFile);
+		}
+		catch (IOException e)
+		{
+			log.warn("Unable to read the session token, vaults are not shared", e);
+			return;
+		}
+
+		try
+		{
+			ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+			serverSocket = socket;
+			startThread("account-manager-session-host", () -> acceptLoop(socket));
+			log.debug("Hosting the shared vault session on port {}", port);
+			return;
+		}
+		catch (BindException e)
+		{
+			// Another instance is hosting
+		}
+		catch (IOException e)
+		{
+			log.warn("Unable to host the shared vault session", e);
+			scheduleRetry();
+			return;
+		}
+
+		try
+		{
+			Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			Connection connection = joinHost(socket);
+			connections.add(connection);
+			startThread("account-manager-session", () -> readLoop(connection));
+			log.debug("Joined the shared vault session on port {}", port);
+			listener.onConnected();
+		}
+		catch (Exception e)
+		{
+			log.debug("Unable to join the shared vault session", e);
+			scheduleRetry();
+		}
+	}
+
+	private void scheduleRetry()
+	{
+		if (running)
+		{
+			executor.schedule(this::connect, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void acceptLoop(ServerSocket server)
+	{
+		while (running && !server.isClosed())
+		{
+			Socket socket;
+			try
+			{
+				socket = server.accept();
+			}
+			catch (IOException e)
+			{
+				break;
+			}
+
+			startThread("account-manager-session", () ->
+			{
+				Connection connection;
+				try
+				{
+					connection = admit(socket);
+				}
+				catch (Exception e)
+				{
+					log.debug("Rejected an instance joining the shared vault session", e);
+					closeQuietly(socket);
+					return;
+				}
+
+				connections.add(connection);
+				for (SharedVault vault : shared.values())
+				{
+					connection.sendShared(vault);
+				}
+				readLoop(connection);
+			});
+		}
+	}
+
+	private void readLoop(Connection connection)
+	{
+		try
+		{
+			String line;
+			while ((line = connection.reader.readLine()) != null)
+			{
+				handle(connection, gson.fromJson(line, Message.class));
+			}
+		}
+		catch (Exception e)
+		{
+			if (running)
+			{
+				log.debug("Shared vault session connection failed", e);
+			}
+		}
+		finally
+		{
+			connections.remove(connection);
+			connection.close();
+			if (running && !isHosting())
+			{
+				// The host went away; host the session or join whoever does now
+				scheduleRetry();
+			}
+		}
+	}
+
+	private void handle(Connection from, Message message)
+	{
+		if ("share".equals(message.type))
+		{
+			SharedVault vault = new SharedVault(message.vault, message.records,
+				unwrap(from.sessionKey, message.key, message.vault));
+			if (isHosting())
+			{
+				remember(vault);
+				broadcast(vault, from);
+				listener.onShared(vault);
+			}
+			else
+			{
+				try
+				{
+					listener.onShared(vault);
+				}
+				finally
+				{
+					vault.wipe();
+				}
+			}
+		}
+		else if ("lock".equals(message.type))
+		{
+			if (isHosting())
+			{
+				forget(message.vault);
+				for (Connection connection : connections)
+				{
+					if (connection != from)
+					{
+						connection.send(message);
+					}
+				}
+			}
+			listener.onLocked(message.vault);
+		}
+	}
+
+	private void broadcast(SharedVault vault, Connection except)
+	{
+		for (Connection connection : connections)
+		{
+			if (connection != except)
+			{
+				connection.sendShared(vault);
+			}
+		}
+	}
+
+	private void remember(SharedVault vault)
+	{
+		SharedVault previous = shared.put(vault.name, vault);
+		if (previous != null && previous != vault)
+		{
+			previous.wipe();
+		}
+	}
+
+	private void forget(String vaultName)
+	{
+		SharedVault previous = shared.remove(vaultName);
+		if (previous != null)
+		{
+			previous.wipe();
+		}
+	}
+
+	/**
+	 * Host side of the handshake: proves the host knows the token, then checks the instance does.
+	 */
+	private Connection admit(Socket socket) throws IOException
+	{
+		Connection connection = new Connection(socket);
+		socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+
+		Message hello = connection.receive("hello");
+		byte[] clientNonce = decode(hello.nonce);
+		byte[] serverNonce = nonce();
+
+		Message challenge = new Message("challenge");
+		challenge.nonce = encode(serverNonce);
+		challenge.proof = encode(mac("host", clientNonce, serverNonce));
+		connection.send(challenge);
+
+		Message auth = connection.receive("auth");
+		if (!MessageDigest.isEqual(decode(auth.proof), mac("instance", clientNonce, serverNonce)))
+		{
+			throw new IllegalStateException("Instance does not know the session token");
+		}
+
+		socket.setSoTimeout(0);
+		connection.sessionKey = new SecretKeySpec(mac("session", clientNonce, serverNonce), "AES");
+		return connection;
+	}
+
+	/**
+	 * Joining side of the handshake: checks the host knows the token before proving it does too.
+	 */
+	private Connection joinHost(Socket socket) throws IOException
+	{
+		Connection connection = new Connection(socket);
+		socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+		try
+		{
+			byte[] clientNonce = nonce();
+			Message hello = new Message("hello");
+			hello.nonce = encode(clientNonce);
+			connection.send(hello);
+
+			Message challenge = connection.receive("challenge");
+			byte[] serverNonce = decode(challenge.nonce);
+			if (!MessageDigest.isEqual(decode(challenge.proof), mac("host", clientNonce, serverNonce)))
+			{
+				throw new IllegalStateException("Host does not know the session token");
+			}
+
+			Message auth = new Message("auth");
+			auth.proof = encode(mac("instance", clientNonce, serverNonce));
+			connection.send(auth);
+
+			socket.setSoTimeout(0);
+			connection.sessionKey = new SecretKeySpec(mac("session", clientNonce, serverNonce), "AES");
+			return connection;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			connection.close();
+			throw e;
+		}
+	}
+
+	private byte[] mac(String label, byte[] clientNonce, byte[] serverNonce)
+	{
+		try
+		{
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(new SecretKeySpec(token, MAC_ALGORITHM));
+			mac.update(label.getBytes(StandardCharsets.UTF_8));
+			mac.update(clientNonce);
+			return mac.doFinal(serverNonce);
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Session authentication failed", e);
+		}
+	}
+
+	private static String wrap(SecretKey sessionKey, byte[] key, String vaultName)
+	{
+		try
+		{
+			byte[] iv = new byte[WRAP_IV_LENGTH];
+			RANDOM.nextBytes(iv);
+
+			Cipher cipher = Cipher.getInstance(WRAP_ALGORITHM);
+			cipher.init(Cipher.ENCRYPT_MODE, sessionKey, new GCMParameterSpec(WRAP_TAG_LENGTH, iv));
+			// Bound to the vault, so a wrapped key cannot be replayed for another one
+			cipher.updateAAD(vaultName.getBytes(StandardCharsets.UTF_8));
+			byte[] ciphertext = cipher.doFinal(key);
+
+			byte[] combined = new byte[iv.length + ciphertext.length];
+			System.arraycopy(iv, 0, combined, 0, iv.length);
+			System.arraycopy(ciphertext, 0, combined, iv.length, ciphertext.length);
+			return encode(combined);
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Key wrapping failed", e);
+		}
+	}
+
+	private static byte[] unwrap(SecretKey sessionKey, String wrapped, String vaultName)
+	{
+		try
+		{
+			byte[] combined = decode(wrapped);
+			Cipher cipher = Cipher.getInstance(WRAP_ALGORITHM);
+			cipher.init(Cipher.DECRYPT_MODE, sessionKey, new GCMParameterSpec(WRAP_TAG_LENGTH, combined, 0, WRAP_IV_LENGTH));
+			cipher.updateAAD(vaultName.getBytes(StandardCharsets.UTF_8));
+			return cipher.doFinal(combined, WRAP_IV_LENGTH, combined.length - WRAP_IV_LENGTH);
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Key unwrapping failed", e);
+		}
+	}
+
+	/**
+	 * Reads the token, creating it if no instance has yet. It is written to a temporary file
+	 * first, which is only readable by its owner, and moved into place so a racing instance
+	 * never reads half of it.
+	 */
+	static byte[] readOrCreateToken(File file) throws IOException
+	{
+		Path path = file.toPath();
+		if (!Files.exists(path))
+		{
+			Files.createDirectories(path.getParent());
+			byte[] created = new byte[TOKEN_LENGTH];
+			RANDOM.nextBytes(created);
+
+			Path temp = Files.createTempFile(path.getParent(), "session", ".tmp");
+			try
+			{
+				Files.write(temp, encode(created).getBytes(StandardCharsets.US_ASCII));
+				Files.move(temp, path);
+			}
+			catch (FileAlreadyExistsException e)
+			{
+				// Another instance created it first
+			}
+			finally
+			{
+				Files.deleteIfExists(temp);
+			}
+		}
+
+		return decode(new String(Files.readAllBytes(path), StandardCharsets.US_ASCII).trim());
+	}
+
+	private static byte[] nonce()
+	{
+		byte[] nonce = new byte[NONCE_LENGTH];
+		RANDOM.nextBytes(nonce);
+		return nonce;
+	}
+
+	private static String encode(byte[] bytes)
+	{
+		return Base64.getEncoder().encodeToString(bytes);
+	}
+
+	private static byte[] decode(String base64)
+	{
+		if (base64 == null)
+		{
+			throw new IllegalArgumentException("Missing value in session message");
+		}
+		return Base64.getDecoder().decode(base64);
+	}
+
+	private static void startThread(String name, Runnable task)
+	{
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void closeQuietly(java.io.Closeable closeable)
+	{
+		if (closeable == null)
+		{
+			return;
+		}
+		try
+		{
+			closeable.close();
+		}
+		catch (IOException e)
+		{
+			// Already closed
+		}
+	}
+
+	/**
+	 * One line of JSON on the socket.
+	 */
+	private static final class Message
+	{
+		private final String type;
+		private String nonce;
+		private String proof;
+		private String vault;
+		private Map<String, String> records;
+		private String key;
+
+		private Message(String type)
+		{
+			this.type = type;
+		}
+	}
+
+	private final class Connection
+	{
+		private final Socket socket;
+		private final BufferedReader reader;
+		private final Writer writer;
+		private volatile SecretKey sessionKey;
+
+		private Connection(Socket socket) throws IOException
+		{
+			this.socket = socket;
+			this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			this.writer = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+		}
+
+		private Message receive(String type) throws IOException
+		{
+			String line = reader.readLine();
+			Message message = line == null ? null : gson.fromJson(line, Message.class);
+			if (message == null || !type.equals(message.type))
+			{
+				throw new IOException("Expected " + type + " in session handshake");
+			}
+			return message;
+		}
+
+		private void sendShared(SharedVault vault)
+		{
+			Message message = new Message("share");
+			message.vault = vault.name;
+			message.records = vault.records;
+			message.key = wrap(sessionKey, vault.key, vault.name);
+			send(message);
+		}
+
+		private synchronized void send(Message message)
+		{
+			try
+			{
+				// Gson escapes line breaks inside values, so every message is a single line
+				writer.write(gson.toJson(message));
+				writer.write('\n');
+				writer.flush();
+			}
+			catch (IOException e)
+			{
+				log.debug("Unable to send to the shared vault session", e);
+				close();
+			}
+		}
+
+		private void close()
+		{
+			closeQuietly(socket);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.accountmanager;
+
+import javax.inject.Singleton;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background scheduler shared by the plugin's components (auto-lock, credential cache).
+ * Nothing is created until the first caller needs it, its thread only starts once work
+ * is submitted, and it can be started again after {@link #shutdown()} when the plugin
+ * is re-enabled.
+ * <p>
+ * Long-running work such as re-encrypting a vault goes to the separate {@link #worker()}, and
+ * the shared session's socket I/O to {@link #session()}, so neither holds up the timers.
+ */
+@Singleton
+class SharedScheduler
+{
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	private ScheduledThreadPoolExecutor executor;
+	private ExecutorService worker;
+	private ScheduledExecutorService session;
+
+	synchronized ScheduledExecutorService get()
+	{
+		if (executor == null)
+		{
+			executor = new ScheduledThreadPoolExecutor(1, r ->
+			{
+				Thread thread = new Thread(r, "account-manager-" + THREAD_COUNT.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			// Rescheduled timers are cancelled often, don't keep them queued until their old deadline
+			executor.setRemoveOnCancelPolicy(true);
+		}
+		return executor;
+	}
+
+	/**
+	 * @return the thread for bulk work, which runs tasks one at a time in the order they were submitted
+	 */
+	synchronized ExecutorService worker()
+	{
+		if (worker == null)
+		{
+			worker = Executors.newSingleThreadExecutor(r ->
+			{
+				Thread thread = new Thread(r, "account-manager-worker-" + THREAD_COUNT.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return worker;
+	}
+
+	/**
+	 * @return the thread for connecting to and sending to other instances, which may wait on a slow peer
+	 */
+	synchronized ScheduledExecutorService session()
+	{
+		if (session == null)
+		{
+			session = Executors.newSingleThreadScheduledExecutor(r ->
+			{
+				Thread thread = new Thread(r, "account-manager-session-io-" + THREAD_COUNT.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return session;
+	}
+
+	synchronized void shutdown()
+	{
+		if (executor != null)
+		{
+			executor.shutdownNow();
+			executor = null;
+		}
+		if (worker != null)
+		{
+			worker.shutdownNow();
+			worker = null;
+		}
+		if (session != null)
+		{
+			session.shutdownNow();
+			session = null;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.accountmanager;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Watches work the plugin does on the EDT and the client thread. Each watched task's run time
+ * is recorded in {@link PluginMetrics}; a task still running when its budget runs out has the
+ * stack of its thread sampled and logged, showing where it is stuck while it is stuck.
+ */
+@Slf4j
+@Singleton
+class StallDetector
+{
+	static final long DEFAULT_BUDGET_MILLIS = 50;
+
+	private final SharedScheduler scheduler;
+	private final PluginMetrics metrics;
+	private volatile LongSupplier budgetMillis = () -> DEFAULT_BUDGET_MILLIS;
+
+	@Inject
+	StallDetector(SharedScheduler scheduler, PluginMetrics metrics)
+	{
+		this.scheduler = scheduler;
+		this.metrics = metrics;
+	}
+
+	void setBudget(LongSupplier budgetMillis)
+	{
+		this.budgetMillis = budgetMillis;
+	}
+
+	/**
+	 * Starts watching the current thread until the returned watch is closed.
+	 *
+	 * @param name one of the {@link PluginMetrics} latency names
+	 */
+	Watch watch(String name)
+	{
+		return new Watch(name, Thread.currentThread(), budgetMillis.getAsLong());
+	}
+
+	/**
+	 * Wraps a task so every run of it is watched, e.g. for tasks handed to the client thread.
+	 */
+	Runnable watched(String name, Runnable task)
+	{
+		return () ->
+		{
+			try (Watch ignored = watch(name))
+			{
+				task.run();
+			}
+		};
+	}
+
+	final class Watch implements AutoCloseable
+	{
+		private final String name;
+		private final Thread thread;
+		private final long budgetMillis;
+		private final long start = System.nanoTime();
+		private final AtomicBoolean stalled = new AtomicBoolean();
+		private final ScheduledFuture<?> sampler;
+		private volatile boolean closed;
+
+		private Watch(String name, Thread thread, long budgetMillis)
+		{
+			this.name = name;
+			this.thread = thread;
+			this.budgetMillis = budgetMillis;
+			this.sampler = scheduler.get().schedule(this::sample, budgetMillis, TimeUnit.MILLISECONDS);
+		}
+
+		private void sample()
+		{
+			if (closed || !stalled.compareAndSet(false, true))
+			{
+				return;
+			}
+
+			StackTraceElement[] stack = thread.getStackTrace();
+			metrics.increment(PluginMetrics.stallCounter(name));
+			StringBuilder sb = new StringBuilder();
+			for (StackTraceElement element : stack)
+			{
+				sb.append("\n\tat ").append(element);
+			}
+			log.warn("{} has held {} for more than {}ms, sampled stack:{}", name, thread.getName(), budgetMillis, sb);
+		}
+
+		@Override
+		public void close()
+		{
+			if (closed)
+			{
+				return;
+			}
+			closed = true;
+			sampler.cancel(false);
+
+			long elapsed = System.nanoTime() - start;
+			metrics.recordNanos(name, elapsed);
+			if (elapsed > TimeUnit.MILLISECONDS.toNanos(budgetMillis))
+			{
+				if (stalled.compareAndSet(false, true))
+				{
+					// Finished before the sampler got to run
+					metrics.increment(PluginMetrics.stallCounter(name));
+				}
+				log.warn("{} held {} for {} (budget {}ms)", name, thread.getName(), PluginMetrics.formatNanos(elapsed), budgetMillis);
+			}
+		}
+	}
+}
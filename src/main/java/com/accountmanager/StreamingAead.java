@@ -0,0 +1,466 @@
+package com.accountmanager;
+
+import lombok.Getter;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Encrypts a stream in fixed-size chunks, each sealed with the cipher suite on its own, so
+ * values of any size take one chunk of memory and any chunk can be read without the ones
+ * before it. Chunk nonces follow the STREAM construction: a random prefix, the chunk's index
+ * and a flag set only on the last chunk, so chunks cannot be reordered, dropped or cut off
+ * at a chunk boundary without failing authentication.
+ * <p>
+ * Each value gets its own key, derived from the given key and a random salt in its header,
+ * which keeps the short nonce prefix from ever repeating under one key. The whole header,
+ * including the caller's metadata, and the caller's associated data are authenticated with
+ * every chunk.
+ * <pre>
+ * magic (4) | version (1) | suite (1) | chunk size (4) | salt (32) | nonce prefix (7)
+ *   | metadata length (2) | metadata | chunk 0 | chunk 1 | ... | last chunk
+ * </pre>
+ */
+final class StreamingAead
+{
+	static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	// Bounds what a header can make a reader allocate
+	static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	private static final byte[] MAGIC = {'A', 'M', 'S', 'A'};
+	private static final byte VERSION = 1;
+	private static final int SALT_LENGTH = 32;
+	private static final int PREFIX_LENGTH = 7;
+	private static final int FIXED_HEADER_LENGTH = MAGIC.length + 2 + Integer.BYTES + SALT_LENGTH + PREFIX_LENGTH + Short.BYTES;
+	private static final int MAX_METADATA_LENGTH = 0xFFFF;
+	private static final long MAX_CHUNKS = 1L << 32;
+	// Stored as the suite's position, so suites are only ever added at the end
+	private static final CipherSuite[] SUITES = CipherSuite.values();
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final SecretKey key;
+	private final CipherSuite suite;
+	private final int chunkSize;
+
+	/**
+	 * @param key the HMAC key each value's own key is derived from
+	 * @param suite the suite new values are encrypted with; reading uses whichever one the value names
+	 */
+	StreamingAead(SecretKey key, CipherSuite suite)
+	{
+		this(key, suite, DEFAULT_CHUNK_SIZE);
+	}
+
+	StreamingAead(SecretKey key, CipherSuite suite, int chunkSize)
+	{
+		if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE)
+		{
+			throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+		}
+		this.key = key;
+		this.suite = suite;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Reads {@code source} to its end and writes it to {@code target} encrypted.
+	 *
+	 * @param metadata authenticated and stored in the clear in the header, so encrypt it first if it is secret
+	 * @param associatedData authenticated but not stored, e.g. what the value belongs to, which the
+	 * reader has to give again
+	 * @return the number of plaintext bytes encrypted
+	 */
+	long encrypt(ReadableByteChannel source, WritableByteChannel target, byte[] metadata, byte[] associatedData)
+		throws IOException
+	{
+		if (metadata.length > MAX_METADATA_LENGTH)
+		{
+			throw new IllegalArgumentException("Metadata too long: " + metadata.length);
+		}
+
+		byte[] salt = new byte[SALT_LENGTH];
+		byte[] nonce = new byte[CipherSuite.NONCE_LENGTH];
+		RANDOM.nextBytes(salt);
+		RANDOM.nextBytes(nonce);
+
+		ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_LENGTH + metadata.length)
+			.put(MAGIC)
+			.put(VERSION)
+			.put((byte) suite.ordinal())
+			.putInt(chunkSize)
+			.put(salt)
+			.put(nonce, 0, PREFIX_LENGTH)
+			.putShort((short) metadata.length)
+			.put(metadata);
+		header.flip();
+		byte[] headerBytes = Arrays.copyOf(header.array(), header.limit());
+		writeFully(target, header);
+
+		SecretKey valueKey = valueKey(suite, salt);
+		// The chunk being sealed and the one after it, which tells whether this one is the last
+		ByteBuffer current = ByteBuffer.allocate(chunkSize);
+		ByteBuffer next = ByteBuffer.allocate(chunkSize);
+		ByteBuffer sealed = ByteBuffer.allocate(chunkSize + CipherSuite.TAG_LENGTH);
+		long total = 0;
+		readFully(source, current);
+		for (long index = 0; ; index++)
+		{
+			boolean last = current.position() < chunkSize;
+			if (!last)
+			{
+				readFully(source, next);
+				last = next.position() == 0;
+			}
+			if (index >= MAX_CHUNKS)
+			{
+				throw new IOException("Too many chunks to encrypt");
+			}
+
+			current.flip();
+			total += current.remaining();
+			sealed.clear();
+			try
+			{
+				setChunkNonce(nonce, index, last);
+				Cipher cipher = suite.init(Cipher.ENCRYPT_MODE, valueKey, nonce, 0);
+				cipher.updateAAD(headerBytes);
+				cipher.updateAAD(associatedData);
+				cipher.doFinal(current, sealed);
+			}
+			catch (GeneralSecurityException e)
+			{
+				throw new RuntimeException("Stream encryption failed", e);
+			}
+			sealed.flip();
+			writeFully(target, sealed);
+
+			if (last)
+			{
+				return total;
+			}
+			ByteBuffer swap = current;
+			current = next;
+			next = swap;
+			next.clear();
+		}
+	}
+
+	/**
+	 * Reads the header of an encrypted value, leaving its chunks to be decrypted as they are read.
+	 *
+	 * @param associatedData the same associated data it was encrypted with
+	 * @throws IOException if it cannot be read or is not a value this class wrote
+	 */
+	Reader open(SeekableByteChannel source, byte[] associatedData) throws IOException
+	{
+		source.position(0);
+		ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_LENGTH);
+		if (!readFully(source, fixed))
+		{
+			throw new IOException("Encrypted stream header is truncated");
+		}
+		fixed.flip();
+
+		byte[] magic = new byte[MAGIC.length];
+		fixed.get(magic);
+		byte version = fixed.get();
+		if (!Arrays.equals(magic, MAGIC) || version != VERSION)
+		{
+			throw new IOException("Not an encrypted stream, or from a later version");
+		}
+		int suiteIndex = fixed.get() & 0xFF;
+		if (suiteIndex >= SUITES.length)
+		{
+			throw new IOException("Unsupported cipher suite: " + suiteIndex);
+		}
+		int storedChunkSize = fixed.getInt();
+		if (storedChunkSize <= 0 || storedChunkSize > MAX_CHUNK_SIZE)
+		{
+			throw new IOException("Invalid chunk size: " + storedChunkSize);
+		}
+		byte[] salt = new byte[SALT_LENGTH];
+		fixed.get(salt);
+		byte[] nonce = new byte[CipherSuite.NONCE_LENGTH];
+		fixed.get(nonce, 0, PREFIX_LENGTH);
+		int metadataLength = fixed.getShort() & 0xFFFF;
+
+		ByteBuffer metadata = ByteBuffer.allocate(metadataLength);
+		if (!readFully(source, metadata))
+		{
+			throw new IOException("Encrypted stream header is truncated");
+		}
+
+		byte[] header = new byte[FIXED_HEADER_LENGTH + metadataLength];
+		System.arraycopy(fixed.array(), 0, header, 0, FIXED_HEADER_LENGTH);
+		System.arraycopy(metadata.array(), 0, header, FIXED_HEADER_LENGTH, metadataLength);
+
+		CipherSuite valueSuite = SUITES[suiteIndex];
+		return new Reader(source, valueSuite, valueKey(valueSuite, salt), storedChunkSize, nonce, header,
+			metadata.array(), associatedData);
+	}
+
+	private SecretKey valueKey(CipherSuite valueSuite, byte[] salt)
+	{
+		byte[] raw = null;
+		try
+		{
+			Mac mac = Mac.getInstance(key.getAlgorithm());
+			mac.init(key);
+			raw = mac.doFinal(salt);
+			return valueSuite.key(raw);
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new RuntimeException("Stream key derivation failed", e);
+		}
+		finally
+		{
+			if (raw != null)
+			{
+				Arrays.fill(raw, (byte) 0);
+			}
+		}
+	}
+
+	private static void setChunkNonce(byte[] nonce, long index, boolean last)
+	{
+		nonce[PREFIX_LENGTH] = (byte) (index >>> 24);
+		nonce[PREFIX_LENGTH + 1] = (byte) (index >>> 16);
+		nonce[PREFIX_LENGTH + 2] = (byte) (index >>> 8);
+		nonce[PREFIX_LENGTH + 3] = (byte) index;
+		nonce[PREFIX_LENGTH + 4] = (byte) (last ? 1 : 0);
+	}
+
+	/**
+	 * @return false if the channel ended before the buffer was full
+	 */
+	private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer) < 0)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Read-only channel over the plaintext of an encrypted value. Reading at any position
+	 * decrypts only the chunk holding it, and each chunk is authenticated before any of it is
+	 * returned. Closing it closes the underlying channel.
+	 */
+	static final class Reader implements SeekableByteChannel
+	{
+		private final SeekableByteChannel source;
+		private final CipherSuite suite;
+		private final SecretKey key;
+		private final int chunkSize;
+		private final byte[] nonce;
+		private final byte[] header;
+		private final byte[] associatedData;
+		/**
+		 * The caller's metadata, which is only authenticated once a chunk has been read.
+		 */
+		@Getter
+		private final byte[] metadata;
+		@Getter
+		private final long chunkCount;
+		private final long plaintextSize;
+
+		private final ByteBuffer sealed;
+		private final ByteBuffer chunk;
+		private long chunkIndex = -1;
+		private long position;
+
+		private Reader(SeekableByteChannel source, CipherSuite suite, SecretKey key, int chunkSize, byte[] nonce,
+			byte[] header, byte[] metadata, byte[] associatedData) throws IOException
+		{
+			this.source = source;
+			this.suite = suite;
+			this.key = key;
+			this.chunkSize = chunkSize;
+			this.nonce = nonce;
+			this.header = header;
+			this.metadata = metadata;
+			this.associatedData = associatedData;
+
+			long sealedChunkSize = (long) chunkSize + CipherSuite.TAG_LENGTH;
+			long body = source.size() - header.length;
+			this.chunkCount = (body + sealedChunkSize - 1) / sealedChunkSize;
+			long lastChunk = body - (chunkCount - 1) * sealedChunkSize;
+			if (chunkCount == 0 || lastChunk < CipherSuite.TAG_LENGTH)
+			{
+				throw new IOException("Encrypted stream is truncated");
+			}
+			if (chunkCount > MAX_CHUNKS)
+			{
+				throw new IOException("Encrypted stream has too many chunks");
+			}
+			this.plaintextSize = body - chunkCount * CipherSuite.TAG_LENGTH;
+			this.sealed = ByteBuffer.allocate((int) sealedChunkSize);
+			this.chunk = ByteBuffer.allocate(chunkSize);
+		}
+
+		/**
+		 * Decrypts one chunk into {@code target}, which needs room for a whole chunk.
+		 *
+		 * @return the number of bytes decrypted, which is the chunk size for all but the last chunk
+		 * @throws IOException if the chunk does not authenticate
+		 */
+		int readChunk(long index, ByteBuffer target) throws IOException
+		{
+			if (index < 0 || index >= chunkCount)
+			{
+				throw new IndexOutOfBoundsException("Chunk " + index + " of " + chunkCount);
+			}
+			if (!source.isOpen())
+			{
+				throw new ClosedChannelException();
+			}
+
+			long sealedChunkSize = (long) chunkSize + CipherSuite.TAG_LENGTH;
+			sealed.clear();
+			sealed.limit((int) Math.min(sealedChunkSize, source.size() - header.length - index * sealedChunkSize));
+			source.position(header.length + index * sealedChunkSize);
+			if (!readFully(source, sealed))
+			{
+				throw new IOException("Encrypted stream is truncated");
+			}
+			sealed.flip();
+
+			int start = target.position();
+			try
+			{
+				setChunkNonce(nonce, index, index == chunkCount - 1);
+				Cipher cipher = suite.init(Cipher.DECRYPT_MODE, key, nonce, 0);
+				cipher.updateAAD(header);
+				cipher.updateAAD(associatedData);
+				cipher.doFinal(sealed, target);
+			}
+			catch (AEADBadTagException e)
+			{
+				throw new IOException("Chunk " + index + " failed authentication", e);
+			}
+			catch (GeneralSecurityException e)
+			{
+				throw new RuntimeException("Stream decryption failed", e);
+			}
+			return target.position() - start;
+		}
+
+		@Override
+		public int read(ByteBuffer target) throws IOException
+		{
+			if (position >= plaintextSize)
+			{
+				return -1;
+			}
+
+			long index = position / chunkSize;
+			loadChunk(index);
+			chunk.position((int) (position - index * chunkSize));
+			int count = Math.min(chunk.remaining(), target.remaining());
+			ByteBuffer slice = chunk.slice();
+			slice.limit(count);
+			target.put(slice);
+			position += count;
+			return count;
+		}
+
+		/**
+		 * Checks the header and associated data without reading the whole value, by decrypting
+		 * its last chunk, which is the smallest.
+		 *
+		 * @throws IOException if they do not authenticate
+		 */
+		void authenticate() throws IOException
+		{
+			loadChunk(chunkCount - 1);
+		}
+
+		private void loadChunk(long index) throws IOException
+		{
+			if (index != chunkIndex)
+			{
+				chunk.clear();
+				chunkIndex = -1;
+				readChunk(index, chunk);
+				chunk.flip();
+				chunkIndex = index;
+			}
+		}
+
+		@Override
+		public long position()
+		{
+			return position;
+		}
+
+		@Override
+		public Reader position(long newPosition)
+		{
+			if (newPosition < 0)
+			{
+				throw new IllegalArgumentException("Negative position: " + newPosition);
+			}
+			position = newPosition;
+			return this;
+		}
+
+		/**
+		 * @return the plaintext size
+		 */
+		@Override
+		public long size()
+		{
+			return plaintextSize;
+		}
+
+		@Override
+		public int write(ByteBuffer source)
+		{
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size)
+		{
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public boolean isOpen()
+		{
+			return source.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			source.close();
+		}
+	}
+}
@@ -3,6 +3,8 @@ package com.accountmanager;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
 
 public class TotpService
 {
@@ -10,11 +12,47 @@ public class TotpService
 	private static final int CODE_DIGITS = 6;
 	private static final String BASE32_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
 
+	private PluginMetrics metrics;
+
+	void setMetrics(PluginMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
 	public String generateCode(String secretBase32)
 	{
+		return generateCode((CharSequence) secretBase32);
+	}
+
+	/**
+	 * Generates a code from a secret held in a wipeable buffer. The caller remains
+	 * responsible for clearing {@code secretBase32}.
+	 */
+	public String generateCode(char[] secretBase32)
+	{
+		return generateCode(CharBuffer.wrap(secretBase32));
+	}
+
+	public String generateCode(SecretBuffer secretBase32)
+	{
+		char[] secret = secretBase32.toChars();
+		try
+		{
+			return generateCode(secret);
+		}
+		finally
+		{
+			Arrays.fill(secret, '\0');
+		}
+	}
+
+	private String generateCode(CharSequence secretBase32)
+	{
+		long start = System.nanoTime();
+		byte[] key = null;
 		try
 		{
-			byte[] key = base32Decode(secretBase32);
+			key = base32Decode(secretBase32);
 			long counter = System.currentTimeMillis() / 1000 / TIME_STEP_SECONDS;
 
 			byte[] counterBytes = ByteBuffer.allocate(8).putLong(counter).array();
@@ -36,6 +74,17 @@ public class TotpService
 		{
 			throw new RuntimeException("TOTP generation failed", e);
 		}
+		finally
+		{
+			if (key != null)
+			{
+				Arrays.fill(key, (byte) 0);
+			}
+			if (metrics != null)
+			{
+				metrics.recordSince(PluginMetrics.TOTP_GENERATE, start);
+			}
+		}
 	}
 
 	public int getSecondsRemaining()
@@ -43,20 +92,62 @@ public class TotpService
 		return TIME_STEP_SECONDS - (int) (System.currentTimeMillis() / 1000 % TIME_STEP_SECONDS);
 	}
 
-	private byte[] base32Decode(String input)
+	/**
+	 * Checks a normalized secret, uppercase without whitespace, against {@code ^[A-Z2-7]+=*$}
+	 * with enough characters to decode to at least one byte of key.
+	 */
+	static boolean isValidSecret(char[] secret)
+	{
+		int dataLength = 0;
+		while (dataLength < secret.length
+			&& ((secret[dataLength] >= 'A' && secret[dataLength] <= 'Z') || (secret[dataLength] >= '2' && secret[dataLength] <= '7')))
+		{
+			dataLength++;
+		}
+
+		if (dataLength * 5 / 8 == 0)
+		{
+			return false;
+		}
+
+		for (int i = dataLength; i < secret.length; i++)
+		{
+			if (secret[i] != '=')
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private byte[] base32Decode(CharSequence input)
 	{
-		input = input.toUpperCase().replaceAll("[^A-Z2-7]", "");
+		// Case-insensitive; anything outside the Base32 alphabet (spaces, padding) is skipped
+		int validChars = 0;
+		for (int i = 0; i < input.length(); i++)
+		{
+			if (BASE32_CHARS.indexOf(Character.toUpperCase(input.charAt(i))) >= 0)
+			{
+				validChars++;
+			}
+		}
 
-		int outputLength = input.length() * 5 / 8;
+		int outputLength = validChars * 5 / 8;
 		byte[] output = new byte[outputLength];
 
 		int buffer = 0;
 		int bitsLeft = 0;
 		int outputIndex = 0;
 
-		for (char c : input.toCharArray())
+		for (int i = 0; i < input.length(); i++)
 		{
-			buffer = (buffer << 5) | BASE32_CHARS.indexOf(c);
+			int value = BASE32_CHARS.indexOf(Character.toUpperCase(input.charAt(i)));
+			if (value < 0)
+			{
+				continue;
+			}
+
+			buffer = (buffer << 5) | value;
 			bitsLeft += 5;
 			if (bitsLeft >= 8)
 			{
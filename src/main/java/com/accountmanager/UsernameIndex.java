@@ -0,0 +1,267 @@
+package com.accountmanager;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Blind index of account usernames. Each username is normalized and hashed with a
+ * key derived from the vault key, so lookups and duplicate checks never need to
+ * decrypt the stored usernames.
+ * <p>
+ * After {@link #rebuildLazily} the index is only filled, decrypting every username in
+ * parallel, when it is first needed or {@link #ensureBuilt()} is called ahead of time. Changes
+ * made before then are skipped, since filling reads the accounts as they are then.
+ */
+@Slf4j
+class UsernameIndex
+{
+	private static final String INDEX_KEY_PURPOSE = "account-manager-username-index";
+
+	private final EncryptionService encryptionService;
+	private final ThreadLocal<Mac> mac;
+	// Several accounts can share a username; each set is replaced, never changed, so lookups need no lock
+	private final Map<String, Map<String, Account>> accountsByBlindName = new ConcurrentHashMap<>();
+	private final Map<String, String> blindNamesById = new ConcurrentHashMap<>();
+
+	private PluginMetrics metrics;
+	private volatile Supplier<List<Account>> source;
+	// Starts filled, so an index used on its own indexes whatever is put into it
+	private volatile boolean built = true;
+	// Set by clear() before it waits for a fill in progress, which then stops decrypting
+	private volatile boolean cleared;
+
+	UsernameIndex(EncryptionService encryptionService)
+	{
+		this.encryptionService = encryptionService;
+
+		SecretKey indexKey = encryptionService.deriveSubkey(INDEX_KEY_PURPOSE);
+		this.mac = ThreadLocal.withInitial(() ->
+		{
+			try
+			{
+				Mac instance = Mac.getInstance(indexKey.getAlgorithm());
+				instance.init(indexKey);
+				return instance;
+			}
+			catch (Exception e)
+			{
+				throw new RuntimeException("Username index initialization failed", e);
+			}
+		});
+	}
+
+	void setMetrics(PluginMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Rebuilds the index from scratch, decrypting the usernames in parallel.
+	 */
+	void rebuild(List<Account> accounts)
+	{
+		rebuildLazily(() -> accounts);
+		ensureBuilt();
+	}
+
+	/**
+	 * Empties the index and fills it from {@code accounts} only when it is first needed.
+	 */
+	synchronized void rebuildLazily(Supplier<List<Account>> accounts)
+	{
+		source = accounts;
+		accountsByBlindName.clear();
+		blindNamesById.clear();
+		built = false;
+	}
+
+	/**
+	 * Fills the index if it is not filled yet. Lookups do this themselves; calling it ahead of
+	 * time moves the work off the caller of the first lookup.
+	 */
+	void ensureBuilt()
+	{
+		if (built)
+		{
+			return;
+		}
+
+		synchronized (this)
+		{
+			if (built)
+			{
+				return;
+			}
+
+			// Read under the lock, so no change made before filling is missed and none after is skipped
+			long start = System.nanoTime();
+			List<Account> accounts = new ArrayList<>(source.get());
+			String[] blindNames = new String[accounts.size()];
+			IntStream.range(0, blindNames.length).parallel().forEach(i ->
+			{
+				Account account = accounts.get(i);
+				if (cleared)
+				{
+					return;
+				}
+
+				try
+				{
+					blindNames[i] = blind(encryptionService.decrypt(account.getEncryptedUsername()));
+				}
+				catch (Exception e)
+				{
+					log.warn("Could not index account: {}", account.getNickname());
+				}
+			});
+			for (int i = 0; i < blindNames.length && !cleared; i++)
+			{
+				if (blindNames[i] != null)
+				{
+					index(accounts.get(i), blindNames[i]);
+				}
+			}
+			built = true;
+			if (metrics != null)
+			{
+				metrics.recordSince(PluginMetrics.INDEX_BUILD, start);
+			}
+		}
+	}
+
+	/**
+	 * Adds or refreshes the entry for an account, replacing any previous username it had.
+	 */
+	synchronized void put(Account account)
+	{
+		if (built)
+		{
+			index(account, blind(encryptionService.decrypt(account.getEncryptedUsername())));
+		}
+	}
+
+	synchronized void put(Account account, String username)
+	{
+		if (built)
+		{
+			index(account, blind(username));
+		}
+	}
+
+	/**
+	 * Points the entry for an account at a changed copy of it with the same username, without decrypting it.
+	 */
+	synchronized void replace(Account account)
+	{
+		String blindName = blindNamesById.get(account.getId());
+		if (blindName != null)
+		{
+			link(blindName, account);
+		}
+	}
+
+	synchronized void remove(String accountId)
+	{
+		String blindName = blindNamesById.remove(accountId);
+		if (blindName != null)
+		{
+			unlink(blindName, accountId);
+		}
+	}
+
+	/**
+	 * @return the account using this username, the one indexed first if several do, or null if there is none
+	 */
+	Account find(String username)
+	{
+		ensureBuilt();
+		Map<String, Account> indexed = accountsByBlindName.get(blind(username));
+		return indexed == null ? null : indexed.values().iterator().next();
+	}
+
+	int size()
+	{
+		ensureBuilt();
+		return blindNamesById.size();
+	}
+
+	/**
+	 * @return true once the index has been filled
+	 */
+	boolean isBuilt()
+	{
+		return built;
+	}
+
+	/**
+	 * Empties the index for good; a fill still running for it stops decrypting.
+	 */
+	void clear()
+	{
+		cleared = true;
+		synchronized (this)
+		{
+			accountsByBlindName.clear();
+			blindNamesById.clear();
+			built = true;
+		}
+	}
+
+	private void index(Account account, String blindName)
+	{
+		String previous = blindNamesById.put(account.getId(), blindName);
+		if (previous != null && !previous.equals(blindName))
+		{
+			unlink(previous, account.getId());
+		}
+		link(blindName, account);
+	}
+
+	private void link(String blindName, Account account)
+	{
+		accountsByBlindName.compute(blindName, (key, indexed) ->
+		{
+			Map<String, Account> accounts = indexed == null ? new LinkedHashMap<>() : new LinkedHashMap<>(indexed);
+			accounts.put(account.getId(), account);
+			return accounts;
+		});
+	}
+
+	private void unlink(String blindName, String accountId)
+	{
+		accountsByBlindName.computeIfPresent(blindName, (key, indexed) ->
+		{
+			if (!indexed.containsKey(accountId))
+			{
+				return indexed;
+			}
+			Map<String, Account> accounts = new LinkedHashMap<>(indexed);
+			accounts.remove(accountId);
+			return accounts.isEmpty() ? null : accounts;
+		});
+	}
+
+	private String blind(String username)
+	{
+		byte[] hash = mac.get().doFinal(normalize(username).getBytes(StandardCharsets.UTF_8));
+		return Base64.getEncoder().encodeToString(hash);
+	}
+
+	static String normalize(String username)
+	{
+		// Jagex logins are case-insensitive
+		return username.trim().toLowerCase(Locale.ROOT);
+	}
+}
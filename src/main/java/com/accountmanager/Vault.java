@@ -0,0 +1,1573 @@
+package com.accountmanager;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * The encrypted account vault: unlocking, persistence and account changes, independent of
+ * the RuneLite client and UI. Changes are serialized; reads of {@link #getAccounts()} never block.
+ * <p>
+ * The records are stored in {@link #SHARD_COUNT} shards by a hash of their id, so a save only
+ * encodes and writes the shards whose records changed, a reload only decodes the shards another
+ * client changed, and unlocking decodes the shards in parallel.
+ * <p>
+ * Every save also stores the root of a {@link MerkleTree} over the stored shards, authenticated
+ * with a key derived from the vault key, so records that were altered, dropped or reordered
+ * outside the plugin are detected even where each field still decrypts. The encrypted
+ * verification value records that a vault has been signed, so removing the root is detected too.
+ * <p>
+ * Earlier passwords and TOTP secrets are kept per account in an {@link AccountHistory}, stored
+ * beside the accounts and only read when one of them changes or the history is opened.
+ */
+@Slf4j
+class Vault
+{
+	static final String KEY_SALT = "salt";
+	// Followed by the shard number
+	static final String KEY_SHARD_PREFIX = "accounts.";
+	// All records in one value, as stored before there were shards; the next save moves them into theirs
+	static final String KEY_ACCOUNTS = "accounts";
+	static final String KEY_VERIFICATION = "verification";
+	static final String KEY_INTEGRITY = "integrity";
+	static final String KEY_CIPHER = "cipher";
+	// Followed by the account id; see AccountHistory
+	static final String KEY_HISTORY_PREFIX = "history.";
+	static final String VERIFICATION_STRING = "account-manager-verification";
+	// Stored in place of the plain one by the first save with an integrity root
+	static final String VERIFICATION_SIGNED = VERIFICATION_STRING + ":signed";
+	private static final String INTEGRITY_KEY_PURPOSE = "account-manager-integrity";
+	// Fixed, since every client has to find a record in the same shard
+	static final int SHARD_COUNT = 16;
+	// Every key records are stored under, so a change to any of them is reloaded
+	static final List<String> ACCOUNTS_KEYS = accountsKeys();
+	private static final List<String> SHARED_KEYS = sharedKeys();
+	private static final Comparator<Account> LIST_ORDER = Comparator.comparingLong(Account::getCreated)
+		.thenComparing(Account::getId);
+
+	@Getter
+	private final String name;
+	private final VaultStore store;
+	private final VaultCodec codec;
+	private final PluginMetrics metrics;
+	private final SharedScheduler scheduler;
+	private final IntSupplier cacheTtlSeconds;
+
+	@Getter
+	private volatile EncryptionService encryptionService;
+
+	@Getter
+	private volatile List<Account> accounts = new CopyOnWriteArrayList<>();
+
+	private volatile UsernameIndex usernameIndex;
+	private volatile CredentialCache credentialCache;
+	private volatile Consumer<Vault> changeListener;
+	private volatile BiConsumer<Vault, Reload> reloadListener;
+
+	// Live accounts by id, and the Lamport clock of this replica
+	private final Map<String, Account> accountsById = new HashMap<>();
+	private final String replicaId = newReplicaId();
+	private long clock;
+
+	// Every record as stored, tombstones included, in the shard its id hashes to
+	private final Shard[] shards = newShards();
+	// Shards stored again since the tree was last brought up to date, which it is built on the first save
+	private final Set<Integer> changedShards = new TreeSet<>();
+	private MerkleTree merkleTree;
+	// The unsharded accounts value as this instance last read it, until a save moves it into the shards
+	private String legacyAccountsJson;
+	// Set while a save stores its shards one by one, which the store may report back straight away
+	private boolean saving;
+	private SecretKey integrityKey;
+	// Whether an integrity root has been stored, so a missing one was removed
+	private volatile boolean signed;
+
+	// Set by the last integrity check, until the vault locks
+	@Getter
+	private volatile boolean tampered;
+	private volatile Consumer<Vault> integrityListener;
+
+	@Getter
+	private volatile boolean unlocked;
+
+	Vault(String name, VaultStore store, VaultCodec codec, PluginMetrics metrics, SharedScheduler scheduler, IntSupplier cacheTtlSeconds)
+	{
+		this.name = name;
+		this.store = store;
+		this.codec = codec;
+		this.metrics = metrics;
+		this.scheduler = scheduler;
+		this.cacheTtlSeconds = cacheTtlSeconds;
+	}
+
+	boolean exists()
+	{
+		return store.get(KEY_SALT) != null;
+	}
+
+	/**
+	 * Unlocks the vault, creating it on first use. The caller remains responsible for clearing
+	 * {@code masterPassword}.
+	 */
+	synchronized boolean unlock(char[] masterPassword)
+	{
+		try (VaultEvents.Scope event = VaultEvents.begin(VaultEvents.Type.UNLOCK))
+		{
+			boolean success = unlockVault(masterPassword);
+			if (success)
+			{
+				event.success().accountCount(accounts.size());
+			}
+			return success;
+		}
+	}
+
+	private boolean unlockVault(char[] masterPassword)
+	{
+		String salt = store.get(KEY_SALT);
+		String cipherId = store.get(KEY_CIPHER);
+
+		if (salt == null)
+		{
+			// First time setup - generate new salt and use the faster cipher on this machine, if it is known yet
+			salt = EncryptionService.generateSalt();
+			store.set(KEY_SALT, salt);
+			cipherId = CipherSuite.fastestOrDefault().getId();
+			store.set(KEY_CIPHER, cipherId);
+		}
+
+		EncryptionService service;
+		try (VaultEvents.Scope ignored = VaultEvents.begin(VaultEvents.Type.KDF))
+		{
+			long kdfStart = System.nanoTime();
+			service = new EncryptionService(masterPassword, salt).withCipherSuite(CipherSuite.fromId(cipherId));
+			service.setMetrics(metrics);
+			metrics.recordSince(PluginMetrics.KDF, kdfStart);
+		}
+
+		// Check if we have existing data to verify password
+		String verification = store.get(KEY_VERIFICATION);
+		boolean wasSigned = false;
+		if (verification != null)
+		{
+			// Existing vault - verify password
+			String plaintext = decryptVerification(service, verification);
+			if (plaintext == null)
+			{
+				metrics.increment(PluginMetrics.UNLOCK_FAILURE);
+				return false;
+			}
+			wasSigned = VERIFICATION_SIGNED.equals(plaintext);
+		}
+		else
+		{
+			// New vault - create verification string
+			store.set(KEY_VERIFICATION, service.encrypt(VERIFICATION_STRING));
+		}
+
+		open(service, wasSigned);
+		metrics.increment(PluginMetrics.UNLOCK_SUCCESS);
+		return true;
+	}
+
+	/**
+	 * Opens the vault with a key shared by another instance instead of the master password,
+	 * first storing the records it was shared with. Reopens the vault if it was already unlocked,
+	 * so it picks up the other instance's changes.
+	 *
+	 * @param records the stored values from {@link #records()} of the sharing instance
+	 * @return false if the key does not open these records, or they belong to a different vault
+	 * than the one stored here
+	 */
+	synchronized boolean unlockShared(Map<String, String> records, byte[] key)
+	{
+		try (VaultEvents.Scope event = VaultEvents.begin(VaultEvents.Type.UNLOCK))
+		{
+			EncryptionService service = new EncryptionService(key)
+				.withCipherSuite(CipherSuite.fromId(records.get(KEY_CIPHER)));
+			service.setMetrics(metrics);
+
+			String verification = records.get(KEY_VERIFICATION);
+			String plaintext = verification == null ? null : decryptVerification(service, verification);
+			if (plaintext == null)
+			{
+				log.warn("Shared key does not open vault '{}'", name);
+				return false;
+			}
+			if (!isSameVault(records, service))
+			{
+				// Another profile's vault of the same name, taking its records over would replace this one
+				log.warn("Refusing vault '{}' shared by another client, it is a different vault of the same name", name);
+				return false;
+			}
+			boolean wasSigned = VERIFICATION_SIGNED.equals(plaintext);
+
+			// A shard the other instance has not stored is empty there, so it is removed here too
+			for (String sharedKey : SHARED_KEYS)
+			{
+				String value = records.get(sharedKey);
+				if (!Objects.equals(store.get(sharedKey), value))
+				{
+					store.set(sharedKey, value);
+				}
+			}
+
+			if (unlocked && hasKey(key))
+			{
+				// Already open, only take over what the other instance changed
+				signed |= wasSigned;
+				reload();
+				event.success().accountCount(accounts.size());
+				return true;
+			}
+
+			open(service, wasSigned);
+			metrics.increment(PluginMetrics.UNLOCK_SHARED);
+			event.success().accountCount(accounts.size());
+			return true;
+		}
+	}
+
+	/**
+	 * @return true if this vault has not been set up yet, or has the shared records' salt and a
+	 * verification value the shared key opens
+	 */
+	private boolean isSameVault(Map<String, String> records, EncryptionService service)
+	{
+		String salt = store.get(KEY_SALT);
+		String verification = store.get(KEY_VERIFICATION);
+		if (salt == null && verification == null)
+		{
+			return true;
+		}
+		return Objects.equals(salt, records.get(KEY_SALT))
+			&& verification != null
+			&& decryptVerification(service, verification) != null;
+	}
+
+	/**
+	 * @param wasSigned whether the verification value says the vault has been signed; a vault
+	 * signed before that was recorded counts as signed if it has a root
+	 */
+	private void open(EncryptionService service, boolean wasSigned)
+	{
+		if (unlocked)
+		{
+			clearSession();
+		}
+		encryptionService = service;
+		integrityKey = service.deriveSubkey(INTEGRITY_KEY_PURPOSE);
+		signed = wasSigned || store.get(KEY_INTEGRITY) != null;
+
+		// Load accounts
+		try (VaultEvents.Scope event = VaultEvents.begin(VaultEvents.Type.LOAD))
+		{
+			event.bytes(loadAccounts());
+			useService(service);
+			event.accountCount(accounts.size());
+		}
+		unlocked = true;
+
+		// Check the records in the background, so unlocking does not wait for it
+		CompletableFuture.runAsync(this::checkIntegrity);
+	}
+
+	/**
+	 * @return the decrypted verification value, or null if the key does not open it
+	 */
+	private static String decryptVerification(EncryptionService service, String verification)
+	{
+		try
+		{
+			return service.decrypt(verification);
+		}
+		catch (RuntimeException e)
+		{
+			return null;
+		}
+	}
+
+	private void checkIntegrity()
+	{
+		try
+		{
+			Integrity integrity = verifyIntegrity();
+			if (integrity.getStatus() == Integrity.Status.TAMPERED)
+			{
+				log.warn("Vault '{}' failed its integrity check, its records were changed outside the plugin", name);
+				Consumer<Vault> listener = integrityListener;
+				if (listener != null)
+				{
+					listener.accept(this);
+				}
+			}
+			else
+			{
+				log.debug("Vault '{}' integrity {}: {}", name, integrity.getStatus(), integrity.summary());
+			}
+		}
+		catch (IllegalStateException e)
+		{
+			// Locked again before the check started
+		}
+	}
+
+	/**
+	 * Checks the stored shards against the integrity root saved with them, hashing them in
+	 * parallel. Counts a failure if they do not match, or if the root of a signed vault is missing.
+	 *
+	 * @throws IllegalStateException if the vault is locked
+	 */
+	Integrity verifyIntegrity()
+	{
+		List<String> stored = new ArrayList<>();
+		String legacyJson;
+		int recordCount;
+		String storedTag;
+		SecretKey key;
+		boolean wasSigned;
+		synchronized (this)
+		{
+			checkUnlocked();
+			for (int shard = 0; shard < SHARD_COUNT; shard++)
+			{
+				stored.add(store.get(shardKey(shard)));
+			}
+			legacyJson = store.get(KEY_ACCOUNTS);
+			recordCount = recordCount();
+			storedTag = store.get(KEY_INTEGRITY);
+			key = integrityKey;
+			wasSigned = signed;
+		}
+
+		long start = System.nanoTime();
+		byte[] root;
+		if (legacyJson != null && stored.stream().allMatch(Objects::isNull))
+		{
+			// Signed before there were shards, with a leaf for every record
+			List<Account> legacy = readAccounts(legacyJson);
+			root = MerkleTree.build(legacy, codec::encodeRecord).root();
+			recordCount = legacy.size();
+		}
+		else
+		{
+			root = MerkleTree.build(stored, Vault::shardBytes).root();
+		}
+		Integrity.Status status;
+		if (storedTag == null)
+		{
+			status = wasSigned ? Integrity.Status.TAMPERED : Integrity.Status.UNSIGNED;
+		}
+		else
+		{
+			byte[] expected = Base64.getDecoder().decode(integrityTag(key, root));
+			status = MessageDigest.isEqual(expected, Base64.getDecoder().decode(storedTag))
+				? Integrity.Status.INTACT
+				: Integrity.Status.TAMPERED;
+		}
+		long nanos = System.nanoTime() - start;
+		metrics.recordNanos(PluginMetrics.INTEGRITY_VERIFY, nanos);
+		if (status == Integrity.Status.TAMPERED)
+		{
+			metrics.increment(PluginMetrics.INTEGRITY_FAILURE);
+		}
+		tampered = status == Integrity.Status.TAMPERED;
+		return new Integrity(status, recordCount, nanos);
+	}
+
+	private static String integrityTag(SecretKey key, byte[] root)
+	{
+		try
+		{
+			Mac mac = Mac.getInstance(key.getAlgorithm());
+			mac.init(key);
+			return Base64.getEncoder().encodeToString(mac.doFinal(root));
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Integrity tag failed", e);
+		}
+	}
+
+	/**
+	 * Points the username index and credential cache at a service, emptying both.
+	 */
+	private void useService(EncryptionService service)
+	{
+		encryptionService = service;
+		UsernameIndex index = new UsernameIndex(service);
+		index.setMetrics(metrics);
+		// Decrypting every username would make unlocking slower the bigger the vault is
+		index.rebuildLazily(() -> accounts);
+		if (usernameIndex != null)
+		{
+			usernameIndex.clear();
+		}
+		usernameIndex = index;
+
+		if (credentialCache != null)
+		{
+			credentialCache.clear();
+		}
+		credentialCache = new CredentialCache(service, scheduler.get(), cacheTtlSeconds);
+	}
+
+	/**
+	 * Re-encrypts every account and the verification value with another cipher suite, e.g.
+	 * {@link CipherSuite#fastest()}. Other clients take the re-encrypted accounts over like any
+	 * other change and switch suites when they see the new one stored.
+	 *
+	 * @return how many accounts were re-encrypted, 0 if the vault already used the suite
+	 */
+	synchronized int migrateCipherSuite(CipherSuite suite)
+	{
+		checkUnlocked();
+		reload();
+		if (encryptionService.getCipherSuite() == suite)
+		{
+			return 0;
+		}
+
+		try (VaultEvents.Scope event = VaultEvents.begin(VaultEvents.Type.REKEY).step("cipher"))
+		{
+			int count = reencryptAll(encryptionService.withCipherSuite(suite), null);
+			event.success().accountCount(count);
+			return count;
+		}
+	}
+
+	/**
+	 * Re-encrypts every account under a new master password, with a new salt, and the attachments
+	 * in {@code attachments} with it. Other clients have to unlock again with the new password.
+	 *
+	 * @param attachments the attachments directory, or null if there are none to carry over
+	 * @return how many accounts were re-encrypted
+	 * @throws RuntimeException if an attachment could not be re-encrypted; the vault is then left as it was
+	 */
+	synchronized int changeMasterPassword(char[] newPassword, Path attachments)
+	{
+		checkUnlocked();
+		reload();
+		try (VaultEvents.Scope event = VaultEvents.begin(VaultEvents.Type.REKEY).step("password"))
+		{
+			String salt = EncryptionService.generateSalt();
+			EncryptionService target = new EncryptionService(newPassword, salt).withCipherSuite(encryptionService.getCipherSuite());
+			target.setMetrics(metrics);
+
+			// Written next to the old files first, so a failure on either side loses nothing
+			AttachmentStore.Rekey rekeyed = null;
+			if (attachments != null)
+			{
+				try
+				{
+					rekeyed = new AttachmentStore(attachments, this).rekey(accounts, target);
+				}
+				catch (IOException e)
+				{
+					throw new RuntimeException("Could not re-encrypt the attachments", e);
+				}
+			}
+
+			int count;
+			try
+			{
+				count = reencryptAll(target, salt);
+			}
+			catch (RuntimeException e)
+			{
+				if (rekeyed != null)
+				{
+					rekeyed.rollback();
+				}
+				throw e;
+			}
+			if (rekeyed != null)
+			{
+				rekeyed.commit();
+			}
+			event.success().accountCount(count);
+			return count;
+		}
+	}
+
+	/**
+	 * Re-encrypts the accounts in parallel and their histories, and switches to {@code target},
+	 * storing its salt if it has a new one.
+	 */
+	private int reencryptAll(EncryptionService target, String salt)
+	{
+		EncryptionService source = encryptionService;
+		List<Account> reencrypted = accounts.parallelStream()
+			.map(account -> reencrypt(account, source, target))
+			.collect(Collectors.toList());
+		Map<String, String> histories = new HashMap<>();
+		for (Account account : accounts)
+		{
+			AccountHistory history = readHistory(account.getId());
+			if (!history.isEmpty())
+			{
+				histories.put(account.getId(), codec.encodeHistory(history.mapValues(value -> reencrypt(value, source, target))));
+			}
+		}
+
+		if (salt != null)
+		{
+			store.set(KEY_SALT, salt);
+		}
+		store.set(KEY_CIPHER, target.getCipherSuite().getId());
+		store.set(KEY_VERIFICATION, target.encrypt(VERIFICATION_SIGNED));
+		signed = true;
+		histories.forEach((id, history) -> store.set(historyKey(id), history));
+		integrityKey = target.deriveSubkey(INTEGRITY_KEY_PURPOSE);
+		for (Account account : reencrypted)
+		{
+			stamp(account);
+			putRecord(account);
+			accountsById.put(account.getId(), account);
+		}
+		accounts = new CopyOnWriteArrayList<>(reencrypted);
+		useService(target);
+		saveAccounts();
+		return reencrypted.size();
+	}
+
+	/**
+	 * Drops the tombstones of deleted accounts, shrinking the stored value. A copy that has not
+	 * seen a delete can then bring the account back, so only compact once every client has
+	 * caught up.
+	 *
+	 * @return how many tombstones were dropped
+	 */
+	synchronized int compact()
+	{
+		checkUnlocked();
+		reload();
+		int dropped = 0;
+		for (Shard shard : shards)
+		{
+			int count = shard.records.size();
+			shard.records.values().removeIf(Account::isDeleted);
+			if (shard.records.size() < count)
+			{
+				dropped += count - shard.records.size();
+				shard.changed = true;
+			}
+		}
+		if (dropped == 0)
+		{
+			return 0;
+		}
+
+		saveAccounts();
+		return dropped;
+	}
+
+	private static Account reencrypt(Account account, EncryptionService source, EncryptionService target)
+	{
+		return new Account(account.getId(), account.getNickname(),
+			reencrypt(account.getEncryptedUsername(), source, target),
+			reencrypt(account.getEncryptedPassword(), source, target),
+			reencrypt(account.getEncryptedTotpSecret(), source, target),
+			account.getFields() == null ? null : account.getFields().mapValues(value -> reencrypt(value, source, target)),
+			account.getCreated(), account.getVersion(), account.getDevice(), false);
+	}
+
+	private static String reencrypt(String value, EncryptionService source, EncryptionService target)
+	{
+		if (value == null)
+		{
+			return null;
+		}
+
+		try (SecretBuffer plaintext = source.decryptSecret(value))
+		{
+			return target.encrypt(plaintext);
+		}
+	}
+
+	/**
+	 * Switches to the cipher suite stored for the vault if another client migrated it.
+	 */
+	private void adoptStoredCipherSuite()
+	{
+		CipherSuite stored = CipherSuite.fromId(store.get(KEY_CIPHER));
+		if (stored != encryptionService.getCipherSuite())
+		{
+			useService(encryptionService.withCipherSuite(stored));
+		}
+	}
+
+	private boolean hasKey(byte[] key)
+	{
+		byte[] current = encryptionService.exportKey();
+		try
+		{
+			return MessageDigest.isEqual(current, key);
+		}
+		finally
+		{
+			Arrays.fill(current, (byte) 0);
+		}
+	}
+
+	/**
+	 * Merges accounts saved elsewhere, e.g. by a client on another machine through profile sync,
+	 * into this vault. Every record is a last-writer-wins register ordered by its Lamport clock
+	 * and device, and deletes are kept as tombstones, so replicas that saw the same changes end
+	 * up equal whatever order they saw them in. Only the shards another client stored are decoded,
+	 * and only changed records touch the index, the credential cache and the panel. If this vault
+	 * holds changes a stored shard lacks, the merged result is saved back.
+	 *
+	 * @return what changed, empty if the vault is locked or already has the stored accounts
+	 */
+	synchronized Reload reload()
+	{
+		if (!unlocked || saving)
+		{
+			return Reload.NONE;
+		}
+		adoptStoredCipherSuite();
+
+		long start = System.nanoTime();
+		Reload reload = new Reload();
+		boolean read = false;
+		boolean ahead = false;
+		for (int i = 0; i < SHARD_COUNT; i++)
+		{
+			Shard shard = shards[i];
+			String shardJson = store.get(shardKey(i));
+			if (Objects.equals(shardJson, shard.json))
+			{
+				continue;
+			}
+
+			read = true;
+			shard.json = shardJson;
+			changedShards.add(i);
+			List<Account> stored = readAccounts(shardJson);
+			// Every stored record is held here now, so any extra one is missing from the stored shard
+			boolean shardAhead = merge(stored, reload) || shard.records.size() > stored.size();
+			shard.changed = shardAhead;
+			ahead |= shardAhead;
+		}
+
+		String legacyJson = store.get(KEY_ACCOUNTS);
+		if (!Objects.equals(legacyJson, legacyAccountsJson))
+		{
+			// Stored by a client from before there were shards; saving moves it into them
+			read = true;
+			legacyAccountsJson = legacyJson;
+			merge(readLegacyAccounts(legacyJson), reload);
+			ahead |= legacyJson != null;
+		}
+		if (!read)
+		{
+			return Reload.NONE;
+		}
+		if (!reload.isEmpty())
+		{
+			updateAccountList(reload);
+		}
+		metrics.recordSince(PluginMetrics.RELOAD_ACCOUNTS, start);
+
+		if (ahead)
+		{
+			saveAccounts();
+		}
+
+		BiConsumer<Vault, Reload> listener = reloadListener;
+		if (listener != null && !reload.isEmpty())
+		{
+			listener.accept(this, reload);
+		}
+		return reload;
+	}
+
+	/**
+	 * Takes over the stored records that are newer than what this vault has for their id.
+	 *
+	 * @return true if this vault has a newer version of any of them
+	 */
+	private boolean merge(List<Account> stored, Reload reload)
+	{
+		boolean ahead = false;
+		for (Account record : stored)
+		{
+			advanceClock(record);
+			Account current = record(record.getId());
+			if (current == null || isNewer(record, current))
+			{
+				if (current != null && record.getVersion() == current.getVersion())
+				{
+					// Changed in two places from the same state, the device decided
+					metrics.increment(PluginMetrics.RELOAD_CONFLICT);
+				}
+				merge(record, reload);
+			}
+			else if (isNewer(current, record))
+			{
+				ahead = true;
+			}
+		}
+		return ahead;
+	}
+
+	/**
+	 * Takes over a stored record that is newer than what this vault has for its id. The account
+	 * list is left to {@link #updateAccountList(Reload)}, once every stored record is merged.
+	 */
+	private void merge(Account stored, Reload reload)
+	{
+		Account live = accountsById.get(stored.getId());
+		putRecord(stored);
+		if (stored.isDeleted())
+		{
+			if (live != null)
+			{
+				forgetLive(live);
+				reload.removed.add(live);
+			}
+		}
+		else if (live != null)
+		{
+			accountsById.put(stored.getId(), stored);
+			refreshLive(live, stored);
+			reload.updated.add(stored);
+		}
+		else
+		{
+			accountsById.put(stored.getId(), stored);
+			usernameIndex.put(stored);
+			reload.added.add(stored);
+		}
+	}
+
+	/**
+	 * Builds the account list a reload leaves in a single pass, rather than copying the
+	 * copy-on-write list and searching it for every merged record.
+	 */
+	private void updateAccountList(Reload reload)
+	{
+		List<Account> live = new ArrayList<>(accounts.size() + reload.added.size());
+		Set<String> listed = new HashSet<>();
+		for (Account account : accounts)
+		{
+			addCurrent(account.getId(), live, listed);
+		}
+		for (Account account : reload.added)
+		{
+			addCurrent(account.getId(), live, listed);
+		}
+		accounts = new CopyOnWriteArrayList<>(live);
+	}
+
+	private void addCurrent(String id, List<Account> live, Set<String> listed)
+	{
+		Account current = accountsById.get(id);
+		if (current != null && listed.add(id))
+		{
+			live.add(current);
+		}
+	}
+
+	/**
+	 * @return the live account or tombstone with this id, or null if there is neither
+	 */
+	private Account record(String id)
+	{
+		return shards[shardOf(id)].records.get(id);
+	}
+
+	/**
+	 * Stores a record in place of the one with the same id, or after all others in its shard if it is new.
+	 */
+	private void putRecord(Account record)
+	{
+		Shard shard = shards[shardOf(record.getId())];
+		shard.records.put(record.getId(), record);
+		shard.changed = true;
+	}
+
+	private int recordCount()
+	{
+		int count = 0;
+		for (Shard shard : shards)
+		{
+			count += shard.records.size();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the shard a record is stored in, the same on every client
+	 */
+	static int shardOf(String id)
+	{
+		return Math.floorMod(id.hashCode(), SHARD_COUNT);
+	}
+
+	static String shardKey(int shard)
+	{
+		return KEY_SHARD_PREFIX + shard;
+	}
+
+	private static Shard[] newShards()
+	{
+		Shard[] shards = new Shard[SHARD_COUNT];
+		for (int i = 0; i < SHARD_COUNT; i++)
+		{
+			shards[i] = new Shard();
+		}
+		return shards;
+	}
+
+	private static List<String> accountsKeys()
+	{
+		List<String> keys = new ArrayList<>();
+		keys.add(KEY_ACCOUNTS);
+		for (int shard = 0; shard < SHARD_COUNT; shard++)
+		{
+			keys.add(shardKey(shard));
+		}
+		return Collections.unmodifiableList(keys);
+	}
+
+	private static List<String> sharedKeys()
+	{
+		List<String> keys = new ArrayList<>(Arrays.asList(KEY_SALT, KEY_CIPHER, KEY_VERIFICATION, KEY_INTEGRITY));
+		keys.addAll(ACCOUNTS_KEYS);
+		return Collections.unmodifiableList(keys);
+	}
+
+	private static byte[] shardBytes(String shardJson)
+	{
+		return shardJson == null ? new byte[0] : shardJson.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Points the username index and credential cache at a changed copy of a live account,
+	 * decrypting only if its username changed.
+	 */
+	private void refreshLive(Account previous, Account account)
+	{
+		if (Objects.equals(previous.getEncryptedUsername(), account.getEncryptedUsername()))
+		{
+			usernameIndex.replace(account);
+		}
+		else
+		{
+			usernameIndex.put(account);
+		}
+
+		// A nickname or field edit leaves the cached credentials as they were
+		if (!Objects.equals(previous.getEncryptedUsername(), account.getEncryptedUsername())
+			|| !hasSameSecrets(previous, account))
+		{
+			credentialCache.invalidate(account.getId());
+		}
+	}
+
+	private static boolean hasSameSecrets(Account a, Account b)
+	{
+		return Objects.equals(a.getEncryptedPassword(), b.getEncryptedPassword())
+			&& Objects.equals(a.getEncryptedTotpSecret(), b.getEncryptedTotpSecret());
+	}
+
+	private void removeLive(Account account)
+	{
+		accounts.remove(account);
+		forgetLive(account);
+	}
+
+	/**
+	 * Drops an account from everything but the account list.
+	 */
+	private void forgetLive(Account account)
+	{
+		accountsById.remove(account.getId());
+		usernameIndex.remove(account.getId());
+		credentialCache.invalidate(account.getId());
+	}
+
+	/**
+	 * @return true if {@code a} was changed after {@code b}
+	 */
+	static boolean isNewer(Account a, Account b)
+	{
+		if (a.getVersion() != b.getVersion())
+		{
+			return a.getVersion() > b.getVersion();
+		}
+		return nullToEmpty(a.getDevice()).compareTo(nullToEmpty(b.getDevice())) > 0;
+	}
+
+	private static String nullToEmpty(String value)
+	{
+		return value == null ? "" : value;
+	}
+
+	/**
+	 * Advances the clock for a change made here.
+	 */
+	private void stamp(Account account)
+	{
+		clock++;
+		account.setVersion(clock);
+		account.setDevice(replicaId);
+	}
+
+	/**
+	 * Stamps an account added here, which then sorts after every account added before it.
+	 */
+	private void stampAdded(Account account)
+	{
+		stamp(account);
+		account.setCreated(account.getVersion());
+		account.setDeleted(false);
+	}
+
+	/**
+	 * Moves the clock past a record read from the store.
+	 */
+	private void advanceClock(Account record)
+	{
+		clock = Math.max(clock, Math.max(record.getVersion(), record.getCreated()));
+	}
+
+	private static String newReplicaId()
+	{
+		byte[] id = new byte[8];
+		new SecureRandom().nextBytes(id);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(id);
+	}
+
+	/**
+	 * @return the stored values another instance needs to open this vault with its key
+	 */
+	synchronized Map<String, String> records()
+	{
+		Map<String, String> records = new HashMap<>();
+		for (String key : SHARED_KEYS)
+		{
+			String value = store.get(key);
+			if (value != null)
+			{
+				records.put(key, value);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * @return a copy of the vault key, which the caller must wipe
+	 */
+	synchronized byte[] exportKey()
+	{
+		checkUnlocked();
+		return encryptionService.exportKey();
+	}
+
+	/**
+	 * Sets what to call after every change this instance saves.
+	 */
+	void setChangeListener(Consumer<Vault> changeListener)
+	{
+		this.changeListener = changeListener;
+	}
+
+	/**
+	 * Sets what to call, off the EDT, when the check after unlocking finds the records tampered with.
+	 */
+	void setIntegrityListener(Consumer<Vault> integrityListener)
+	{
+		this.integrityListener = integrityListener;
+	}
+
+	/**
+	 * Sets what to call after {@link #reload()} picked up changes saved elsewhere.
+	 */
+	void setReloadListener(BiConsumer<Vault, Reload> reloadListener)
+	{
+		this.reloadListener = reloadListener;
+	}
+
+	/**
+	 * Forgets the key and wipes everything decrypted from the vault.
+	 *
+	 * @param reason why the vault is locked, e.g. "manual" or "auto-lock"
+	 */
+	synchronized void lock(String reason)
+	{
+		if (unlocked)
+		{
+			VaultEvents.lock(reason, accounts.size());
+		}
+		clearSession();
+	}
+
+	private void clearSession()
+	{
+		unlocked = false;
+		accounts = new CopyOnWriteArrayList<>();
+		clearRecords();
+		integrityKey = null;
+		signed = false;
+		tampered = false;
+		clock = 0;
+		if (usernameIndex != null)
+		{
+			usernameIndex.clear();
+			usernameIndex = null;
+		}
+		if (credentialCache != null)
+		{
+			credentialCache.clear();
+			credentialCache = null;
+		}
+		encryptionService = null;
+	}
+
+	private void clearRecords()
+	{
+		accountsById.clear();
+		for (Shard shard : shards)
+		{
+			shard.records.clear();
+			shard.json = null;
+			shard.changed = false;
+		}
+		changedShards.clear();
+		merkleTree = null;
+		legacyAccountsJson = null;
+	}
+
+	/**
+	 * Decodes the shards in parallel, and the accounts stored before there were shards if any.
+	 *
+	 * @return the size of the stored values in characters
+	 */
+	private int loadAccounts()
+	{
+		long start = System.nanoTime();
+		clearRecords();
+		List<String> stored = new ArrayList<>();
+		for (int shard = 0; shard < SHARD_COUNT; shard++)
+		{
+			stored.add(store.get(shardKey(shard)));
+		}
+		List<List<Account>> decoded = stored.parallelStream()
+			.map(this::readAccounts)
+			.collect(Collectors.toList());
+
+		int size = 0;
+		for (int i = 0; i < SHARD_COUNT; i++)
+		{
+			String shardJson = stored.get(i);
+			shards[i].json = shardJson;
+			size += shardJson == null ? 0 : shardJson.length();
+			for (Account record : decoded.get(i))
+			{
+				advanceClock(record);
+				shards[shardOf(record.getId())].records.put(record.getId(), record);
+			}
+		}
+
+		String legacyJson = store.get(KEY_ACCOUNTS);
+		if (legacyJson != null)
+		{
+			// Held in the shards from now on, and stored in them by the next save
+			for (Account record : readLegacyAccounts(legacyJson))
+			{
+				advanceClock(record);
+				Account current = record(record.getId());
+				if (current == null || isNewer(record, current))
+				{
+					putRecord(record);
+				}
+			}
+			size += legacyJson.length();
+		}
+		legacyAccountsJson = legacyJson;
+
+		List<Account> live = new ArrayList<>();
+		for (Shard shard : shards)
+		{
+			for (Account record : shard.records.values())
+			{
+				if (!record.isDeleted())
+				{
+					live.add(record);
+					accountsById.put(record.getId(), record);
+				}
+			}
+		}
+		live.sort(LIST_ORDER);
+		accounts = new CopyOnWriteArrayList<>(live);
+		metrics.recordSince(PluginMetrics.LOAD_ACCOUNTS, start);
+		return size;
+	}
+
+	/**
+	 * Reads the accounts stored in one value before there were shards. They have no creation
+	 * stamp, so each takes the one this vault already has for it, or else its stored position.
+	 */
+	private List<Account> readLegacyAccounts(String accountsJson)
+	{
+		List<Account> legacy = readAccounts(accountsJson);
+		for (int i = 0; i < legacy.size(); i++)
+		{
+			Account record = legacy.get(i);
+			if (record.getCreated() == 0)
+			{
+				Account current = record(record.getId());
+				record.setCreated(current != null ? current.getCreated() : i + 1);
+			}
+		}
+		return legacy;
+	}
+
+	private List<Account> readAccounts(String accountsJson)
+	{
+		try
+		{
+			return codec.decode(accountsJson);
+		}
+		catch (Exception e)
+		{
+			log.error("Failed to load accounts", e);
+			return new ArrayList<>();
+		}
+	}
+
+	private void saveAccounts()
+	{
+		try (VaultEvents.Scope event = VaultEvents.begin(VaultEvents.Type.SAVE))
+		{
+			long start = System.nanoTime();
+			// Only the shards whose records changed are encoded and stored again
+			List<Integer> written = new ArrayList<>();
+			int size = 0;
+			for (int i = 0; i < SHARD_COUNT; i++)
+			{
+				Shard shard = shards[i];
+				if (shard.changed)
+				{
+					shard.json = shard.records.isEmpty() ? null : codec.encode(new ArrayList<>(shard.records.values()));
+					shard.changed = false;
+					changedShards.add(i);
+					written.add(i);
+					size += shard.json == null ? 0 : shard.json.length();
+				}
+			}
+			String legacyJson = legacyAccountsJson;
+			legacyAccountsJson = null;
+
+			saving = true;
+			try
+			{
+				// The root goes first, so whoever reacts to the new shards finds the root matching them
+				store.set(KEY_INTEGRITY, integrityTag(integrityKey, updateMerkleTree()));
+				if (!signed)
+				{
+					store.set(KEY_VERIFICATION, encryptionService.encrypt(VERIFICATION_SIGNED));
+					signed = true;
+				}
+				for (int shard : written)
+				{
+					store.set(shardKey(shard), shards[shard].json);
+				}
+				if (legacyJson != null)
+				{
+					// Moved into the shards
+					store.set(KEY_ACCOUNTS, null);
+				}
+			}
+			finally
+			{
+				saving = false;
+			}
+			metrics.recordSince(PluginMetrics.SAVE_ACCOUNTS, start);
+			event.accountCount(accounts.size()).bytes(size);
+		}
+
+		Consumer<Vault> listener = changeListener;
+		if (listener != null)
+		{
+			listener.accept(this);
+		}
+	}
+
+	/**
+	 * Rehashes only the shards stored or read since the last save, each along its path to the root.
+	 *
+	 * @return the new root
+	 */
+	private byte[] updateMerkleTree()
+	{
+		if (merkleTree == null)
+		{
+			List<String> stored = new ArrayList<>();
+			for (Shard shard : shards)
+			{
+				stored.add(shard.json);
+			}
+			merkleTree = MerkleTree.build(stored, Vault::shardBytes);
+		}
+		else
+		{
+			for (int shard : changedShards)
+			{
+				merkleTree.set(shard, shardBytes(shards[shard].json));
+			}
+		}
+		changedShards.clear();
+		return merkleTree.root();
+	}
+
+	synchronized void addAccount(Account account)
+	{
+		checkUnlocked();
+		reload();
+		if (account.getId() == null)
+		{
+			account.setId(UUID.randomUUID().toString());
+		}
+		stampAdded(account);
+		putRecord(account);
+		accounts.add(account);
+		accountsById.put(account.getId(), account);
+		usernameIndex.put(account);
+		saveAccounts();
+	}
+
+	/**
+	 * Adds many accounts with a single save, e.g. when importing them. An account whose id the
+	 * vault or the batch already has is merged like a stored record: the one with the newer
+	 * Lamport clock wins, and on a tie within the batch the later one. Importing the same
+	 * accounts again therefore changes nothing.
+	 */
+	synchronized void addAccounts(List<Account> batch)
+	{
+		checkUnlocked();
+		try (VaultEvents.Scope event = VaultEvents.begin(VaultEvents.Type.IMPORT).accountCount(batch.size()))
+		{
+			reload();
+			Map<String, Account> latest = new LinkedHashMap<>();
+			for (Account account : batch)
+			{
+				if (account.getId() == null)
+				{
+					account.setId(UUID.randomUUID().toString());
+				}
+				Account previous = latest.get(account.getId());
+				if (previous == null || !isNewer(previous, account))
+				{
+					latest.put(account.getId(), account);
+				}
+			}
+
+			Reload reload = new Reload();
+			for (Account account : latest.values())
+			{
+				Account current = record(account.getId());
+				if (current == null)
+				{
+					stampAdded(account);
+					merge(account, reload);
+				}
+				else if (isNewer(account, current))
+				{
+					advanceClock(account);
+					account.setCreated(current.getCreated());
+					merge(account, reload);
+				}
+			}
+			if (!reload.isEmpty())
+			{
+				updateAccountList(reload);
+				saveAccounts();
+			}
+			event.success();
+		}
+	}
+
+	/**
+	 * Saves a changed copy of an account.
+	 *
+	 * @throws ConcurrentModificationException if the account was changed or deleted since the copy
+	 * was made, e.g. by another client sharing the profile
+	 */
+	synchronized void updateAccount(Account account)
+	{
+		checkUnlocked();
+		reload();
+		Account current = accountsById.get(account.getId());
+		if (current == null)
+		{
+			throw new ConcurrentModificationException("Account was deleted in another client");
+		}
+		if (current.getVersion() != account.getVersion() || !Objects.equals(current.getDevice(), account.getDevice()))
+		{
+			throw new ConcurrentModificationException("Account was changed in another client");
+		}
+
+		// The history is only read when a credential changes, not for a nickname or field edit
+		if (!hasSameSecrets(current, account))
+		{
+			long now = System.currentTimeMillis();
+			AccountHistory history = readHistory(account.getId()).record(current, account, now).prune(now);
+			store.set(historyKey(account.getId()), codec.encodeHistory(history));
+		}
+
+		// It keeps its place in the list
+		account.setCreated(current.getCreated());
+		stamp(account);
+		putRecord(account);
+		accounts.set(indexOf(account.getId()), account);
+		accountsById.put(account.getId(), account);
+		refreshLive(current, account);
+		saveAccounts();
+	}
+
+	synchronized void deleteAccount(Account account)
+	{
+		checkUnlocked();
+		reload();
+		Account current = accountsById.get(account.getId());
+		if (current == null)
+		{
+			// Already deleted, here or elsewhere
+			return;
+		}
+
+		removeLive(current);
+		Account tombstone = new Account();
+		tombstone.setId(account.getId());
+		tombstone.setDeleted(true);
+		stamp(tombstone);
+		putRecord(tombstone);
+		store.set(historyKey(account.getId()), null);
+		saveAccounts();
+	}
+
+	private int indexOf(String id)
+	{
+		for (int i = 0; i < accounts.size(); i++)
+		{
+			if (accounts.get(i).getId().equals(id))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Fills the username index off the calling thread, ahead of a lookup; unlocking leaves it empty.
+	 */
+	void prefetchUsernameIndex()
+	{
+		UsernameIndex index = usernameIndex;
+		if (index != null)
+		{
+			CompletableFuture.runAsync(index::ensureBuilt);
+		}
+	}
+
+	/**
+	 * @return the matching account, or null if no account uses this username
+	 */
+	Account findAccountByUsername(String username)
+	{
+		UsernameIndex index = usernameIndex;
+		return index == null ? null : index.find(username);
+	}
+
+	void prefetchCredentials(Account account)
+	{
+		CredentialCache cache = credentialCache;
+		if (cache != null)
+		{
+			cache.prefetch(account);
+		}
+	}
+
+	/**
+	 * Decrypts one extra field of an account, leaving its other fields encrypted.
+	 *
+	 * @return the value, which the caller must close, or null if the account has no such field
+	 * @throws IllegalStateException if the vault is locked
+	 */
+	SecretBuffer decryptField(Account account, String name)
+	{
+		EncryptionService service = encryptionService;
+		if (service == null)
+		{
+			throw new IllegalStateException("Vault is locked");
+		}
+
+		AccountFields fields = account.getFields();
+		String encrypted = fields == null ? null : fields.encryptedValue(name);
+		return encrypted == null ? null : service.decryptSecret(encrypted);
+	}
+
+	/**
+	 * Reads the earlier versions of an account's password and TOTP secret, leaving them
+	 * encrypted. Versions past the limits of {@link AccountHistory} are left out, and dropped
+	 * from the stored history with the next change.
+	 *
+	 * @return the versions, newest first
+	 * @throws IllegalStateException if the vault is locked
+	 */
+	synchronized List<AccountHistory.Version> getHistory(Account account)
+	{
+		checkUnlocked();
+		Account current = accountsById.get(account.getId());
+		if (current == null)
+		{
+			return new ArrayList<>();
+		}
+		return readHistory(current.getId()).prune(System.currentTimeMillis()).versions(current);
+	}
+
+	private AccountHistory readHistory(String id)
+	{
+		try
+		{
+			return codec.decodeHistory(store.get(historyKey(id)));
+		}
+		catch (Exception e)
+		{
+			log.error("Failed to load the history of account {}", id, e);
+			return AccountHistory.EMPTY;
+		}
+	}
+
+	private static String historyKey(String id)
+	{
+		return KEY_HISTORY_PREFIX + id;
+	}
+
+	/**
+	 * @return the account's decrypted credentials, completed off the calling thread
+	 */
+	CompletableFuture<CredentialCache.Credentials> getCredentials(Account account)
+	{
+		CredentialCache cache = credentialCache;
+		if (cache == null)
+		{
+			CompletableFuture<CredentialCache.Credentials> locked = new CompletableFuture<>();
+			locked.completeExceptionally(new IllegalStateException("Vault is locked"));
+			return locked;
+		}
+		return cache.get(account);
+	}
+
+	private void checkUnlocked()
+	{
+		if (!unlocked)
+		{
+			throw new IllegalStateException("Vault is locked");
+		}
+	}
+
+	/**
+	 * The records whose id hashes to one shard, and the shard's stored value.
+	 */
+	private static final class Shard
+	{
+		// By id, each keeping its place in the shard once it has one
+		private final Map<String, Account> records = new LinkedHashMap<>();
+		// As this instance last read or stored it, to tell other writers' changes apart
+		private String json;
+		// Whether the records changed since, so the shard has to be stored again
+		private boolean changed;
+	}
+
+	/**
+	 * The accounts a {@link #reload()} added, replaced with a newer version or removed.
+	 */
+	static final class Reload
+	{
+		static final Reload NONE = new Reload();
+
+		@Getter
+		private final List<Account> added = new ArrayList<>();
+		@Getter
+		private final List<Account> updated = new ArrayList<>();
+		@Getter
+		private final List<Account> removed = new ArrayList<>();
+
+		boolean isEmpty()
+		{
+			return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+		}
+	}
+
+	/**
+	 * The outcome of {@link #verifyIntegrity()}.
+	 */
+	static final class Integrity
+	{
+		enum Status
+		{
+			INTACT,
+			TAMPERED,
+			// Never signed, e.g. saved before integrity roots existed; the next save adds one
+			UNSIGNED
+		}
+
+		@Getter
+		private final Status status;
+		@Getter
+		private final int records;
+		@Getter
+		private final long nanos;
+
+		Integrity(Status status, int records, long nanos)
+		{
+			this.status = status;
+			this.records = records;
+			this.nanos = nanos;
+		}
+
+		double recordsPerSecond()
+		{
+			return nanos == 0 ? 0 : records * 1e9 / nanos;
+		}
+
+		String summary()
+		{
+			return String.format("%d records in %s (%.0f records/s)",
+				records, PluginMetrics.formatNanos(nanos), recordsPerSecond());
+		}
+	}
+}
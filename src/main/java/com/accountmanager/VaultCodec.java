@@ -0,0 +1,77 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts a list of account records to and from the JSON stored under each shard's config key,
+ * and an account's history to and from the JSON stored under its own key.
+ */
+class VaultCodec
+{
+	private static final Type ACCOUNT_LIST_TYPE = new TypeToken<ArrayList<Account>>(){}.getType();
+	private static final Type DELTA_LIST_TYPE = new TypeToken<ArrayList<AccountHistory.Delta>>(){}.getType();
+
+	private final Gson gson;
+
+	VaultCodec(Gson gson)
+	{
+		this.gson = gson;
+	}
+
+	String encode(List<Account> accounts)
+	{
+		return gson.toJson(accounts);
+	}
+
+	/**
+	 * @return one record as it appears in {@link #encode}, e.g. to hash it
+	 */
+	byte[] encodeRecord(Account account)
+	{
+		return gson.toJson(account).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the decoded accounts, or an empty list if there is no stored value
+	 * @throws com.google.gson.JsonParseException if the stored value is not valid
+	 */
+	List<Account> decode(String accountsJson)
+	{
+		if (accountsJson == null || accountsJson.isEmpty())
+		{
+			return new ArrayList<>();
+		}
+
+		List<Account> accounts = gson.fromJson(accountsJson, ACCOUNT_LIST_TYPE);
+		return accounts != null ? accounts : new ArrayList<>();
+	}
+
+	/**
+	 * @return null for an empty history, which is then not stored at all
+	 */
+	String encodeHistory(AccountHistory history)
+	{
+		return history.isEmpty() ? null : gson.toJson(history.deltas(), DELTA_LIST_TYPE);
+	}
+
+	/**
+	 * @return the decoded history, or an empty one if there is no stored value
+	 * @throws com.google.gson.JsonParseException if the stored value is not valid
+	 */
+	AccountHistory decodeHistory(String historyJson)
+	{
+		if (historyJson == null || historyJson.isEmpty())
+		{
+			return AccountHistory.EMPTY;
+		}
+
+		List<AccountHistory.Delta> deltas = gson.fromJson(historyJson, DELTA_LIST_TYPE);
+		return deltas == null || deltas.isEmpty() ? AccountHistory.EMPTY : new AccountHistory(deltas);
+	}
+}
@@ -0,0 +1,105 @@
+package com.accountmanager;
+
+/**
+ * Java Flight Recorder instrumentation for the vault lifecycle and credential fills.
+ * <p>
+ * Only {@link JfrVaultEvents} references jdk.jfr, and it is only touched when that module
+ * is present, so the plugin keeps working on runtimes built without JFR. Events carry
+ * durations, counts and sizes, never account data.
+ */
+final class VaultEvents
+{
+	private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+	enum Type
+	{
+		UNLOCK,
+		KDF,
+		LOAD,
+		SAVE,
+		FILL,
+		IMPORT,
+		REKEY
+	}
+
+	private VaultEvents()
+	{
+	}
+
+	static Scope begin(Type type)
+	{
+		return new Scope(JFR_AVAILABLE ? JfrVaultEvents.begin(type) : null);
+	}
+
+	static void lock(String reason, int accountCount)
+	{
+		if (JFR_AVAILABLE)
+		{
+			JfrVaultEvents.lock(reason, accountCount);
+		}
+	}
+
+	private static boolean isJfrAvailable()
+	{
+		try
+		{
+			Class.forName("jdk.jfr.Event", false, VaultEvents.class.getClassLoader());
+			return true;
+		}
+		catch (ClassNotFoundException | LinkageError e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * A timed event in progress; committed by {@link #close()}.
+	 */
+	static final class Scope implements AutoCloseable
+	{
+		private final Object event;
+
+		boolean success;
+		int accountCount = -1;
+		long bytes = -1;
+		String step;
+
+		private Scope(Object event)
+		{
+			this.event = event;
+		}
+
+		Scope success()
+		{
+			success = true;
+			return this;
+		}
+
+		Scope accountCount(int accountCount)
+		{
+			this.accountCount = accountCount;
+			return this;
+		}
+
+		Scope bytes(long bytes)
+		{
+			this.bytes = bytes;
+			return this;
+		}
+
+		Scope step(String step)
+		{
+			this.step = step;
+			return this;
+		}
+
+		@Override
+		public void close()
+		{
+			if (event != null)
+			{
+				JfrVaultEvents.commit(event, this);
+			}
+		}
+	}
+}
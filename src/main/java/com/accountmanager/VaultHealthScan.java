@@ -0,0 +1,300 @@
+package com.accountmanager;
+
+import lombok.Getter;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * Checks every account of an unlocked vault: that its fields still decrypt, that its TOTP
+ * secret is usable, whether its password is in the breach corpus if there is one, and which
+ * accounts share a username or a password. Accounts are checked
+ * in parallel on the common ForkJoin pool. Usernames and passwords are only compared by a
+ * fingerprint keyed from the vault key, so no two plaintexts are ever held at the same time
+ * and the fingerprints are useless without the key.
+ */
+class VaultHealthScan
+{
+	private static final String FINGERPRINT_KEY_PURPOSE = "account-manager-health-fingerprint";
+
+	private final List<Account> accounts;
+	private final EncryptionService encryptionService;
+	private final BreachCorpus breachCorpus;
+	private final ThreadLocal<Mac> mac;
+
+	/**
+	 * @param breachCorpus the corpus to look passwords up in, or null to skip that check
+	 * @throws IllegalStateException if the vault is locked
+	 */
+	VaultHealthScan(Vault vault, BreachCorpus breachCorpus)
+	{
+		EncryptionService service = vault.getEncryptionService();
+		if (service == null)
+		{
+			throw new IllegalStateException("Vault is locked");
+		}
+
+		this.accounts = new ArrayList<>(vault.getAccounts());
+		this.encryptionService = service;
+		this.breachCorpus = breachCorpus;
+
+		SecretKey fingerprintKey = service.deriveSubkey(FINGERPRINT_KEY_PURPOSE);
+		this.mac = ThreadLocal.withInitial(() ->
+		{
+			try
+			{
+				Mac instance = Mac.getInstance(fingerprintKey.getAlgorithm());
+				instance.init(fingerprintKey);
+				return instance;
+			}
+			catch (Exception e)
+			{
+				throw new RuntimeException("Health scan initialization failed", e);
+			}
+		});
+	}
+
+	int size()
+	{
+		return accounts.size();
+	}
+
+	/**
+	 * Checks every account, blocking until done, so call it off the EDT.
+	 *
+	 * @param progress called with the number of accounts checked so far, about once per percent,
+	 * from whichever thread checked the account
+	 */
+	Report run(IntConsumer progress)
+	{
+		long start = System.nanoTime();
+		AtomicInteger checked = new AtomicInteger();
+		int step = Math.max(1, accounts.size() / 100);
+
+		List<Check> checks = accounts.parallelStream()
+			.map(account ->
+			{
+				Check check = check(account);
+				int done = checked.incrementAndGet();
+				if (done % step == 0 || done == accounts.size())
+				{
+					progress.accept(done);
+				}
+				return check;
+			})
+			.collect(Collectors.toList());
+
+		List<Account> undecryptable = new ArrayList<>();
+		List<Account> invalidTotp = new ArrayList<>();
+		List<Account> breached = new ArrayList<>();
+		for (Check check : checks)
+		{
+			if (check.undecryptable)
+			{
+				undecryptable.add(check.account);
+				continue;
+			}
+			if (check.invalidTotp)
+			{
+				invalidTotp.add(check.account);
+			}
+			if (check.breached)
+			{
+				breached.add(check.account);
+			}
+		}
+
+		return new Report(accounts.size(), undecryptable, invalidTotp, breached,
+			groups(checks, check -> check.username), groups(checks, check -> check.password),
+			System.nanoTime() - start);
+	}
+
+	private Check check(Account account)
+	{
+		Check check = new Check(account);
+		try
+		{
+			check.username = fingerprint(UsernameIndex.normalize(encryptionService.decrypt(account.getEncryptedUsername()))
+				.getBytes(StandardCharsets.UTF_8));
+
+			try (SecretBuffer password = encryptionService.decryptSecret(account.getEncryptedPassword()))
+			{
+				Mac instance = mac.get();
+				instance.update(password.view());
+				check.password = Base64.getEncoder().encodeToString(instance.doFinal());
+				check.breached = breachCorpus != null && breachCorpus.count(password) > 0;
+			}
+
+			AccountFields fields = account.getFields();
+			if (fields != null)
+			{
+				for (String name : fields.names())
+				{
+					encryptionService.decryptSecret(fields.encryptedValue(name)).close();
+				}
+			}
+
+			if (account.getEncryptedTotpSecret() != null)
+			{
+				try (SecretBuffer totp = encryptionService.decryptSecret(account.getEncryptedTotpSecret()))
+				{
+					char[] secret = totp.toChars();
+					try
+					{
+						check.invalidTotp = !TotpService.isValidSecret(secret);
+					}
+					finally
+					{
+						Arrays.fill(secret, '\0');
+					}
+				}
+			}
+		}
+		catch (RuntimeException e)
+		{
+			// Not compared with the others if only some of its fields decrypted
+			check.undecryptable = true;
+			check.username = null;
+			check.password = null;
+		}
+		return check;
+	}
+
+	private String fingerprint(byte[] value)
+	{
+		try
+		{
+			return Base64.getEncoder().encodeToString(mac.get().doFinal(value));
+		}
+		finally
+		{
+			Arrays.fill(value, (byte) 0);
+		}
+	}
+
+	/**
+	 * @return the accounts sharing each fingerprint used more than once, in vault order
+	 */
+	private static List<List<Account>> groups(List<Check> checks, Function<Check, String> fingerprint)
+	{
+		Map<String, List<Account>> byFingerprint = new LinkedHashMap<>();
+		for (Check check : checks)
+		{
+			String value = fingerprint.apply(check);
+			if (value != null)
+			{
+				byFingerprint.computeIfAbsent(value, k -> new ArrayList<>()).add(check.account);
+			}
+		}
+		return byFingerprint.values().stream()
+			.filter(group -> group.size() > 1)
+			.collect(Collectors.toList());
+	}
+
+	private static final class Check
+	{
+		private final Account account;
+		private String username;
+		private String password;
+		private boolean undecryptable;
+		private boolean invalidTotp;
+		private boolean breached;
+
+		private Check(Account account)
+		{
+			this.account = account;
+		}
+	}
+
+	/**
+	 * What a scan found. Accounts that do not decrypt are not checked for anything else.
+	 */
+	static final class Report
+	{
+		@Getter
+		private final int scanned;
+		@Getter
+		private final List<Account> undecryptable;
+		@Getter
+		private final List<Account> invalidTotp;
+		@Getter
+		private final List<Account> breached;
+		@Getter
+		private final List<List<Account>> duplicateUsernames;
+		@Getter
+		private final List<List<Account>> reusedPasswords;
+		@Getter
+		private final long nanos;
+
+		Report(int scanned, List<Account> undecryptable, List<Account> invalidTotp, List<Account> breached,
+			List<List<Account>> duplicateUsernames, List<List<Account>> reusedPasswords, long nanos)
+		{
+			this.scanned = scanned;
+			this.undecryptable = Collections.unmodifiableList(undecryptable);
+			this.invalidTotp = Collections.unmodifiableList(invalidTotp);
+			this.breached = Collections.unmodifiableList(breached);
+			this.duplicateUsernames = Collections.unmodifiableList(duplicateUsernames);
+			this.reusedPasswords = Collections.unmodifiableList(reusedPasswords);
+			this.nanos = nanos;
+		}
+
+		boolean isHealthy()
+		{
+			return undecryptable.isEmpty() && invalidTotp.isEmpty() && breached.isEmpty()
+				&& duplicateUsernames.isEmpty() && reusedPasswords.isEmpty();
+		}
+
+		/**
+		 * @return the findings by account nickname, one line per problem
+		 */
+		String summary()
+		{
+			StringBuilder sb = new StringBuilder();
+			sb.append(scanned).append(" accounts checked in ").append(PluginMetrics.formatNanos(nanos)).append('\n');
+			if (isHealthy())
+			{
+				return sb.append("No problems found").toString();
+			}
+
+			for (Account account : undecryptable)
+			{
+				sb.append("Does not decrypt: ").append(account.getNickname()).append('\n');
+			}
+			for (Account account : invalidTotp)
+			{
+				sb.append("Invalid TOTP secret: ").append(account.getNickname()).append('\n');
+			}
+			for (Account account : breached)
+			{
+				sb.append("Breached password: ").append(account.getNickname()).append('\n');
+			}
+			for (List<Account> group : duplicateUsernames)
+			{
+				sb.append("Same username: ").append(nicknames(group)).append('\n');
+			}
+			for (List<Account> group : reusedPasswords)
+			{
+				sb.append("Same password: ").append(nicknames(group)).append('\n');
+			}
+			return sb.toString().trim();
+		}
+
+		private static String nicknames(Collection<Account> accounts)
+		{
+			return accounts.stream().map(Account::getNickname).collect(Collectors.joining(", "));
+		}
+	}
+}
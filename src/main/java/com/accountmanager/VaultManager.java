@@ -0,0 +1,231 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * The named vaults of a profile, each with its own salt, key and accounts. The first vault keeps
+ * the original unprefixed keys, so a vault created before there could be several shows up as
+ * {@value #DEFAULT_VAULT_NAME}. Vaults are only loaded when unlocked; a locked vault is just a name.
+ */
+@Slf4j
+class VaultManager
+{
+	static final String DEFAULT_VAULT_NAME = "Default";
+
+	private static final String KEY_VAULTS = "vaults";
+	private static final String KEY_PREFIX = "vault.";
+	private static final Type VAULT_LIST_TYPE = new TypeToken<ArrayList<VaultInfo>>(){}.getType();
+
+	private final VaultStore store;
+	private final Gson gson;
+	private final PluginMetrics metrics;
+	private final SharedScheduler scheduler;
+	private final IntSupplier cacheTtlSeconds;
+
+	private final List<VaultInfo> infos = new ArrayList<>();
+	private final List<Vault> vaults = new CopyOnWriteArrayList<>();
+	// Vaults by the store key holding their accounts
+	private final Map<String, Vault> accountsKeys = new ConcurrentHashMap<>();
+	private volatile Consumer<Vault> changeListener;
+	private volatile BiConsumer<Vault, Vault.Reload> reloadListener;
+	private volatile Consumer<Vault> integrityListener;
+
+	VaultManager(VaultStore store, Gson gson, PluginMetrics metrics, SharedScheduler scheduler, IntSupplier cacheTtlSeconds)
+	{
+		this.store = store;
+		this.gson = gson;
+		this.metrics = metrics;
+		this.scheduler = scheduler;
+		this.cacheTtlSeconds = cacheTtlSeconds;
+
+		vaults.add(newVault(DEFAULT_VAULT_NAME, ""));
+		for (VaultInfo info : readInfos())
+		{
+			infos.add(info);
+			vaults.add(newVault(info.name, KEY_PREFIX + info.id + "."));
+		}
+	}
+
+	/**
+	 * @return every vault, the default vault first and the others in the order they were created
+	 */
+	List<Vault> getVaults()
+	{
+		return Collections.unmodifiableList(vaults);
+	}
+
+	Vault getDefaultVault()
+	{
+		return vaults.get(0);
+	}
+
+	/**
+	 * @return the vault with this name, or null if there is none
+	 */
+	Vault find(String name)
+	{
+		for (Vault vault : vaults)
+		{
+			if (vault.getName().equalsIgnoreCase(name))
+			{
+				return vault;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds an empty vault. It gets its salt and master password when it is first unlocked.
+	 *
+	 * @throws IllegalArgumentException if the name is blank or already taken
+	 */
+	synchronized Vault create(String name)
+	{
+		String trimmed = name == null ? "" : name.trim();
+		if (trimmed.isEmpty())
+		{
+			throw new IllegalArgumentException("Vault name is required");
+		}
+		if (find(trimmed) != null)
+		{
+			throw new IllegalArgumentException("A vault named '" + trimmed + "' already exists");
+		}
+
+		VaultInfo info = new VaultInfo(UUID.randomUUID().toString(), trimmed);
+		infos.add(info);
+		store.set(KEY_VAULTS, gson.toJson(infos));
+
+		Vault vault = newVault(trimmed, KEY_PREFIX + info.id + ".");
+		vaults.add(vault);
+		return vault;
+	}
+
+	boolean isAnyUnlocked()
+	{
+		for (Vault vault : vaults)
+		{
+			if (vault.isUnlocked())
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void lockAll(String reason)
+	{
+		for (Vault vault : vaults)
+		{
+			vault.lock(reason);
+		}
+	}
+
+	/**
+	 * Sets what to call after a change to any vault, including vaults created later.
+	 */
+	void setChangeListener(Consumer<Vault> changeListener)
+	{
+		this.changeListener = changeListener;
+		for (Vault vault : vaults)
+		{
+			vault.setChangeListener(changeListener);
+		}
+	}
+
+	/**
+	 * Sets what to call after a vault picked up changes saved elsewhere, including vaults created later.
+	 */
+	void setReloadListener(BiConsumer<Vault, Vault.Reload> reloadListener)
+	{
+		this.reloadListener = reloadListener;
+		for (Vault vault : vaults)
+		{
+			vault.setReloadListener(reloadListener);
+		}
+	}
+
+	/**
+	 * Sets what to call when a vault, including one created later, fails its integrity check.
+	 */
+	void setIntegrityListener(Consumer<Vault> integrityListener)
+	{
+		this.integrityListener = integrityListener;
+		for (Vault vault : vaults)
+		{
+			vault.setIntegrityListener(integrityListener);
+		}
+	}
+
+	/**
+	 * Reloads the vault whose accounts are stored under this key, if any, e.g. after a profile
+	 * sync or another client changed them.
+	 */
+	void onStoreChanged(String key)
+	{
+		Vault vault = accountsKeys.get(key);
+		if (vault != null)
+		{
+			vault.reload();
+		}
+	}
+
+	private Vault newVault(String name, String keyPrefix)
+	{
+		VaultStore vaultStore = keyPrefix.isEmpty() ? store : new PrefixedVaultStore(store, keyPrefix);
+		Vault vault = new Vault(name, vaultStore, new VaultCodec(gson), metrics, scheduler, cacheTtlSeconds);
+		vault.setChangeListener(changeListener);
+		vault.setReloadListener(reloadListener);
+		vault.setIntegrityListener(integrityListener);
+		for (String key : Vault.ACCOUNTS_KEYS)
+		{
+			accountsKeys.put(keyPrefix + key, vault);
+		}
+		return vault;
+	}
+
+	private List<VaultInfo> readInfos()
+	{
+		String json = store.get(KEY_VAULTS);
+		if (json == null || json.isEmpty())
+		{
+			return Collections.emptyList();
+		}
+
+		try
+		{
+			List<VaultInfo> read = gson.fromJson(json, VAULT_LIST_TYPE);
+			return read != null ? read : Collections.emptyList();
+		}
+		catch (Exception e)
+		{
+			log.error("Failed to read the vault list", e);
+			return Collections.emptyList();
+		}
+	}
+
+	private static final class VaultInfo
+	{
+		private final String id;
+		private final String name;
+
+		private VaultInfo(String id, String name)
+		{
+			this.id = id;
+			this.name = name;
+		}
+	}
+}
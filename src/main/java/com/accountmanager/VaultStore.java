@@ -0,0 +1,11 @@
+package com.accountmanager;
+
+/**
+ * Key-value storage for the vault's persisted values (salt, verification string, accounts).
+ */
+interface VaultStore
+{
+	String get(String key);
+
+	void set(String key, String value);
+}
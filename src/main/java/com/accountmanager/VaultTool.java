@@ -0,0 +1,695 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Console;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Command-line tool for working on a vault without the panel, e.g. from provisioning scripts.
+ * It opens the vault in a copy of RuneLite's {@code settings.properties}, or in a vault file
+ * written by {@code export}, so run it while RuneLite is closed. Bulk work runs on a pool of
+ * {@code threads} workers and reports progress on stdout.
+ * <p>
+ * {@code java -cp account-manager-all.jar com.accountmanager.VaultTool <command> file=<properties> [key=value ...]}
+ * <ul>
+ * <li>{@code verify}: check the integrity root and that every account decrypts</li>
+ * <li>{@code export out=<properties>}: copy the vault, still encrypted, to a vault file of its own</li>
+ * <li>{@code export-csv out=<csv>}: write the accounts decrypted, as nickname,username,password,totp</li>
+ * <li>{@code import in=<csv>}: add accounts from a CSV in that format, creating the vault if needed</li>
+ * <li>{@code rekey}: re-encrypt with a new master password, attachments included</li>
+ * <li>{@code compact}: drop the tombstones of deleted accounts</li>
+ * <li>{@code benchmark}: time unlocking, picking a cipher suite and decrypting every account</li>
+ * </ul>
+ * Other options are {@code vault}, {@code group}, {@code threads} and {@code attachments}. The
+ * master password is read from {@value #PASSWORD_ENV}, the new one for {@code rekey} from
+ * {@value #NEW_PASSWORD_ENV}, or either is asked for if it is not set.
+ */
+class VaultTool
+{
+	static final String PASSWORD_ENV = "ACCOUNT_MANAGER_PASSWORD";
+	static final String NEW_PASSWORD_ENV = "ACCOUNT_MANAGER_NEW_PASSWORD";
+	static final int EXIT_OK = 0;
+	static final int EXIT_FAILED = 1;
+	static final int EXIT_USAGE = 2;
+
+	// Accounts decrypted or encrypted together, which bounds how much plaintext is held at once
+	private static final int BATCH_SIZE = 1024;
+	private static final String[] CSV_HEADER = {"nickname", "username", "password", "totp"};
+
+	enum Command
+	{
+		VERIFY, EXPORT, EXPORT_CSV, IMPORT, REKEY, COMPACT, BENCHMARK;
+
+		static Command parse(String value)
+		{
+			return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+		}
+	}
+
+	/**
+	 * Reads a password, from the environment variable if it is set.
+	 */
+	interface Passwords
+	{
+		char[] read(String prompt, String environmentVariable, boolean confirm);
+	}
+
+	static final class Options
+	{
+		Command command;
+		Path file;
+		String group = AccountManagerConfig.CONFIG_GROUP;
+		String vault = VaultManager.DEFAULT_VAULT_NAME;
+		int threads = Runtime.getRuntime().availableProcessors();
+		Path in;
+		Path out;
+		Path attachments = Paths.get(System.getProperty("user.home"), ".runelite", "account-manager", "attachments");
+
+		static Options parse(String[] args)
+		{
+			if (args.length == 0)
+			{
+				throw new IllegalArgumentException("Expected a command");
+			}
+
+			Options options = new Options();
+			options.command = Command.parse(args[0]);
+			for (String arg : Arrays.copyOfRange(args, 1, args.length))
+			{
+				int eq = arg.indexOf('=');
+				if (eq < 0)
+				{
+					throw new IllegalArgumentException("Expected key=value but got: " + arg);
+				}
+
+				String key = arg.substring(0, eq);
+				String value = arg.substring(eq + 1);
+				switch (key)
+				{
+					case "file":
+						options.file = Paths.get(value);
+						break;
+					case "group":
+						options.group = value;
+						break;
+					case "vault":
+						options.vault = value;
+						break;
+					case "threads":
+						options.threads = Integer.parseInt(value);
+						break;
+					case "in":
+						options.in = Paths.get(value);
+						break;
+					case "out":
+						options.out = Paths.get(value);
+						break;
+					case "attachments":
+						options.attachments = Paths.get(value);
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown option: " + key);
+				}
+			}
+
+			if (options.file == null)
+			{
+				throw new IllegalArgumentException("file=<properties> is required");
+			}
+			if (options.threads < 1)
+			{
+				throw new IllegalArgumentException("threads must be at least 1");
+			}
+			if (options.command == Command.IMPORT && options.in == null)
+			{
+				throw new IllegalArgumentException("import needs in=<csv>");
+			}
+			if ((options.command == Command.EXPORT || options.command == Command.EXPORT_CSV) && options.out == null)
+			{
+				throw new IllegalArgumentException(options.command.name().toLowerCase(Locale.ROOT).replace('_', '-')
+					+ " needs out=<file>");
+			}
+			return options;
+		}
+	}
+
+	private final Options options;
+	private final PrintStream out;
+	private final Passwords passwords;
+	private final PluginMetrics metrics = new PluginMetrics();
+
+	VaultTool(Options options, PrintStream out, Passwords passwords)
+	{
+		this.options = options;
+		this.out = out;
+		this.passwords = passwords;
+	}
+
+	public static void main(String[] args)
+	{
+		Options options;
+		try
+		{
+			options = Options.parse(args);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.println("Usage: VaultTool verify|export|export-csv|import|rekey|compact|benchmark"
+				+ " file=<properties> [vault=<name>] [group=<group>] [threads=<n>] [in=<csv>] [out=<file>] [attachments=<dir>]");
+			System.exit(EXIT_USAGE);
+			return;
+		}
+
+		int status;
+		try
+		{
+			status = new VaultTool(options, System.out, VaultTool::readPassword).run();
+		}
+		catch (Exception e)
+		{
+			System.err.println("Failed: " + e.getMessage());
+			status = EXIT_FAILED;
+		}
+		System.exit(status);
+	}
+
+	/**
+	 * @return the exit status
+	 */
+	int run() throws IOException, InterruptedException
+	{
+		PropertiesVaultStore store = new PropertiesVaultStore(options.file, options.group);
+		SharedScheduler scheduler = new SharedScheduler();
+		ForkJoinPool pool = new ForkJoinPool(options.threads);
+		Vault vault = null;
+		try
+		{
+			vault = new VaultManager(store, new Gson(), metrics, scheduler, () -> 30).find(options.vault);
+			if (vault == null)
+			{
+				out.println("No vault named " + options.vault + " in " + options.file);
+				return EXIT_FAILED;
+			}
+			if (!vault.exists() && options.command != Command.IMPORT)
+			{
+				out.println("Vault " + options.vault + " has not been set up in " + options.file);
+				return EXIT_FAILED;
+			}
+
+			char[] password = passwords.read("Master password", PASSWORD_ENV, !vault.exists());
+			long start = System.nanoTime();
+			boolean unlocked;
+			try
+			{
+				unlocked = vault.unlock(password);
+			}
+			finally
+			{
+				Arrays.fill(password, '\0');
+			}
+			if (!unlocked)
+			{
+				out.println("Wrong master password");
+				return EXIT_FAILED;
+			}
+			out.printf("Unlocked %s: %d accounts in %s%n", vault.getName(), vault.getAccounts().size(),
+				PluginMetrics.formatNanos(System.nanoTime() - start));
+
+			Vault opened = vault;
+			return pool.submit(() -> execute(opened, store)).get();
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+			{
+				throw (IOException) cause;
+			}
+			throw new RuntimeException(cause.getMessage(), cause);
+		}
+		finally
+		{
+			if (vault != null)
+			{
+				vault.lock("vault-tool");
+			}
+			pool.shutdown();
+			scheduler.shutdown();
+		}
+	}
+
+	/**
+	 * Runs the command on a worker of the pool, so the parallel streams it starts use the pool too.
+	 */
+	private int execute(Vault vault, PropertiesVaultStore store) throws IOException
+	{
+		switch (options.command)
+		{
+			case VERIFY:
+				return verify(vault);
+			case EXPORT:
+				return export(vault);
+			case EXPORT_CSV:
+				return exportCsv(vault);
+			case IMPORT:
+				return importCsv(vault, store);
+			case REKEY:
+				return rekey(vault, store);
+			case COMPACT:
+				return compact(vault, store);
+			case BENCHMARK:
+				return benchmark(vault);
+			default:
+				throw new IllegalStateException("Unhandled command: " + options.command);
+		}
+	}
+
+	private int verify(Vault vault)
+	{
+		Vault.Integrity integrity = vault.verifyIntegrity();
+		out.println("Integrity: " + integrity.getStatus() + ", " + integrity.summary());
+
+		VaultHealthScan scan = new VaultHealthScan(vault, null);
+		Progress progress = new Progress("Checked", scan.size());
+		VaultHealthScan.Report report = scan.run(progress::update);
+		out.println(report.summary());
+
+		boolean intact = integrity.getStatus() != Vault.Integrity.Status.TAMPERED;
+		return intact && report.getUndecryptable().isEmpty() ? EXIT_OK : EXIT_FAILED;
+	}
+
+	private int export(Vault vault) throws IOException
+	{
+		PropertiesVaultStore target = new PropertiesVaultStore(options.out, options.group);
+		vault.records().forEach(target::set);
+		target.save();
+		out.printf("Exported %s to %s%n", vault.getName(), options.out);
+		return EXIT_OK;
+	}
+
+	/**
+	 * Decrypts the accounts a batch at a time, in parallel within each batch, and writes them in
+	 * vault order to a file only the current user can read, where the file system allows it.
+	 */
+	private int exportCsv(Vault vault) throws IOException
+	{
+		EncryptionService encryption = vault.getEncryptionService();
+		List<Account> accounts = new ArrayList<>(vault.getAccounts());
+		createPrivateFile(options.out);
+
+		Progress progress = new Progress("Exported", accounts.size());
+		try (BufferedWriter writer = Files.newBufferedWriter(options.out, StandardCharsets.UTF_8))
+		{
+			writeCsvRow(writer, CSV_HEADER);
+			for (int from = 0; from < accounts.size(); from += BATCH_SIZE)
+			{
+				List<String[]> rows = accounts.subList(from, Math.min(from + BATCH_SIZE, accounts.size()))
+					.parallelStream()
+					.map(account -> decryptRow(encryption, account))
+					.collect(Collectors.toList());
+				for (String[] row : rows)
+				{
+					writeCsvRow(writer, row);
+				}
+				progress.update(from + rows.size());
+			}
+		}
+		out.printf("Exported %d accounts to %s; it holds them in plaintext, delete it once done%n",
+			accounts.size(), options.out);
+		return EXIT_OK;
+	}
+
+	private static String[] decryptRow(EncryptionService encryption, Account account)
+	{
+		// Strings are unavoidable here, the CSV is written as text
+		try (SecretBuffer password = encryption.decryptSecret(account.getEncryptedPassword()))
+		{
+			String totp = "";
+			if (account.hasTotpSecret())
+			{
+				try (SecretBuffer secret = encryption.decryptSecret(account.getEncryptedTotpSecret()))
+				{
+					totp = secret.asString();
+				}
+			}
+			return new String[]{account.getNickname(), encryption.decrypt(account.getEncryptedUsername()),
+				password.asString(), totp};
+		}
+	}
+
+	/**
+	 * Reads the CSV a batch at a time and encrypts each batch in parallel, then adds everything
+	 * with a single save. Rows with a username the vault or an earlier row already has, or with
+	 * a missing field or invalid TOTP secret, are skipped and reported.
+	 */
+	private int importCsv(Vault vault, PropertiesVaultStore store) throws IOException
+	{
+		EncryptionService encryption = vault.getEncryptionService();
+		Set<String> usernames = new HashSet<>();
+		List<Account> imported = new ArrayList<>();
+		int skipped = 0;
+		int line = 1;
+
+		try (BufferedReader reader = Files.newBufferedReader(options.in, StandardCharsets.UTF_8))
+		{
+			List<String> header = readCsvRow(reader);
+			if (header == null || header.size() < 3 || !header.subList(0, 3).equals(Arrays.asList(CSV_HEADER).subList(0, 3)))
+			{
+				out.println("Expected a header of " + String.join(",", CSV_HEADER));
+				return EXIT_FAILED;
+			}
+
+			List<String[]> batch = new ArrayList<>();
+			for (List<String> row = readCsvRow(reader); row != null; row = readCsvRow(reader))
+			{
+				line++;
+				String problem = checkRow(vault, row, usernames);
+				if (problem != null)
+				{
+					out.printf("Skipping row %d: %s%n", line, problem);
+					skipped++;
+					continue;
+				}
+
+				batch.add(row.toArray(new String[CSV_HEADER.length]));
+				if (batch.size() == BATCH_SIZE)
+				{
+					imported.addAll(encryptBatch(encryption, batch));
+					batch.clear();
+					out.printf("Encrypted %d accounts%n", imported.size());
+				}
+			}
+			imported.addAll(encryptBatch(encryption, batch));
+		}
+
+		if (!imported.isEmpty())
+		{
+			vault.addAccounts(imported);
+			store.save();
+		}
+		out.printf("Imported %d accounts, skipped %d%n", imported.size(), skipped);
+		return EXIT_OK;
+	}
+
+	private static String checkRow(Vault vault, List<String> row, Set<String> usernames)
+	{
+		if (row.size() < 3 || row.get(0).trim().isEmpty() || row.get(1).trim().isEmpty() || row.get(2).isEmpty())
+		{
+			return "nickname, username and password are required";
+		}
+
+		String totp = row.size() > 3 ? row.get(3) : "";
+		char[] secret = normalizeTotpSecret(totp);
+		try
+		{
+			if (secret.length > 0 && !TotpService.isValidSecret(secret))
+			{
+				return "invalid TOTP secret";
+			}
+		}
+		finally
+		{
+			Arrays.fill(secret, '\0');
+		}
+
+		String username = row.get(1).trim();
+		if (!usernames.add(UsernameIndex.normalize(username)) || vault.findAccountByUsername(username) != null)
+		{
+			return "username " + username + " already exists";
+		}
+		return null;
+	}
+
+	private static List<Account> encryptBatch(EncryptionService encryption, List<String[]> batch)
+	{
+		return batch.parallelStream()
+			.map(row ->
+			{
+				Account account = new Account();
+				account.setNickname(row[0].trim());
+				account.setEncryptedUsername(encryption.encrypt(row[1].trim()));
+				account.setEncryptedPassword(encryption.encrypt(row[2]));
+				char[] totp = normalizeTotpSecret(row[3] == null ? "" : row[3]);
+				if (totp.length > 0)
+				{
+					try (SecretBuffer secret = SecretBuffer.of(totp))
+					{
+						account.setEncryptedTotpSecret(encryption.encrypt(secret));
+					}
+				}
+				Arrays.fill(totp, '\0');
+				return account;
+			})
+			.collect(Collectors.toList());
+	}
+
+	/**
+	 * Re-encrypts the accounts and the attachments, which the vault writes next to the old ones
+	 * and only replaces once the new key is in use.
+	 */
+	private int rekey(Vault vault, PropertiesVaultStore store) throws IOException
+	{
+		char[] newPassword = passwords.read("New master password", NEW_PASSWORD_ENV, true);
+		Path attachments = Files.isDirectory(options.attachments) ? options.attachments : null;
+
+		int count;
+		long start = System.nanoTime();
+		try
+		{
+			count = vault.changeMasterPassword(newPassword, attachments);
+		}
+		finally
+		{
+			Arrays.fill(newPassword, '\0');
+		}
+		out.printf("Re-encrypted %d accounts%s in %s%n", count, attachments == null ? "" : " and their attachments",
+			PluginMetrics.formatNanos(System.nanoTime() - start));
+
+		store.save();
+		out.printf("Saved %s with the new master password%n", options.file);
+		return EXIT_OK;
+	}
+
+	private int compact(Vault vault, PropertiesVaultStore store) throws IOException
+	{
+		int dropped = vault.compact();
+		if (dropped > 0)
+		{
+			store.save();
+		}
+		out.printf("Dropped %d tombstones%n", dropped);
+		return EXIT_OK;
+	}
+
+	private int benchmark(Vault vault)
+	{
+		long start = System.nanoTime();
+		CipherSuite fastest = CipherSuite.fastest();
+		out.printf("Fastest cipher suite: %s (picked in %s, vault uses %s)%n", fastest.getId(),
+			PluginMetrics.formatNanos(System.nanoTime() - start), vault.getEncryptionService().getCipherSuite().getId());
+
+		EncryptionService encryption = vault.getEncryptionService();
+		List<Account> accounts = vault.getAccounts();
+		AtomicInteger decrypted = new AtomicInteger();
+		Progress progress = new Progress("Decrypted", accounts.size());
+		start = System.nanoTime();
+		accounts.parallelStream().forEach(account ->
+		{
+			encryption.decrypt(account.getEncryptedUsername());
+			encryption.decryptSecret(account.getEncryptedPassword()).close();
+			progress.update(decrypted.incrementAndGet());
+		});
+		long nanos = System.nanoTime() - start;
+		out.printf("Decrypted %d accounts in %s on %d threads (%.0f accounts/s)%n", accounts.size(),
+			PluginMetrics.formatNanos(nanos), options.threads, accounts.size() * 1e9 / Math.max(1, nanos));
+
+		out.println("Integrity: " + vault.verifyIntegrity().summary());
+		return EXIT_OK;
+	}
+
+	private static char[] normalizeTotpSecret(String secret)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (char c : secret.toCharArray())
+		{
+			if (!Character.isWhitespace(c))
+			{
+				sb.append(Character.toUpperCase(c));
+			}
+		}
+		char[] normalized = new char[sb.length()];
+		sb.getChars(0, sb.length(), normalized, 0);
+		return normalized;
+	}
+
+	private static void createPrivateFile(Path file) throws IOException
+	{
+		Files.deleteIfExists(file);
+		try
+		{
+			Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		}
+		catch (UnsupportedOperationException e)
+		{
+			// Not a POSIX file system, e.g. on Windows, where the user's own folders are private already
+			Files.createFile(file);
+		}
+	}
+
+	static void writeCsvRow(Writer writer, String... values) throws IOException
+	{
+		for (int i = 0; i < values.length; i++)
+		{
+			if (i > 0)
+			{
+				writer.write(',');
+			}
+			String value = values[i] == null ? "" : values[i];
+			if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0)
+			{
+				writer.write('"');
+				writer.write(value.replace("\"", "\"\""));
+				writer.write('"');
+			}
+			else
+			{
+				writer.write(value);
+			}
+		}
+		writer.write('\n');
+	}
+
+	/**
+	 * Reads one CSV row, whose quoted values may span lines.
+	 *
+	 * @return the values, or null at the end of the input
+	 */
+	static List<String> readCsvRow(BufferedReader reader) throws IOException
+	{
+		int c = reader.read();
+		if (c < 0)
+		{
+			return null;
+		}
+
+		List<String> values = new ArrayList<>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (; c >= 0; c = reader.read())
+		{
+			if (quoted)
+			{
+				if (c != '"')
+				{
+					value.append((char) c);
+					continue;
+				}
+				reader.mark(1);
+				if (reader.read() == '"')
+				{
+					value.append('"');
+				}
+				else
+				{
+					reader.reset();
+					quoted = false;
+				}
+			}
+			else if (c == '"')
+			{
+				quoted = true;
+			}
+			else if (c == ',')
+			{
+				values.add(value.toString());
+				value.setLength(0);
+			}
+			else if (c == '\n')
+			{
+				break;
+			}
+			else if (c != '\r')
+			{
+				value.append((char) c);
+			}
+		}
+		values.add(value.toString());
+		return values;
+	}
+
+	static char[] readPassword(String prompt, String environmentVariable, boolean confirm)
+	{
+		String value = System.getenv(environmentVariable);
+		if (value != null)
+		{
+			return value.toCharArray();
+		}
+
+		Console console = System.console();
+		if (console == null)
+		{
+			throw new IllegalStateException("No console to ask for the password on; set " + environmentVariable);
+		}
+		char[] password = console.readPassword("%s: ", prompt);
+		if (confirm)
+		{
+			char[] repeated = console.readPassword("Repeat %s: ", prompt.toLowerCase(Locale.ROOT));
+			boolean same = Arrays.equals(password, repeated);
+			Arrays.fill(repeated, '\0');
+			if (!same)
+			{
+				Arrays.fill(password, '\0');
+				throw new IllegalArgumentException("Passwords do not match");
+			}
+		}
+		return password;
+	}
+
+	/**
+	 * Prints how far a task has got, about once per percent, from whichever thread reports it.
+	 */
+	private final class Progress
+	{
+		private final String task;
+		private final int total;
+		private final int step;
+		private int reported;
+
+		private Progress(String task, int total)
+		{
+			this.task = task;
+			this.total = total;
+			this.step = Math.max(1, total / 100);
+		}
+
+		private synchronized void update(int done)
+		{
+			if (done - reported >= step || (done == total && reported < total))
+			{
+				reported = done;
+				out.printf("%s %d/%d accounts (%d%%)%n", task, done, total, total == 0 ? 100 : done * 100L / total);
+			}
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for AccountFields.
+ * Validates copy-on-change edits, name interning, type checks and the compact stored form.
+ */
+public class AccountFieldsTest
+{
+	private final VaultCodec codec = new VaultCodec(new Gson());
+
+	// === Edit Tests ===
+
+	@Test
+	public void testWith_addsAndReplaces()
+	{
+		AccountFields fields = AccountFields.with(null, "Email", AccountFields.Type.EMAIL, "a");
+		AccountFields added = AccountFields.with(fields, "Notes", AccountFields.Type.NOTE, "b");
+		AccountFields replaced = AccountFields.with(added, "Email", AccountFields.Type.EMAIL, "c");
+
+		assertEquals(1, fields.size());
+		assertEquals(Arrays.asList("Email", "Notes"), replaced.names());
+		assertEquals("c", replaced.encryptedValue("Email"));
+		assertEquals("a", fields.encryptedValue("Email"));
+	}
+
+	@Test
+	public void testWithout_lastFieldLeavesNull()
+	{
+		AccountFields fields = AccountFields.with(null, "Email", AccountFields.Type.EMAIL, "a");
+		fields = AccountFields.with(fields, "Notes", AccountFields.Type.NOTE, "b");
+
+		AccountFields remaining = AccountFields.without(fields, "Email");
+
+		assertEquals(Collections.singletonList("Notes"), remaining.names());
+		assertNull(AccountFields.without(remaining, "Notes"));
+		assertSame(remaining, AccountFields.without(remaining, "Missing"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWith_blankNameRejected()
+	{
+		AccountFields.with(null, " ", AccountFields.Type.TEXT, "a");
+	}
+
+	// === Type Tests ===
+
+	@Test
+	public void testType_validation()
+	{
+		assertTrue(AccountFields.Type.PIN.isValid("1234"));
+		assertFalse(AccountFields.Type.PIN.isValid("12a4"));
+		assertTrue(AccountFields.Type.EMAIL.isValid("main@example.com"));
+		assertFalse(AccountFields.Type.EMAIL.isValid("main"));
+		assertTrue(AccountFields.Type.WORLD.isValid("302"));
+		assertTrue(AccountFields.Type.NOTE.isValid("anything at all"));
+	}
+
+	@Test
+	public void testType_unknownIdReadsAsText()
+	{
+		assertEquals(AccountFields.Type.TEXT, AccountFields.Type.fromId("added-later"));
+		assertEquals(AccountFields.Type.PIN, AccountFields.Type.fromId("pin"));
+	}
+
+	// === Storage Tests ===
+
+	@Test
+	public void testCodec_roundTripInternsNames()
+	{
+		Account account = new Account();
+		account.setId("1");
+		account.setFields(AccountFields.with(null, "Bank PIN", AccountFields.Type.PIN, "secret"));
+
+		List<Account> decoded = codec.decode(codec.encode(Arrays.asList(account, account)));
+
+		assertEquals(account.getFields(), decoded.get(0).getFields());
+		assertSame(decoded.get(0).getFields().names().get(0), decoded.get(1).getFields().names().get(0));
+		assertEquals(AccountFields.Type.PIN, decoded.get(1).getFields().type("Bank PIN"));
+	}
+
+	@Test
+	public void testCodec_unknownTypeIdIsStoredUnchanged()
+	{
+		String json = "[{\"id\":\"1\",\"fields\":[[\"Recovery\",\"added-later\",\"ct\"]]}]";
+
+		List<Account> decoded = codec.decode(json);
+
+		assertEquals(AccountFields.Type.TEXT, decoded.get(0).getFields().type("Recovery"));
+		assertTrue(codec.encode(decoded).contains("\"fields\":[[\"Recovery\",\"added-later\",\"ct\"]]"));
+	}
+
+	@Test
+	public void testCodec_accountWithoutFieldsStoresNothing()
+	{
+		Account account = new Account();
+		account.setId("1");
+
+		String json = codec.encode(Collections.singletonList(account));
+
+		assertFalse(json.contains("fields"));
+		assertNull(codec.decode(json).get(0).getFields());
+	}
+
+	@Test
+	public void testCodec_compactTriples()
+	{
+		Account account = new Account();
+		account.setFields(AccountFields.with(null, "Email", AccountFields.Type.EMAIL, "ct"));
+
+		assertTrue(codec.encode(Collections.singletonList(account)).contains("\"fields\":[[\"Email\",\"email\",\"ct\"]]"));
+	}
+}
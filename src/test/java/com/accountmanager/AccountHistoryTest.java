@@ -0,0 +1,143 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for AccountHistory.
+ * Validates recording edits as deltas, rebuilding versions from the current record, pruning and the stored form.
+ */
+public class AccountHistoryTest
+{
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private final VaultCodec codec = new VaultCodec(new Gson());
+
+	// === Record Tests ===
+
+	@Test
+	public void testRecord_keepsOnlyReplacedValues()
+	{
+		Account first = account("p1", "t1");
+		Account second = account("p2", "t1");
+
+		AccountHistory history = AccountHistory.EMPTY.record(first, second, 1000);
+
+		assertEquals(1, history.size());
+		AccountHistory.Delta delta = history.deltas().get(0);
+		assertEquals("{\"time\":1000,\"encryptedPassword\":\"p1\"}", new Gson().toJson(delta));
+	}
+
+	@Test
+	public void testRecord_unchangedCredentialsAddNothing()
+	{
+		AccountHistory history = AccountHistory.EMPTY.record(account("p1", null), account("p1", ""), 1000);
+
+		assertSame(AccountHistory.EMPTY, history);
+	}
+
+	// === Version Tests ===
+
+	@Test
+	public void testVersions_rebuiltFromCurrentRecord()
+	{
+		Account v1 = account("p1", null);
+		Account v2 = account("p2", null);
+		Account v3 = account("p2", "t3");
+		Account v4 = account("p4", "t4");
+		AccountHistory history = AccountHistory.EMPTY
+			.record(v1, v2, 1)
+			.record(v2, v3, 2)
+			.record(v3, v4, 3);
+
+		List<AccountHistory.Version> versions = history.versions(v4);
+
+		assertEquals(3, versions.size());
+		assertVersion(versions.get(0), 3, "p2", "t3");
+		assertTrue(versions.get(0).isPasswordChanged());
+		assertTrue(versions.get(0).isTotpSecretChanged());
+		assertVersion(versions.get(1), 2, "p2", null);
+		assertFalse(versions.get(1).isPasswordChanged());
+		assertVersion(versions.get(2), 1, "p1", null);
+		assertFalse(versions.get(2).isTotpSecretChanged());
+	}
+
+	// === Prune Tests ===
+
+	@Test
+	public void testPrune_dropsOldestPastCount()
+	{
+		AccountHistory history = AccountHistory.EMPTY;
+		Account previous = account("p0", null);
+		for (int i = 1; i <= AccountHistory.MAX_VERSIONS + 3; i++)
+		{
+			Account next = account("p" + i, null);
+			history = history.record(previous, next, i);
+			previous = next;
+		}
+
+		AccountHistory pruned = history.prune(AccountHistory.MAX_VERSIONS + 3);
+
+		assertEquals(AccountHistory.MAX_VERSIONS, pruned.size());
+		List<AccountHistory.Version> versions = pruned.versions(previous);
+		assertEquals("p" + (AccountHistory.MAX_VERSIONS + 2), versions.get(0).getEncryptedPassword());
+		assertEquals("p3", versions.get(versions.size() - 1).getEncryptedPassword());
+	}
+
+	@Test
+	public void testPrune_dropsVersionsPastAge()
+	{
+		long now = 1000 * DAY;
+		AccountHistory history = AccountHistory.EMPTY
+			.record(account("p1", null), account("p2", null), now - AccountHistory.MAX_AGE_MILLIS - DAY)
+			.record(account("p2", null), account("p3", null), now - DAY);
+
+		AccountHistory pruned = history.prune(now);
+
+		assertEquals(1, pruned.size());
+		assertEquals("p2", pruned.versions(account("p3", null)).get(0).getEncryptedPassword());
+		assertSame(pruned, pruned.prune(now));
+	}
+
+	// === Storage Tests ===
+
+	@Test
+	public void testCodec_roundTrip()
+	{
+		AccountHistory history = AccountHistory.EMPTY
+			.record(account("p1", null), account("p2", "t2"), 5)
+			.mapValues(value -> value + "'");
+
+		AccountHistory decoded = codec.decodeHistory(codec.encodeHistory(history));
+
+		assertEquals(1, decoded.size());
+		assertVersion(decoded.versions(account("p2'", "t2'")).get(0), 5, "p1'", null);
+	}
+
+	@Test
+	public void testCodec_emptyHistoryNotStored()
+	{
+		assertNull(codec.encodeHistory(AccountHistory.EMPTY));
+		assertTrue(codec.decodeHistory(null).isEmpty());
+	}
+
+	private static void assertVersion(AccountHistory.Version version, long replaced, String password, String totpSecret)
+	{
+		assertEquals(replaced, version.getReplaced());
+		assertEquals(password, version.getEncryptedPassword());
+		assertEquals(totpSecret, version.getEncryptedTotpSecret());
+	}
+
+	private static Account account(String encryptedPassword, String encryptedTotpSecret)
+	{
+		Account account = new Account();
+		account.setId("id");
+		account.setEncryptedPassword(encryptedPassword);
+		account.setEncryptedTotpSecret(encryptedTotpSecret);
+		return account;
+	}
+}
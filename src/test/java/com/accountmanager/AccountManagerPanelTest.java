@@ -0,0 +1,37 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for AccountManagerPanel.
+ * Validates that starting the plugin leaves building the panel's views, and reading the vaults,
+ * until it is first shown.
+ */
+public class AccountManagerPanelTest
+{
+	@Test
+	public void testInit_defersBuildingViews()
+	{
+		AccountManagerPanel panel = new AccountManagerPanel(new AccountManagerConfig() { }, new Gson());
+
+		panel.init(new AccountManagerPlugin());
+		panel.rebuild();
+
+		assertFalse(panel.isBuilt());
+		assertEquals(0, panel.getComponentCount());
+	}
+
+	@Test
+	public void testBuildNavigation_leavesVaultsUnread()
+	{
+		AccountManagerPlugin plugin = new AccountManagerPlugin();
+
+		plugin.buildNavigation();
+
+		assertTrue(plugin.getVaults().isEmpty());
+		assertFalse(plugin.isUnlocked());
+	}
+}
@@ -0,0 +1,190 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for AttachmentStore.
+ * Validates that attachments round trip through files, list by name, stay bound to their account and survive a new master password.
+ */
+public class AttachmentStoreTest
+{
+	private static final String MASTER_PASSWORD = "MySecureMasterPassword123!";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SharedScheduler scheduler;
+	private Vault vault;
+	private Path directory;
+	private AttachmentStore store;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		scheduler = new SharedScheduler();
+		vault = new Vault(VaultManager.DEFAULT_VAULT_NAME, new InMemoryVaultStore(), new VaultCodec(new Gson()),
+			new PluginMetrics(), scheduler, () -> 30);
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		directory = folder.newFolder().toPath();
+		store = new AttachmentStore(directory, vault);
+	}
+
+	@After
+	public void tearDown()
+	{
+		scheduler.shutdown();
+	}
+
+	private static Account account()
+	{
+		Account account = new Account();
+		account.setId(UUID.randomUUID().toString());
+		account.setNickname("Main");
+		return account;
+	}
+
+	private Path file(String name, int length) throws IOException
+	{
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		Path file = folder.newFile(name).toPath();
+		Files.write(file, data);
+		return file;
+	}
+
+	// === Round Trip Tests ===
+
+	@Test
+	public void testAdd_exportRoundTrip() throws IOException
+	{
+		Account account = account();
+		Path source = file("recovery.png", StreamingAead.DEFAULT_CHUNK_SIZE * 2 + 123);
+
+		AttachmentStore.Attachment attachment = store.add(account, source);
+		Path target = folder.getRoot().toPath().resolve("exported.png");
+		store.export(account, attachment, target);
+
+		assertEquals("recovery.png", attachment.getName());
+		assertEquals(Files.size(source), attachment.getSize());
+		assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+	}
+
+	@Test
+	public void testAdd_nameIsNotStoredInTheClear() throws IOException
+	{
+		Account account = account();
+		AttachmentStore.Attachment attachment = store.add(account, file("bank-pin.txt", 10));
+
+		Path stored = directory.resolve(account.getId()).resolve(attachment.getId() + ".bin");
+		assertFalse(new String(Files.readAllBytes(stored), "ISO-8859-1").contains("bank-pin"));
+	}
+
+	@Test
+	public void testList_sortedByName() throws IOException
+	{
+		Account account = account();
+		store.add(account, file("codes.txt", 5));
+		store.add(account, file("Backup.png", 5));
+
+		List<AttachmentStore.Attachment> attachments = store.list(account);
+
+		assertEquals(2, attachments.size());
+		assertEquals("Backup.png", attachments.get(0).getName());
+		assertEquals("codes.txt", attachments.get(1).getName());
+		assertTrue(store.list(account()).isEmpty());
+	}
+
+	// === Binding Tests ===
+
+	@Test
+	public void testList_fileMovedToAnotherAccountIsSkipped() throws IOException
+	{
+		Account account = account();
+		Account other = account();
+		AttachmentStore.Attachment attachment = store.add(account, file("codes.txt", 5));
+		store.add(other, file("other.txt", 5));
+
+		Files.move(directory.resolve(account.getId()).resolve(attachment.getId() + ".bin"),
+			directory.resolve(other.getId()).resolve(attachment.getId() + ".bin"));
+
+		List<AttachmentStore.Attachment> attachments = store.list(other);
+		assertEquals(1, attachments.size());
+		assertEquals("other.txt", attachments.get(0).getName());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testList_accountIdOutsideDirectoryRejected() throws IOException
+	{
+		Account account = account();
+		account.setId("../elsewhere");
+
+		store.list(account);
+	}
+
+	// === Delete Tests ===
+
+	@Test
+	public void testDelete_removesEmptyAccountDirectory() throws IOException
+	{
+		Account account = account();
+		AttachmentStore.Attachment attachment = store.add(account, file("codes.txt", 5));
+
+		assertTrue(store.delete(account, attachment));
+		assertFalse(store.delete(account, attachment));
+		assertFalse(Files.exists(directory.resolve(account.getId())));
+	}
+
+	@Test
+	public void testDeleteAll() throws IOException
+	{
+		Account account = account();
+		store.add(account, file("codes.txt", 5));
+		store.add(account, file("pin.txt", 5));
+
+		store.deleteAll(account.getId());
+
+		assertTrue(store.list(account).isEmpty());
+		assertFalse(Files.exists(directory.resolve(account.getId())));
+	}
+
+	// === Rekey Tests ===
+
+	@Test
+	public void testChangeMasterPassword_attachmentsStayReadable() throws IOException
+	{
+		Account account = account();
+		account.setEncryptedUsername(vault.getEncryptionService().encrypt("player@example.com"));
+		vault.addAccount(account);
+		Path source = file("codes.txt", StreamingAead.DEFAULT_CHUNK_SIZE + 7);
+		store.add(account, source);
+
+		vault.changeMasterPassword("AnotherMasterPassword456!".toCharArray(), directory);
+
+		AttachmentStore rekeyed = new AttachmentStore(directory, vault);
+		List<AttachmentStore.Attachment> attachments = rekeyed.list(account);
+		assertEquals(1, attachments.size());
+		assertEquals("codes.txt", attachments.get(0).getName());
+		Path target = folder.getRoot().toPath().resolve("exported.txt");
+		rekeyed.export(account, attachments.get(0), target);
+		assertArrayEquals(Files.readAllBytes(source), Files.readAllBytes(target));
+		try (Stream<Path> files = Files.list(directory.resolve(account.getId())))
+		{
+			assertEquals("The old copy should be gone", 1, files.count());
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.accountmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for AutoLockTimer.
+ * Validates that activity pushes the lock deadline forward, that the lock fires once and that work on the worker does not delay it.
+ */
+public class AutoLockTimerTest
+{
+	private SharedScheduler scheduler;
+	private AtomicLong timeoutMillis;
+	private AtomicInteger locks;
+	private CountDownLatch locked;
+	private AutoLockTimer timer;
+
+	@Before
+	public void setUp()
+	{
+		scheduler = new SharedScheduler();
+		timeoutMillis = new AtomicLong(200);
+		locks = new AtomicInteger();
+		locked = new CountDownLatch(1);
+		timer = new AutoLockTimer(scheduler, timeoutMillis::get, () ->
+		{
+			locks.incrementAndGet();
+			locked.countDown();
+		});
+	}
+
+	@After
+	public void tearDown()
+	{
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testTouch_locksAfterTimeout() throws Exception
+	{
+		long start = System.nanoTime();
+		timer.touch();
+
+		assertTrue("Should lock", locked.await(5, TimeUnit.SECONDS));
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("Should not lock before the deadline: " + elapsedMillis, elapsedMillis >= 200);
+		assertFalse(timer.isArmed());
+	}
+
+	@Test
+	public void testTouch_activityPushesDeadlineForward() throws Exception
+	{
+		long start = System.nanoTime();
+		timer.touch();
+		for (int i = 0; i < 5; i++)
+		{
+			Thread.sleep(100);
+			timer.touch();
+		}
+
+		assertTrue("Should lock", locked.await(5, TimeUnit.SECONDS));
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("Should lock a full timeout after the last activity: " + elapsedMillis, elapsedMillis >= 700);
+		assertEquals("Should lock exactly once", 1, locks.get());
+	}
+
+	@Test
+	public void testTouch_shorterTimeoutTakesEffect() throws Exception
+	{
+		timeoutMillis.set(TimeUnit.MINUTES.toMillis(10));
+		timer.touch();
+
+		timeoutMillis.set(100);
+		timer.touch();
+
+		assertTrue("Shortened timeout should lock", locked.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testTouch_zeroTimeoutDisablesLock() throws Exception
+	{
+		timer.touch();
+		timeoutMillis.set(0);
+		timer.touch();
+
+		assertFalse(timer.isArmed());
+		assertFalse("Disabled timer should not lock", locked.await(400, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testCancel_preventsLock() throws Exception
+	{
+		timer.touch();
+		timer.cancel();
+
+		assertFalse("Cancelled timer should not lock", locked.await(400, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testScheduler_restartsAfterShutdown() throws Exception
+	{
+		scheduler.shutdown();
+		timer.touch();
+
+		assertTrue("Scheduler should start again on demand", locked.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testTouch_locksWhileWorkerBusy() throws Exception
+	{
+		CountDownLatch release = new CountDownLatch(1);
+		scheduler.worker().execute(() ->
+		{
+			try
+			{
+				release.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		timer.touch();
+
+		assertTrue("Bulk work should not hold up the lock", locked.await(5, TimeUnit.SECONDS));
+		release.countDown();
+	}
+}
@@ -0,0 +1,146 @@
+package com.accountmanager;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for BreachCorpus.
+ * Validates lookups in a sorted hash list, including the ends of the prefix index and line formats.
+ */
+public class BreachCorpusTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String sha1Hex(String password) throws Exception
+	{
+		byte[] hash = MessageDigest.getInstance("SHA-1").digest(password.getBytes(StandardCharsets.UTF_8));
+		StringBuilder sb = new StringBuilder();
+		for (byte b : hash)
+		{
+			sb.append(String.format("%02X", b));
+		}
+		return sb.toString();
+	}
+
+	private Path corpus(List<String> lines, String separator) throws IOException
+	{
+		List<String> sorted = new ArrayList<>(lines);
+		sorted.sort(String.CASE_INSENSITIVE_ORDER);
+		Path file = folder.newFile("corpus.txt").toPath();
+		Files.write(file, (String.join(separator, sorted) + separator).getBytes(StandardCharsets.US_ASCII));
+		return file;
+	}
+
+	private static List<String> randomLines(int count)
+	{
+		Random random = new Random(42);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			StringBuilder sb = new StringBuilder();
+			for (int j = 0; j < 40; j++)
+			{
+				sb.append("0123456789ABCDEF".charAt(random.nextInt(16)));
+			}
+			lines.add(sb.append(':').append(1 + random.nextInt(1000)).toString());
+		}
+		return lines;
+	}
+
+	private static int count(BreachCorpus corpus, String password)
+	{
+		try (SecretBuffer buffer = SecretBuffer.of(password.toCharArray()))
+		{
+			return corpus.count(buffer);
+		}
+	}
+
+	// === Lookup Tests ===
+
+	@Test
+	public void testCount_findsBreachedPasswords() throws Exception
+	{
+		List<String> lines = randomLines(5000);
+		lines.add(sha1Hex("password") + ":9545824");
+		lines.add(sha1Hex("hunter2") + ":17043");
+
+		BreachCorpus corpus = BreachCorpus.open(corpus(lines, "\r\n"));
+
+		assertEquals(9545824, count(corpus, "password"));
+		assertEquals(17043, count(corpus, "hunter2"));
+		assertEquals(0, count(corpus, "correct horse battery staple"));
+	}
+
+	@Test
+	public void testCount_findsEveryLine() throws Exception
+	{
+		List<String> lines = randomLines(3000);
+		BreachCorpus corpus = BreachCorpus.open(corpus(lines, "\n"));
+
+		for (String line : lines)
+		{
+			String[] parts = line.split(":");
+			assertEquals(line, Integer.parseInt(parts[1]), corpus.count(hexToBytes(parts[0])));
+		}
+	}
+
+	@Test
+	public void testCount_firstAndLastPrefix() throws Exception
+	{
+		String first = "0000000000000000000000000000000000000000";
+		String last = "FFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFFF";
+		List<String> lines = randomLines(100);
+		lines.add(first + ":1");
+		lines.add(last + ":2");
+
+		BreachCorpus corpus = BreachCorpus.open(corpus(lines, "\n"));
+
+		assertEquals(1, corpus.count(hexToBytes(first)));
+		assertEquals(2, corpus.count(hexToBytes(last)));
+	}
+
+	@Test
+	public void testCount_lowercaseHashesWithoutCounts() throws Exception
+	{
+		List<String> lines = new ArrayList<>();
+		lines.add(sha1Hex("password").toLowerCase(Locale.ROOT));
+		lines.add(sha1Hex("letmein").toLowerCase(Locale.ROOT));
+
+		BreachCorpus corpus = BreachCorpus.open(corpus(lines, "\n"));
+
+		assertEquals(1, count(corpus, "password"));
+		assertEquals(1, count(corpus, "letmein"));
+	}
+
+	@Test
+	public void testCount_emptyFile() throws Exception
+	{
+		BreachCorpus corpus = BreachCorpus.open(folder.newFile("empty.txt").toPath());
+
+		assertEquals(0, count(corpus, "password"));
+	}
+
+	private static byte[] hexToBytes(String hex)
+	{
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,86 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import net.runelite.client.config.ConfigManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.nullable;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for ConfigVaultStore.
+ * Validates that the vault's writes reach ConfigManager in a form it accepts, e.g. removing a key instead of storing null.
+ */
+public class ConfigVaultStoreTest
+{
+	private static final String MASTER_PASSWORD = "MySecureMasterPassword123!";
+
+	private final Map<String, String> values = new ConcurrentHashMap<>();
+	private ConfigManager configManager;
+	private ConfigVaultStore store;
+	private SharedScheduler scheduler;
+
+	@Before
+	public void setUp()
+	{
+		// Behaves like RuneLite's ConfigManager, which throws on a null value
+		configManager = mock(ConfigManager.class);
+		when(configManager.getConfiguration(eq(AccountManagerConfig.CONFIG_GROUP), anyString()))
+			.thenAnswer(invocation -> values.get(invocation.<String>getArgument(1)));
+		doAnswer(invocation -> values.put(invocation.getArgument(1), Objects.requireNonNull(invocation.<String>getArgument(2))))
+			.when(configManager).setConfiguration(eq(AccountManagerConfig.CONFIG_GROUP), anyString(), nullable(String.class));
+		doAnswer(invocation -> values.remove(invocation.<String>getArgument(1)))
+			.when(configManager).unsetConfiguration(eq(AccountManagerConfig.CONFIG_GROUP), anyString());
+
+		store = new ConfigVaultStore(configManager);
+		scheduler = new SharedScheduler();
+	}
+
+	@After
+	public void tearDown()
+	{
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testSet_nullUnsetsKey()
+	{
+		store.set("history.a", "value");
+
+		store.set("history.a", null);
+
+		assertNull(store.get("history.a"));
+		verify(configManager).unsetConfiguration(AccountManagerConfig.CONFIG_GROUP, "history.a");
+	}
+
+	@Test
+	public void testDeleteAccount_savesThroughConfigManager()
+	{
+		Vault vault = new Vault(VaultManager.DEFAULT_VAULT_NAME, store, new VaultCodec(new Gson()), new PluginMetrics(), scheduler, () -> 30);
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account account = new Account();
+		account.setNickname("Main");
+		account.setEncryptedUsername(vault.getEncryptionService().encrypt("player@example.com"));
+		account.setEncryptedPassword(vault.getEncryptionService().encrypt("first"));
+		vault.addAccount(account);
+		Account changed = new Account(account.getId(), account.getNickname(), account.getEncryptedUsername(),
+			vault.getEncryptionService().encrypt("second"), null, account.getFields(), account.getCreated(), account.getVersion(), account.getDevice(), false);
+		vault.updateAccount(changed);
+
+		vault.deleteAccount(changed);
+
+		Vault reopened = new Vault(VaultManager.DEFAULT_VAULT_NAME, store, new VaultCodec(new Gson()), new PluginMetrics(), scheduler, () -> 30);
+		assertTrue(reopened.unlock(MASTER_PASSWORD.toCharArray()));
+		assertTrue(reopened.getAccounts().isEmpty());
+		assertFalse(values.containsKey(Vault.KEY_HISTORY_PREFIX + account.getId()));
+	}
+}
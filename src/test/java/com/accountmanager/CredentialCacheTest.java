@@ -0,0 +1,128 @@
+package com.accountmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for CredentialCache.
+ * Validates background decryption and that cached plaintext is wiped.
+ */
+public class CredentialCacheTest
+{
+	private static final String TEST_USERNAME = "player@example.com";
+	private static final String TEST_PASSWORD = "MyGamePassword456!";
+	private static final String TEST_TOTP_SECRET = "JBSWY3DPEHPK3PXP";
+
+	private EncryptionService encryptionService;
+	private ScheduledExecutorService executor;
+	private Account account;
+
+	@Before
+	public void setUp()
+	{
+		encryptionService = new EncryptionService("testMasterPassword123", EncryptionService.generateSalt());
+		executor = Executors.newSingleThreadScheduledExecutor();
+
+		account = new Account();
+		account.setId("test-id");
+		account.setNickname("Main");
+		account.setEncryptedUsername(encryptionService.encrypt(TEST_USERNAME));
+		account.setEncryptedPassword(encryptionService.encrypt(TEST_PASSWORD));
+		account.setEncryptedTotpSecret(encryptionService.encrypt(TEST_TOTP_SECRET));
+	}
+
+	@After
+	public void tearDown()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testGet_decryptsCredentials() throws Exception
+	{
+		CredentialCache cache = new CredentialCache(encryptionService, executor, () -> 30);
+
+		CredentialCache.Credentials credentials = cache.get(account).get(5, TimeUnit.SECONDS);
+
+		assertEquals(TEST_USERNAME, credentials.getUsername().asString());
+		assertEquals(TEST_PASSWORD, credentials.getPassword().asString());
+		assertEquals(TEST_TOTP_SECRET, credentials.getTotpSecret().asString());
+	}
+
+	@Test
+	public void testGet_reusesPrefetchedEntry() throws Exception
+	{
+		CredentialCache cache = new CredentialCache(encryptionService, executor, () -> 30);
+
+		cache.prefetch(account);
+		CredentialCache.Credentials first = cache.get(account).get(5, TimeUnit.SECONDS);
+		CredentialCache.Credentials second = cache.get(account).get(5, TimeUnit.SECONDS);
+
+		assertSame("Prefetched credentials should be reused", first, second);
+	}
+
+	@Test
+	public void testInvalidate_wipesCredentials() throws Exception
+	{
+		CredentialCache cache = new CredentialCache(encryptionService, executor, () -> 30);
+		CredentialCache.Credentials credentials = cache.get(account).get(5, TimeUnit.SECONDS);
+
+		cache.invalidate(account.getId());
+
+		assertNull("Wiped credentials should not be readable", credentials.read(c -> c));
+		assertTrue("Password buffer should be wiped", credentials.getPassword().isClosed());
+		assertNotSame(credentials, cache.get(account).get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testClear_wipesAllCredentials() throws Exception
+	{
+		CredentialCache cache = new CredentialCache(encryptionService, executor, () -> 30);
+		CredentialCache.Credentials credentials = cache.get(account).get(5, TimeUnit.SECONDS);
+
+		cache.clear();
+
+		assertNull(credentials.read(c -> c));
+		assertTrue("Username buffer should be wiped", credentials.getUsername().isClosed());
+	}
+
+	@Test
+	public void testExpiry_wipesCredentialsAfterTtl() throws Exception
+	{
+		CredentialCache cache = new CredentialCache(encryptionService, executor, () -> 0);
+		CredentialCache.Credentials credentials = cache.get(account).get(5, TimeUnit.SECONDS);
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (credentials.read(c -> c) != null && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+		}
+
+		assertNull("Expired credentials should be wiped", credentials.read(c -> c));
+	}
+
+	@Test
+	public void testGet_undecryptableAccountFails()
+	{
+		CredentialCache cache = new CredentialCache(encryptionService, executor, () -> 30);
+		EncryptionService otherService = new EncryptionService("differentPassword", EncryptionService.generateSalt());
+		account.setEncryptedPassword(otherService.encrypt(TEST_PASSWORD));
+
+		try
+		{
+			cache.get(account).get(5, TimeUnit.SECONDS);
+			fail("Should fail with the wrong key");
+		}
+		catch (Exception e)
+		{
+			// Expected
+		}
+	}
+}
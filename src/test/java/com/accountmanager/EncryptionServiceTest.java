@@ -7,7 +7,7 @@ import static org.junit.Assert.*;
 
 /**
  * Security tests for EncryptionService.
- * Validates AES-256-GCM encryption and PBKDF2 key derivation.
+ * Validates AES-256-GCM and ChaCha20-Poly1305 encryption and PBKDF2 key derivation.
  */
 public class EncryptionServiceTest
 {
@@ -268,6 +268,72 @@ public class EncryptionServiceTest
 		}
 	}
 
+	// === Cipher Suite Tests ===
+
+	@Test
+	public void testChaCha20Poly1305_roundTrip()
+	{
+		EncryptionService chacha = encryptionService.withCipherSuite(CipherSuite.CHACHA20_POLY1305);
+
+		String encrypted = chacha.encrypt(TEST_PLAINTEXT);
+
+		assertEquals(CipherSuite.CHACHA20_POLY1305, chacha.getCipherSuite());
+		assertEquals(TEST_PLAINTEXT, chacha.decrypt(encrypted));
+		try (SecretBuffer secret = chacha.decryptSecret(encrypted))
+		{
+			assertEquals(TEST_PLAINTEXT, secret.asString());
+		}
+	}
+
+	@Test
+	public void testCipherSuites_decryptEachOther()
+	{
+		EncryptionService chacha = encryptionService.withCipherSuite(CipherSuite.CHACHA20_POLY1305);
+
+		assertEquals(TEST_PLAINTEXT, encryptionService.decrypt(chacha.encrypt(TEST_PLAINTEXT)));
+		assertEquals(TEST_PLAINTEXT, chacha.decrypt(encryptionService.encrypt(TEST_PLAINTEXT)));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testChaCha20Poly1305_wrongKeyFails()
+	{
+		String encrypted = encryptionService.withCipherSuite(CipherSuite.CHACHA20_POLY1305).encrypt(TEST_PLAINTEXT);
+		EncryptionService other = new EncryptionService(TEST_PASSWORD, EncryptionService.generateSalt())
+			.withCipherSuite(CipherSuite.CHACHA20_POLY1305);
+
+		other.decrypt(encrypted);
+	}
+
+	@Test
+	public void testCipherSuite_subkeysDoNotDependOnSuite()
+	{
+		EncryptionService chacha = encryptionService.withCipherSuite(CipherSuite.CHACHA20_POLY1305);
+
+		assertArrayEquals(encryptionService.deriveSubkey("test").getEncoded(), chacha.deriveSubkey("test").getEncoded());
+	}
+
+	@Test
+	public void testCipherSuite_fromId()
+	{
+		assertEquals(CipherSuite.AES_GCM, CipherSuite.fromId(null));
+		assertEquals(CipherSuite.CHACHA20_POLY1305, CipherSuite.fromId("chacha20-poly1305"));
+		assertNotNull(CipherSuite.fastest());
+	}
+
+	@Test
+	public void testCipherSuite_fastestOrDefaultUsesMeasuredSuite()
+	{
+		assertNotNull(CipherSuite.fastestOrDefault());
+
+		assertEquals(CipherSuite.fastest(), CipherSuite.fastestOrDefault());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCipherSuite_unknownIdRejected()
+	{
+		CipherSuite.fromId("rot13");
+	}
+
 	// === Edge Cases ===
 
 	@Test(expected = RuntimeException.class)
@@ -0,0 +1,97 @@
+package com.accountmanager;
+
+import org.junit.Test;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Icons and IconAtlas.
+ * Validates icon sizes, per-scale atlases and the brightened hover variants.
+ */
+public class IconsTest
+{
+	// === Icon Tests ===
+
+	@Test
+	public void testImage_usesIconSize()
+	{
+		assertEquals(Icons.SIZE, Icons.ADD.image().getWidth());
+		assertEquals(32, Icons.LOCK.image().getWidth());
+	}
+
+	@Test
+	public void testIcon_reportsLogicalSize()
+	{
+		assertEquals(Icons.SIZE, Icons.EDIT.icon().getIconWidth());
+		assertEquals(32, Icons.LOCK.hoverIcon().getIconHeight());
+		assertSame(Icons.EDIT.icon(), Icons.EDIT.icon());
+	}
+
+	// === Atlas Tests ===
+
+	@Test
+	public void testForScale_cachesAtlasPerScale()
+	{
+		assertSame(IconAtlas.forScale(2.0), IconAtlas.forScale(2.0000001));
+		assertNotSame(IconAtlas.forScale(1.0), IconAtlas.forScale(2.0));
+		assertEquals(1.5, IconAtlas.forScale(1.5).getScale(), 0.0);
+	}
+
+	@Test
+	public void testGlyph_renderedAtDeviceResolution()
+	{
+		assertEquals(32, IconAtlas.forScale(2.0).glyph(Icons.ADD, false).getWidth());
+		assertEquals(64, IconAtlas.forScale(2.0).glyph(Icons.LOCK, true).getWidth());
+		assertEquals(24, IconAtlas.forScale(1.5).glyph(Icons.TOTP, false).getWidth());
+	}
+
+	@Test
+	public void testPaintIcon_copiesAtlasPixelsWithoutScaling()
+	{
+		BufferedImage target = new BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = target.createGraphics();
+		g.scale(2, 2);
+		Icon icon = Icons.DELETE.icon();
+		icon.paintIcon(null, g, 0, 0);
+		g.dispose();
+
+		BufferedImage glyph = IconAtlas.forScale(2.0).glyph(Icons.DELETE, false);
+		for (int y = 0; y < 32; y++)
+		{
+			for (int x = 0; x < 32; x++)
+			{
+				assertEquals(glyph.getRGB(x, y), target.getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void testHover_brightensColorAndKeepsAlpha()
+	{
+		IconAtlas atlas = IconAtlas.forScale(1.0);
+		BufferedImage normal = atlas.glyph(Icons.DELETE, false);
+		BufferedImage hover = atlas.glyph(Icons.DELETE, true);
+
+		for (int y = 0; y < normal.getHeight(); y++)
+		{
+			for (int x = 0; x < normal.getWidth(); x++)
+			{
+				int before = normal.getRGB(x, y);
+				int after = hover.getRGB(x, y);
+				assertEquals("Alpha should be unchanged", before >>> 24, after >>> 24);
+				if ((before >>> 24) != 0)
+				{
+					for (int shift = 0; shift < 24; shift += 8)
+					{
+						int expected = Math.min(255, ((before >> shift) & 0xff) + 50);
+						assertEquals(expected, (after >> shift) & 0xff);
+					}
+				}
+			}
+		}
+	}
+}
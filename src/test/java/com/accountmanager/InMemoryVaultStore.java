@@ -0,0 +1,37 @@
+package com.accountmanager;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stands in for RuneLite's ConfigManager when running the vault headless.
+ */
+class InMemoryVaultStore implements VaultStore
+{
+	private final Map<String, String> values = new ConcurrentHashMap<>();
+
+	@Override
+	public String get(String key)
+	{
+		return values.get(key);
+	}
+
+	@Override
+	public void set(String key, String value)
+	{
+		if (value == null)
+		{
+			values.remove(key);
+		}
+		else
+		{
+			values.put(key, value);
+		}
+	}
+
+	Set<String> keys()
+	{
+		return values.keySet();
+	}
+}
@@ -0,0 +1,94 @@
+package com.accountmanager;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for MerkleTree.
+ * Validates that incremental updates end at the same root as a full build and that order and count matter.
+ */
+public class MerkleTreeTest
+{
+	private static final Function<String, byte[]> UTF8 = s -> s.getBytes(StandardCharsets.UTF_8);
+
+	private static List<String> records(int count)
+	{
+		List<String> records = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			records.add("record-" + i);
+		}
+		return records;
+	}
+
+	// === Build Tests ===
+
+	@Test
+	public void testBuild_sameRecordsSameRoot()
+	{
+		assertArrayEquals(MerkleTree.build(records(10), UTF8).root(), MerkleTree.build(records(10), UTF8).root());
+	}
+
+	@Test
+	public void testBuild_orderChangesRoot()
+	{
+		List<String> reordered = records(10);
+		Collections.swap(reordered, 3, 7);
+
+		assertFalse(Arrays.equals(MerkleTree.build(records(10), UTF8).root(), MerkleTree.build(reordered, UTF8).root()));
+	}
+
+	@Test
+	public void testBuild_emptyTailChangesRoot()
+	{
+		// 3 records pad to 4 leaves; dropping the last must not look like the padded tree
+		List<String> three = records(3);
+		List<String> two = records(2);
+
+		assertFalse(Arrays.equals(MerkleTree.build(three, UTF8).root(), MerkleTree.build(two, UTF8).root()));
+		assertEquals(0, MerkleTree.build(new ArrayList<String>(), UTF8).size());
+	}
+
+	// === Update Tests ===
+
+	@Test
+	public void testSet_replaceMatchesFullBuild()
+	{
+		List<String> records = records(13);
+		MerkleTree tree = MerkleTree.build(records, UTF8);
+
+		records.set(5, "changed");
+		tree.set(5, UTF8.apply("changed"));
+
+		assertArrayEquals(MerkleTree.build(records, UTF8).root(), tree.root());
+	}
+
+	@Test
+	public void testSet_appendsGrowTheTree()
+	{
+		List<String> records = records(1);
+		MerkleTree tree = MerkleTree.build(records, UTF8);
+
+		for (int i = 1; i < 40; i++)
+		{
+			records.add("record-" + i);
+			tree.set(i, UTF8.apply("record-" + i));
+			assertArrayEquals(MerkleTree.build(records, UTF8).root(), tree.root());
+		}
+		assertEquals(40, tree.size());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testSet_gapRejected()
+	{
+		MerkleTree.build(records(4), UTF8).set(6, UTF8.apply("gap"));
+	}
+}
@@ -0,0 +1,114 @@
+package com.accountmanager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for PluginMetrics and LatencyHistogram.
+ * Validates bucket accuracy, percentiles and the summary output.
+ */
+public class PluginMetricsTest
+{
+	private PluginMetrics metrics;
+
+	@Before
+	public void setUp()
+	{
+		metrics = new PluginMetrics();
+	}
+
+	@Test
+	public void testBuckets_reportValuesWithinPrecision()
+	{
+		long[] values = {0, 1, 15, 16, 17, 1000, 123_456, 987_654_321L, Long.MAX_VALUE / 2};
+		for (long value : values)
+		{
+			long reported = LatencyHistogram.highestValueInBucket(LatencyHistogram.bucketIndex(value));
+			assertTrue("Reported value should not be below " + value, reported >= value);
+			assertTrue("Reported value should be within 6.25% of " + value, reported - value <= value / 16);
+		}
+	}
+
+	@Test
+	public void testBuckets_indexIsMonotonic()
+	{
+		int previous = -1;
+		for (long value = 0; value < 1_000_000; value += 7)
+		{
+			int index = LatencyHistogram.bucketIndex(value);
+			assertTrue(index >= previous);
+			previous = index;
+		}
+		assertTrue(LatencyHistogram.bucketIndex(Long.MAX_VALUE) < 64 * 16);
+	}
+
+	@Test
+	public void testSnapshot_percentiles()
+	{
+		for (int i = 1; i <= 100; i++)
+		{
+			metrics.recordNanos(PluginMetrics.DECRYPT, TimeUnit.MICROSECONDS.toNanos(i));
+		}
+
+		LatencyHistogram.Snapshot snapshot = metrics.getSnapshot(PluginMetrics.DECRYPT);
+		assertEquals(100, snapshot.count);
+		assertEquals(TimeUnit.MICROSECONDS.toNanos(50), snapshot.p50Nanos, TimeUnit.MICROSECONDS.toNanos(50) / 16.0);
+		assertEquals(TimeUnit.MICROSECONDS.toNanos(99), snapshot.p99Nanos, TimeUnit.MICROSECONDS.toNanos(99) / 16.0);
+		assertEquals(TimeUnit.MICROSECONDS.toNanos(100), snapshot.maxNanos);
+		assertTrue(snapshot.p99Nanos <= snapshot.maxNanos);
+	}
+
+	@Test
+	public void testTimed_recordsRunTime()
+	{
+		metrics.timed(PluginMetrics.CLIENT_THREAD_FILL, () -> { }).run();
+		metrics.timed(PluginMetrics.CLIENT_THREAD_FILL, () -> { }).run();
+
+		assertEquals(2, metrics.getSnapshot(PluginMetrics.CLIENT_THREAD_FILL).count);
+	}
+
+	@Test
+	public void testCounters_andReset()
+	{
+		metrics.increment(PluginMetrics.UNLOCK_SUCCESS);
+		metrics.increment(PluginMetrics.UNLOCK_SUCCESS);
+		metrics.recordNanos(PluginMetrics.KDF, 1000);
+		assertEquals(2, metrics.getCount(PluginMetrics.UNLOCK_SUCCESS));
+
+		metrics.reset();
+
+		assertEquals(0, metrics.getCount(PluginMetrics.UNLOCK_SUCCESS));
+		assertEquals(0, metrics.getSnapshot(PluginMetrics.KDF).count);
+	}
+
+	@Test
+	public void testServices_recordIntoMetrics()
+	{
+		EncryptionService encryptionService = new EncryptionService("testMasterPassword123", EncryptionService.generateSalt());
+		encryptionService.setMetrics(metrics);
+		TotpService totpService = new TotpService();
+		totpService.setMetrics(metrics);
+
+		encryptionService.decrypt(encryptionService.encrypt("secret"));
+		totpService.generateCode("JBSWY3DPEHPK3PXP");
+
+		assertEquals(1, metrics.getSnapshot(PluginMetrics.ENCRYPT).count);
+		assertEquals(1, metrics.getSnapshot(PluginMetrics.DECRYPT).count);
+		assertEquals(1, metrics.getSnapshot(PluginMetrics.TOTP_GENERATE).count);
+	}
+
+	@Test
+	public void testSummary_containsOnlyNamesAndNumbers()
+	{
+		metrics.recordNanos(PluginMetrics.FILL_LOGIN, 2_500_000);
+		metrics.increment(PluginMetrics.AUTO_LOCK);
+
+		String summary = metrics.summary();
+		assertTrue(summary.contains("fill.login n=1"));
+		assertTrue(summary.contains("autoLock = 1"));
+	}
+}
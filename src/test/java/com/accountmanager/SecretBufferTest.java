@@ -0,0 +1,140 @@
+package com.accountmanager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for SecretBuffer and the EncryptionService overloads that use it.
+ * Validates that secrets round-trip and are wiped on close.
+ */
+public class SecretBufferTest
+{
+	private static final String TEST_SECRET = "MyGamePassword456!";
+
+	private EncryptionService encryptionService;
+
+	@Before
+	public void setUp()
+	{
+		encryptionService = new EncryptionService("testMasterPassword123".toCharArray(), EncryptionService.generateSalt());
+	}
+
+	@Test
+	public void testOf_roundTripsChars()
+	{
+		try (SecretBuffer secret = SecretBuffer.of(TEST_SECRET.toCharArray()))
+		{
+			assertArrayEquals(TEST_SECRET.toCharArray(), secret.toChars());
+			assertEquals(TEST_SECRET.length(), secret.length());
+		}
+	}
+
+	@Test
+	public void testOf_handlesUnicode()
+	{
+		String unicode = "pässwörd-密码";
+		try (SecretBuffer secret = SecretBuffer.of(unicode.toCharArray()))
+		{
+			assertEquals(unicode, secret.asString());
+		}
+	}
+
+	@Test
+	public void testClose_wipesBufferAndBlocksAccess()
+	{
+		SecretBuffer secret = SecretBuffer.of(TEST_SECRET.toCharArray());
+		ByteBuffer view = secret.view();
+
+		secret.close();
+
+		assertTrue(secret.isClosed());
+		for (int i = 0; i < view.limit(); i++)
+		{
+			assertEquals("Buffer should be zeroed", 0, view.get(i));
+		}
+
+		try
+		{
+			secret.toChars();
+			fail("Reading a closed secret should fail");
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+	}
+
+	@Test
+	public void testToString_doesNotRevealSecret()
+	{
+		try (SecretBuffer secret = SecretBuffer.of(TEST_SECRET.toCharArray()))
+		{
+			assertFalse(secret.toString().contains(TEST_SECRET));
+		}
+	}
+
+	@Test
+	public void testContentEquals()
+	{
+		try (SecretBuffer a = SecretBuffer.of("secret".toCharArray());
+			SecretBuffer b = SecretBuffer.of("secret".toCharArray());
+			SecretBuffer c = SecretBuffer.of("secreT".toCharArray());
+			SecretBuffer d = SecretBuffer.of("secrets".toCharArray()))
+		{
+			assertTrue(a.contentEquals(b));
+			assertFalse(a.contentEquals(c));
+			assertFalse(a.contentEquals(d));
+		}
+	}
+
+	@Test
+	public void testEncryptDecryptSecret_roundTrip()
+	{
+		String encrypted;
+		try (SecretBuffer secret = SecretBuffer.of(TEST_SECRET.toCharArray()))
+		{
+			encrypted = encryptionService.encrypt(secret);
+		}
+
+		try (SecretBuffer decrypted = encryptionService.decryptSecret(encrypted))
+		{
+			assertEquals(TEST_SECRET, decrypted.asString());
+		}
+	}
+
+	@Test
+	public void testSecretOverloads_interoperateWithStringApi()
+	{
+		String encrypted = encryptionService.encrypt(TEST_SECRET);
+		try (SecretBuffer decrypted = encryptionService.decryptSecret(encrypted))
+		{
+			assertEquals(TEST_SECRET, decrypted.asString());
+		}
+
+		try (SecretBuffer secret = SecretBuffer.of(TEST_SECRET.toCharArray()))
+		{
+			assertEquals(TEST_SECRET, encryptionService.decrypt(encryptionService.encrypt(secret)));
+		}
+	}
+
+	@Test
+	public void testCharConstructor_derivesSameKeyAsString()
+	{
+		String salt = EncryptionService.generateSalt();
+		EncryptionService fromString = new EncryptionService("samePassword", salt);
+		EncryptionService fromChars = new EncryptionService("samePassword".toCharArray(), salt);
+
+		assertEquals(TEST_SECRET, fromChars.decrypt(fromString.encrypt(TEST_SECRET)));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testDecryptSecret_wrongKeyFails()
+	{
+		EncryptionService other = new EncryptionService("differentPassword".toCharArray(), EncryptionService.generateSalt());
+		encryptionService.decryptSecret(other.encrypt(TEST_SECRET));
+	}
+}
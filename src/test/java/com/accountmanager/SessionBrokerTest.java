@@ -0,0 +1,255 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for SessionBroker.
+ * Validates sharing vault keys and locks between instances over loopback and rejecting instances without the token.
+ */
+public class SessionBrokerTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<SessionBroker> brokers = new ArrayList<>();
+	private ScheduledExecutorService executor;
+	private int port;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		executor = new ScheduledThreadPoolExecutor(2);
+		try (ServerSocket socket = new ServerSocket(0))
+		{
+			port = socket.getLocalPort();
+		}
+	}
+
+	@After
+	public void tearDown()
+	{
+		brokers.forEach(SessionBroker::stop);
+		executor.shutdownNow();
+	}
+
+	// === Token Tests ===
+
+	@Test
+	public void testToken_createdOnceAndReused() throws IOException
+	{
+		File tokenFile = new File(folder.getRoot(), "account-manager/session.token");
+
+		byte[] first = SessionBroker.readOrCreateToken(tokenFile);
+		byte[] second = SessionBroker.readOrCreateToken(tokenFile);
+
+		assertEquals(32, first.length);
+		assertArrayEquals(first, second);
+	}
+
+	// === Sharing Tests ===
+
+	@Test
+	public void testPublish_joinedInstanceReceivesVault() throws Exception
+	{
+		File tokenFile = new File(folder.getRoot(), "session.token");
+		RecordingListener hostEvents = new RecordingListener();
+		RecordingListener joinedEvents = new RecordingListener();
+		SessionBroker host = start(tokenFile, hostEvents);
+		awaitHosting(host);
+		SessionBroker joined = start(tokenFile, joinedEvents);
+		assertNotNull(joinedEvents.connected.poll(5, TimeUnit.SECONDS));
+
+		host.publish(sharedVault("Alts", new byte[]{1, 2, 3}));
+
+		SharedCopy received = joinedEvents.shared.poll(5, TimeUnit.SECONDS);
+		assertNotNull(received);
+		assertEquals("Alts", received.name);
+		assertArrayEquals(new byte[]{1, 2, 3}, received.key);
+		assertEquals("salt-value", received.records.get(Vault.KEY_SALT));
+		assertFalse(joined.isHosting());
+	}
+
+	@Test
+	public void testPublish_hostReceivesVaultFromJoinedInstance() throws Exception
+	{
+		File tokenFile = new File(folder.getRoot(), "session.token");
+		RecordingListener hostEvents = new RecordingListener();
+		RecordingListener joinedEvents = new RecordingListener();
+		awaitHosting(start(tokenFile, hostEvents));
+		SessionBroker joined = start(tokenFile, joinedEvents);
+		assertNotNull(joinedEvents.connected.poll(5, TimeUnit.SECONDS));
+
+		joined.publish(sharedVault("Default", new byte[]{9, 8, 7}));
+
+		SharedCopy received = hostEvents.shared.poll(5, TimeUnit.SECONDS);
+		assertNotNull(received);
+		assertArrayEquals(new byte[]{9, 8, 7}, received.key);
+	}
+
+	@Test
+	public void testJoin_receivesVaultsSharedBeforeJoining() throws Exception
+	{
+		File tokenFile = new File(folder.getRoot(), "session.token");
+		SessionBroker host = start(tokenFile, new RecordingListener());
+		awaitHosting(host);
+		host.publish(sharedVault("Default", new byte[]{4, 5, 6}));
+
+		RecordingListener joinedEvents = new RecordingListener();
+		start(tokenFile, joinedEvents);
+
+		SharedCopy received = joinedEvents.shared.poll(5, TimeUnit.SECONDS);
+		assertNotNull(received);
+		assertArrayEquals(new byte[]{4, 5, 6}, received.key);
+	}
+
+	@Test
+	public void testLock_relayedToOtherInstances() throws Exception
+	{
+		File tokenFile = new File(folder.getRoot(), "session.token");
+		RecordingListener hostEvents = new RecordingListener();
+		awaitHosting(start(tokenFile, hostEvents));
+		RecordingListener joinedEvents = new RecordingListener();
+		SessionBroker joined = start(tokenFile, joinedEvents);
+		assertNotNull(joinedEvents.connected.poll(5, TimeUnit.SECONDS));
+
+		joined.lock("Alts");
+
+		assertEquals("Alts", hostEvents.locked.poll(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testLocked_autoLockedHostForgetsKeyForLaterJoins() throws Exception
+	{
+		File tokenFile = new File(folder.getRoot(), "session.token");
+		SessionBroker host = start(tokenFile, new RecordingListener());
+		awaitHosting(host);
+		host.publish(sharedVault("Default", new byte[]{4, 5, 6}));
+
+		host.locked("Default", "auto-lock");
+		RecordingListener joinedEvents = new RecordingListener();
+		start(tokenFile, joinedEvents);
+
+		assertNotNull(joinedEvents.connected.poll(5, TimeUnit.SECONDS));
+		assertNull(joinedEvents.shared.poll(500, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testLocked_lockFromOtherInstanceNotSentBack() throws Exception
+	{
+		File tokenFile = new File(folder.getRoot(), "session.token");
+		RecordingListener hostEvents = new RecordingListener();
+		awaitHosting(start(tokenFile, hostEvents));
+		RecordingListener joinedEvents = new RecordingListener();
+		SessionBroker joined = start(tokenFile, joinedEvents);
+		assertNotNull(joinedEvents.connected.poll(5, TimeUnit.SECONDS));
+
+		joined.locked("Alts", SessionBroker.LOCK_REASON);
+		joined.locked("Default", "auto-lock");
+
+		assertEquals("Default", hostEvents.locked.poll(5, TimeUnit.SECONDS));
+		assertNull(hostEvents.locked.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	// === Authentication Tests ===
+
+	@Test
+	public void testJoin_wrongTokenRejected() throws Exception
+	{
+		RecordingListener hostEvents = new RecordingListener();
+		SessionBroker host = start(new File(folder.getRoot(), "host.token"), hostEvents);
+		awaitHosting(host);
+		host.publish(sharedVault("Default", new byte[]{1}));
+
+		RecordingListener strangerEvents = new RecordingListener();
+		SessionBroker stranger = start(new File(folder.getRoot(), "stranger.token"), strangerEvents);
+		stranger.publish(sharedVault("Default", new byte[]{2}));
+
+		assertNull(strangerEvents.connected.poll(1, TimeUnit.SECONDS));
+		assertNull(strangerEvents.shared.poll(100, TimeUnit.MILLISECONDS));
+		assertNull(hostEvents.shared.poll(100, TimeUnit.MILLISECONDS));
+		assertFalse(stranger.isConnected());
+	}
+
+	private SessionBroker start(File tokenFile, RecordingListener listener)
+	{
+		SessionBroker broker = new SessionBroker(tokenFile, port, new Gson(), executor, listener);
+		brokers.add(broker);
+		broker.start();
+		return broker;
+	}
+
+	private static void awaitHosting(SessionBroker broker) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!broker.isHosting())
+		{
+			assertTrue("Broker did not start hosting", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private static SessionBroker.SharedVault sharedVault(String name, byte[] key)
+	{
+		return new SessionBroker.SharedVault(name, Collections.singletonMap(Vault.KEY_SALT, "salt-value"), key);
+	}
+
+	private static class SharedCopy
+	{
+		private final String name;
+		private final Map<String, String> records;
+		private final byte[] key;
+
+		private SharedCopy(SessionBroker.SharedVault vault)
+		{
+			this.name = vault.getName();
+			this.records = vault.getRecords();
+			this.key = vault.getKey().clone();
+		}
+	}
+
+	private static class RecordingListener implements SessionBroker.Listener
+	{
+		private final BlockingQueue<SharedCopy> shared = new LinkedBlockingQueue<>();
+		private final BlockingQueue<String> locked = new LinkedBlockingQueue<>();
+		private final BlockingQueue<Boolean> connected = new LinkedBlockingQueue<>();
+
+		@Override
+		public void onShared(SessionBroker.SharedVault vault)
+		{
+			// The key is wiped once this returns
+			shared.add(new SharedCopy(vault));
+		}
+
+		@Override
+		public void onLocked(String vaultName)
+		{
+			locked.add(vaultName);
+		}
+
+		@Override
+		public void onConnected()
+		{
+			connected.add(true);
+		}
+	}
+}
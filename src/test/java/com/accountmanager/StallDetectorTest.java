@@ -0,0 +1,79 @@
+package com.accountmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for StallDetector.
+ * Validates that watched tasks are timed and that only tasks over budget count as stalls.
+ */
+public class StallDetectorTest
+{
+	private SharedScheduler scheduler;
+	private PluginMetrics metrics;
+	private StallDetector detector;
+
+	@Before
+	public void setUp()
+	{
+		scheduler = new SharedScheduler();
+		metrics = new PluginMetrics();
+		detector = new StallDetector(scheduler, metrics);
+		detector.setBudget(() -> 50);
+	}
+
+	@After
+	public void tearDown()
+	{
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void testWatch_fastTaskIsNotAStall()
+	{
+		try (StallDetector.Watch ignored = detector.watch(PluginMetrics.EDT_REBUILD))
+		{
+			// Nothing to do
+		}
+
+		assertEquals(1, metrics.getSnapshot(PluginMetrics.EDT_REBUILD).count);
+		assertEquals(0, metrics.getCount(PluginMetrics.stallCounter(PluginMetrics.EDT_REBUILD)));
+	}
+
+	@Test
+	public void testWatch_slowTaskCountsOneStall() throws Exception
+	{
+		try (StallDetector.Watch ignored = detector.watch(PluginMetrics.EDT_UNLOCK))
+		{
+			Thread.sleep(200);
+		}
+
+		assertEquals(1, metrics.getCount(PluginMetrics.stallCounter(PluginMetrics.EDT_UNLOCK)));
+		assertTrue(metrics.getSnapshot(PluginMetrics.EDT_UNLOCK).maxNanos >= 200_000_000L);
+	}
+
+	@Test
+	public void testWatched_timesEveryRun()
+	{
+		Runnable task = detector.watched(PluginMetrics.CLIENT_THREAD_FILL, () -> { });
+
+		task.run();
+		task.run();
+
+		assertEquals(2, metrics.getSnapshot(PluginMetrics.CLIENT_THREAD_FILL).count);
+	}
+
+	@Test
+	public void testClose_twiceRecordsOnce()
+	{
+		StallDetector.Watch watch = detector.watch(PluginMetrics.EDT_DIALOG_SAVE);
+
+		watch.close();
+		watch.close();
+
+		assertEquals(1, metrics.getSnapshot(PluginMetrics.EDT_DIALOG_SAVE).count);
+	}
+}
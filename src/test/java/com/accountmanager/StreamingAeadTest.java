@@ -0,0 +1,225 @@
+package com.accountmanager;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for StreamingAead.
+ * Validates round trips around chunk boundaries, random access, and that truncated, reordered or rebound values fail.
+ */
+public class StreamingAeadTest
+{
+	private static final int CHUNK_SIZE = 64;
+	private static final byte[] METADATA = "metadata".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] ASSOCIATED = "account/attachment".getBytes(StandardCharsets.UTF_8);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private int files;
+
+	private static SecretKey key()
+	{
+		byte[] raw = new byte[32];
+		new Random(1).nextBytes(raw);
+		return new SecretKeySpec(raw, "HmacSHA256");
+	}
+
+	private static byte[] plaintext(int length)
+	{
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	private Path encrypt(StreamingAead aead, byte[] plaintext) throws IOException
+	{
+		Path file = folder.newFile("value" + files++).toPath();
+		try (FileChannel target = FileChannel.open(file, StandardOpenOption.WRITE))
+		{
+			long size = aead.encrypt(Channels.newChannel(new ByteArrayInputStream(plaintext)), target, METADATA, ASSOCIATED);
+			assertEquals(plaintext.length, size);
+		}
+		return file;
+	}
+
+	private static byte[] decrypt(StreamingAead aead, Path file, byte[] associated) throws IOException
+	{
+		try (StreamingAead.Reader reader = aead.open(FileChannel.open(file, StandardOpenOption.READ), associated))
+		{
+			ByteBuffer plaintext = ByteBuffer.allocate((int) reader.size());
+			// A small buffer, so reads span chunks
+			ByteBuffer buffer = ByteBuffer.allocate(25);
+			while (reader.read(buffer) >= 0)
+			{
+				buffer.flip();
+				plaintext.put(buffer);
+				buffer.clear();
+			}
+			return plaintext.array();
+		}
+	}
+
+	// === Round Trip Tests ===
+
+	@Test
+	public void testRoundTrip_aroundChunkBoundaries() throws IOException
+	{
+		StreamingAead aead = new StreamingAead(key(), CipherSuite.AES_GCM, CHUNK_SIZE);
+		for (int length : new int[]{0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, CHUNK_SIZE * 3, CHUNK_SIZE * 3 + 17})
+		{
+			byte[] plaintext = plaintext(length);
+			assertArrayEquals("length " + length, plaintext, decrypt(aead, encrypt(aead, plaintext), ASSOCIATED));
+		}
+	}
+
+	@Test
+	public void testRoundTrip_readsWithTheStoredSuite() throws IOException
+	{
+		byte[] plaintext = plaintext(CHUNK_SIZE * 2 + 5);
+		Path file = encrypt(new StreamingAead(key(), CipherSuite.CHACHA20_POLY1305, CHUNK_SIZE), plaintext);
+
+		// Written after the vault switched suites, read by a service on the other one
+		StreamingAead other = new StreamingAead(key(), CipherSuite.AES_GCM);
+		assertArrayEquals(plaintext, decrypt(other, file, ASSOCIATED));
+	}
+
+	@Test
+	public void testOpen_metadataAndSize() throws IOException
+	{
+		StreamingAead aead = new StreamingAead(key(), CipherSuite.AES_GCM, CHUNK_SIZE);
+		Path file = encrypt(aead, plaintext(CHUNK_SIZE * 2 + 1));
+
+		try (StreamingAead.Reader reader = aead.open(FileChannel.open(file, StandardOpenOption.READ), ASSOCIATED))
+		{
+			assertArrayEquals(METADATA, reader.getMetadata());
+			assertEquals(CHUNK_SIZE * 2 + 1, reader.size());
+			assertEquals(3, reader.getChunkCount());
+		}
+	}
+
+	// === Random Access Tests ===
+
+	@Test
+	public void testPosition_readsFromAnyOffset() throws IOException
+	{
+		StreamingAead aead = new StreamingAead(key(), CipherSuite.AES_GCM, CHUNK_SIZE);
+		byte[] plaintext = plaintext(CHUNK_SIZE * 5);
+		Path file = encrypt(aead, plaintext);
+
+		try (StreamingAead.Reader reader = aead.open(FileChannel.open(file, StandardOpenOption.READ), ASSOCIATED))
+		{
+			for (int offset : new int[]{CHUNK_SIZE * 3 + 7, 2, CHUNK_SIZE * 5 - 1})
+			{
+				ByteBuffer buffer = ByteBuffer.allocate(1);
+				assertEquals(1, reader.position(offset).read(buffer));
+				assertEquals(plaintext[offset], buffer.get(0));
+			}
+			assertEquals(-1, reader.position(CHUNK_SIZE * 5).read(ByteBuffer.allocate(1)));
+		}
+	}
+
+	@Test
+	public void testReadChunk_singleChunk() throws IOException
+	{
+		StreamingAead aead = new StreamingAead(key(), CipherSuite.AES_GCM, CHUNK_SIZE);
+		byte[] plaintext = plaintext(CHUNK_SIZE * 2 + 9);
+		Path file = encrypt(aead, plaintext);
+
+		try (StreamingAead.Reader reader = aead.open(FileChannel.open(file, StandardOpenOption.READ), ASSOCIATED))
+		{
+			ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+			assertEquals(9, reader.readChunk(2, chunk));
+			assertArrayEquals(Arrays.copyOfRange(plaintext, CHUNK_SIZE * 2, plaintext.length),
+				Arrays.copyOf(chunk.array(), 9));
+		}
+	}
+
+	// === Tampering Tests ===
+
+	@Test
+	public void testOpen_truncatedAtChunkBoundaryFails() throws IOException
+	{
+		StreamingAead aead = new StreamingAead(key(), CipherSuite.AES_GCM, CHUNK_SIZE);
+		Path file = encrypt(aead, plaintext(CHUNK_SIZE * 3));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE))
+		{
+			// Drop the last chunk; the one before it was not sealed as the last
+			channel.truncate(channel.size() - CHUNK_SIZE - CipherSuite.TAG_LENGTH);
+		}
+
+		try
+		{
+			decrypt(aead, file, ASSOCIATED);
+			fail("Truncated value decrypted");
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getMessage().contains("authentication"));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testOpen_swappedChunksFail() throws IOException
+	{
+		StreamingAead aead = new StreamingAead(key(), CipherSuite.AES_GCM, CHUNK_SIZE);
+		Path file = encrypt(aead, plaintext(CHUNK_SIZE * 3));
+		byte[] data = Files.readAllBytes(file);
+		int sealed = CHUNK_SIZE + CipherSuite.TAG_LENGTH;
+		int first = data.length - sealed * 3;
+		byte[] chunk = Arrays.copyOfRange(data, first, first + sealed);
+		System.arraycopy(data, first + sealed, data, first, sealed);
+		System.arraycopy(chunk, 0, data, first + sealed, sealed);
+		Files.write(file, data);
+
+		decrypt(aead, file, ASSOCIATED);
+	}
+
+	@Test(expected = IOException.class)
+	public void testOpen_otherAssociatedDataFails() throws IOException
+	{
+		StreamingAead aead = new StreamingAead(key(), CipherSuite.AES_GCM, CHUNK_SIZE);
+		Path file = encrypt(aead, plaintext(10));
+
+		decrypt(aead, file, "other/attachment".getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test(expected = IOException.class)
+	public void testOpen_changedMetadataFails() throws IOException
+	{
+		StreamingAead aead = new StreamingAead(key(), CipherSuite.AES_GCM, CHUNK_SIZE);
+		byte[] data = Files.readAllBytes(encrypt(aead, plaintext(10)));
+		// The metadata's last byte sits just before the single chunk
+		data[data.length - 10 - CipherSuite.TAG_LENGTH - 1] ^= 1;
+		Path file = folder.newFile("tampered").toPath();
+		Files.write(file, data);
+
+		decrypt(aead, file, ASSOCIATED);
+	}
+
+	@Test(expected = IOException.class)
+	public void testOpen_notAnEncryptedValue() throws IOException
+	{
+		Path file = folder.newFile("plain").toPath();
+		Files.write(file, plaintext(200));
+
+		new StreamingAead(key(), CipherSuite.AES_GCM).open(FileChannel.open(file, StandardOpenOption.READ), ASSOCIATED);
+	}
+}
@@ -0,0 +1,63 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Writes a vault of generated accounts straight into a store, as if they had been added one by one.
+ */
+class SyntheticVault
+{
+	private static final String BASE32_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+	private SyntheticVault()
+	{
+	}
+
+	/**
+	 * @param totpRatio share of accounts with a TOTP secret, from 0 to 1
+	 */
+	static void generate(VaultStore store, String masterPassword, int accountCount, double totpRatio)
+	{
+		String salt = EncryptionService.generateSalt();
+		EncryptionService encryption = new EncryptionService(masterPassword, salt);
+
+		List<Account> accounts = IntStream.range(0, accountCount)
+			.parallel()
+			.mapToObj(i -> newAccount(encryption, i, i % 100 < Math.round(totpRatio * 100)))
+			.collect(Collectors.toList());
+
+		VaultCodec codec = new VaultCodec(new Gson());
+		store.set(Vault.KEY_SALT, salt);
+		store.set(Vault.KEY_VERIFICATION, encryption.encrypt(Vault.VERIFICATION_STRING));
+		accounts.stream()
+			.collect(Collectors.groupingBy(account -> Vault.shardOf(account.getId())))
+			.forEach((shard, records) -> store.set(Vault.shardKey(shard), codec.encode(records)));
+	}
+
+	static Account newAccount(EncryptionService encryption, int n, boolean withTotp)
+	{
+		return new Account(
+			UUID.randomUUID().toString(),
+			"Account " + n,
+			encryption.encrypt("player" + n + "@example.com"),
+			encryption.encrypt("Password-" + n + "-" + UUID.randomUUID()),
+			withTotp ? encryption.encrypt(randomTotpSecret(ThreadLocalRandom.current())) : null,
+			null, n + 1, 1, null, false);
+	}
+
+	private static String randomTotpSecret(ThreadLocalRandom random)
+	{
+		char[] secret = new char[32];
+		for (int i = 0; i < secret.length; i++)
+		{
+			secret[i] = BASE32_CHARS.charAt(random.nextInt(BASE32_CHARS.length()));
+		}
+		return new String(secret);
+	}
+}
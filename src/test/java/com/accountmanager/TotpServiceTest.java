@@ -99,6 +99,21 @@ public class TotpServiceTest
 		assertEquals(6, code1.length());
 	}
 
+	@Test
+	public void testIsValidSecret_acceptsPaddedBase32()
+	{
+		assertTrue(TotpService.isValidSecret("JBSWY3DPEHPK3PXP====".toCharArray()));
+	}
+
+	@Test
+	public void testIsValidSecret_rejectsUnusableSecrets()
+	{
+		assertFalse("Not Base32", TotpService.isValidSecret("JBSWY3DP1HPK3PXP".toCharArray()));
+		assertFalse("Padding before data", TotpService.isValidSecret("==JBSWY3DP".toCharArray()));
+		assertFalse("Decodes to no key", TotpService.isValidSecret("J".toCharArray()));
+		assertFalse("Empty", TotpService.isValidSecret(new char[0]));
+	}
+
 	// === Time Window Tests ===
 
 	@Test
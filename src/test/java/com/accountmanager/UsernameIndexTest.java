@@ -0,0 +1,197 @@
+package com.accountmanager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for UsernameIndex.
+ * Validates blind-index lookups, lazily filled shards and that the index stays in sync with mutations.
+ */
+public class UsernameIndexTest
+{
+	private static final String TEST_PASSWORD = "testMasterPassword123";
+
+	private EncryptionService encryptionService;
+	private UsernameIndex index;
+
+	@Before
+	public void setUp()
+	{
+		encryptionService = new EncryptionService(TEST_PASSWORD, EncryptionService.generateSalt());
+		index = new UsernameIndex(encryptionService);
+	}
+
+	private Account account(String id, String username)
+	{
+		Account account = new Account();
+		account.setId(id);
+		account.setNickname(id);
+		account.setEncryptedUsername(encryptionService.encrypt(username));
+		account.setEncryptedPassword(encryptionService.encrypt("password"));
+		return account;
+	}
+
+	@Test
+	public void testFind_returnsIndexedAccount()
+	{
+		Account account = account("a", "player@example.com");
+		index.put(account);
+
+		assertSame(account, index.find("player@example.com"));
+		assertNull(index.find("other@example.com"));
+	}
+
+	@Test
+	public void testFind_isCaseAndWhitespaceInsensitive()
+	{
+		Account account = account("a", "Player@Example.com");
+		index.put(account);
+
+		assertSame(account, index.find("  player@example.COM "));
+	}
+
+	@Test
+	public void testPut_updatedUsernameReplacesOldEntry()
+	{
+		Account account = account("a", "old@example.com");
+		index.put(account);
+
+		account.setEncryptedUsername(encryptionService.encrypt("new@example.com"));
+		index.put(account);
+
+		assertNull("Old username should no longer be indexed", index.find("old@example.com"));
+		assertSame(account, index.find("new@example.com"));
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	public void testRemove_dropsEntry()
+	{
+		Account account = account("a", "player@example.com");
+		index.put(account);
+		index.remove("a");
+
+		assertNull(index.find("player@example.com"));
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	public void testRemove_keepsOtherAccountWithSameUsername()
+	{
+		Account first = account("a", "player@example.com");
+		Account second = account("b", "Player@example.com");
+		index.put(first);
+		index.put(second);
+
+		assertSame(first, index.find("player@example.com"));
+		index.remove("a");
+
+		assertSame(second, index.find("player@example.com"));
+		index.remove("b");
+		assertNull(index.find("player@example.com"));
+	}
+
+	@Test
+	public void testPut_changedUsernameKeepsOtherAccountWithOldUsername()
+	{
+		Account first = account("a", "player@example.com");
+		Account second = account("b", "player@example.com");
+		index.put(first);
+		index.put(second);
+
+		index.put(account("a", "renamed@example.com"));
+
+		assertSame(second, index.find("player@example.com"));
+		assertEquals("a", index.find("renamed@example.com").getId());
+	}
+
+	@Test
+	public void testRebuild_indexesAllAccounts()
+	{
+		List<Account> accounts = new ArrayList<>();
+		for (int i = 0; i < 50; i++)
+		{
+			accounts.add(account("id" + i, "user" + i + "@example.com"));
+		}
+
+		index.rebuild(accounts);
+
+		assertEquals(50, index.size());
+		for (int i = 0; i < 50; i++)
+		{
+			assertSame(accounts.get(i), index.find("user" + i + "@example.com"));
+		}
+	}
+
+	@Test
+	public void testRebuild_skipsUndecryptableAccounts()
+	{
+		EncryptionService otherService = new EncryptionService("differentPassword", EncryptionService.generateSalt());
+		Account broken = account("broken", "ignored");
+		broken.setEncryptedUsername(otherService.encrypt("someone@example.com"));
+
+		List<Account> accounts = new ArrayList<>();
+		accounts.add(account("a", "player@example.com"));
+		accounts.add(broken);
+
+		index.rebuild(accounts);
+
+		assertEquals(1, index.size());
+		assertNotNull(index.find("player@example.com"));
+	}
+
+	// === Lazy Fill Tests ===
+
+	@Test
+	public void testRebuildLazily_decryptsNothingUntilFirstLookup()
+	{
+		List<Account> accounts = new ArrayList<>();
+		for (int i = 0; i < 50; i++)
+		{
+			accounts.add(account("id" + i, "user" + i + "@example.com"));
+		}
+
+		index.rebuildLazily(() -> accounts);
+		assertFalse(index.isBuilt());
+
+		assertSame(accounts.get(7), index.find("user7@example.com"));
+		assertTrue(index.isBuilt());
+	}
+
+	@Test
+	public void testRebuildLazily_changesBeforeFillingAreIncluded()
+	{
+		List<Account> accounts = new ArrayList<>();
+		accounts.add(account("a", "player@example.com"));
+		index.rebuildLazily(() -> accounts);
+
+		// As the vault does: change the accounts first, then the index
+		Account added = account("b", "added@example.com");
+		accounts.add(added);
+		index.put(added);
+		accounts.remove(0);
+		index.remove("a");
+
+		assertSame(added, index.find("added@example.com"));
+		assertNull(index.find("player@example.com"));
+		assertEquals(1, index.size());
+	}
+
+	@Test
+	public void testClear_emptiesForGood()
+	{
+		List<Account> accounts = new ArrayList<>();
+		accounts.add(account("a", "player@example.com"));
+		index.rebuildLazily(() -> accounts);
+
+		index.clear();
+
+		assertNull(index.find("player@example.com"));
+		assertEquals(0, index.size());
+	}
+}
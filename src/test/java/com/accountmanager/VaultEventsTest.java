@@ -0,0 +1,121 @@
+package com.accountmanager;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the JFR instrumentation.
+ * Validates that the bundled settings profile records every event type with its fields.
+ */
+public class VaultEventsTest
+{
+	private static Configuration loadProfile() throws Exception
+	{
+		try (Reader reader = new InputStreamReader(
+			VaultEventsTest.class.getResourceAsStream("account-manager.jfc"), StandardCharsets.UTF_8))
+		{
+			return Configuration.create(reader);
+		}
+	}
+
+	@Test
+	public void testProfile_enablesAllEvents() throws Exception
+	{
+		Configuration configuration = loadProfile();
+
+		assertEquals("true", configuration.getSettings().get("com.accountmanager.VaultUnlock#enabled"));
+		assertEquals("true", configuration.getSettings().get("com.accountmanager.VaultKeyDerivation#enabled"));
+		assertEquals("true", configuration.getSettings().get("com.accountmanager.VaultLoad#enabled"));
+		assertEquals("true", configuration.getSettings().get("com.accountmanager.VaultSave#enabled"));
+		assertEquals("true", configuration.getSettings().get("com.accountmanager.VaultLock#enabled"));
+		assertEquals("true", configuration.getSettings().get("com.accountmanager.CredentialFill#enabled"));
+		assertEquals("true", configuration.getSettings().get("com.accountmanager.VaultImport#enabled"));
+		assertEquals("true", configuration.getSettings().get("com.accountmanager.VaultRekey#enabled"));
+	}
+
+	@Test
+	public void testEvents_areRecordedWithFields() throws Exception
+	{
+		Path file = Files.createTempFile("account-manager", ".jfr");
+		try (Recording recording = new Recording(loadProfile()))
+		{
+			recording.start();
+
+			try (VaultEvents.Scope unlock = VaultEvents.begin(VaultEvents.Type.UNLOCK))
+			{
+				try (VaultEvents.Scope ignored = VaultEvents.begin(VaultEvents.Type.KDF))
+				{
+					// Key derivation
+				}
+				try (VaultEvents.Scope load = VaultEvents.begin(VaultEvents.Type.LOAD))
+				{
+					load.accountCount(3).bytes(1234);
+				}
+				unlock.success().accountCount(3);
+			}
+			try (VaultEvents.Scope save = VaultEvents.begin(VaultEvents.Type.SAVE))
+			{
+				save.accountCount(3).bytes(1300);
+			}
+			try (VaultEvents.Scope fill = VaultEvents.begin(VaultEvents.Type.FILL))
+			{
+				fill.step("login").success();
+			}
+			try (VaultEvents.Scope batch = VaultEvents.begin(VaultEvents.Type.IMPORT))
+			{
+				batch.accountCount(2).success();
+			}
+			try (VaultEvents.Scope rekey = VaultEvents.begin(VaultEvents.Type.REKEY))
+			{
+				rekey.step("password").success().accountCount(5);
+			}
+			VaultEvents.lock("auto-lock", 3);
+
+			recording.stop();
+			recording.dump(file);
+
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+				.filter(e -> e.getEventType().getName().startsWith("com.accountmanager."))
+				.collect(Collectors.toList());
+
+			assertEquals(8, events.size());
+			RecordedEvent unlock = find(events, "com.accountmanager.VaultUnlock");
+			assertTrue(unlock.getBoolean("success"));
+			assertEquals(3, unlock.getInt("accountCount"));
+			assertEquals(1234, find(events, "com.accountmanager.VaultLoad").getLong("bytes"));
+			assertEquals("login", find(events, "com.accountmanager.CredentialFill").getString("step"));
+			assertEquals("auto-lock", find(events, "com.accountmanager.VaultLock").getString("reason"));
+			assertEquals(2, find(events, "com.accountmanager.VaultImport").getInt("accountCount"));
+			RecordedEvent rekey = find(events, "com.accountmanager.VaultRekey");
+			assertEquals("password", rekey.getString("change"));
+			assertEquals(5, rekey.getInt("accountCount"));
+			assertTrue(rekey.getBoolean("success"));
+			assertNull("Events should not carry stack traces", unlock.getStackTrace());
+		}
+		finally
+		{
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static RecordedEvent find(List<RecordedEvent> events, String name)
+	{
+		return events.stream()
+			.filter(e -> e.getEventType().getName().equals(name))
+			.findFirst()
+			.orElseThrow(() -> new AssertionError("Missing event " + name));
+	}
+}
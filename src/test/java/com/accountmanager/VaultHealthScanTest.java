@@ -0,0 +1,157 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for VaultHealthScan.
+ * Validates that broken entries, invalid TOTP secrets, breached passwords and shared credentials are reported.
+ */
+public class VaultHealthScanTest
+{
+	private static final String MASTER_PASSWORD = "MySecureMasterPassword123!";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SharedScheduler scheduler;
+	private Vault vault;
+
+	@Before
+	public void setUp()
+	{
+		scheduler = new SharedScheduler();
+		vault = new Vault(VaultManager.DEFAULT_VAULT_NAME, new InMemoryVaultStore(), new VaultCodec(new Gson()),
+			new PluginMetrics(), scheduler, () -> 30);
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+	}
+
+	@After
+	public void tearDown()
+	{
+		scheduler.shutdown();
+	}
+
+	private Account account(String nickname, String username, String password, String totpSecret)
+	{
+		EncryptionService encryption = vault.getEncryptionService();
+		Account account = new Account();
+		account.setNickname(nickname);
+		account.setEncryptedUsername(encryption.encrypt(username));
+		account.setEncryptedPassword(encryption.encrypt(password));
+		if (totpSecret != null)
+		{
+			account.setEncryptedTotpSecret(encryption.encrypt(totpSecret));
+		}
+		vault.addAccount(account);
+		return account;
+	}
+
+	// === Scan Tests ===
+
+	@Test
+	public void testRun_healthyVault()
+	{
+		account("Main", "main@example.com", "first", "JBSWY3DPEHPK3PXP");
+		account("Alt", "alt@example.com", "second", null);
+
+		VaultHealthScan.Report report = new VaultHealthScan(vault, null).run(checked -> { });
+
+		assertTrue(report.summary(), report.isHealthy());
+		assertEquals(2, report.getScanned());
+	}
+
+	@Test
+	public void testRun_reportsReusedPasswordsAndDuplicateUsernames()
+	{
+		Account main = account("Main", "main@example.com", "shared", null);
+		Account alt = account("Alt", "alt@example.com", "shared", null);
+		account("Copy", " MAIN@example.com", "other", null);
+
+		VaultHealthScan.Report report = new VaultHealthScan(vault, null).run(checked -> { });
+
+		assertEquals(1, report.getReusedPasswords().size());
+		assertTrue(report.getReusedPasswords().get(0).contains(main));
+		assertTrue(report.getReusedPasswords().get(0).contains(alt));
+		assertEquals(1, report.getDuplicateUsernames().size());
+		assertEquals(2, report.getDuplicateUsernames().get(0).size());
+	}
+
+	@Test
+	public void testRun_reportsUndecryptableAndInvalidTotp()
+	{
+		Account broken = account("Broken", "broken@example.com", "first", null);
+		Account badTotp = account("Bad TOTP", "totp@example.com", "second", "NOT-BASE32");
+		Account copy = new Account(broken.getId(), broken.getNickname(), broken.getEncryptedUsername(),
+			"AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", null, null, broken.getCreated(), broken.getVersion(), broken.getDevice(), false);
+		vault.updateAccount(copy);
+
+		VaultHealthScan.Report report = new VaultHealthScan(vault, null).run(checked -> { });
+
+		assertEquals(1, report.getUndecryptable().size());
+		assertEquals(broken.getId(), report.getUndecryptable().get(0).getId());
+		assertEquals(List.of(badTotp), report.getInvalidTotp());
+		assertFalse(report.isHealthy());
+	}
+
+	@Test
+	public void testRun_reportsBreachedPasswords() throws Exception
+	{
+		Account weak = account("Weak", "weak@example.com", "password", null);
+		account("Strong", "strong@example.com", "k3Vq!9rT#xW2", null);
+		byte[] hash = MessageDigest.getInstance("SHA-1").digest("password".getBytes(StandardCharsets.UTF_8));
+		StringBuilder line = new StringBuilder();
+		for (byte b : hash)
+		{
+			line.append(String.format("%02X", b));
+		}
+		Path file = folder.newFile("corpus.txt").toPath();
+		Files.write(file, line.append(":3\n").toString().getBytes(StandardCharsets.US_ASCII));
+
+		VaultHealthScan.Report report = new VaultHealthScan(vault, BreachCorpus.open(file)).run(checked -> { });
+
+		assertEquals(List.of(weak), report.getBreached());
+	}
+
+	@Test
+	public void testRun_reportsProgressUpToEveryAccount()
+	{
+		for (int i = 0; i < 250; i++)
+		{
+			account("Account " + i, "player" + i + "@example.com", "password" + i, null);
+		}
+		List<Integer> progress = new ArrayList<>();
+
+		new VaultHealthScan(vault, null).run(checked ->
+		{
+			synchronized (progress)
+			{
+				progress.add(checked);
+			}
+		});
+
+		assertTrue(progress.size() >= 100);
+		assertTrue(progress.contains(250));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testConstructor_lockedVaultRejected()
+	{
+		vault.lock("test");
+
+		new VaultHealthScan(vault, null);
+	}
+}
@@ -0,0 +1,370 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+
+import java.util.ConcurrentModificationException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Headless load test for the vault. Generates a synthetic vault in memory, then replays a
+ * weighted mix of operations from many threads and reports throughput and latency percentiles.
+ * <p>
+ * Arguments are {@code key=value} pairs, e.g.
+ * {@code accounts=10000 totp=0.5 threads=16 duration=30 mix=fill:60,otp:20,update:8,add:5,delete:5,lock:1,unlock:1}
+ */
+class VaultLoadHarness
+{
+	private static final String MASTER_PASSWORD = "load-test-master-password";
+
+	enum Operation
+	{
+		UNLOCK, LOCK, ADD, UPDATE, DELETE, FILL, OTP
+	}
+
+	static final class Options
+	{
+		int accounts = 1000;
+		double totpRatio = 0.5;
+		int threads = 8;
+		int durationSeconds = 30;
+		int cacheTtlSeconds = 30;
+		final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+
+		Options()
+		{
+			mix.put(Operation.FILL, 60);
+			mix.put(Operation.OTP, 20);
+			mix.put(Operation.UPDATE, 8);
+			mix.put(Operation.ADD, 5);
+			mix.put(Operation.DELETE, 5);
+			mix.put(Operation.LOCK, 1);
+			mix.put(Operation.UNLOCK, 1);
+		}
+
+		static Options parse(String[] args)
+		{
+			Options options = new Options();
+			for (String arg : args)
+			{
+				int eq = arg.indexOf('=');
+				if (eq < 0)
+				{
+					throw new IllegalArgumentException("Expected key=value but got: " + arg);
+				}
+
+				String key = arg.substring(0, eq);
+				String value = arg.substring(eq + 1);
+				switch (key)
+				{
+					case "accounts":
+						options.accounts = Integer.parseInt(value);
+						break;
+					case "totp":
+						options.totpRatio = Double.parseDouble(value);
+						break;
+					case "threads":
+						options.threads = Integer.parseInt(value);
+						break;
+					case "duration":
+						options.durationSeconds = Integer.parseInt(value);
+						break;
+					case "cacheTtl":
+						options.cacheTtlSeconds = Integer.parseInt(value);
+						break;
+					case "mix":
+						options.mix.clear();
+						for (String entry : value.split(","))
+						{
+							String[] parts = entry.split(":");
+							options.mix.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+						}
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown option: " + key);
+				}
+			}
+			return options;
+		}
+	}
+
+	private final Options options;
+	private final PluginMetrics metrics = new PluginMetrics();
+	private final SharedScheduler scheduler = new SharedScheduler();
+	private final TotpService totpService = new TotpService();
+	private final Vault vault;
+
+	private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+	private final Map<Operation, LongAdder> rejected = new EnumMap<>(Operation.class);
+	private final LongAdder errors = new LongAdder();
+	private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+	private final AtomicInteger addedAccounts = new AtomicInteger();
+	private long elapsedNanos;
+
+	VaultLoadHarness(Options options)
+	{
+		this.options = options;
+		InMemoryVaultStore store = new InMemoryVaultStore();
+		SyntheticVault.generate(store, MASTER_PASSWORD, options.accounts, options.totpRatio);
+		vault = new Vault("Load test", store, new VaultCodec(new Gson()), metrics, scheduler, () -> options.cacheTtlSeconds);
+
+		for (Operation operation : Operation.values())
+		{
+			latencies.put(operation, new LatencyHistogram());
+			rejected.put(operation, new LongAdder());
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		Options options = Options.parse(args);
+		System.out.printf("Generating vault: %d accounts, %.0f%% with TOTP%n", options.accounts, options.totpRatio * 100);
+		VaultLoadHarness harness = new VaultLoadHarness(options);
+		System.out.printf("Running %s for %ds on %d threads%n", options.mix, options.durationSeconds, options.threads);
+		harness.run();
+		System.out.print(harness.report());
+	}
+
+	void run() throws InterruptedException
+	{
+		if (!vault.unlock(MASTER_PASSWORD.toCharArray()))
+		{
+			throw new IllegalStateException("Could not unlock the generated vault");
+		}
+
+		Operation[] table = weightedTable(options.mix);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+		ExecutorService workers = Executors.newFixedThreadPool(options.threads);
+		long start = System.nanoTime();
+		for (int i = 0; i < options.threads; i++)
+		{
+			workers.execute(() ->
+			{
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (System.nanoTime() < deadline)
+				{
+					execute(table[random.nextInt(table.length)], random);
+				}
+			});
+		}
+		workers.shutdown();
+		workers.awaitTermination(options.durationSeconds + 60L, TimeUnit.SECONDS);
+		elapsedNanos = System.nanoTime() - start;
+
+		vault.lock("load-test");
+		scheduler.shutdown();
+	}
+
+	private void execute(Operation operation, ThreadLocalRandom random)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			if (perform(operation, random))
+			{
+				latencies.get(operation).record(System.nanoTime() - start);
+			}
+			else
+			{
+				rejected.get(operation).increment();
+			}
+		}
+		catch (IllegalStateException e)
+		{
+			// The vault was locked by another worker
+			rejected.get(operation).increment();
+		}
+		catch (ConcurrentModificationException e)
+		{
+			// Another worker changed or deleted the account first
+			rejected.get(operation).increment();
+		}
+		catch (Exception e)
+		{
+			errors.increment();
+			firstError.compareAndSet(null, e);
+		}
+	}
+
+	/**
+	 * @return false if the operation could not run in the vault's current state
+	 */
+	private boolean perform(Operation operation, ThreadLocalRandom random) throws Exception
+	{
+		switch (operation)
+		{
+			case UNLOCK:
+				return vault.unlock(MASTER_PASSWORD.toCharArray());
+			case LOCK:
+				vault.lock("load-test");
+				return true;
+			case ADD:
+			{
+				EncryptionService encryption = vault.getEncryptionService();
+				if (encryption == null)
+				{
+					return false;
+				}
+				int n = options.accounts + addedAccounts.incrementAndGet();
+				vault.addAccount(SyntheticVault.newAccount(encryption, n, random.nextDouble() < options.totpRatio));
+				return true;
+			}
+			case UPDATE:
+			{
+				EncryptionService encryption = vault.getEncryptionService();
+				Account account = pick(random, false);
+				if (encryption == null || account == null)
+				{
+					return false;
+				}
+				Account updated = new Account(account.getId(), account.getNickname(),
+					account.getEncryptedUsername(), encryption.encrypt("Updated-" + random.nextLong()),
+					account.getEncryptedTotpSecret(), account.getFields(), account.getCreated(), account.getVersion(), account.getDevice(), false);
+				vault.updateAccount(updated);
+				return true;
+			}
+			case DELETE:
+			{
+				Account account = pick(random, false);
+				if (account == null)
+				{
+					return false;
+				}
+				vault.deleteAccount(account);
+				return true;
+			}
+			case FILL:
+			{
+				Account account = pick(random, false);
+				// The same reads fillLoginForm does before handing the values to the client
+				return account != null && fill(account, c -> c.getUsername().asString().length() + c.getPassword().asString().length());
+			}
+			case OTP:
+			{
+				Account account = pick(random, true);
+				return account != null && fill(account, c -> totpService.generateCode(c.getTotpSecret()));
+			}
+			default:
+				throw new IllegalArgumentException("Unknown operation: " + operation);
+		}
+	}
+
+	private boolean fill(Account account, Function<CredentialCache.Credentials, Object> use) throws Exception
+	{
+		CredentialCache.Credentials credentials;
+		try
+		{
+			credentials = vault.getCredentials(account).get(30, TimeUnit.SECONDS);
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IllegalStateException)
+			{
+				return false;
+			}
+			throw e;
+		}
+		// Null once the vault was locked and the credentials wiped
+		return credentials.read(use) != null;
+	}
+
+	private Account pick(ThreadLocalRandom random, boolean withTotp)
+	{
+		List<Account> accounts = vault.getAccounts();
+		for (int attempt = 0; attempt < 8; attempt++)
+		{
+			int size = accounts.size();
+			if (size == 0)
+			{
+				break;
+			}
+			try
+			{
+				Account account = accounts.get(random.nextInt(size));
+				if (!withTotp || account.hasTotpSecret())
+				{
+					return account;
+				}
+			}
+			catch (IndexOutOfBoundsException e)
+			{
+				// Shrunk by a concurrent delete
+			}
+		}
+		return null;
+	}
+
+	private static Operation[] weightedTable(Map<Operation, Integer> mix)
+	{
+		int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+		if (total <= 0)
+		{
+			throw new IllegalArgumentException("Operation mix is empty");
+		}
+
+		Operation[] table = new Operation[total];
+		int i = 0;
+		for (Map.Entry<Operation, Integer> entry : mix.entrySet())
+		{
+			for (int n = 0; n < entry.getValue(); n++)
+			{
+				table[i++] = entry.getKey();
+			}
+		}
+		return table;
+	}
+
+	long getCompleted(Operation operation)
+	{
+		return latencies.get(operation).snapshot().count;
+	}
+
+	long getRejected(Operation operation)
+	{
+		return rejected.get(operation).sum();
+	}
+
+	long getErrors()
+	{
+		return errors.sum();
+	}
+
+	String report()
+	{
+		double seconds = elapsedNanos / 1e9;
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-8s %10s %9s %10s %9s %9s %9s %9s%n",
+			"op", "completed", "rejected", "ops/s", "p50", "p90", "p99", "max"));
+
+		long total = 0;
+		for (Operation operation : Operation.values())
+		{
+			LatencyHistogram.Snapshot s = latencies.get(operation).snapshot();
+			total += s.count;
+			sb.append(String.format("%-8s %10d %9d %10.1f %9s %9s %9s %9s%n",
+				operation.name().toLowerCase(), s.count, getRejected(operation), s.count / seconds,
+				PluginMetrics.formatNanos(s.p50Nanos), PluginMetrics.formatNanos(s.p90Nanos),
+				PluginMetrics.formatNanos(s.p99Nanos), PluginMetrics.formatNanos(s.maxNanos)));
+		}
+		sb.append(String.format("total    %10d %9s %10.1f in %.1fs, %d errors%n", total, "", total / seconds, seconds, getErrors()));
+
+		Throwable error = firstError.get();
+		if (error != null)
+		{
+			sb.append("first error: ").append(error).append('\n');
+		}
+
+		sb.append("\nvault internals\n").append(metrics.summary());
+		return sb.toString();
+	}
+}
@@ -0,0 +1,167 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for VaultManager.
+ * Validates creating named vaults, persisting the vault list and unlocking vaults independently.
+ */
+public class VaultManagerTest
+{
+	private InMemoryVaultStore store;
+	private SharedScheduler scheduler;
+	private VaultManager manager;
+
+	@Before
+	public void setUp()
+	{
+		store = new InMemoryVaultStore();
+		scheduler = new SharedScheduler();
+		manager = newManager();
+	}
+
+	@After
+	public void tearDown()
+	{
+		scheduler.shutdown();
+	}
+
+	// === Default Vault Tests ===
+
+	@Test
+	public void testDefaultVault_usesUnprefixedKeys()
+	{
+		Vault vault = manager.getDefaultVault();
+		assertEquals(VaultManager.DEFAULT_VAULT_NAME, vault.getName());
+
+		vault.unlock("password".toCharArray());
+
+		assertNotNull(store.get(Vault.KEY_SALT));
+		assertNotNull(store.get(Vault.KEY_VERIFICATION));
+	}
+
+	// === Create Tests ===
+
+	@Test
+	public void testCreate_persistsAcrossReload()
+	{
+		manager.create("Alts");
+		manager.create("Ironmen");
+
+		List<Vault> reloaded = newManager().getVaults();
+
+		assertEquals(3, reloaded.size());
+		assertEquals(VaultManager.DEFAULT_VAULT_NAME, reloaded.get(0).getName());
+		assertEquals("Alts", reloaded.get(1).getName());
+		assertEquals("Ironmen", reloaded.get(2).getName());
+	}
+
+	@Test
+	public void testCreate_trimsName()
+	{
+		assertEquals("Alts", manager.create("  Alts ").getName());
+		assertNotNull(manager.find("alts"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreate_blankNameRejected()
+	{
+		manager.create("   ");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreate_duplicateNameRejected()
+	{
+		manager.create("Alts");
+		manager.create("ALTS");
+	}
+
+	// === Independence Tests ===
+
+	@Test
+	public void testVaults_unlockWithTheirOwnPasswords()
+	{
+		Vault main = manager.getDefaultVault();
+		Vault alts = manager.create("Alts");
+		main.unlock("main-password".toCharArray());
+		alts.unlock("alts-password".toCharArray());
+		main.lock("test");
+		alts.lock("test");
+
+		assertFalse(alts.unlock("main-password".toCharArray()));
+		assertTrue(alts.unlock("alts-password".toCharArray()));
+		assertFalse(main.isUnlocked());
+	}
+
+	@Test
+	public void testVaults_keepSeparateAccounts()
+	{
+		Vault main = manager.getDefaultVault();
+		Vault alts = manager.create("Alts");
+		main.unlock("main-password".toCharArray());
+		alts.unlock("alts-password".toCharArray());
+
+		Account account = new Account();
+		account.setNickname("Alt");
+		account.setEncryptedUsername(alts.getEncryptionService().encrypt("alt@example.com"));
+		account.setEncryptedPassword(alts.getEncryptionService().encrypt("secret"));
+		alts.addAccount(account);
+
+		assertEquals(1, alts.getAccounts().size());
+		assertTrue(main.getAccounts().isEmpty());
+		assertTrue(Vault.ACCOUNTS_KEYS.stream().allMatch(key -> store.get(key) == null));
+	}
+
+	@Test
+	public void testLockAll_locksEveryVault()
+	{
+		manager.getDefaultVault().unlock("main-password".toCharArray());
+		manager.create("Alts").unlock("alts-password".toCharArray());
+		assertTrue(manager.isAnyUnlocked());
+
+		manager.lockAll("test");
+
+		assertFalse(manager.isAnyUnlocked());
+	}
+
+	// === Reload Tests ===
+
+	@Test
+	public void testOnStoreChanged_reloadsMatchingVault()
+	{
+		Vault alts = manager.create("Alts");
+		alts.unlock("alts-password".toCharArray());
+		VaultManager otherClient = newManager();
+		Vault otherAlts = otherClient.find("Alts");
+		otherAlts.unlock("alts-password".toCharArray());
+		Account account = new Account();
+		account.setNickname("Alt");
+		account.setEncryptedUsername(otherAlts.getEncryptionService().encrypt("alt@example.com"));
+		otherAlts.addAccount(account);
+		List<Vault> reloaded = new ArrayList<>();
+		manager.setReloadListener((vault, reload) -> reloaded.add(vault));
+
+		manager.onStoreChanged(Vault.KEY_ACCOUNTS);
+		assertTrue(reloaded.isEmpty());
+
+		String altsAccountsKey = store.keys().stream()
+			.filter(key -> key.startsWith("vault.") && key.contains("." + Vault.KEY_SHARD_PREFIX))
+			.findFirst().orElseThrow(AssertionError::new);
+		manager.onStoreChanged(altsAccountsKey);
+		assertEquals(1, alts.getAccounts().size());
+		assertEquals(1, reloaded.size());
+	}
+
+	private VaultManager newManager()
+	{
+		return new VaultManager(store, new Gson(), new PluginMetrics(), scheduler, () -> 30);
+	}
+}
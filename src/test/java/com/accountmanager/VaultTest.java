@@ -0,0 +1,1027 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for Vault.
+ * Validates unlocking, persistence and account changes against an in-memory store.
+ */
+public class VaultTest
+{
+	private static final String MASTER_PASSWORD = "MySecureMasterPassword123!";
+	private static final String TEST_USERNAME = "player@example.com";
+	private static final String TEST_PASSWORD = "MyGamePassword456!";
+
+	private InMemoryVaultStore store;
+	private SharedScheduler scheduler;
+	private Vault vault;
+
+	@Before
+	public void setUp()
+	{
+		store = new InMemoryVaultStore();
+		scheduler = new SharedScheduler();
+		vault = newVault();
+	}
+
+	@After
+	public void tearDown()
+	{
+		scheduler.shutdown();
+	}
+
+	// === Unlock Tests ===
+
+	@Test
+	public void testUnlock_createsVaultOnFirstUse()
+	{
+		assertFalse(vault.exists());
+
+		assertTrue(vault.unlock(MASTER_PASSWORD.toCharArray()));
+
+		assertTrue(vault.exists());
+		assertTrue(vault.isUnlocked());
+		assertNotNull(store.get(Vault.KEY_VERIFICATION));
+	}
+
+	@Test
+	public void testUnlock_wrongPasswordFails()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.lock("test");
+
+		assertFalse(vault.unlock("wrongPassword".toCharArray()));
+		assertFalse(vault.isUnlocked());
+		assertNull(vault.getEncryptionService());
+	}
+
+	@Test
+	public void testLock_wipesSession()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+
+		vault.lock("test");
+
+		assertFalse(vault.isUnlocked());
+		assertTrue(vault.getAccounts().isEmpty());
+		assertNull(vault.findAccountByUsername(TEST_USERNAME));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAddAccount_lockedVaultRejected()
+	{
+		vault.addAccount(new Account());
+	}
+
+	// === Persistence Tests ===
+
+	@Test
+	public void testAddAccount_persistsAcrossInstances() throws Exception
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account account = newAccount();
+		vault.addAccount(account);
+
+		Vault reopened = newVault();
+		assertTrue(reopened.unlock(MASTER_PASSWORD.toCharArray()));
+
+		assertEquals(1, reopened.getAccounts().size());
+		assertEquals(account.getId(), reopened.findAccountByUsername(TEST_USERNAME).getId());
+		CredentialCache.Credentials credentials = reopened.getCredentials(account).get(5, TimeUnit.SECONDS);
+		assertEquals(TEST_PASSWORD, credentials.getPassword().asString());
+	}
+
+	@Test
+	public void testDeleteAccount_removesFromIndexAndStore()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account account = newAccount();
+		vault.addAccount(account);
+
+		vault.deleteAccount(account);
+
+		assertNull(vault.findAccountByUsername(TEST_USERNAME));
+		Vault reopened = newVault();
+		reopened.unlock(MASTER_PASSWORD.toCharArray());
+		assertTrue(reopened.getAccounts().isEmpty());
+	}
+
+	@Test
+	public void testAddAccounts_importingTheSameBatchTwiceAddsItOnce()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		List<Account> batch = new ArrayList<>();
+		for (int i = 0; i < 3; i++)
+		{
+			Account account = newAccount();
+			account.setId("imported-" + i);
+			account.setNickname("Imported " + i);
+			batch.add(account);
+		}
+		List<Account> again = new ArrayList<>();
+		for (Account account : batch)
+		{
+			again.add(copy(account));
+		}
+
+		vault.addAccounts(batch);
+		vault.addAccounts(again);
+		vault.addAccounts(batch);
+
+		assertEquals(List.of("Imported 0", "Imported 1", "Imported 2"), nicknames(vault));
+		Vault reopened = newVault();
+		reopened.unlock(MASTER_PASSWORD.toCharArray());
+		assertEquals(List.of("Imported 0", "Imported 1", "Imported 2"), nicknames(reopened));
+	}
+
+	@Test
+	public void testAddAccounts_keepsTheNewerOfTwoWithTheSameId()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account existing = newAccount();
+		vault.addAccount(existing);
+		Account older = copy(existing);
+		older.setNickname("Older");
+		older.setVersion(existing.getVersion() - 1);
+		Account newer = copy(existing);
+		newer.setNickname("Newer");
+		newer.setVersion(existing.getVersion() + 1);
+		Account first = newAccount();
+		first.setId("duplicate");
+		first.setNickname("First");
+		Account second = copy(first);
+		second.setNickname("Second");
+
+		vault.addAccounts(List.of(older, newer, first, second));
+
+		assertEquals(List.of("Newer", "Second"), nicknames(vault));
+		assertEquals(Vault.Integrity.Status.INTACT, vault.verifyIntegrity().getStatus());
+	}
+
+	@Test
+	public void testSyntheticVault_unlocksWithGeneratedAccounts()
+	{
+		SyntheticVault.generate(store, MASTER_PASSWORD, 50, 0.5);
+
+		assertTrue(vault.unlock(MASTER_PASSWORD.toCharArray()));
+		assertEquals(50, vault.getAccounts().size());
+		assertNotNull(vault.findAccountByUsername("player7@example.com"));
+	}
+
+	// === Shard Tests ===
+
+	@Test
+	public void testUpdateAccount_storesOnlyItsShard()
+	{
+		List<String> written = new ArrayList<>();
+		Vault recorded = newVault(new VaultStore()
+		{
+			@Override
+			public String get(String key)
+			{
+				return store.get(key);
+			}
+
+			@Override
+			public void set(String key, String value)
+			{
+				written.add(key);
+				store.set(key, value);
+			}
+		});
+		recorded.unlock(MASTER_PASSWORD.toCharArray());
+		vault = recorded;
+		for (int i = 0; i < 20; i++)
+		{
+			recorded.addAccount(newAccount());
+		}
+		Account account = recorded.getAccounts().get(7);
+		written.clear();
+
+		Account renamed = copy(account);
+		renamed.setNickname("Renamed");
+		recorded.updateAccount(renamed);
+
+		assertEquals(List.of(Vault.KEY_INTEGRITY, Vault.shardKey(Vault.shardOf(account.getId()))), written);
+		assertEquals(Vault.Integrity.Status.INTACT, recorded.verifyIntegrity().getStatus());
+	}
+
+	@Test
+	public void testUnlock_keepsAccountsInTheOrderAdded()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		List<String> added = new ArrayList<>();
+		for (int i = 0; i < 20; i++)
+		{
+			Account account = newAccount();
+			account.setNickname("Account " + i);
+			vault.addAccount(account);
+			added.add(account.getNickname());
+		}
+
+		Vault reopened = newVault();
+		reopened.unlock(MASTER_PASSWORD.toCharArray());
+
+		assertEquals(added, nicknames(reopened));
+	}
+
+	@Test
+	public void testUnlock_movesUnshardedAccountsIntoShards()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		List<Account> legacy = new ArrayList<>();
+		for (int i = 0; i < 5; i++)
+		{
+			Account account = newAccount();
+			account.setId("legacy-" + i);
+			account.setNickname("Legacy " + i);
+			account.setVersion(1);
+			legacy.add(account);
+		}
+		store.set(Vault.KEY_ACCOUNTS, new VaultCodec(new Gson()).encode(legacy));
+		Vault opened = newVault();
+		opened.unlock(MASTER_PASSWORD.toCharArray());
+		assertEquals(List.of("Legacy 0", "Legacy 1", "Legacy 2", "Legacy 3", "Legacy 4"), nicknames(opened));
+
+		Account added = newAccount();
+		added.setNickname("Added");
+		opened.addAccount(added);
+
+		assertNull(store.get(Vault.KEY_ACCOUNTS));
+		Vault reopened = newVault();
+		reopened.unlock(MASTER_PASSWORD.toCharArray());
+		assertEquals(List.of("Legacy 0", "Legacy 1", "Legacy 2", "Legacy 3", "Legacy 4", "Added"), nicknames(reopened));
+		assertEquals(Vault.Integrity.Status.INTACT, reopened.verifyIntegrity().getStatus());
+	}
+
+	// === Reload Tests ===
+
+	@Test
+	public void testReload_picksUpOnlyChangedRecords()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account kept = newAccount();
+		Account changed = newAccount();
+		Account deleted = newAccount();
+		vault.addAccount(kept);
+		vault.addAccount(changed);
+		vault.addAccount(deleted);
+		Vault other = newVault();
+		other.unlock(MASTER_PASSWORD.toCharArray());
+
+		Account edit = copy(changed);
+		edit.setNickname("Renamed");
+		other.updateAccount(edit);
+		other.deleteAccount(deleted);
+		Account added = newAccount();
+		other.addAccount(added);
+		Account keptBefore = vault.getAccounts().get(0);
+
+		Vault.Reload reload = vault.reload();
+
+		assertEquals(1, reload.getAdded().size());
+		assertEquals(added.getId(), reload.getAdded().get(0).getId());
+		assertEquals(1, reload.getUpdated().size());
+		assertEquals("Renamed", reload.getUpdated().get(0).getNickname());
+		assertEquals(1, reload.getRemoved().size());
+		assertEquals(deleted.getId(), reload.getRemoved().get(0).getId());
+		assertSame(keptBefore, vault.getAccounts().get(0));
+		assertEquals(3, vault.getAccounts().size());
+	}
+
+	@Test
+	public void testReload_keepsTheListInOrder()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		List<Account> added = new ArrayList<>();
+		for (int i = 0; i < 5; i++)
+		{
+			Account account = newAccount();
+			account.setNickname("Account " + i);
+			vault.addAccount(account);
+			added.add(account);
+		}
+		Vault other = newVault();
+		other.unlock(MASTER_PASSWORD.toCharArray());
+
+		Account edit = copy(added.get(3));
+		edit.setNickname("Renamed");
+		other.updateAccount(edit);
+		other.deleteAccount(added.get(1));
+		Account extra = newAccount();
+		extra.setNickname("Extra");
+		other.addAccount(extra);
+
+		vault.reload();
+
+		assertEquals(List.of("Account 0", "Account 2", "Renamed", "Account 4", "Extra"), nicknames(vault));
+		assertEquals(nicknames(other), nicknames(vault));
+	}
+
+	@Test
+	public void testReload_ownSaveIsNotAChange()
+	{
+		List<Vault.Reload> reloads = new ArrayList<>();
+		vault.setReloadListener((v, reload) -> reloads.add(reload));
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+
+		assertTrue(vault.reload().isEmpty());
+		assertTrue(reloads.isEmpty());
+	}
+
+	@Test
+	public void testReload_notifiesListener()
+	{
+		List<Vault.Reload> reloads = new ArrayList<>();
+		vault.setReloadListener((v, reload) -> reloads.add(reload));
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Vault other = newVault();
+		other.unlock(MASTER_PASSWORD.toCharArray());
+		other.addAccount(newAccount());
+
+		vault.reload();
+
+		assertEquals(1, reloads.size());
+		assertEquals(1, reloads.get(0).getAdded().size());
+	}
+
+	@Test
+	public void testAddAccount_keepsChangesSavedElsewhere()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Vault other = newVault();
+		other.unlock(MASTER_PASSWORD.toCharArray());
+		other.addAccount(newAccount());
+
+		vault.addAccount(newAccount());
+
+		assertEquals(2, vault.getAccounts().size());
+		Vault reopened = newVault();
+		reopened.unlock(MASTER_PASSWORD.toCharArray());
+		assertEquals(2, reopened.getAccounts().size());
+	}
+
+	// === Merge Tests ===
+
+	@Test
+	public void testMerge_offlineEditsOnBothSidesConverge()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account edited = newAccount();
+		Account deleted = newAccount();
+		vault.addAccount(edited);
+		vault.addAccount(deleted);
+		InMemoryVaultStore otherStore = copyOf(store);
+		Vault other = newVault(otherStore);
+		other.unlock(MASTER_PASSWORD.toCharArray());
+
+		// Offline: one side renames an account, the other deletes one and adds one
+		Account rename = copy(edited);
+		rename.setNickname("Renamed");
+		vault.updateAccount(rename);
+		other.deleteAccount(deleted);
+		other.addAccount(newAccount());
+
+		sync(store, otherStore, other);
+		sync(otherStore, store, vault);
+
+		assertEquals(2, vault.getAccounts().size());
+		assertEquals(2, other.getAccounts().size());
+		assertNull(findById(vault, deleted.getId()));
+		assertEquals("Renamed", findById(other, edited.getId()).getNickname());
+		assertEquals(storedShards(store), storedShards(otherStore));
+	}
+
+	@Test
+	public void testMerge_concurrentEditsPickSameWinnerEverywhere()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account account = newAccount();
+		vault.addAccount(account);
+		InMemoryVaultStore otherStore = copyOf(store);
+		Vault other = newVault(otherStore);
+		other.unlock(MASTER_PASSWORD.toCharArray());
+
+		Account here = copy(account);
+		here.setNickname("Here");
+		vault.updateAccount(here);
+		Account there = copy(account);
+		there.setNickname("There");
+		other.updateAccount(there);
+
+		InMemoryVaultStore snapshot = copyOf(store);
+		sync(otherStore, store, vault);
+		sync(snapshot, otherStore, other);
+
+		String winner = findById(vault, account.getId()).getNickname();
+		assertEquals(winner, findById(other, account.getId()).getNickname());
+	}
+
+	@Test
+	public void testMerge_outdatedCopyDoesNotRestoreDeletedAccount()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account account = newAccount();
+		vault.addAccount(account);
+		InMemoryVaultStore outdated = copyOf(store);
+
+		vault.deleteAccount(account);
+		sync(outdated, store, vault);
+
+		assertTrue(vault.getAccounts().isEmpty());
+		// The merged value with the tombstone was saved back over the outdated one
+		assertNotEquals(storedShards(outdated), storedShards(store));
+	}
+
+	@Test
+	public void testMerge_keepsAccountsMissingFromStoredValue()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		InMemoryVaultStore outdated = copyOf(store);
+		Account account = newAccount();
+		vault.addAccount(account);
+
+		sync(outdated, store, vault);
+
+		assertNotNull(findById(vault, account.getId()));
+		Vault reopened = newVault();
+		reopened.unlock(MASTER_PASSWORD.toCharArray());
+		assertEquals(1, reopened.getAccounts().size());
+	}
+
+	// === Version Tests ===
+
+	@Test
+	public void testUpdateAccount_incrementsVersion()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account account = newAccount();
+		vault.addAccount(account);
+		assertEquals(1, account.getVersion());
+
+		Account edit = copy(account);
+		vault.updateAccount(edit);
+
+		assertEquals(2, vault.getAccounts().get(0).getVersion());
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void testUpdateAccount_outdatedCopyRejected()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account account = newAccount();
+		vault.addAccount(account);
+		Vault other = newVault();
+		other.unlock(MASTER_PASSWORD.toCharArray());
+		other.updateAccount(copy(account));
+
+		vault.updateAccount(copy(account));
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void testUpdateAccount_deletedElsewhereRejected()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account account = newAccount();
+		vault.addAccount(account);
+		Vault other = newVault();
+		other.unlock(MASTER_PASSWORD.toCharArray());
+		other.deleteAccount(account);
+
+		vault.updateAccount(copy(account));
+	}
+
+	@Test
+	public void testUpdateAccount_nicknameEditRunsNoCrypto() throws Exception
+	{
+		PluginMetrics metrics = new PluginMetrics();
+		vault = new Vault(VaultManager.DEFAULT_VAULT_NAME, store, new VaultCodec(new Gson()), metrics, scheduler, () -> 30);
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+		assertNotNull(vault.findAccountByUsername(TEST_USERNAME));
+		CredentialCache.Credentials cached = vault.getCredentials(vault.getAccounts().get(0)).get(5, TimeUnit.SECONDS);
+		long cryptoCalls = cryptoCalls(metrics);
+		Account renamed = copy(vault.getAccounts().get(0));
+		renamed.setNickname("Alt");
+
+		vault.updateAccount(renamed);
+
+		assertEquals("Alt", vault.findAccountByUsername(TEST_USERNAME).getNickname());
+		assertSame(cached, vault.getCredentials(renamed).get(5, TimeUnit.SECONDS));
+		assertEquals(cryptoCalls, cryptoCalls(metrics));
+	}
+
+	@Test
+	public void testUpdateAccount_usernameEditReindexed() throws Exception
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+		assertNotNull(vault.findAccountByUsername(TEST_USERNAME));
+		vault.getCredentials(vault.getAccounts().get(0)).get(5, TimeUnit.SECONDS);
+		Account changed = copy(vault.getAccounts().get(0));
+		changed.setEncryptedUsername(vault.getEncryptionService().encrypt("other@example.com"));
+
+		vault.updateAccount(changed);
+
+		assertNull(vault.findAccountByUsername(TEST_USERNAME));
+		assertEquals(changed.getId(), vault.findAccountByUsername("other@example.com").getId());
+		CredentialCache.Credentials credentials = vault.getCredentials(changed).get(5, TimeUnit.SECONDS);
+		assertEquals("other@example.com", credentials.getUsername().asString());
+	}
+
+	// === Integrity Tests ===
+
+	@Test
+	public void testVerifyIntegrity_intactAfterChanges()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account first = newAccount();
+		vault.addAccount(first);
+		vault.addAccount(newAccount());
+		vault.updateAccount(copy(first));
+		vault.deleteAccount(first);
+
+		Vault.Integrity integrity = vault.verifyIntegrity();
+
+		assertEquals(Vault.Integrity.Status.INTACT, integrity.getStatus());
+		assertEquals(2, integrity.getRecords());
+	}
+
+	@Test
+	public void testVerifyIntegrity_incrementalRootMatchesReopenedVault()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		for (int i = 0; i < 5; i++)
+		{
+			vault.addAccount(newAccount());
+		}
+		Vault reopened = newVault();
+		reopened.unlock(MASTER_PASSWORD.toCharArray());
+		reopened.updateAccount(copy(reopened.getAccounts().get(2)));
+
+		assertEquals(Vault.Integrity.Status.INTACT, vault.verifyIntegrity().getStatus());
+	}
+
+	@Test
+	public void testVerifyIntegrity_detectsReorderedRecords()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account first = newAccount();
+		first.setId("a0");
+		vault.addAccount(first);
+		Account second = newAccount();
+		second.setId(idInShard(Vault.shardOf("a0"), "a0"));
+		vault.addAccount(second);
+		String key = Vault.shardKey(Vault.shardOf("a0"));
+		List<Account> stored = new VaultCodec(new Gson()).decode(store.get(key));
+		store.set(key, new VaultCodec(new Gson()).encode(List.of(stored.get(1), stored.get(0))));
+
+		assertEquals(Vault.Integrity.Status.TAMPERED, vault.verifyIntegrity().getStatus());
+	}
+
+	@Test
+	public void testVerifyIntegrity_detectsDroppedRecord()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+		Account dropped = newAccount();
+		vault.addAccount(dropped);
+		store.set(Vault.shardKey(Vault.shardOf(dropped.getId())), null);
+
+		assertEquals(Vault.Integrity.Status.TAMPERED, vault.verifyIntegrity().getStatus());
+	}
+
+	@Test
+	public void testVerifyIntegrity_unsignedUntilSaved()
+	{
+		// Accounts saved before integrity roots existed
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account account = newAccount();
+		account.setId("legacy");
+		store.set(Vault.KEY_ACCOUNTS, new VaultCodec(new Gson()).encode(List.of(account)));
+		Vault legacy = newVault();
+		legacy.unlock(MASTER_PASSWORD.toCharArray());
+
+		assertEquals(Vault.Integrity.Status.UNSIGNED, legacy.verifyIntegrity().getStatus());
+		legacy.addAccount(newAccount());
+		assertEquals(Vault.Integrity.Status.INTACT, legacy.verifyIntegrity().getStatus());
+	}
+
+	@Test
+	public void testVerifyIntegrity_removedRootIsTampered()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+		store.set(Vault.KEY_INTEGRITY, null);
+
+		Vault reopened = newVault();
+		reopened.unlock(MASTER_PASSWORD.toCharArray());
+
+		assertEquals(Vault.Integrity.Status.TAMPERED, reopened.verifyIntegrity().getStatus());
+		assertTrue(reopened.isTampered());
+		assertEquals(Vault.Integrity.Status.TAMPERED, vault.verifyIntegrity().getStatus());
+	}
+
+	@Test
+	public void testVerifyIntegrity_failureReportedToListener() throws Exception
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+		store.set(Vault.KEY_INTEGRITY, null);
+		Vault reopened = newVault();
+		CompletableFuture<Vault> reported = new CompletableFuture<>();
+		reopened.setIntegrityListener(reported::complete);
+
+		reopened.unlock(MASTER_PASSWORD.toCharArray());
+
+		assertSame(reopened, reported.get(5, TimeUnit.SECONDS));
+		reopened.lock("test");
+		assertFalse(reopened.isTampered());
+	}
+
+	// === Cipher Suite Tests ===
+
+	@Test
+	public void testUnlock_newVaultStoresCipherSuite()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+
+		assertNotNull(store.get(Vault.KEY_CIPHER));
+		assertEquals(CipherSuite.fromId(store.get(Vault.KEY_CIPHER)), vault.getEncryptionService().getCipherSuite());
+	}
+
+	@Test
+	public void testMigrateCipherSuite_reencryptsAndPersists() throws Exception
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		CipherSuite other = vault.getEncryptionService().getCipherSuite() == CipherSuite.AES_GCM
+			? CipherSuite.CHACHA20_POLY1305
+			: CipherSuite.AES_GCM;
+		Account account = newAccount();
+		vault.addAccount(account);
+
+		assertEquals(1, vault.migrateCipherSuite(other));
+
+		Vault reopened = newVault();
+		assertTrue(reopened.unlock(MASTER_PASSWORD.toCharArray()));
+		assertEquals(other, reopened.getEncryptionService().getCipherSuite());
+		CredentialCache.Credentials credentials = reopened.getCredentials(reopened.getAccounts().get(0)).get(5, TimeUnit.SECONDS);
+		assertEquals(TEST_PASSWORD, credentials.getPassword().asString());
+		assertNotNull(reopened.findAccountByUsername(TEST_USERNAME));
+		assertEquals(Vault.Integrity.Status.INTACT, reopened.verifyIntegrity().getStatus());
+		assertEquals(0, reopened.migrateCipherSuite(other));
+	}
+
+	@Test
+	public void testMigrateCipherSuite_otherClientSwitchesOnReload()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+		Vault other = newVault();
+		other.unlock(MASTER_PASSWORD.toCharArray());
+		CipherSuite target = vault.getEncryptionService().getCipherSuite() == CipherSuite.AES_GCM
+			? CipherSuite.CHACHA20_POLY1305
+			: CipherSuite.AES_GCM;
+
+		vault.migrateCipherSuite(target);
+		other.reload();
+
+		assertEquals(target, other.getEncryptionService().getCipherSuite());
+		assertNotNull(other.findAccountByUsername(TEST_USERNAME));
+	}
+
+	// === Extra Field Tests ===
+
+	@Test
+	public void testDecryptField_persistsAndDecrypts()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Account account = newAccount();
+		EncryptionService encryption = vault.getEncryptionService();
+		account.setFields(AccountFields.with(null, "Bank PIN", AccountFields.Type.PIN, encryption.encrypt("1234")));
+		vault.addAccount(account);
+
+		Vault reopened = newVault();
+		reopened.unlock(MASTER_PASSWORD.toCharArray());
+		Account stored = reopened.getAccounts().get(0);
+
+		assertEquals(AccountFields.Type.PIN, stored.getFields().type("Bank PIN"));
+		try (SecretBuffer pin = reopened.decryptField(stored, "Bank PIN"))
+		{
+			assertEquals("1234", pin.asString());
+		}
+		assertNull(reopened.decryptField(stored, "Notes"));
+	}
+
+	@Test
+	public void testMigrateCipherSuite_reencryptsFields()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		CipherSuite other = vault.getEncryptionService().getCipherSuite() == CipherSuite.AES_GCM
+			? CipherSuite.CHACHA20_POLY1305
+			: CipherSuite.AES_GCM;
+		Account account = newAccount();
+		String encrypted = vault.getEncryptionService().encrypt("main@example.com");
+		account.setFields(AccountFields.with(null, "Email", AccountFields.Type.EMAIL, encrypted));
+		vault.addAccount(account);
+
+		vault.migrateCipherSuite(other);
+
+		Account migrated = vault.getAccounts().get(0);
+		assertNotEquals(encrypted, migrated.getFields().encryptedValue("Email"));
+		try (SecretBuffer email = vault.decryptField(migrated, "Email"))
+		{
+			assertEquals("main@example.com", email.asString());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testDecryptField_lockedVaultRejected()
+	{
+		Account account = new Account();
+		account.setFields(AccountFields.with(null, "Email", AccountFields.Type.EMAIL, "ct"));
+
+		vault.decryptField(account, "Email");
+	}
+
+	// === History Tests ===
+
+	@Test
+	public void testUpdateAccount_recordsReplacedPassword()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+		Account changed = copy(vault.getAccounts().get(0));
+		changed.setEncryptedPassword(vault.getEncryptionService().encrypt("NewPassword789!"));
+		vault.updateAccount(changed);
+
+		Vault reopened = newVault();
+		reopened.unlock(MASTER_PASSWORD.toCharArray());
+		List<AccountHistory.Version> history = reopened.getHistory(reopened.getAccounts().get(0));
+
+		assertEquals(1, history.size());
+		assertEquals(TEST_PASSWORD, reopened.getEncryptionService().decrypt(history.get(0).getEncryptedPassword()));
+	}
+
+	@Test
+	public void testUpdateAccount_nicknameEditLeavesNoHistory()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+		Account renamed = copy(vault.getAccounts().get(0));
+		renamed.setNickname("Alt");
+
+		vault.updateAccount(renamed);
+
+		assertNull(store.get(Vault.KEY_HISTORY_PREFIX + renamed.getId()));
+		assertTrue(vault.getHistory(renamed).isEmpty());
+	}
+
+	@Test
+	public void testDeleteAccount_dropsHistory()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+		Account changed = copy(vault.getAccounts().get(0));
+		changed.setEncryptedPassword(vault.getEncryptionService().encrypt("NewPassword789!"));
+		vault.updateAccount(changed);
+
+		vault.deleteAccount(changed);
+
+		assertNull(store.get(Vault.KEY_HISTORY_PREFIX + changed.getId()));
+	}
+
+	@Test
+	public void testMigrateCipherSuite_reencryptsHistory()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		CipherSuite other = vault.getEncryptionService().getCipherSuite() == CipherSuite.AES_GCM
+			? CipherSuite.CHACHA20_POLY1305
+			: CipherSuite.AES_GCM;
+		vault.addAccount(newAccount());
+		Account changed = copy(vault.getAccounts().get(0));
+		changed.setEncryptedPassword(vault.getEncryptionService().encrypt("NewPassword789!"));
+		vault.updateAccount(changed);
+
+		vault.migrateCipherSuite(other);
+
+		List<AccountHistory.Version> history = vault.getHistory(changed);
+		assertEquals(1, history.size());
+		assertEquals(TEST_PASSWORD, vault.getEncryptionService().decrypt(history.get(0).getEncryptedPassword()));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testGetHistory_lockedVaultRejected()
+	{
+		vault.getHistory(new Account());
+	}
+
+	// === Shared Session Tests ===
+
+	@Test
+	public void testUnlockShared_opensWithoutPassword()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+		InMemoryVaultStore otherStore = new InMemoryVaultStore();
+		Vault other = new Vault(VaultManager.DEFAULT_VAULT_NAME, otherStore, new VaultCodec(new Gson()), new PluginMetrics(), scheduler, () -> 30);
+
+		assertTrue(other.unlockShared(vault.records(), vault.exportKey()));
+
+		assertTrue(other.isUnlocked());
+		assertNotNull(other.findAccountByUsername(TEST_USERNAME));
+		assertEquals(storedShards(store), storedShards(otherStore));
+	}
+
+	@Test
+	public void testUnlockShared_wrongKeyRejected()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Map<String, String> records = vault.records();
+		vault.lock("test");
+
+		assertFalse(vault.unlockShared(records, new byte[32]));
+		assertFalse(vault.isUnlocked());
+	}
+
+	@Test
+	public void testUnlockShared_differentVaultOfSameNameRefused()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+		List<String> accounts = storedShards(store);
+		Vault other = newVault(new InMemoryVaultStore());
+		other.unlock("AnotherProfilePassword1!".toCharArray());
+		Account otherAccount = new Account();
+		otherAccount.setEncryptedUsername(other.getEncryptionService().encrypt("other@example.com"));
+		other.addAccount(otherAccount);
+
+		assertFalse(vault.unlockShared(other.records(), other.exportKey()));
+
+		assertEquals(accounts, storedShards(store));
+		assertEquals(1, vault.getAccounts().size());
+		assertTrue(vault.getEncryptionService().verifyPassword(store.get(Vault.KEY_VERIFICATION)));
+	}
+
+	@Test
+	public void testUnlockShared_reloadsChangesWhenUnlocked()
+	{
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		Vault other = newVault();
+		other.unlock(MASTER_PASSWORD.toCharArray());
+		vault.addAccount(newAccount());
+
+		assertTrue(other.unlockShared(vault.records(), vault.exportKey()));
+
+		assertEquals(1, other.getAccounts().size());
+	}
+
+	@Test
+	public void testChangeListener_calledAfterSave()
+	{
+		List<Vault> changed = new ArrayList<>();
+		vault.setChangeListener(changed::add);
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+
+		vault.addAccount(newAccount());
+
+		assertEquals(1, changed.size());
+	}
+
+	// === Load Harness Tests ===
+
+	@Test
+	public void testLoadHarness_concurrentWorkloadHasNoErrors() throws Exception
+	{
+		VaultLoadHarness.Options options = VaultLoadHarness.Options.parse(new String[]{
+			"accounts=100", "threads=4", "duration=1", "mix=fill:10,otp:5,update:3,add:2,delete:2"});
+		VaultLoadHarness harness = new VaultLoadHarness(options);
+
+		harness.run();
+
+		assertEquals("Unexpected errors:\n" + harness.report(), 0, harness.getErrors());
+		assertTrue(harness.getCompleted(VaultLoadHarness.Operation.FILL) > 0);
+		assertTrue(harness.getCompleted(VaultLoadHarness.Operation.OTP) > 0);
+	}
+
+	private Vault newVault()
+	{
+		return new Vault(VaultManager.DEFAULT_VAULT_NAME, store, new VaultCodec(new Gson()), new PluginMetrics(), scheduler, () -> 30);
+	}
+
+	private Vault newVault(VaultStore vaultStore)
+	{
+		return new Vault(VaultManager.DEFAULT_VAULT_NAME, vaultStore, new VaultCodec(new Gson()), new PluginMetrics(), scheduler, () -> 30);
+	}
+
+	private static InMemoryVaultStore copyOf(InMemoryVaultStore source)
+	{
+		InMemoryVaultStore copy = new InMemoryVaultStore();
+		for (String key : source.keys())
+		{
+			copy.set(key, source.get(key));
+		}
+		return copy;
+	}
+
+	/**
+	 * Carries the stored records and their integrity root over like a profile sync would, and lets the receiving vault merge them.
+	 */
+	private static void sync(InMemoryVaultStore from, InMemoryVaultStore to, Vault receiver)
+	{
+		to.set(Vault.KEY_INTEGRITY, from.get(Vault.KEY_INTEGRITY));
+		for (String key : Vault.ACCOUNTS_KEYS)
+		{
+			to.set(key, from.get(key));
+		}
+		receiver.reload();
+	}
+
+	/**
+	 * @return the stored value of every shard, null where it is empty
+	 */
+	private static List<String> storedShards(VaultStore vaultStore)
+	{
+		List<String> shards = new ArrayList<>();
+		for (int shard = 0; shard < Vault.SHARD_COUNT; shard++)
+		{
+			shards.add(vaultStore.get(Vault.shardKey(shard)));
+		}
+		return shards;
+	}
+
+	/**
+	 * @return an id other than {@code taken} whose record is stored in {@code shard}
+	 */
+	private static String idInShard(int shard, String taken)
+	{
+		for (int i = 0; ; i++)
+		{
+			String id = "a" + i;
+			if (!id.equals(taken) && Vault.shardOf(id) == shard)
+			{
+				return id;
+			}
+		}
+	}
+
+	private static List<String> nicknames(Vault vault)
+	{
+		List<String> nicknames = new ArrayList<>();
+		for (Account account : vault.getAccounts())
+		{
+			nicknames.add(account.getNickname());
+		}
+		return nicknames;
+	}
+
+	private static Account findById(Vault vault, String id)
+	{
+		return vault.getAccounts().stream().filter(a -> a.getId().equals(id)).findFirst().orElse(null);
+	}
+
+	private static Account copy(Account account)
+	{
+		return new Account(account.getId(), account.getNickname(), account.getEncryptedUsername(),
+			account.getEncryptedPassword(), account.getEncryptedTotpSecret(), account.getFields(), account.getCreated(),
+			account.getVersion(), account.getDevice(), false);
+	}
+
+	/**
+	 * @return how often the vault's encryption service encrypted or decrypted anything
+	 */
+	private static long cryptoCalls(PluginMetrics metrics)
+	{
+		long calls = 0;
+		for (String name : new String[]{PluginMetrics.ENCRYPT, PluginMetrics.DECRYPT})
+		{
+			LatencyHistogram.Snapshot snapshot = metrics.getSnapshot(name);
+			calls += snapshot == null ? 0 : snapshot.count;
+		}
+		return calls;
+	}
+
+	private Account newAccount()
+	{
+		EncryptionService encryption = vault.getEncryptionService();
+		Account account = new Account();
+		account.setNickname("Main");
+		account.setEncryptedUsername(encryption.encrypt(TEST_USERNAME));
+		account.setEncryptedPassword(encryption.encrypt(TEST_PASSWORD));
+		return account;
+	}
+}
@@ -0,0 +1,259 @@
+package com.accountmanager;
+
+import com.google.gson.Gson;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for VaultTool.
+ * Validates each command against a properties file, and the CSV format it reads and writes.
+ */
+public class VaultToolTest
+{
+	private static final String MASTER_PASSWORD = "MySecureMasterPassword123!";
+	private static final String NEW_PASSWORD = "AnotherMasterPassword456!";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+	private int run(String... args) throws Exception
+	{
+		output.reset();
+		VaultTool.Options options = VaultTool.Options.parse(args);
+		options.attachments = folder.getRoot().toPath().resolve("attachments");
+		return new VaultTool(options, new PrintStream(output, true, "UTF-8"),
+			(prompt, variable, confirm) -> (variable.equals(VaultTool.NEW_PASSWORD_ENV) ? NEW_PASSWORD : MASTER_PASSWORD).toCharArray())
+			.run();
+	}
+
+	private String output()
+	{
+		return new String(output.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private Path csv(String... lines) throws IOException
+	{
+		Path file = folder.newFile("accounts.csv").toPath();
+		Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+		return file;
+	}
+
+	private Path importedVault() throws Exception
+	{
+		Path settings = folder.getRoot().toPath().resolve("settings.properties");
+		Path accounts = csv("nickname,username,password,totp",
+			"Main,main@example.com,\"pass,word\",JBSWY3DPEHPK3PXP",
+			"Alt,alt@example.com,second,");
+		assertEquals(VaultTool.EXIT_OK, run("import", "file=" + settings, "in=" + accounts));
+		return settings;
+	}
+
+	private Vault open(Path settings, String password) throws IOException
+	{
+		Vault vault = new Vault(VaultManager.DEFAULT_VAULT_NAME, new PropertiesVaultStore(settings, AccountManagerConfig.CONFIG_GROUP),
+			new VaultCodec(new Gson()), new PluginMetrics(), new SharedScheduler(), () -> 30);
+		assertTrue(vault.unlock(password.toCharArray()));
+		return vault;
+	}
+
+	// === Import Tests ===
+
+	@Test
+	public void testImport_createsVault() throws Exception
+	{
+		Path settings = importedVault();
+
+		Vault vault = open(settings, MASTER_PASSWORD);
+		assertEquals(2, vault.getAccounts().size());
+		Account main = vault.findAccountByUsername("main@example.com");
+		assertEquals("pass,word", vault.getEncryptionService().decrypt(main.getEncryptedPassword()));
+		assertTrue(main.hasTotpSecret());
+		assertFalse(vault.findAccountByUsername("alt@example.com").hasTotpSecret());
+	}
+
+	@Test
+	public void testImport_skipsExistingAndInvalidRows() throws Exception
+	{
+		Path settings = importedVault();
+		Files.delete(folder.getRoot().toPath().resolve("accounts.csv"));
+		Path again = csv("nickname,username,password,totp",
+			"Main again,MAIN@example.com,x,",
+			"Bad TOTP,new@example.com,x,not-base32!",
+			"New,new2@example.com,x,");
+
+		assertEquals(VaultTool.EXIT_OK, run("import", "file=" + settings, "in=" + again));
+
+		assertTrue(output().contains("Imported 1 accounts, skipped 2"));
+		assertEquals(3, open(settings, MASTER_PASSWORD).getAccounts().size());
+	}
+
+	// === Export Tests ===
+
+	@Test
+	public void testExportCsv_roundTrip() throws Exception
+	{
+		Path settings = importedVault();
+		Path exported = folder.getRoot().toPath().resolve("exported.csv");
+
+		assertEquals(VaultTool.EXIT_OK, run("export-csv", "file=" + settings, "out=" + exported));
+
+		List<String> lines = Files.readAllLines(exported, StandardCharsets.UTF_8);
+		assertEquals("nickname,username,password,totp", lines.get(0));
+		assertTrue(lines.contains("Main,main@example.com,\"pass,word\",JBSWY3DPEHPK3PXP"));
+		assertTrue(lines.contains("Alt,alt@example.com,second,"));
+	}
+
+	@Test
+	public void testExport_vaultFileOpensOnItsOwn() throws Exception
+	{
+		Path settings = importedVault();
+		Path exported = folder.getRoot().toPath().resolve("vault.properties");
+
+		assertEquals(VaultTool.EXIT_OK, run("export", "file=" + settings, "out=" + exported));
+		assertEquals(VaultTool.EXIT_OK, run("verify", "file=" + exported));
+
+		assertEquals(2, open(exported, MASTER_PASSWORD).getAccounts().size());
+	}
+
+	// === Maintenance Tests ===
+
+	@Test
+	public void testVerify_intactVault() throws Exception
+	{
+		Path settings = importedVault();
+
+		assertEquals(VaultTool.EXIT_OK, run("verify", "file=" + settings, "threads=2"));
+		assertTrue(output().contains("Integrity: INTACT"));
+		assertTrue(output().contains("Checked 2/2 accounts (100%)"));
+	}
+
+	@Test
+	public void testVerify_removedIntegrityRootFails() throws Exception
+	{
+		Path settings = importedVault();
+		PropertiesVaultStore store = new PropertiesVaultStore(settings, AccountManagerConfig.CONFIG_GROUP);
+		store.set(Vault.KEY_INTEGRITY, null);
+		store.save();
+
+		assertEquals(VaultTool.EXIT_FAILED, run("verify", "file=" + settings));
+		assertTrue(output().contains("Integrity: TAMPERED"));
+	}
+
+	@Test
+	public void testRekey_opensWithNewPasswordOnly() throws Exception
+	{
+		Path settings = importedVault();
+
+		assertEquals(VaultTool.EXIT_OK, run("rekey", "file=" + settings));
+
+		Vault vault = open(settings, NEW_PASSWORD);
+		assertEquals("second", vault.getEncryptionService().decrypt(
+			vault.findAccountByUsername("alt@example.com").getEncryptedPassword()));
+		assertEquals(Vault.Integrity.Status.INTACT, vault.verifyIntegrity().getStatus());
+		assertEquals(VaultTool.EXIT_FAILED, run("verify", "file=" + settings));
+		assertTrue(output().contains("Wrong master password"));
+	}
+
+	@Test
+	public void testRekey_reencryptsAttachments() throws Exception
+	{
+		Path settings = importedVault();
+		Vault vault = open(settings, MASTER_PASSWORD);
+		Account account = vault.getAccounts().get(0);
+		Path attachments = folder.getRoot().toPath().resolve("attachments");
+		Path file = folder.newFile("codes.txt").toPath();
+		Files.write(file, "recovery codes".getBytes(StandardCharsets.UTF_8));
+		new AttachmentStore(attachments, vault).add(account, file);
+
+		assertEquals(VaultTool.EXIT_OK, run("rekey", "file=" + settings));
+
+		AttachmentStore store = new AttachmentStore(attachments, open(settings, NEW_PASSWORD));
+		List<AttachmentStore.Attachment> list = store.list(account);
+		assertEquals(1, list.size());
+		Path exported = folder.getRoot().toPath().resolve("codes-out.txt");
+		store.export(account, list.get(0), exported);
+		assertEquals("recovery codes", new String(Files.readAllBytes(exported), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testCompact_dropsTombstones() throws Exception
+	{
+		Path settings = importedVault();
+		PropertiesVaultStore store = new PropertiesVaultStore(settings, AccountManagerConfig.CONFIG_GROUP);
+		Vault vault = new Vault(VaultManager.DEFAULT_VAULT_NAME, store, new VaultCodec(new Gson()),
+			new PluginMetrics(), new SharedScheduler(), () -> 30);
+		vault.unlock(MASTER_PASSWORD.toCharArray());
+		vault.deleteAccount(vault.getAccounts().get(0));
+		store.save();
+
+		assertEquals(VaultTool.EXIT_OK, run("compact", "file=" + settings));
+		assertTrue(output().contains("Dropped 1 tombstones"));
+
+		Vault compacted = open(settings, MASTER_PASSWORD);
+		assertEquals(1, compacted.getAccounts().size());
+		Map<String, String> records = compacted.records();
+		assertEquals(1, Vault.ACCOUNTS_KEYS.stream()
+			.filter(records::containsKey)
+			.mapToInt(key -> records.get(key).split("\"id\"").length - 1)
+			.sum());
+		assertEquals(Vault.Integrity.Status.INTACT, compacted.verifyIntegrity().getStatus());
+	}
+
+	@Test
+	public void testRun_missingVaultFails() throws Exception
+	{
+		Path settings = folder.getRoot().toPath().resolve("empty.properties");
+
+		assertEquals(VaultTool.EXIT_FAILED, run("verify", "file=" + settings));
+		assertTrue(output().contains("has not been set up"));
+	}
+
+	// === Option Tests ===
+
+	@Test
+	public void testParse_commandAndOptions()
+	{
+		VaultTool.Options options = VaultTool.Options.parse(new String[]{"export-csv", "file=a.properties", "out=b.csv", "threads=3"});
+
+		assertEquals(VaultTool.Command.EXPORT_CSV, options.command);
+		assertEquals(3, options.threads);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParse_importNeedsInput()
+	{
+		VaultTool.Options.parse(new String[]{"import", "file=a.properties"});
+	}
+
+	// === CSV Tests ===
+
+	@Test
+	public void testCsv_quotedValuesRoundTrip() throws IOException
+	{
+		String[] values = {"plain", "with,comma", "with \"quotes\"", "two\nlines", ""};
+		StringWriter writer = new StringWriter();
+		VaultTool.writeCsvRow(writer, values);
+
+		BufferedReader reader = new BufferedReader(new StringReader(writer.toString()));
+		assertEquals(Arrays.asList(values), VaultTool.readCsvRow(reader));
+		assertNull(VaultTool.readCsvRow(reader));
+	}
+}